@@ -54,6 +54,10 @@ public final class Global {
     /** System prop for defining the default number of headers in a Message */
     public static final String DEFAULT_HEADERS="jgroups.msg.default_headers";
 
+    /** System prop: if true, headers are marshalled with their lengths, so that receivers can deserialize them lazily.
+     * All members of a cluster need to run a version which is able to read this format */
+    public static final String LAZY_HEADERS="jgroups.msg.lazy_headers";
+
     public static final long   DEFAULT_FIRST_UNICAST_SEQNO = 1;
 
     /** First ID assigned for building blocks (defined in jg-protocols.xml) */
@@ -7,6 +7,8 @@ import org.jgroups.util.*;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.function.Supplier;
 
@@ -41,11 +43,18 @@ public class Message implements Streamable, Constructable<Message> {
 
     protected volatile byte     transient_flags; // transient_flags is neither marshalled nor copied
 
+    /** Set if buf points into a pooled receive buffer; neither marshalled nor copied */
+    protected PooledBuffer      pooled_buf;
+
 
 
     static final byte           DEST_SET         =  1;
     static final byte           SRC_SET          =  1 << 1;
     static final byte           BUF_SET          =  1 << 2;
+    static final byte           HDRS_SIZED       =  1 << 3; // headers are marshalled with their lengths
+
+    /** If true, headers are marshalled with their lengths and can be deserialized lazily by the receiver */
+    protected static volatile boolean lazy_headers=Global.getPropertyAsBoolean(Global.LAZY_HEADERS, false);
 
 
     // =============================== Flags ====================================
@@ -212,6 +221,53 @@ public class Message implements Streamable, Constructable<Message> {
         return new Buffer(buf, offset, length);
     }
 
+    /**
+     * Returns true if the payload or the (lazy) headers point into a pooled receive buffer
+     * (see {@link #detachPooledBuffer()})
+     */
+    public boolean hasPooledBuffer() {
+        return pooled_buf != null;
+    }
+
+    /**
+     * Copies the payload out of the pooled receive buffer it points into (if any) and releases the reference to the
+     * pooled buffer. Needs to be called by protocols which keep a message after {@link org.jgroups.stack.Protocol#up(Message)}
+     * returns (e.g. in a retransmission table)
+     */
+    public Message detachPooledBuffer() {
+        PooledBuffer tmp=pooled_buf;
+        if(tmp == null)
+            return this;
+        if(buf == tmp.buffer()) {
+            byte[] copy=new byte[length];
+            System.arraycopy(buf, offset, copy, 0, length);
+            buf=copy;
+            offset=0;
+        }
+        copyLazyHeaders(headers, tmp.buffer());
+        pooled_buf=null;
+        tmp.release();
+        return this;
+    }
+
+    /**
+     * Releases the reference to the pooled receive buffer (if any) without copying the payload; if the payload points
+     * into the pooled buffer, it is cleared. Called by the transport when the message has been delivered
+     */
+    public Message releasePooledBuffer() {
+        PooledBuffer tmp=pooled_buf;
+        if(tmp == null)
+            return this;
+        if(buf == tmp.buffer()) {
+            buf=null;
+            offset=length=0;
+        }
+        copyLazyHeaders(headers, tmp.buffer()); // headers which haven't been accessed yet
+        pooled_buf=null;
+        tmp.release();
+        return this;
+    }
+
     /**
      * Sets the buffer.<p/>
      * Note that the byte[] buffer passed as argument must not be modified. Reason: if we retransmit the
@@ -525,11 +581,18 @@ public class Message implements Streamable, Constructable<Message> {
         retval.flags=tmp_flags;
         retval.transient_flags=tmp_tflags;
 
-        if(copy_buffer && buf != null)
-            retval.setBuffer(buf, offset, length);
+        PooledBuffer tmp=pooled_buf;
+        if(copy_buffer && buf != null) {
+            if(tmp != null && buf == tmp.buffer()) // the pooled buffer is reused once this message has been delivered
+                retval.setBuffer(Arrays.copyOfRange(buf, offset, offset+length));
+            else
+                retval.setBuffer(buf, offset, length);
+        }
 
         //noinspection NonAtomicOperationOnVolatileField
         retval.headers=copy_headers && headers != null? Headers.copy(this.headers) : createHeaders(Util.DEFAULT_HEADERS);
+        if(copy_headers && tmp != null)
+            copyLazyHeaders(retval.headers, tmp.buffer());
         return retval;
     }
 
@@ -630,6 +693,10 @@ public class Message implements Streamable, Constructable<Message> {
         if(buf != null)
             leading=Util.setFlag(leading, BUF_SET);
 
+        boolean sized=lazy_headers;
+        if(sized)
+            leading=Util.setFlag(leading, HDRS_SIZED);
+
         // 1. write the leading byte first
         out.write(leading);
 
@@ -653,7 +720,7 @@ public class Message implements Streamable, Constructable<Message> {
                 if(hdr == null)
                     break;
                 out.writeShort(hdr.getProtId());
-                writeHeader(hdr, out);
+                writeHeader(hdr, out, sized);
             }
         }
 
@@ -684,6 +751,10 @@ public class Message implements Streamable, Constructable<Message> {
         if(buf != null)
             leading=Util.setFlag(leading, BUF_SET);
 
+        boolean sized=lazy_headers;
+        if(sized)
+            leading=Util.setFlag(leading, HDRS_SIZED);
+
         // 1. write the leading byte first
         out.write(leading);
 
@@ -706,7 +777,7 @@ public class Message implements Streamable, Constructable<Message> {
                 if(excluded_headers != null && Util.containsId(id, excluded_headers))
                     continue;
                 out.writeShort(id);
-                writeHeader(hdr, out);
+                writeHeader(hdr, out, sized);
             }
         }
 
@@ -735,17 +806,11 @@ public class Message implements Streamable, Constructable<Message> {
             src_addr=Util.readAddress(in);
 
         // 5. headers
-        int len=in.readShort();
-        this.headers=createHeaders(len);
-        for(int i=0; i < len; i++) {
-            short id=in.readShort();
-            Header hdr=readHeader(in).setProtId(id);
-            this.headers[i]=hdr;
-        }
+        readHeaders(in, Util.isFlagSet(leading, HDRS_SIZED), true);
 
         // 6. buf
         if(Util.isFlagSet(leading, BUF_SET)) {
-            len=in.readInt();
+            int len=in.readInt();
             buf=new byte[len];
             in.readFully(buf, 0, len);
             length=len;
@@ -753,9 +818,33 @@ public class Message implements Streamable, Constructable<Message> {
     }
 
 
+    /**
+     * Reads the message's contents from a pooled receive buffer. The payload and lazy headers are not copied, but
+     * point into the pooled buffer, which is retained until {@link #detachPooledBuffer()} or
+     * {@link #releasePooledBuffer()} is called
+     */
+    public void readFrom(ByteArrayDataInputStream in, PooledBuffer pooled) throws Exception {
+        int pos=readFromSkipPayload(in, false);
+        if(pos >= 0) {
+            buf=pooled.buffer();
+            offset=pos;
+            in.skipBytes(length);
+        }
+        pooled_buf=pooled.retain();
+    }
+
+
     /** Reads the message's contents from an input stream, but skips the buffer and instead returns the
      * position (offset) at which the buffer starts */
     public int readFromSkipPayload(ByteArrayDataInputStream in) throws Exception {
+        return readFromSkipPayload(in, true);
+    }
+
+    /**
+     * Same as {@link #readFromSkipPayload(ByteArrayDataInputStream)}. If copy_headers is false, lazy headers point into
+     * the buffer of in rather than into a copy, so the buffer must not be reused while the message is alive
+     */
+    protected int readFromSkipPayload(ByteArrayDataInputStream in, boolean copy_headers) throws Exception {
 
         // 1. read the leading byte first
         byte leading=in.readByte();
@@ -772,13 +861,7 @@ public class Message implements Streamable, Constructable<Message> {
             src_addr=Util.readAddress(in);
 
         // 5. headers
-        int len=in.readShort();
-        headers=createHeaders(len);
-        for(int i=0; i < len; i++) {
-            short id=in.readShort();
-            Header hdr=readHeader(in).setProtId(id);
-            this.headers[i]=hdr;
-        }
+        readHeaders(in, Util.isFlagSet(leading, HDRS_SIZED), copy_headers);
 
         // 6. buf
         if(!Util.isFlagSet(leading, BUF_SET))
@@ -810,6 +893,8 @@ public class Message implements Streamable, Constructable<Message> {
 
         retval+=Global.SHORT_SIZE;  // number of headers
         retval+=Headers.marshalledSize(this.headers);
+        if(lazy_headers)
+            retval+=Headers.size(this.headers) * Global.INT_SIZE; // length of each header
 
         if(buf != null)
             retval+=Global.INT_SIZE // length (integer)
@@ -862,6 +947,101 @@ public class Message implements Streamable, Constructable<Message> {
         hdr.writeTo(out);
     }
 
+    /** Writes a header. If sized is true, the length of the serialized header is written before the header */
+    protected static void writeHeader(Header hdr, DataOutput out, boolean sized) throws Exception {
+        if(!sized) {
+            writeHeader(hdr, out);
+            return;
+        }
+        out.writeShort(hdr.getMagicId());
+        if(hdr instanceof LazyHeader) {
+            out.writeInt(hdr.serializedSize());
+            hdr.writeTo(out);
+        }
+        // write the header, then go back and write its length (a GatheringDataOutputStream might not copy all bytes)
+        else if(out instanceof ByteArrayDataOutputStream && !(out instanceof GatheringDataOutputStream)) {
+            ByteArrayDataOutputStream o=(ByteArrayDataOutputStream)out;
+            int len_pos=o.position();
+            o.writeInt(0);
+            hdr.writeTo(o);
+            int end=o.position();
+            o.position(len_pos).writeInt(end - len_pos - Global.INT_SIZE);
+            o.position(end);
+        }
+        else {
+            ByteArrayDataOutputStream tmp=new ByteArrayDataOutputStream(hdr.serializedSize() + 8);
+            hdr.writeTo(tmp);
+            out.writeInt(tmp.position());
+            out.write(tmp.buffer(), 0, tmp.position());
+        }
+    }
+
+    /**
+     * Reads the headers. If they were marshalled with their lengths (sized), and the input stream is a byte array,
+     * headers are only created when accessed (see {@link LazyHeader}). The serialized headers are copied if copy is
+     * true, otherwise the lazy headers point into the buffer of the input stream
+     */
+    protected void readHeaders(DataInput in, boolean sized, boolean copy) throws Exception {
+        int len=in.readShort();
+        Header[] hdrs=createHeaders(len);
+        if(sized && len > 0 && in instanceof ByteArrayDataInputStream)
+            readLazyHeaders((ByteArrayDataInputStream)in, hdrs, len, copy);
+        else {
+            for(int i=0; i < len; i++) {
+                short id=in.readShort();
+                hdrs[i]=(sized? readSizedHeader(in) : readHeader(in)).setProtId(id);
+            }
+        }
+        this.headers=hdrs;
+    }
+
+    /**
+     * Creates lazy headers over the serialized headers (| prot-id | magic-id | length | header |) in the buffer of in.
+     * If copy is true, the serialized headers are first copied into a single array shared by all lazy headers
+     */
+    protected static void readLazyHeaders(ByteArrayDataInputStream in, Header[] hdrs, int num, boolean copy) throws Exception {
+        final int hdr_prefix=Global.SHORT_SIZE *2 + Global.INT_SIZE;
+        byte[] buf=in.buffer();
+        int start=in.position(), end=start;
+        for(int i=0; i < num; i++) { // find the end of the headers
+            if(end + hdr_prefix > in.limit())
+                throw new EOFException("header " + i + " exceeds the buffer");
+            int hdr_len=Bits.readInt(buf, end + Global.SHORT_SIZE*2);
+            if(hdr_len < 0 || (end+=hdr_prefix + hdr_len) > in.limit())
+                throw new EOFException(String.format("header %d has an invalid length (%d)", i, hdr_len));
+        }
+        in.skipBytes(end - start);
+        int pos=start;
+        if(copy) {
+            buf=Arrays.copyOfRange(buf, start, end);
+            pos=0;
+        }
+        for(int i=0; i < num; i++) {
+            short prot_id=Bits.readShort(buf, pos), magic_id=Bits.readShort(buf, pos + Global.SHORT_SIZE);
+            int hdr_len=Bits.readInt(buf, pos + Global.SHORT_SIZE*2);
+            pos+=hdr_prefix;
+            hdrs[i]=new LazyHeader(prot_id, magic_id, buf, pos, hdr_len);
+            pos+=hdr_len;
+        }
+    }
+
+    /** Replaces the lazy headers whose serialized form points into buf with copies */
+    protected static void copyLazyHeaders(Header[] hdrs, byte[] buf) {
+        if(hdrs == null)
+            return;
+        for(int i=0; i < hdrs.length; i++) {
+            Header hdr=hdrs[i];
+            if(hdr == null)
+                break;
+            if(hdr instanceof LazyHeader && ((LazyHeader)hdr).pointsInto(buf))
+                hdrs[i]=((LazyHeader)hdr).copy();
+        }
+    }
+
+    /** Enables or disables the marshalling of headers with their lengths (default: {@link Global#LAZY_HEADERS}) */
+    public static void lazyHeaders(boolean flag) {lazy_headers=flag;}
+    public static boolean lazyHeaders()         {return lazy_headers;}
+
 
 
     protected static Header readHeader(DataInput in) throws Exception {
@@ -871,6 +1051,14 @@ public class Message implements Streamable, Constructable<Message> {
         return hdr;
     }
 
+    protected static Header readSizedHeader(DataInput in) throws Exception {
+        short magic_number=in.readShort();
+        in.readInt(); // the length is not needed
+        Header hdr=ClassConfigurator.create(magic_number);
+        hdr.readFrom(in);
+        return hdr;
+    }
+
     protected static Header[] createHeaders(int size) {
         return size > 0? new Header[size] : new Header[3];
     }
@@ -0,0 +1,331 @@
+package org.jgroups.blocks;
+
+import org.jgroups.Address;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Cache with the same semantics as {@link LazyRemovalCache}, but specialized for {@link UUID} keys: entries are kept
+ * in an open-addressing hash table (linear probing) keyed by the 2 longs of a UUID. Lookups ({@link #get(Address)})
+ * are lock-free and don't allocate memory: a lookup hashes the longs of the key and compares them with the longs of
+ * the entries, which avoids calling hashCode() and equals() on the key.
+ * <br/>
+ * Writes are rare (e.g. on discovery or view changes) and acquire a lock. A new entry is added to an empty slot in
+ * place; when entries are removed, or the table needs to grow, a new table is created and published. A reader
+ * therefore always sees a consistent table. Keys which are not UUIDs (e.g. IpAddresses) are stored in a separate
+ * concurrent map.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class UUIDCache<V> {
+    /** Holds the entries, the length is a power of 2 and at most half of the slots are used */
+    protected volatile AtomicReferenceArray<Entry<V>> table;
+    protected volatile int                            count;  // number of entries in table
+    protected final Map<Address,Entry<V>>             others=Util.createConcurrentMap(); // entries with non-UUID keys
+    protected final Lock                              lock=new ReentrantLock(); // for writes
+
+    /** Max number of elements, if exceeded, we remove all elements marked as removable and older than max_age ms */
+    protected final int                               max_elements;
+    protected final long                              max_age; // ns
+
+    protected static final int                        INITIAL_CAPACITY=16;
+
+
+    public UUIDCache() {
+        this(200, 5000L);
+    }
+
+    /**
+     * Creates a new instance
+     * @param max_elements The max number of elements in the cache
+     * @param max_age The max age (in ms) an entry can have before it is considered expired (and can be removed on
+     *                the next sweep)
+     */
+    public UUIDCache(int max_elements, long max_age) {
+        this.max_elements=max_elements;
+        this.max_age=TimeUnit.NANOSECONDS.convert(max_age, TimeUnit.MILLISECONDS);
+        this.table=new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    }
+
+    public int     size()                   {return count + others.size();}
+    public int     capacity()               {return table.length();}
+    public boolean add(Address key, V val)  {return add(key, val, false);}
+    public boolean addIfAbsent(Address key, V val) {return add(key, val, true);}
+    public boolean containsKey(Address key) {return getEntry(key) != null;}
+
+    public V get(Address key) {
+        Entry<V> entry=getEntry(key);
+        return entry != null? entry.getVal() : null;
+    }
+
+    public void remove(Address key) {
+        remove(key, false);
+    }
+
+    public void remove(Address key, boolean force) {
+        if(key == null)
+            return;
+        lock.lock();
+        try {
+            if(force) {
+                if(others.remove(key) == null && getEntry(key) != null)
+                    rebuild(e -> !Objects.equals(e.key, key));
+            }
+            else {
+                Entry<V> entry=getEntry(key);
+                if(entry != null)
+                    entry.setRemovable(true);
+            }
+            checkMaxSizeExceeded();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear(boolean force) {
+        lock.lock();
+        try {
+            if(force) {
+                table=new AtomicReferenceArray<>(INITIAL_CAPACITY);
+                count=0;
+                others.clear();
+            }
+            else
+                forEach(e -> e.setRemovable(true));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Marks all entries whose keys are not in keys as removable, and all entries whose keys are in keys as not removable */
+    public void retainAll(Collection<? extends Address> keys) {
+        if(keys == null || keys.isEmpty())
+            return;
+        lock.lock();
+        try {
+            forEach(e -> e.setRemovable(!keys.contains(e.key)));
+            checkMaxSizeExceeded();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Set<Address> keySet() {
+        Set<Address> retval=new HashSet<>(size());
+        forEach(e -> retval.add(e.key));
+        return retval;
+    }
+
+    /** Returns the values of all entries which have not been marked as removable */
+    public Set<V> nonRemovedValues() {
+        Set<V> retval=new HashSet<>(size());
+        forEach(e -> {
+            if(!e.isRemovable())
+                retval.add(e.getVal());
+        });
+        return retval;
+    }
+
+    public Map<Address,V> contents() {
+        return contents(false);
+    }
+
+    public Map<Address,V> contents(boolean skip_removed_values) {
+        Map<Address,V> retval=new HashMap<>(size());
+        forEach(e -> {
+            if(!skip_removed_values || !e.isRemovable())
+                retval.put(e.key, e.getVal());
+        });
+        return retval;
+    }
+
+    public String printCache() {
+        StringBuilder sb=new StringBuilder();
+        forEach(e -> sb.append(e.key).append(": ").append(e).append("\n"));
+        return sb.toString();
+    }
+
+    public String printCache(LazyRemovalCache.Printable<Address,LazyRemovalCache.Entry<V>> print_function) {
+        StringBuilder sb=new StringBuilder();
+        forEach(e -> sb.append(print_function.print(e.key, e)));
+        return sb.toString();
+    }
+
+    public String toString() {
+        return printCache();
+    }
+
+    /**
+     * Removes elements marked as removable
+     * @param force If set to true, all elements marked as 'removable' will get removed, regardless of expiration
+     */
+    public void removeMarkedElements(boolean force) {
+        lock.lock();
+        try {
+            long curr_time=System.nanoTime();
+            others.values().removeIf(e -> isExpired(e, curr_time, force));
+            AtomicReferenceArray<Entry<V>> tab=table;
+            for(int i=0; i < tab.length(); i++) {
+                Entry<V> e=tab.get(i);
+                if(e != null && isExpired(e, curr_time, force)) {
+                    rebuild(en -> !isExpired(en, curr_time, force));
+                    break;
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void removeMarkedElements() {
+        removeMarkedElements(false);
+    }
+
+
+    protected Entry<V> getEntry(Address key) {
+        if(!(key instanceof UUID))
+            return key != null? others.get(key) : null;
+        UUID uuid=(UUID)key;
+        long msb=uuid.getMostSignificantBits(), lsb=uuid.getLeastSignificantBits();
+        AtomicReferenceArray<Entry<V>> tab=table;
+        int mask=tab.length() - 1;
+        for(int i=hash(msb, lsb) & mask;; i=(i+1) & mask) {
+            Entry<V> e=tab.get(i);
+            if(e == null) // the table is never full
+                return null;
+            if(e.msb == msb && e.lsb == lsb)
+                return e;
+        }
+    }
+
+    protected boolean add(Address key, V val, boolean if_absent) {
+        if(key == null || val == null)
+            return false;
+        boolean added;
+        lock.lock();
+        try {
+            if(!(key instanceof UUID)) {
+                Entry<V> entry=new Entry<>(key, 0, 0, val);
+                added=if_absent? others.putIfAbsent(key, entry) == null : others.put(key, entry) == null;
+            }
+            else
+                added=put(new Entry<>(key, ((UUID)key).getMostSignificantBits(), ((UUID)key).getLeastSignificantBits(), val),
+                          if_absent);
+            if(added)
+                checkMaxSizeExceeded();
+            return added;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Adds or replaces an entry. Returns true if there was no entry for the key. Needs to be called with lock held */
+    protected boolean put(Entry<V> entry, boolean if_absent) {
+        AtomicReferenceArray<Entry<V>> tab=table;
+        int mask=tab.length() - 1;
+        for(int i=hash(entry.msb, entry.lsb) & mask;; i=(i+1) & mask) {
+            Entry<V> e=tab.get(i);
+            if(e == null) {
+                if((count+1) * 2 > tab.length()) { // grow the table and insert into the new table
+                    tab=copy(tab.length() * 2, null);
+                    insert(tab, entry);
+                    table=tab;
+                }
+                else
+                    tab.set(i, entry);
+                count++;
+                return true;
+            }
+            if(e.msb == entry.msb && e.lsb == entry.lsb) {
+                if(!if_absent)
+                    tab.set(i, entry);
+                return false;
+            }
+        }
+    }
+
+    /** Creates and publishes a new table with the entries matching filter. Needs to be called with lock held */
+    protected void rebuild(Predicate<Entry<V>> filter) {
+        int num=0;
+        AtomicReferenceArray<Entry<V>> tab=table;
+        for(int i=0; i < tab.length(); i++) {
+            Entry<V> e=tab.get(i);
+            if(e != null && filter.test(e))
+                num++;
+        }
+        int capacity=INITIAL_CAPACITY;
+        while(num * 2 >= capacity)
+            capacity*=2;
+        table=copy(capacity, filter);
+        count=num;
+    }
+
+    protected AtomicReferenceArray<Entry<V>> copy(int capacity, Predicate<Entry<V>> filter) {
+        AtomicReferenceArray<Entry<V>> tab=table, new_tab=new AtomicReferenceArray<>(capacity);
+        for(int i=0; i < tab.length(); i++) {
+            Entry<V> e=tab.get(i);
+            if(e != null && (filter == null || filter.test(e)))
+                insert(new_tab, e);
+        }
+        return new_tab;
+    }
+
+    protected static <V> void insert(AtomicReferenceArray<Entry<V>> tab, Entry<V> entry) {
+        int mask=tab.length() - 1;
+        int i=hash(entry.msb, entry.lsb) & mask;
+        while(tab.get(i) != null)
+            i=(i+1) & mask;
+        tab.set(i, entry);
+    }
+
+    protected void forEach(Consumer<Entry<V>> c) {
+        AtomicReferenceArray<Entry<V>> tab=table;
+        for(int i=0; i < tab.length(); i++) {
+            Entry<V> e=tab.get(i);
+            if(e != null)
+                c.accept(e);
+        }
+        others.values().forEach(c);
+    }
+
+    protected void checkMaxSizeExceeded() {
+        if(size() > max_elements)
+            removeMarkedElements(false);
+    }
+
+    protected boolean isExpired(Entry<V> e, long curr_time, boolean force) {
+        return e.isRemovable() && (force || curr_time - e.timestamp >= max_age);
+    }
+
+    protected static int hash(long msb, long lsb) {
+        long h=msb ^ lsb;
+        int x=(int)(h ^ (h >>> 32));
+        return x ^ (x >>> 16);
+    }
+
+
+    protected static class Entry<V> extends LazyRemovalCache.Entry<V> {
+        protected final Address key;
+        protected final long    msb, lsb; // the longs of the key if it is a UUID
+
+        protected Entry(Address key, long msb, long lsb, V val) {
+            super(val);
+            this.key=key;
+            this.msb=msb;
+            this.lsb=lsb;
+        }
+    }
+}
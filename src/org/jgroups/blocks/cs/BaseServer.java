@@ -8,6 +8,7 @@ import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
+import org.jgroups.nio.Buffers;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.util.*;
 
@@ -23,6 +24,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
 /**
  * Abstract class for a server handling sending, receiving and connection management.
@@ -33,6 +35,10 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     protected Address                         local_addr; // typically the address of the server socket or channel
     protected final List<ConnectionListener>  conn_listeners=new CopyOnWriteArrayList<>();
     protected final Map<Address,Connection>   conns=new HashMap<>();
+    /** Connections to peers on lanes 1..lanes-1 (the index is the lane). Only used to send data */
+    protected final Map<Address,Connection[]> lane_conns=new HashMap<>();
+    /** Connections accepted from peers on lanes 1..lanes-1. Only used to receive data */
+    protected final Set<Connection>           incoming_lane_conns=new HashSet<>();
     protected final Lock                      sock_creation_lock=new ReentrantLock(true); // syncs socket establishment
     protected final ThreadFactory             factory;
     protected SocketFactory                   socket_factory=new DefaultSocketFactory();
@@ -57,6 +63,9 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     protected boolean                         tcp_nodelay=false;
     protected int                             linger=-1;
     protected TimeService                     time_service;
+    @ManagedAttribute(description="Number of connections (lanes) to each peer. Lane 0 is the default connection, " +
+      "additional lanes are only used to send data to the peer")
+    protected int                             lanes=1;
 
 
     protected BaseServer(ThreadFactory f, SocketFactory sf) {
@@ -98,6 +107,21 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     public BaseServer       linger(int linger)                      {this.linger=linger; return this;}
     public boolean          tcpNodelay()                            {return tcp_nodelay;}
     public BaseServer       tcpNodelay(boolean tcp_nodelay)         {this.tcp_nodelay = tcp_nodelay; return this;}
+    public int              lanes()                                 {return lanes;}
+
+    /**
+     * Sets the number of connections (lanes) to each peer. Lane 0 is the default connection; when sending on lane
+     * N &gt; 0, a separate connection to the peer is created (if not yet present), which is only used to send data.
+     * Data sent on the same lane is received in order; there is no ordering between lanes. Lanes other than 0
+     * require peer connections ({@link #usePeerConnections(boolean)}), as the lane is sent in the connection
+     * handshake; without peer connections all data is sent on lane 0
+     */
+    public BaseServer lanes(int num) {
+        if(num < 1 || num > Connection.MAX_LANES)
+            throw new IllegalArgumentException(String.format("lanes (%d) needs to be in range [1..%d]", num, Connection.MAX_LANES));
+        this.lanes=num;
+        return this;
+    }
     @ManagedAttribute(description="True if the server is running, else false")
     public boolean          running()                               {return running.get();}
 
@@ -107,6 +131,16 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
         return conns.size();
     }
 
+    @ManagedAttribute(description="Number of connections on lanes other than 0 (sent and accepted)")
+    public synchronized int getNumLaneConnections() {
+        int retval=incoming_lane_conns.size();
+        for(Connection[] arr: lane_conns.values())
+            for(Connection c: arr)
+                if(c != null)
+                    retval++;
+        return retval;
+    }
+
     @ManagedAttribute(description="Number of currently open connections")
     public synchronized int getNumOpenConnections() {
         int retval=0;
@@ -139,6 +173,7 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
             for(Map.Entry<Address,Connection> entry: conns.entrySet())
                 Util.close(entry.getValue());
             conns.clear();
+            closeLaneConnections();
         }
         conn_listeners.clear();
     }
@@ -178,6 +213,11 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
 
 
     public void send(Address dest, byte[] data, int offset, int length) throws Exception {
+        send(dest, 0, data, offset, length);
+    }
+
+    /** Sends data to dest on a given lane (see {@link #lanes(int)}). Data to all members (dest == null) is sent on lane 0 */
+    public void send(Address dest, int lane, byte[] data, int offset, int length) throws Exception {
         if(!validateArgs(dest, data))
             return;
 
@@ -194,7 +234,7 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
         // Get a connection (or create one if not yet existent) and send the data
         Connection conn=null;
         try {
-            conn=getConnection(dest);
+            conn=getConnection(dest, lane);
             conn.send(data, offset, length);
         }
         catch(Exception ex) {
@@ -205,6 +245,10 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
 
 
     public void send(Address dest, ByteBuffer data) throws Exception {
+        send(dest, 0, data);
+    }
+
+    public void send(Address dest, int lane, ByteBuffer data) throws Exception {
         if(!validateArgs(dest, data))
             return;
 
@@ -221,7 +265,41 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
         // Get a connection (or create one if not yet existent) and send the data
         Connection conn=null;
         try {
-            conn=getConnection(dest);
+            conn=getConnection(dest, lane);
+            conn.send(data);
+        }
+        catch(Exception ex) {
+            removeConnectionIfPresent(dest, conn);
+            throw ex;
+        }
+    }
+
+
+    /**
+     * Sends the remaining bytes of all buffers as a single message. Connections which support it (e.g.
+     * {@link NioConnection}) write the buffers with a single gathering write
+     */
+    public void send(Address dest, ByteBuffer[] data) throws Exception {
+        send(dest, 0, data);
+    }
+
+    public void send(Address dest, int lane, ByteBuffer[] data) throws Exception {
+        if(!validateArgs(dest, data))
+            return;
+
+        if(dest == null) {
+            sendToAll(data);
+            return;
+        }
+
+        if(dest.equals(local_addr)) {
+            receive(dest, Buffers.concat(data));
+            return;
+        }
+
+        Connection conn=null;
+        try {
+            conn=getConnection(dest, lane);
             conn.send(data);
         }
         catch(Exception ex) {
@@ -311,6 +389,73 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
         }
     }
 
+    /**
+     * Returns the connection to dest on a given lane, creating it if not yet present. Lane 0 (or a lane when only a
+     * single lane is configured) returns the default connection (see {@link #getConnection(Address)})
+     */
+    public Connection getConnection(Address dest, int lane) throws Exception {
+        if(lane <= 0 || (lane%=lanes) == 0 || !use_peer_connections)
+            return getConnection(dest);
+        Connection conn;
+        synchronized(this) {
+            if((conn=laneConnection(dest, lane)) != null && conn.isOpen())
+                return conn;
+        }
+
+        sock_creation_lock.lockInterruptibly();
+        try {
+            synchronized(this) {
+                if((conn=laneConnection(dest, lane)) != null && conn.isOpen())
+                    return conn;
+            }
+            // no need to resolve concurrent connects as with lane 0: a lane connection is only used by its creator
+            conn=createConnection(dest);
+            conn.lane(lane);
+            try {
+                log.trace("%s: connecting to %s (lane %d)", local_addr, dest, lane);
+                conn.connect(dest);
+                conn.start();
+            }
+            catch(Exception connect_ex) {
+                log.trace("%s: failed connecting to %s (lane %d): %s", local_addr, dest, lane, connect_ex);
+                Util.close(conn);
+                throw connect_ex;
+            }
+            synchronized(this) {
+                Connection[] arr=lane_conns.computeIfAbsent(dest, k -> new Connection[lanes]);
+                Util.close(arr[lane]);
+                arr[lane]=conn;
+            }
+            return conn;
+        }
+        finally {
+            sock_creation_lock.unlock();
+        }
+    }
+
+    @GuardedBy("this")
+    protected Connection laneConnection(Address dest, int lane) {
+        Connection[] arr=lane_conns.get(dest);
+        return arr != null && lane < arr.length? arr[lane] : null;
+    }
+
+    /** Adds a connection accepted on a lane other than 0; it is only used to receive data */
+    public synchronized void addLaneConnection(Connection conn) throws Exception {
+        incoming_lane_conns.add(conn);
+        conn.start();
+        log.trace("%s: accepted connection from %s (lane %d)", local_addr, conn.peerAddress(), conn.lane());
+    }
+
+    @GuardedBy("this")
+    protected void closeLaneConnections() {
+        for(Connection[] arr: lane_conns.values())
+            for(Connection c: arr)
+                Util.close(c);
+        lane_conns.clear();
+        incoming_lane_conns.forEach(Util::close);
+        incoming_lane_conns.clear();
+    }
+
     @GuardedBy("this")
     public void replaceConnection(Address address, Connection conn) {
         Connection previous=conns.put(address, conn);
@@ -326,6 +471,10 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
 
 
     public synchronized void addConnection(Address peer_addr, Connection conn) throws Exception {
+        if(conn.lane() > 0) {
+            addLaneConnection(conn);
+            return;
+        }
         boolean conn_exists=hasConnection(peer_addr),
           replace=conn_exists && local_addr.compareTo(peer_addr) < 0; // bigger conn wins
 
@@ -357,6 +506,12 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
         synchronized(this) {
             for(Map.Entry<Address,Connection> entry: conns.entrySet())
                 sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+            for(Map.Entry<Address,Connection[]> entry: lane_conns.entrySet())
+                for(Connection c: entry.getValue())
+                    if(c != null)
+                        sb.append(entry.getKey()).append(" (lane ").append(c.lane()).append("): ").append(c).append("\n");
+            for(Connection c: incoming_lane_conns)
+                sb.append(c.peerAddress()).append(" (incoming lane ").append(c.lane()).append("): ").append(c).append("\n");
         }
         return sb.toString();
     }
@@ -368,9 +523,20 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
             return;
         Connection tmp=null;
         synchronized(this) {
-            Connection existing=conns.get(address);
-            if(conn == existing) {
-                tmp=conns.remove(address);
+            if(conn.lane() > 0) {
+                Connection[] arr=lane_conns.get(address);
+                if(incoming_lane_conns.remove(conn))
+                    tmp=conn;
+                else if(arr != null && conn.lane() < arr.length && arr[conn.lane()] == conn) {
+                    tmp=conn;
+                    arr[conn.lane()]=null;
+                }
+            }
+            else {
+                Connection existing=conns.get(address);
+                if(conn == existing) {
+                    tmp=conns.remove(address);
+                }
             }
         }
         if(tmp != null) { // Moved conn close outside of sync block (https://issues.jboss.org/browse/JGRP-2053)
@@ -383,6 +549,7 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     public synchronized void clearConnections() {
         conns.values().forEach(Util::close);
         conns.clear();
+        closeLaneConnections();
     }
 
     /** Removes all connections which are not in current_mbrs */
@@ -391,14 +558,30 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
             return;
 
         Map<Address,Connection> copy=null;
+        List<Connection> lanes_to_close=new ArrayList<>();
         synchronized(this) {
             copy=new HashMap<>(conns);
             conns.keySet().retainAll(current_mbrs);
+            for(Iterator<Entry<Address,Connection[]>> it=lane_conns.entrySet().iterator(); it.hasNext();) {
+                Entry<Address,Connection[]> entry=it.next();
+                if(!current_mbrs.contains(entry.getKey())) {
+                    Stream.of(entry.getValue()).filter(Objects::nonNull).forEach(lanes_to_close::add);
+                    it.remove();
+                }
+            }
+            for(Iterator<Connection> it=incoming_lane_conns.iterator(); it.hasNext();) {
+                Connection c=it.next();
+                if(!current_mbrs.contains(c.peerAddress())) {
+                    lanes_to_close.add(c);
+                    it.remove();
+                }
+            }
         }
         copy.keySet().removeAll(current_mbrs);
         for(Map.Entry<Address,Connection> entry: copy.entrySet())
             Util.close(entry.getValue());
         copy.clear();
+        lanes_to_close.forEach(Util::close);
     }
 
     public void notifyConnectionClosed(Connection conn, String cause) {
@@ -445,6 +628,20 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     }
 
 
+    protected void sendToAll(ByteBuffer[] data) {
+        for(Map.Entry<Address,Connection> entry: conns.entrySet()) {
+            Connection conn=entry.getValue();
+            try {
+                conn.send(Buffers.duplicate(data));
+            }
+            catch(Throwable ex) {
+                Address dest=entry.getKey();
+                removeConnectionIfPresent(dest, conn);
+                log.error("failed sending data to %s: %s", dest, ex);
+            }
+        }
+    }
+
     protected void sendToAll(ByteBuffer data) {
         for(Map.Entry<Address,Connection> entry: conns.entrySet()) {
             Connection conn=entry.getValue();
@@ -533,6 +730,21 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
                             it.remove();                           
                         }
                     }
+                    for(Connection[] arr: lane_conns.values()) {
+                        for(int i=0; i < arr.length; i++) {
+                            if(arr[i] != null && arr[i].isExpired(System.nanoTime())) {
+                                Util.close(arr[i]);
+                                arr[i]=null;
+                            }
+                        }
+                    }
+                    for(Iterator<Connection> it=incoming_lane_conns.iterator(); it.hasNext();) {
+                        Connection c=it.next();
+                        if(c.isExpired(System.nanoTime())) {
+                            it.remove();
+                            Util.close(c);
+                        }
+                    }
                 }
                 Util.sleep(reaperInterval);
             }           
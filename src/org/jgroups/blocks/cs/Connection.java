@@ -1,6 +1,7 @@
 package org.jgroups.blocks.cs;
 
 import org.jgroups.Address;
+import org.jgroups.nio.Buffers;
 
 import java.io.Closeable;
 import java.nio.ByteBuffer;
@@ -11,8 +12,12 @@ import java.nio.ByteBuffer;
  */
 public abstract class Connection implements Closeable {
     protected static final byte[] cookie= { 'b', 'e', 'l', 'a' };
+    /** Max number of lanes; the lane is sent in the upper 4 bits of the address length in the handshake */
+    public static final int       MAX_LANES=16;
+    protected static final int    ADDR_LEN_MASK=0x0fff;
     protected Address             peer_addr;    // address of the 'other end' of the connection
     protected long                last_access;  // timestamp of the last access to this connection (read or write)
+    protected int                 lane;         // 0: default connection, else an additional (send-only) connection
 
     abstract public boolean isOpen();
     abstract public boolean isConnected();
@@ -23,4 +28,23 @@ public abstract class Connection implements Closeable {
     abstract public void    start() throws Exception;
     abstract public void    send(byte[] buf, int offset, int length) throws Exception;
     abstract public void    send(ByteBuffer buf) throws Exception;
+
+    public int        lane()         {return lane;}
+    public Connection lane(int lane) {this.lane=lane; return this;}
+
+    /**
+     * Sends the remaining bytes of all buffers as a single message (with a single length). The default implementation
+     * copies the buffers into a single buffer; implementations which can write the buffers directly should override
+     */
+    public void send(ByteBuffer[] bufs) throws Exception {
+        send(Buffers.concat(bufs));
+    }
+
+    /** Combines the size of the local address and the lane into the short sent in the handshake */
+    protected static short addressLength(int addr_size, int lane) {
+        return (short)(lane << 12 | addr_size & ADDR_LEN_MASK);
+    }
+
+    protected static int addressSize(short addr_len) {return addr_len & ADDR_LEN_MASK;}
+    protected static int laneOf(short addr_len)      {return (addr_len & 0xffff) >>> 12;}
 }
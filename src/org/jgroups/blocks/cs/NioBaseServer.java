@@ -1,18 +1,27 @@
 package org.jgroups.blocks.cs;
 
 import org.jgroups.Address;
+import org.jgroups.Global;
 import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.util.SocketFactory;
 import org.jgroups.util.ThreadFactory;
+import org.jgroups.util.Util;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.channels.*;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * Base class for NIO based servers and clients. By default, a single selector thread (the acceptor) accepts new
+ * connections and reads and writes all connections. When reactor_threads is greater than 1, a pool of reactors is
+ * created, each with its own selector and thread; the acceptor then only accepts connections, and new connections
+ * (accepted or connected) are assigned to the reactors in a round-robin fashion.
  * @author Bela Ban
  * @since  3.6.5
  */
@@ -32,6 +41,14 @@ public abstract class NioBaseServer extends BaseServer {
 
     protected long              reader_idle_time=20000;
 
+    @ManagedAttribute(description="Number of reactor threads over which the connections are distributed. If 1, " +
+      "the acceptor thread reads and writes all connections")
+    protected int               reactor_threads=1;
+
+    protected Reactor[]         reactors; // null unless reactor_threads > 1
+
+    protected final AtomicInteger next_reactor=new AtomicInteger();
+
 
 
     protected NioBaseServer(ThreadFactory f, SocketFactory sf) {
@@ -44,10 +61,39 @@ public abstract class NioBaseServer extends BaseServer {
     public NioBaseServer  maxSendBuffers(int num)       {this.max_send_buffers=num; return this;}
     public boolean        selectorOpen()                {return selector != null && selector.isOpen();}
     public boolean        acceptorRunning()             {return acceptor != null && acceptor.isAlive();}
-    public int            numSelects()                  {return num_selects;}
     public boolean        copyOnPartialWrite()          {return copy_on_partial_write;}
     public long           readerIdleTime()              {return reader_idle_time;}
     public NioBaseServer  readerIdleTime(long t)        {reader_idle_time=t; return this;}
+    public int            reactorThreads()              {return reactor_threads;}
+
+    /** Sets the number of reactor threads; needs to be called before the server is started */
+    public NioBaseServer  reactorThreads(int num) {
+        if(num < 1)
+            throw new IllegalArgumentException("reactor_threads (" + num + ") must be >= 1");
+        this.reactor_threads=num;
+        return this;
+    }
+
+    /** The number of times select() was called by the acceptor and all reactors */
+    public int numSelects() {
+        int retval=num_selects;
+        Reactor[] tmp=reactors;
+        if(tmp != null)
+            for(Reactor r: tmp)
+                retval+=r.num_selects;
+        return retval;
+    }
+
+    @ManagedAttribute(description="Number of connections, selects, reads and writes per reactor thread")
+    public String reactorStats() {
+        Reactor[] tmp=reactors;
+        if(tmp == null)
+            return String.format("acceptor: connections=%d, selects=%d", getNumConnections(), num_selects);
+        StringBuilder sb=new StringBuilder(String.format("acceptor: selects=%d", num_selects));
+        for(Reactor r: tmp)
+            sb.append("\n").append(r);
+        return sb.toString();
+    }
 
     public NioBaseServer  copyOnPartialWrite(boolean b) {
         this.copy_on_partial_write=b;
@@ -87,7 +133,11 @@ public abstract class NioBaseServer extends BaseServer {
     }
 
 
+    /** Registers a channel with the next reactor, or with the acceptor's selector if there are no reactors */
     protected SelectionKey register(SelectableChannel ch, int interest_ops, NioConnection conn) throws Exception {
+        Reactor[] tmp=reactors;
+        if(tmp != null)
+            return tmp[(next_reactor.getAndIncrement() & Integer.MAX_VALUE) % tmp.length].register(ch, interest_ops, conn);
         reg_lock.lock();
         try {
             registration=true;
@@ -108,6 +158,47 @@ public abstract class NioBaseServer extends BaseServer {
         ;
     }
 
+    /** Creates and starts the reactors if reactor_threads > 1 */
+    protected synchronized void startReactors(String name) throws IOException {
+        if(reactor_threads <= 1 || reactors != null)
+            return;
+        Reactor[] tmp=new Reactor[reactor_threads];
+        for(int i=0; i < tmp.length; i++)
+            tmp[i]=new Reactor(String.format("%s.Reactor-%d", name, i));
+        for(Reactor r: tmp)
+            r.start();
+        reactors=tmp;
+    }
+
+    protected synchronized void stopReactors() {
+        Reactor[] tmp=reactors;
+        reactors=null;
+        Util.close(tmp);
+    }
+
+    /** Handles a selected key of a connection. Called by the acceptor and the reactors */
+    protected void handleKey(SelectionKey key) {
+        NioConnection conn=(NioConnection)key.attachment();
+        try {
+            if(!key.isValid())
+                return;
+            if(key.isReadable())
+                conn.receive();
+            if(key.isWritable())
+                conn.send();
+            if(key.isAcceptable())
+                handleAccept(key);
+            else if(key.isConnectable()) {
+                SocketChannel ch=(SocketChannel)key.channel();
+                if(ch.finishConnect() || ch.isConnected())
+                    conn.clearSelectionKey(SelectionKey.OP_CONNECT);
+            }
+        }
+        catch(Throwable ex) {
+            closeConnection(conn, ex);
+        }
+    }
+
 
 
 
@@ -125,26 +216,8 @@ public abstract class NioBaseServer extends BaseServer {
 
                 while(it.hasNext()) {
                     SelectionKey key=it.next();
-                    NioConnection conn=(NioConnection)key.attachment();
                     it.remove();
-                    try {
-                        if(!key.isValid())
-                            continue;
-                        if(key.isReadable())
-                            conn.receive();
-                        if(key.isWritable())
-                            conn.send();
-                        if(key.isAcceptable())
-                            handleAccept(key);
-                        else if(key.isConnectable()) {
-                            SocketChannel ch=(SocketChannel)key.channel();
-                            if(ch.finishConnect() || ch.isConnected())
-                                conn.clearSelectionKey(SelectionKey.OP_CONNECT);
-                        }
-                    }
-                    catch(Throwable ex) {
-                        closeConnection(conn, ex);
-                    }
+                    handleKey(key);
                 }
             }
         }
@@ -182,4 +255,99 @@ public abstract class NioBaseServer extends BaseServer {
         }
     }
 
+
+    /**
+     * Selector thread which reads and writes the connections registered with it. Connections are registered with a
+     * reactor when they're accepted or connected, and stay with that reactor until they're closed
+     */
+    protected class Reactor implements Runnable, Closeable {
+        protected final Selector   sel;
+        protected final String     name;
+        protected final Lock       lock=new ReentrantLock(); // for registrations
+        protected volatile boolean registration; // set to true after a registration; the reactor sets it back to false
+        protected volatile Thread  thread;
+        protected int              num_selects, num_keys; // only updated by the reactor thread
+
+        protected Reactor(String name) throws IOException {
+            this.sel=Selector.open();
+            this.name=name;
+        }
+
+        protected SelectionKey register(SelectableChannel ch, int interest_ops, NioConnection conn) throws Exception {
+            lock.lock();
+            try {
+                registration=true;
+                sel.wakeup(); // needed because registration will block until sel.select() returns
+                return ch.register(sel, interest_ops, conn);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        public synchronized void start() {
+            if(thread == null || !thread.isAlive()) {
+                thread=factory.newThread(this, name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        public synchronized void close() throws IOException {
+            Thread tmp=thread;
+            thread=null;
+            Util.close(sel); // wakes up the reactor thread
+            if(tmp != null && tmp.isAlive()) {
+                try {
+                    tmp.join(Global.THREAD_SHUTDOWN_WAIT_TIME);
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt(); // set interrupt flag again
+                }
+            }
+        }
+
+        public void run() {
+            while(thread != null && Thread.currentThread().equals(thread)) {
+                try {
+                    int num=sel.select();
+                    num_selects++;
+                    if(registration) {
+                        lock.lock(); // wait until the pending registration has completed
+                        try {
+                            registration=false;
+                        }
+                        finally {
+                            lock.unlock();
+                        }
+                    }
+                    if(num == 0)
+                        continue;
+                    for(Iterator<SelectionKey> it=sel.selectedKeys().iterator(); it.hasNext();) {
+                        SelectionKey key=it.next();
+                        it.remove();
+                        num_keys++;
+                        handleKey(key);
+                    }
+                }
+                catch(ClosedSelectorException closed) {
+                    break;
+                }
+                catch(Throwable t) {
+                    log.warn("%s: reactor failure: %s", name, t);
+                }
+            }
+            log.trace("%s terminated", name);
+        }
+
+        public String toString() {
+            int conns=0;
+            try {
+                conns=sel.keys().size();
+            }
+            catch(ClosedSelectorException ignored) {
+            }
+            return String.format("%s: connections=%d, selects=%d, keys handled=%d", name, conns, num_selects, num_keys);
+        }
+    }
 }
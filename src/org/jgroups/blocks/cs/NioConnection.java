@@ -137,8 +137,11 @@ public class NioConnection extends Connection {
             if(this.channel.getLocalAddress() != null && this.channel.getLocalAddress().equals(destAddr))
                 throw new IllegalStateException("socket's bind and connect address are the same: " + destAddr);
 
+            // initiate the connect before registering the channel: a selector would otherwise select the unconnected
+            // channel as readable, and the failed read would close the connection
+            boolean connected=Util.connect(channel, destAddr);
             this.key=server.register(channel, SelectionKey.OP_CONNECT | SelectionKey.OP_READ, this);
-            if(Util.connect(channel, destAddr) && channel.finishConnect()) {
+            if(connected && channel.finishConnect()) {
                 clearSelectionKey(SelectionKey.OP_CONNECT);
             }
             if(send_local_addr)
@@ -172,6 +175,35 @@ public class NioConnection extends Connection {
     }
 
 
+    /**
+     * Sends the buffers as a single message with a gathering write: the length and all buffers are written with a
+     * single {@link SocketChannel#write(ByteBuffer[])}. The data which has not been written is copied on a partial
+     * write regardless of copy_on_partial_write, as the caller reuses the buffers when this method returns. If the
+     * send buffers cannot accommodate all buffers, they are copied into a single buffer
+     */
+    @Override
+    public void send(ByteBuffer[] bufs) throws Exception {
+        ByteBuffer[] tmp=new ByteBuffer[bufs.length + 1];
+        tmp[0]=makeLengthBuffer(Buffers.remaining(bufs));
+        System.arraycopy(bufs, 0, tmp, 1, bufs.length);
+        send_lock.lock();
+        try {
+            if(!send_buf.tryAdd(tmp))
+                send_buf.add(tmp[0], Buffers.concat(bufs));
+            boolean success=send_buf.write(channel);
+            writeInterest(!success);
+            if(success)
+                updateLastAccessed();
+            if(!success) {
+                send_buf.copy(); // only the data which has not yet been written is copied
+                partial_writes++;
+            }
+        }
+        finally {
+            send_lock.unlock();
+        }
+    }
+
     public void send() throws Exception {
         send_lock.lock();
         try {
@@ -322,7 +354,7 @@ public class NioConnection extends Connection {
             ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(expected_size +2);
             out.write(cookie, 0, cookie.length);
             out.writeShort(Version.version);
-            out.writeShort(addr_size); // address size
+            out.writeShort(addressLength(addr_size, lane)); // address size and lane
             local_addr.writeTo(out);
             ByteBuffer buf=out.getByteBuffer();
             send(buf, false);
@@ -358,7 +390,8 @@ public class NioConnection extends Connection {
                     break;
                 case 2:      // length of address
                     short addr_len=buf.getShort();
-                    recv_buf.add(ByteBuffer.allocate(addr_len));
+                    lane=laneOf(addr_len);
+                    recv_buf.add(ByteBuffer.allocate(addressSize(addr_len)));
                     break;
                 case 3:      // address
                     byte[] addr_buf=getBuffer(buf);
@@ -381,7 +414,11 @@ public class NioConnection extends Connection {
 
 
     protected static ByteBuffer makeLengthBuffer(ByteBuffer buf) {
-        return (ByteBuffer)ByteBuffer.allocate(Global.INT_SIZE).putInt(buf.remaining()).clear();
+        return makeLengthBuffer(buf.remaining());
+    }
+
+    protected static ByteBuffer makeLengthBuffer(int length) {
+        return (ByteBuffer)ByteBuffer.allocate(Global.INT_SIZE).putInt(length).clear();
     }
 
     protected enum State {reading, waiting_to_terminate, done}
@@ -12,8 +12,10 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 
 /**
- * Server for sending and receiving messages via NIO channels. Uses only a single thread to accept, connect, write and
- * read connections. Read messages are passed to a receiver, which typically uses a thread pool to process messages.<p/>
+ * Server for sending and receiving messages via NIO channels. By default, uses only a single thread to accept, connect,
+ * write and read connections; with {@link #reactorThreads(int)} > 1, connections are read and written by a pool of
+ * reactor threads instead. Read messages are passed to a receiver, which typically uses a thread pool to process
+ * messages.<p/>
  * Note that writes can get dropped, e.g. in the case where we have a previous write pending and a new write is received.
  * This is typically not an issue as JGroups retransmits messages, but might become one when using NioServer standalone,
  * ie. outside of JGroups.
@@ -90,7 +92,9 @@ public class NioServer extends NioBaseServer {
         if(client_channel == null) return; // can happen if no connection is available to accept
         try {
             conn=new NioConnection(client_channel, NioServer.this);
-            SelectionKey client_key=client_channel.register(selector, SelectionKey.OP_READ, conn);
+            // with reactors, the acceptor only accepts connections and the connection is read by one of the reactors
+            SelectionKey client_key=reactors != null? register(client_channel, SelectionKey.OP_READ, conn)
+              : client_channel.register(selector, SelectionKey.OP_READ, conn);
             conn.key(client_key); // we need to set the selection key of the client channel *not* the server channel
             Address peer_addr=conn.peerAddress();
             if(use_peer_connections)
@@ -114,6 +118,7 @@ public class NioServer extends NioBaseServer {
     @ManagedOperation(description="Starts the server")
     public synchronized void start() throws Exception {
         if(running.compareAndSet(false, true)) {
+            startReactors("NioServer [" + local_addr + "]");
             acceptor.start();
             super.start();
         }
@@ -123,8 +128,10 @@ public class NioServer extends NioBaseServer {
     @ManagedOperation(description="Stops the server")
     public synchronized void stop() {
         super.stop();
-        if(running.compareAndSet(true, false))
+        if(running.compareAndSet(true, false)) {
             Util.close(selector, channel); // closing the selector also stops the acceptor thread
+            stopReactors();
+        }
     }
 
 
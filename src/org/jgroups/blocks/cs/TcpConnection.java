@@ -210,7 +210,7 @@ public class TcpConnection extends Connection {
 
             // write the version
             out.writeShort(Version.version);
-            out.writeShort(local_addr.serializedSize()); // address size
+            out.writeShort(addressLength(local_addr.serializedSize(), lane)); // address size and lane
             local_addr.writeTo(out);
             out.flush(); // needed ?
             updateLastAccessed();
@@ -243,7 +243,7 @@ public class TcpConnection extends Connection {
                 throw new IOException("packet from " + client_sock.getInetAddress() + ":" + client_sock.getPort() +
                                         " has different version (" + Version.print(version) +
                                         ") from ours (" + Version.printVersion() + "); discarding it");
-            in.readShort(); // address length is only needed by NioConnection
+            lane=laneOf(in.readShort()); // the address length is only needed by NioConnection
 
             Address client_peer_addr=new IpAddress();
             client_peer_addr.readFrom(in);
@@ -125,6 +125,10 @@ public class TcpServer extends TcpBaseServer {
             try {
                 conn=new TcpConnection(client_sock, TcpServer.this);
                 Address peer_addr=conn.peerAddress();
+                if(conn.lane() > 0) {
+                    addLaneConnection(conn);
+                    return;
+                }
                 synchronized(this) {
                     boolean conn_exists=hasConnection(peer_addr),
                       replace=conn_exists && use_peer_connections && local_addr.compareTo(peer_addr) < 0; // bigger conn wins
@@ -80,15 +80,22 @@ public class Buffers implements Iterable<ByteBuffer> {
 
 
     public Buffers add(ByteBuffer ... buffers) {
+        tryAdd(buffers);
+        return this;
+    }
+
+    /** Adds all buffers, or none if there's not enough space. Returns true if the buffers were added */
+    public boolean tryAdd(ByteBuffer ... buffers) {
         if(buffers == null)
-            return this;
+            return false;
         assertPositiveUnsignedShort(buffers.length);
         int len=buffers.length;
         if(spaceAvailable(len) || (makeSpace() && spaceAvailable(len))) {
             for(ByteBuffer buf: buffers)
                 bufs[limit++]=buf;
+            return true;
         }
-        return this;
+        return false;
     }
 
     public Buffers add(ByteBuffer buf) {
@@ -299,6 +306,32 @@ public class Buffers implements Iterable<ByteBuffer> {
         return ByteBuffer.wrap(tmp);
     }
 
+    /** Returns the number of remaining bytes in all buffers */
+    public static int remaining(ByteBuffer[] buffers) {
+        int retval=0;
+        for(ByteBuffer buf: buffers)
+            retval+=buf.remaining();
+        return retval;
+    }
+
+    /** Duplicates all buffers, so that the same data can be written more than once (e.g. to different channels) */
+    public static ByteBuffer[] duplicate(ByteBuffer[] buffers) {
+        ByteBuffer[] retval=new ByteBuffer[buffers.length];
+        for(int i=0; i < buffers.length; i++)
+            retval[i]=buffers[i].duplicate();
+        return retval;
+    }
+
+    /** Copies the remaining bytes of all buffers into a single heap-based buffer. The buffers are not modified */
+    public static ByteBuffer concat(ByteBuffer[] buffers) {
+        if(buffers.length == 1)
+            return buffers[0].duplicate();
+        ByteBuffer retval=ByteBuffer.allocate(remaining(buffers));
+        for(ByteBuffer buf: buffers)
+            retval.put(buf.duplicate());
+        return (ByteBuffer)retval.flip();
+    }
+
     @Override
     public Iterator<ByteBuffer> iterator() {
         return new BuffersIterator();
@@ -0,0 +1,266 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.View;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.logging.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bundler which switches at runtime between sending messages directly (like {@link NoBundler}) and queueing and
+ * bundling them (like {@link TransferQueueBundler}), based on the observed load.
+ * <br/>
+ * The message rate, the depth of the queue and the average number of messages per bundle are measured every
+ * interval ms. Bundling is switched on when the rate exceeds high_rate msgs/sec, and switched off again when the
+ * rate has dropped below low_rate and bundles contain on average fewer than min_bundle_size messages. Using two
+ * thresholds (hysteresis) prevents flapping between the two modes.
+ * <br/>
+ * When switching from bundling to direct sends, messages are still queued until the bundler thread has sent all
+ * queued messages, so that messages sent by the same thread are not reordered. The switch is made under a write lock,
+ * while messages are queued under the read lock, so no message can be queued concurrently with the switch.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class AdaptiveBundler implements Bundler {
+    protected enum Mode {DIRECT, BUNDLING, DRAINING}
+
+    protected TP                    transport;
+    protected Log                   log;
+    protected final NoBundler       direct=new NoBundler();
+    protected QueueBundler          queued;
+    protected volatile Mode         mode=Mode.DIRECT;
+    protected int                   capacity;
+    protected long                  interval=500;          // ms
+    protected double                high_rate=20_000;      // msgs/sec at which bundling is switched on
+    protected double                low_rate=5_000;        // msgs/sec below which bundling can be switched off
+    protected double                min_bundle_size=2;     // switch off bundling if bundles are smaller on average
+    protected Future<?>             evaluator;
+
+    protected final LongAdder       num_msgs=new LongAdder();  // messages sent in the current interval
+    protected long                  last_evaluation=System.nanoTime(), last_num_bundles;
+    protected volatile double       rate, avg_bundle_size;     // values of the last interval
+    protected volatile int          queue_depth;
+    protected final LongAdder       num_switches_to_bundling=new LongAdder(), num_switches_to_direct=new LongAdder();
+    protected final AtomicLong      unsent=new AtomicLong(); // queued messages which have not yet been sent
+    protected final ReadWriteLock   switch_lock=new ReentrantReadWriteLock(); // write lock: switch to DIRECT
+
+
+    public AdaptiveBundler() {
+        this(16384);
+    }
+
+    public AdaptiveBundler(int capacity) {
+        this.capacity=capacity;
+    }
+
+    public AdaptiveBundler interval(long i)           {this.interval=i; return this;}
+    public long            interval()                 {return interval;}
+    public AdaptiveBundler highRate(double r)         {this.high_rate=r; return this;}
+    public double          highRate()                 {return high_rate;}
+    public AdaptiveBundler lowRate(double r)          {this.low_rate=r; return this;}
+    public double          lowRate()                  {return low_rate;}
+    public AdaptiveBundler minBundleSize(double s)    {this.min_bundle_size=s; return this;}
+    public double          minBundleSize()            {return min_bundle_size;}
+
+    @ManagedAttribute(description="Whether messages are currently sent directly (DIRECT), are queued and bundled " +
+      "(BUNDLING) or the queue is drained before switching to direct sends (DRAINING)")
+    public String getMode()                  {return mode.toString();}
+    @ManagedAttribute(description="Number of switches from direct sends to bundling")
+    public long   getNumSwitchesToBundling() {return num_switches_to_bundling.sum();}
+    @ManagedAttribute(description="Number of switches from bundling to direct sends")
+    public long   getNumSwitchesToDirect()   {return num_switches_to_direct.sum();}
+    @ManagedAttribute(description="The message rate (msgs/sec) measured in the last interval")
+    public double getRate()                  {return rate;}
+    @ManagedAttribute(description="Average number of messages per bundle in the last interval (0 if not bundling)")
+    public double getAvgBundleSize()         {return avg_bundle_size;}
+    @ManagedAttribute(description="Number of queued messages at the end of the last interval")
+    public int    getQueueDepth()            {return queue_depth;}
+
+    public void init(TP transport) {
+        this.transport=transport;
+        this.log=transport.getLog();
+        if(low_rate > high_rate)
+            throw new IllegalArgumentException(String.format("low_rate (%.2f) must be <= high_rate (%.2f)", low_rate, high_rate));
+        direct.init(transport);
+        queued=new QueueBundler(capacity);
+        queued.init(transport);
+    }
+
+    public synchronized void start() {
+        queued.start();
+        if(evaluator == null || evaluator.isDone())
+            evaluator=transport.getTimer().scheduleWithFixedDelay(this::evaluate, interval, interval,
+                                                                  TimeUnit.MILLISECONDS, false);
+    }
+
+    public synchronized void stop() {
+        if(evaluator != null) {
+            evaluator.cancel(false);
+            evaluator=null;
+        }
+        queued.stop();
+        unsent.set(0); // the queue has been cleared
+        direct.stop();
+    }
+
+    public void send(Message msg) throws Exception {
+        num_msgs.increment();
+        Mode m=mode;
+        if(m == Mode.DRAINING && unsent.get() == 0 && switchToDirect())
+            m=Mode.DIRECT;
+        if(m == Mode.DIRECT) {
+            direct.send(msg);
+            return;
+        }
+        Lock lock=switch_lock.readLock();
+        lock.lock();
+        try {
+            if(mode == Mode.DIRECT) { // switched after we read mode; our queued messages (if any) have been sent
+                direct.send(msg);
+                return;
+            }
+            unsent.incrementAndGet();
+            queued.send(msg);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void viewChange(View view) {
+        queued.viewChange(view);
+    }
+
+    public int size() {
+        return queued.size();
+    }
+
+    public Map<String,Object> getStats() {
+        Map<String,Object> retval=new HashMap<>();
+        retval.put("mode", mode);
+        retval.put("rate", rate);
+        retval.put("avg_bundle_size", avg_bundle_size);
+        retval.put("queue_depth", queue_depth);
+        retval.put("switches_to_bundling", getNumSwitchesToBundling());
+        retval.put("switches_to_direct", getNumSwitchesToDirect());
+        Map<String,Object> tmp=queued.getStats();
+        if(tmp != null)
+            retval.putAll(tmp);
+        return retval;
+    }
+
+    public void resetStats() {
+        num_switches_to_bundling.reset();
+        num_switches_to_direct.reset();
+        queued.resetStats();
+        last_num_bundles=0;
+    }
+
+    /** Measures the load in the last interval and switches the mode if needed. Called by the timer */
+    protected synchronized void evaluate() {
+        long now=System.nanoTime(), msgs=num_msgs.sumThenReset();
+        double secs=(now - last_evaluation) / 1_000_000_000.0;
+        last_evaluation=now;
+        long num_bundles=queued.num_sends_because_full_queue + queued.num_sends_because_no_msgs
+          + queued.num_sends_because_linger;
+        long bundles=num_bundles - last_num_bundles;
+        last_num_bundles=num_bundles;
+
+        rate=secs > 0? msgs / secs : 0;
+        avg_bundle_size=mode != Mode.DIRECT && bundles > 0? msgs / (double)bundles : 0;
+        queue_depth=queued.getBufferSize();
+
+        switch(mode) {
+            case DIRECT:
+            case DRAINING:
+                if(rate >= high_rate)
+                    setMode(Mode.BUNDLING);
+                break;
+            case BUNDLING:
+                if(rate < low_rate && avg_bundle_size < min_bundle_size && queue_depth == 0)
+                    setMode(Mode.DRAINING);
+                break;
+        }
+    }
+
+    /**
+     * Switches from DRAINING to DIRECT if all queued messages have been sent by the bundler thread. Returns true if
+     * the mode is DIRECT, false if it is not (yet)
+     */
+    protected boolean switchToDirect() {
+        Lock lock=switch_lock.writeLock();
+        if(!lock.tryLock()) // a message is being queued
+            return false;
+        try {
+            if(unsent.get() == 0)
+                setMode(Mode.DRAINING, Mode.DIRECT);
+            return mode == Mode.DIRECT;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Sets the mode to new_mode if the current mode is expected */
+    protected synchronized void setMode(Mode expected, Mode new_mode) {
+        if(mode == expected)
+            setMode(new_mode);
+    }
+
+    protected synchronized void setMode(Mode new_mode) {
+        Mode old_mode=mode;
+        if(old_mode == new_mode)
+            return;
+        mode=new_mode;
+        if(new_mode == Mode.BUNDLING && old_mode == Mode.DIRECT)
+            num_switches_to_bundling.increment();
+        else if(new_mode == Mode.DIRECT)
+            num_switches_to_direct.increment();
+        log.trace("%s: switched bundler mode from %s to %s (rate=%.2f msgs/sec, avg bundle size=%.2f)",
+                  transport.localAddress(), old_mode, new_mode, rate, avg_bundle_size);
+    }
+
+
+    /** Counts the queued messages which have been sent by the bundler thread, or dropped by a view change */
+    protected class QueueBundler extends TransferQueueBundler {
+        protected QueueBundler(int capacity) {
+            super(capacity);
+        }
+
+        /** Messages to members which left are removed without being sent, so they're subtracted from unsent */
+        public void viewChange(View view) {
+            lock.lock();
+            try {
+                int dropped=msgs.entrySet().stream()
+                  .filter(e -> e.getKey() != null && !view.containsMember(e.getKey()))
+                  .mapToInt(e -> e.getValue().size()).sum();
+                super.viewChange(view);
+                if(dropped > 0)
+                    unsent.addAndGet(-dropped);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        protected void sendMessages(Address dest, List<Message> list) {
+            try {
+                super.sendMessages(dest, list);
+            }
+            finally {
+                unsent.addAndGet(-list.size());
+            }
+        }
+    }
+}
@@ -1,18 +1,28 @@
 package org.jgroups.protocols;
 
 import org.jgroups.Address;
+import org.jgroups.Global;
 import org.jgroups.Message;
+import org.jgroups.Version;
 import org.jgroups.View;
 import org.jgroups.annotations.GuardedBy;
 import org.jgroups.logging.Log;
+import org.jgroups.util.Bits;
 import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.ByteBufferOutputStream;
+import org.jgroups.util.GatheringDataOutputStream;
 import org.jgroups.util.Util;
 
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
 
+import static org.jgroups.protocols.TP.COMPRESSED;
 import static org.jgroups.protocols.TP.MSG_OVERHEAD;
 
 /**
@@ -28,16 +38,39 @@ public abstract class BaseBundler implements Bundler {
     protected final ReentrantLock               lock=new ReentrantLock();
     protected @GuardedBy("lock") long           count;    // current number of bytes accumulated
     protected ByteArrayDataOutputStream         output;
+    protected ByteBufferOutputStream            buf_output; // used instead of output if transport.useByteBuffers()
+    protected GatheringDataOutputStream         gathering_output; // used if transport.useGatheringWrites()
     protected Log                               log;
+    /** Max time (ns) the first message to a destination waits for more messages to be bundled; 0 disables lingering */
+    protected long                              linger_time;
+    /** Keys are destinations, values the time (ns) at which the first message was added. Only used if lingering */
+    protected final Map<Address,Long>           oldest=new HashMap<>(24);
+    /** Compresses message lists; created on the first compressed send, ended (and nulled) by {@link #stop()} */
+    protected Deflater                          deflater;
+    protected byte[]                            compressed_buf; // the compressed message list is written to this
+    /** Size of the header of a compressed message list: version, flags, uncompressed and compressed size */
+    protected static final int                  COMPRESSED_OVERHEAD=MSG_OVERHEAD + Global.INT_SIZE * 2;
 
 
     public void init(TP transport) {
         this.transport=transport;
         log=transport.getLog();
         output=new ByteArrayDataOutputStream(transport.getMaxBundleSize() + MSG_OVERHEAD);
+        linger_time=TimeUnit.NANOSECONDS.convert(transport.getBundlerLingerTime(), TimeUnit.MICROSECONDS);
+        if(transport.useGatheringWrites())
+            gathering_output=new GatheringDataOutputStream(1024, transport.getBundlerGatheringMinSize());
+        else if(transport.useByteBuffers())
+            buf_output=new ByteBufferOutputStream(transport.createSendBuffer(transport.getMaxBundleSize() + MSG_OVERHEAD));
     }
     public void start() {}
-    public void stop()  {}
+
+    /** Releases the native memory of the deflater. Subclasses overriding stop() need to call super.stop() */
+    public void stop() {
+        Deflater tmp=deflater;
+        deflater=null;
+        if(tmp != null)
+            tmp.end();
+    }
     public void send(Message msg) throws Exception {}
 
     public void viewChange(View view) {
@@ -45,6 +78,7 @@ public abstract class BaseBundler implements Bundler {
         try {
             // remove all members not in the current view; skip dst == null
             msgs.keySet().removeIf(mbr -> mbr != null && !view.containsMember(mbr));
+            oldest.keySet().removeIf(mbr -> mbr != null && !view.containsMember(mbr));
         }
         finally {
             lock.unlock();
@@ -71,21 +105,52 @@ public abstract class BaseBundler implements Bundler {
             List<Message> list=entry.getValue();
             if(list.isEmpty())
                 continue;
-
-            output.position(0);
-            if(list.size() == 1)
-                sendSingleMessage(list.get(0));
-            else {
-                Address dst=entry.getKey();
-                sendMessageList(dst, list.get(0).getSrc(), list);
-                if(transport.statsEnabled())
-                    transport.incrBatchesSent(1);
-            }
+            sendMessages(entry.getKey(), list);
         }
         clearMessages();
+        oldest.clear();
         count=0;
     }
 
+    /**
+     * Sends the messages to all destinations whose first message was added linger_time ns or more ago
+     * @return The time (ns) until the next destination needs to be sent to, or -1 if no messages are left
+     */
+    @GuardedBy("lock") protected long sendExpiredMessages(long now) {
+        long next=-1;
+        for(Iterator<Map.Entry<Address,Long>> it=oldest.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Address,Long> entry=it.next();
+            long remaining=entry.getValue() + linger_time - now;
+            if(remaining > 0) {
+                next=next < 0? remaining : Math.min(next, remaining);
+                continue;
+            }
+            it.remove();
+            List<Message> list=msgs.get(entry.getKey());
+            if(list == null || list.isEmpty())
+                continue;
+            for(Message msg: list)
+                count-=msg.size();
+            sendMessages(entry.getKey(), list);
+            list.clear();
+        }
+        if(oldest.isEmpty())
+            count=0;
+        return next;
+    }
+
+    /** Sends a single message or a message list to dest */
+    protected void sendMessages(Address dest, List<Message> list) {
+        output.position(0);
+        if(list.size() == 1)
+            sendSingleMessage(list.get(0));
+        else {
+            sendMessageList(dest, list.get(0).getSrc(), list);
+            if(transport.statsEnabled())
+                transport.incrBatchesSent(1);
+        }
+    }
+
     @GuardedBy("lock") protected void clearMessages() {
         msgs.values().stream().filter(Objects::nonNull).forEach(List::clear);
     }
@@ -94,8 +159,10 @@ public abstract class BaseBundler implements Bundler {
     protected void sendSingleMessage(final Message msg) {
         Address dest=msg.getDest();
         try {
-            Util.writeMessage(msg, output, dest == null);
-            transport.doSend(output.buffer(), 0, output.position(), dest);
+            if(!sendSingleMessageGathering(msg) && !sendSingleMessageAsByteBuffer(msg)) {
+                Util.writeMessage(msg, output, dest == null);
+                transport.doSend(output.buffer(), 0, output.position(), dest);
+            }
             if(transport.statsEnabled())
                 transport.incrNumSingleMsgsSent(1);
         }
@@ -113,8 +180,11 @@ public abstract class BaseBundler implements Bundler {
 
     protected void sendMessageList(final Address dest, final Address src, final List<Message> list) {
         try {
-            Util.writeMessageList(dest, src, transport.cluster_name.chars(), list, output, dest == null, transport.getId());
-            transport.doSend(output.buffer(), 0, output.position(), dest);
+            if(!sendMessageListCompressed(dest, src, list) && !sendMessageListGathering(dest, src, list)
+              && !sendMessageListAsByteBuffer(dest, src, list)) {
+                Util.writeMessageList(dest, src, transport.cluster_name.chars(), list, output, dest == null, transport.getId());
+                transport.doSend(output.buffer(), 0, output.position(), dest);
+            }
         }
         catch(SocketException | SocketTimeoutException sock_ex) {
             log.debug(Util.getMessage("FailureSendingMsgBundle"), transport.localAddress(),sock_ex);
@@ -124,9 +194,118 @@ public abstract class BaseBundler implements Bundler {
         }
     }
 
+    /**
+     * Marshals the list into output and sends it compressed if it is larger than the transport's
+     * bundler_compression_min_size and compression reduces its size, or else uncompressed. The compressed list is
+     * sent as | version | flags (with COMPRESSED set) | uncompressed size | compressed size | compressed list |.
+     * Returns false if compression is not used
+     */
+    protected boolean sendMessageListCompressed(final Address dest, final Address src, final List<Message> list) throws Exception {
+        if(!transport.useBundlerCompression())
+            return false;
+        if(deflater == null)
+            deflater=new Deflater(transport.getBundlerCompressionLevel());
+        output.position(0);
+        Util.writeMessageList(dest, src, transport.cluster_name.chars(), list, output, dest == null, transport.getId());
+        byte[] buf=output.buffer();
+        int length=output.position() - MSG_OVERHEAD; // the version and flags are not compressed
+        if(length >= transport.getBundlerCompressionMinSize()) {
+            if(compressed_buf == null || compressed_buf.length < length + COMPRESSED_OVERHEAD)
+                compressed_buf=new byte[length + COMPRESSED_OVERHEAD];
+            deflater.reset();
+            deflater.setInput(buf, MSG_OVERHEAD, length);
+            deflater.finish();
+            // the compressed list has to be smaller than the uncompressed one, or else we send the latter
+            int compressed_size=deflater.deflate(compressed_buf, COMPRESSED_OVERHEAD, length);
+            if(deflater.finished() && compressed_size < length) {
+                Bits.writeShort(Version.version, compressed_buf, 0);
+                compressed_buf[Global.SHORT_SIZE]=(byte)(buf[Global.SHORT_SIZE] | COMPRESSED);
+                Bits.writeInt(length, compressed_buf, MSG_OVERHEAD);
+                Bits.writeInt(compressed_size, compressed_buf, MSG_OVERHEAD + Global.INT_SIZE);
+                transport.doSend(compressed_buf, 0, compressed_size + COMPRESSED_OVERHEAD, dest);
+                if(transport.statsEnabled())
+                    transport.incrBundlesCompressed(length, compressed_size);
+                return true;
+            }
+        }
+        transport.doSend(buf, 0, output.position(), dest);
+        return true;
+    }
+
+    /**
+     * Marshals msg into gathering_output, which references the payload rather than copying it, and passes the
+     * resulting buffers to the transport for a gathering write. Returns false if gathering writes are not used
+     */
+    protected boolean sendSingleMessageGathering(final Message msg) throws Exception {
+        if(gathering_output == null)
+            return false;
+        try {
+            Util.writeMessage(msg, gathering_output.reset(), msg.getDest() == null);
+            transport.doSend(gathering_output.buffers(), msg.getDest());
+        }
+        finally {
+            gathering_output.reset(); // drops the references to the payloads
+        }
+        return true;
+    }
+
+    /** Same as {@link #sendSingleMessageGathering(Message)}, but for a list of messages */
+    protected boolean sendMessageListGathering(final Address dest, final Address src, final List<Message> list) throws Exception {
+        if(gathering_output == null)
+            return false;
+        try {
+            Util.writeMessageList(dest, src, transport.cluster_name.chars(), list, gathering_output.reset(), dest == null,
+                                  transport.getId());
+            transport.doSend(gathering_output.buffers(), dest);
+        }
+        finally {
+            gathering_output.reset();
+        }
+        return true;
+    }
+
+    /**
+     * Marshals msg into buf_output and passes the ByteBuffer to the transport. Returns false if ByteBuffers are not
+     * used or the message doesn't fit into buf_output; the caller then needs to use the (expandable) byte[] output
+     */
+    protected boolean sendSingleMessageAsByteBuffer(final Message msg) throws Exception {
+        if(buf_output == null)
+            return false;
+        try {
+            buf_output.reset();
+            Util.writeMessage(msg, buf_output, msg.getDest() == null);
+        }
+        catch(BufferOverflowException overflow) {
+            return false;
+        }
+        ByteBuffer buf=buf_output.getBuffer();
+        buf.flip();
+        transport.doSend(buf, msg.getDest());
+        return true;
+    }
+
+    /** Same as {@link #sendSingleMessageAsByteBuffer(Message)}, but for a list of messages */
+    protected boolean sendMessageListAsByteBuffer(final Address dest, final Address src, final List<Message> list) throws Exception {
+        if(buf_output == null)
+            return false;
+        try {
+            buf_output.reset();
+            Util.writeMessageList(dest, src, transport.cluster_name.chars(), list, buf_output, dest == null, transport.getId());
+        }
+        catch(BufferOverflowException overflow) {
+            return false;
+        }
+        ByteBuffer buf=buf_output.getBuffer();
+        buf.flip();
+        transport.doSend(buf, dest);
+        return true;
+    }
+
     @GuardedBy("lock") protected void addMessage(Message msg, long size) {
         Address dest=msg.getDest();
         List<Message> tmp=msgs.computeIfAbsent(dest, k -> new ArrayList<>(5));
+        if(linger_time > 0 && tmp.isEmpty())
+            oldest.put(dest, System.nanoTime());
         tmp.add(msg);
         count+=size;
     }
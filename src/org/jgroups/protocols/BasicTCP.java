@@ -3,10 +3,15 @@ package org.jgroups.protocols;
 import org.jgroups.Address;
 import org.jgroups.Event;
 import org.jgroups.Global;
+import org.jgroups.Message;
 import org.jgroups.PhysicalAddress;
 import org.jgroups.annotations.LocalAddress;
 import org.jgroups.annotations.Property;
+import org.jgroups.blocks.cs.Connection;
 import org.jgroups.blocks.cs.Receiver;
+import org.jgroups.nio.Buffers;
+import org.jgroups.util.Bits;
+import org.jgroups.util.Buffer;
 import org.jgroups.util.Util;
 
 import java.net.InetAddress;
@@ -14,6 +19,7 @@ import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Shared base class for TCP protocols
@@ -21,6 +27,8 @@ import java.util.Set;
  * @author Bela Ban
  */
 public abstract class BasicTCP extends TP implements Receiver {
+    /** The number of bytes of a packet needed to pick a lane: version, flags, leading byte and message flags */
+    protected static final int LANE_HEADER_SIZE=Global.SHORT_SIZE *2 + 2;
 
     /* -----------------------------------------    Properties     -------------------------------------------------- */
     
@@ -64,9 +72,17 @@ public abstract class BasicTCP extends TP implements Receiver {
     @Property(description="If true, client sockets will not explicitly bind to bind_addr but will defer to the native socket")
     protected boolean     defer_client_bind_addr;
 
+    @Property(description="Number of TCP connections (lanes) to each member. With 2 or more lanes, multicast and " +
+      "unicast messages each use a fixed lane (which preserves the order required by NAKACK2 and UNICAST3), and OOB " +
+      "messages sent individually use the remaining lanes, so they don't queue behind regular messages. " +
+      "1 disables striping",writable=false)
+    protected int         lanes=1;
+
 
     /* --------------------------------------------- Fields ------------------------------------------------------ */
-    
+
+    protected final AtomicInteger next_oob_lane=new AtomicInteger();
+
 
     protected BasicTCP() {
         super();        
@@ -77,6 +93,8 @@ public abstract class BasicTCP extends TP implements Receiver {
     public void     setReaperInterval(long interval) {this.reaper_interval=interval;}
     public long     getConnExpireTime()              {return conn_expire_time;}
     public void     setConnExpireTime(long time)     {this.conn_expire_time=time;}
+    public int      lanes()                          {return lanes;}
+    public BasicTCP lanes(int num)                   {this.lanes=num; return this;}
 
 
     public void init() throws Exception {
@@ -87,6 +105,8 @@ public abstract class BasicTCP extends TP implements Receiver {
                 throw new IllegalArgumentException("bind_port cannot be set to " + bind_port +
                                                      ", as no dynamic discovery protocol (e.g. MPING or TCPGOSSIP) has been detected.");
         }
+        if(lanes < 1 || lanes > Connection.MAX_LANES)
+            throw new IllegalArgumentException(String.format("lanes (%d) needs to be in range [1..%d]", lanes, Connection.MAX_LANES));
         if(reaper_interval > 0 || conn_expire_time > 0) {
             if(conn_expire_time == 0 && reaper_interval > 0) {
                 log.warn("reaper interval (%d) set, but not conn_expire_time, disabling reaping", reaper_interval);
@@ -108,6 +128,52 @@ public abstract class BasicTCP extends TP implements Receiver {
         send(dest, data, offset, length);
     }
 
+    public void sendMulticast(ByteBuffer data) throws Exception {
+        sendToMembers(members, data);
+    }
+
+    public void sendUnicast(PhysicalAddress dest, ByteBuffer data) throws Exception {
+        send(dest, data);
+    }
+
+    public void sendMulticast(ByteBuffer[] data) throws Exception {
+        sendToMembers(members, data);
+    }
+
+    public void sendUnicast(PhysicalAddress dest, ByteBuffer[] data) throws Exception {
+        send(dest, data);
+    }
+
+    /**
+     * Picks the lane on which a packet is sent from its first bytes: the version, the transport flags (LIST, MULTICAST)
+     * and, for single messages, the leading byte and the message flags. Multicast and unicast packets each use a fixed
+     * lane, OOB messages sent individually use the remaining lanes round-robin (their order is not relevant). Message
+     * lists always use the lane of their stream, as they may contain regular messages
+     */
+    public int lane(byte[] buf, int offset, int length) {
+        if(lanes <= 1 || length < LANE_HEADER_SIZE)
+            return 0;
+        return lane(buf[offset + Global.SHORT_SIZE], Bits.readShort(buf, offset + Global.SHORT_SIZE + 2));
+    }
+
+    public int lane(ByteBuffer buf) {
+        if(lanes <= 1 || buf.remaining() < LANE_HEADER_SIZE)
+            return 0;
+        int pos=buf.position();
+        return lane(buf.get(pos + Global.SHORT_SIZE), buf.getShort(pos + Global.SHORT_SIZE + 2));
+    }
+
+    public int lane(ByteBuffer[] bufs) {
+        return bufs.length > 0? lane(bufs[0]) : 0;
+    }
+
+    protected int lane(byte tp_flags, short msg_flags) {
+        int ordered=Math.min(2, lanes-1); // number of lanes for the multicast and unicast streams
+        if((tp_flags & LIST) == 0 && Message.isFlagSet(msg_flags, Message.Flag.OOB))
+            return ordered + (next_oob_lane.getAndIncrement() & Integer.MAX_VALUE) % (lanes - ordered);
+        return (tp_flags & MULTICAST) != 0? 0 : ordered-1;
+    }
+
     public String getInfo() {
         StringBuilder sb=new StringBuilder();
         sb.append("connections: ").append(printConnections()).append("\n");
@@ -119,6 +185,17 @@ public abstract class BasicTCP extends TP implements Receiver {
 
     public abstract void send(Address dest, byte[] data, int offset, int length) throws Exception;
 
+    /** Sends a ByteBuffer; subclasses override this to hand the buffer directly to their server */
+    public void send(Address dest, ByteBuffer data) throws Exception {
+        Buffer buf=toBuffer(data);
+        send(dest, buf.getBuf(), buf.getOffset(), buf.getLength());
+    }
+
+    /** Sends multiple ByteBuffers as a single packet; subclasses supporting gathering writes override this */
+    public void send(Address dest, ByteBuffer[] data) throws Exception {
+        send(dest, Buffers.concat(data));
+    }
+
     public abstract void retainAll(Collection<Address> members);
 
     public void receive(Address sender, ByteBuffer buf) {
@@ -1,27 +1,44 @@
 package org.jgroups.protocols;
 
+import org.jgroups.Address;
+import org.jgroups.Event;
 import org.jgroups.Global;
 import org.jgroups.Header;
 import org.jgroups.Message;
 import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.stack.Protocol;
-import org.jgroups.util.MessageBatch;
-import org.jgroups.util.Util;
+import org.jgroups.util.*;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
-import java.util.zip.DataFormatException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 /**
  * Compresses the payload of a message. Goal is to reduce the number of messages
  * sent across the wire. Should ideally be layered somewhere above a
  * fragmentation protocol (e.g. FRAG).
+ * <br/>
+ * The compression algorithm is a {@link Codec}: {@link DeflateCodec} ("deflate", the default) compresses well but is
+ * slow, {@link LZCodec} ("lz") is much faster at the expense of a lower compression ratio. The id of the codec is sent
+ * with every compressed message, so members can uncompress messages compressed with any of the built-in codecs.
+ * <br/>
+ * A preset dictionary (a file with data similar to the payloads) improves the compression of small messages. It
+ * can be trained from sampled payloads (dict_samples) with {@link #trainDictionary(String)}, and then needs to be
+ * configured on all members.
  * 
  * @author Bela Ban
  */
@@ -29,9 +46,13 @@ import java.util.zip.Inflater;
 public class COMPRESS extends Protocol {   
 
     /* -----------------------------------------    Properties     -------------------------------------------------- */
+
+    @Property(description="The codec used to compress messages: \"deflate\", \"lz\" (faster, but compresses less) " +
+      "or the fully qualified name of a class implementing org.jgroups.util.Codec",writable=false)
+    protected String codec="deflate";
     
     @Property(description="Compression level (from java.util.zip.Deflater) " +
-      "(0=no compression, 1=best speed, 9=best compression). Default is 9")
+      "(0=no compression, 1=best speed, 9=best compression). Default is 9. Only used by the deflate codec")
     protected int compression_level=Deflater.BEST_COMPRESSION; // this is 9
    
     @Property(description="Minimal payload size of a message (in bytes) for compression to kick in. Default is 500 bytes")
@@ -39,35 +60,104 @@ public class COMPRESS extends Protocol {
     
     @Property(description="Number of inflaters/deflaters for concurrent processing. Default is 2 ")
     protected int pool_size=2;
+
+    @Property(description="Name of a file containing a preset dictionary. Needs to be the same on all members",
+      writable=false)
+    protected String dictionary;
+
+    @Property(description="Number of payloads sampled (from all messages sent) to train a dictionary with " +
+      "trainDictionary(). 0 disables sampling",writable=false)
+    protected int dict_samples;
+
+    @Property(description="Only 1 in dict_sample_rate messages (chosen randomly) is offered for sampling, to reduce " +
+      "the cost of sampling. Ignored unless dict_samples > 0")
+    protected int dict_sample_rate=16;
+
+    @Property(description="Max size (bytes) of a trained dictionary")
+    protected int dict_size=16 * 1024;
     
     
     /* --------------------------------------------- Fields ------------------------------------------------------ */
-    
-    
-    protected BlockingQueue<Deflater> deflater_pool=null;
-    protected BlockingQueue<Inflater> inflater_pool=null;
+
+    protected static final int            MAX_SAMPLE_SIZE=1024, GRAM=8, SEGMENT_SIZE=64;
+
+    /** The id of the codec used to compress messages */
+    protected byte                        codec_id;
+    /** Pools of codecs, keyed by codec id. The pool of codec_id is used for compression and uncompression */
+    protected final Map<Byte,BlockingQueue<Codec>> pools=new HashMap<>();
+    /** Statistics per codec, keyed by codec id */
+    protected final Map<Byte,CodecStats>  codec_stats=new HashMap<>();
+    protected byte[]                      dict;
+    protected int                         dict_id; // hash of the dictionary, 0 if no dictionary is used
+    /** Payloads sampled to train a dictionary; null unless dict_samples > 0 */
+    protected List<byte[]>                samples;
+    protected long                        num_sampled; // number of payloads offered for sampling
+    protected Address                     local_addr;
 
     
 
     public COMPRESS() {      
     }
 
+    public COMPRESS codec(String c)              {this.codec=c; return this;}
+    public String   codec()                      {return codec;}
+    public COMPRESS dictionary(byte[] d)         {this.dict=d; return this;}
+    public byte[]   dictionary()                 {return dict;}
+    public COMPRESS setDictSamples(int num)      {this.dict_samples=num; return this;}
+    public COMPRESS setDictSampleRate(int rate)  {this.dict_sample_rate=rate; return this;}
+    public COMPRESS setDictSize(int size)        {this.dict_size=size; return this;}
+    public COMPRESS setMinSize(long size)        {this.min_size=size; return this;}
+
+    @ManagedAttribute(description="Number of sampled payloads")
+    public synchronized int getNumSamples()      {return samples != null? samples.size() : 0;}
+
+    @ManagedAttribute(description="Ratio between the compressed and the original size of the messages compressed " +
+      "by the configured codec")
+    public double getCompressionRatio() {
+        CodecStats s=codec_stats.get(codec_id);
+        return s != null? s.ratio() : 0;
+    }
+
+    @ManagedOperation(description="Prints the compression ratio and the times per codec")
+    public String printCodecStats() {
+        return codec_stats.values().stream().map(CodecStats::toString).collect(Collectors.joining("\n"));
+    }
+
+    public void resetStats() {
+        super.resetStats();
+        codec_stats.values().forEach(CodecStats::reset);
+    }
+
 
     public void init() throws Exception {
-        deflater_pool=new ArrayBlockingQueue<>(pool_size);
-        for(int i=0; i < pool_size; i++)
-            deflater_pool.add(new Deflater(compression_level));
-        inflater_pool=new ArrayBlockingQueue<>(pool_size);
-        for(int i=0; i < pool_size; i++)
-            inflater_pool.add(new Inflater());
+        if(dict_sample_rate <= 0)
+            throw new IllegalArgumentException("dict_sample_rate (" + dict_sample_rate + ") needs to be > 0");
+        if(dictionary != null && dict == null)
+            dict=Files.readAllBytes(Paths.get(dictionary));
+        dict_id=dict != null? Arrays.hashCode(dict) : 0;
+        if(dict_samples > 0)
+            samples=new ArrayList<>(dict_samples);
+        codec_id=addCodec(createCodec(codec));
+        // members can uncompress messages compressed with any of the built-in codecs
+        if(!pools.containsKey(DeflateCodec.ID))
+            addCodec(new DeflateCodec(compression_level));
+        if(!pools.containsKey(LZCodec.ID))
+            addCodec(new LZCodec());
     }
 
     public void destroy() {
-        deflater_pool.forEach(Deflater::end);
-        inflater_pool.forEach(Inflater::end);
-    }   
+        pools.values().forEach(pool -> pool.forEach(Codec::destroy));
+        pools.clear();
+        codec_stats.clear();
+    }
 
 
+    public Object down(Event evt) {
+        if(evt.getType() == Event.SET_LOCAL_ADDRESS)
+            local_addr=evt.getArg();
+        return down_prot.down(evt);
+    }
+
     /**
      * We compress the payload if it is larger than {@code min_size}. In this case we add a header containing
      * the original size before compression. Otherwise we add no header.<p>
@@ -76,20 +166,22 @@ public class COMPRESS extends Protocol {
      */
     public Object down(Message msg) {
         int length=msg.getLength(); // takes offset/length (if set) into account
+        if(samples != null && length > 0 && ThreadLocalRandom.current().nextInt(dict_sample_rate) == 0)
+            sample(msg.getRawBuffer(), msg.getOffset(), length);
         if(length >= min_size) {
             byte[] payload=msg.getRawBuffer(); // here we get the ref so we can avoid copying
             byte[] compressed_payload=new byte[length];
-            Deflater deflater=null;
+            BlockingQueue<Codec> pool=pools.get(codec_id);
+            Codec c=null;
             try {
-                deflater=deflater_pool.take();
-                deflater.reset();
-                deflater.setInput(payload, msg.getOffset(), length);
-                deflater.finish();
-                deflater.deflate(compressed_payload);
-                int compressed_size=deflater.getTotalOut();
-
-                if(compressed_size < length ) { // JGRP-1000
-                    Message copy=msg.copy(false).putHeader(this.id,new CompressHeader(length))
+                c=pool.take();
+                long start=stats? System.nanoTime() : 0;
+                int compressed_size=c.compress(payload, msg.getOffset(), length, compressed_payload, 0, length);
+                if(stats)
+                    codec_stats.get(codec_id).addCompression(length, compressed_size, System.nanoTime() - start);
+
+                if(compressed_size >= 0 && compressed_size < length ) { // JGRP-1000
+                    Message copy=msg.copy(false).putHeader(this.id,new CompressHeader(length, codec_id, dict_id))
                       .setBuffer(compressed_payload, 0, compressed_size);
                     if(log.isTraceEnabled())
                         log.trace("compressed payload from %d bytes to %d bytes", length, compressed_size);
@@ -105,9 +197,12 @@ public class COMPRESS extends Protocol {
                 Thread.currentThread().interrupt(); // set interrupt flag again
                 throw new RuntimeException(e);
             }
+            catch(Exception e) {
+                log.error("%s: failed compressing message with codec %s: %s", local_addr, c, e);
+            }
             finally {
-                if(deflater != null)
-                    deflater_pool.offer(deflater);
+                if(c != null)
+                    pool.offer(c);
             }
         }
         return down_prot.down(msg);
@@ -119,7 +214,7 @@ public class COMPRESS extends Protocol {
     public Object up(Message msg) {
         CompressHeader hdr=msg.getHeader(this.id);
         if(hdr != null) {
-            Message uncompressed_msg=uncompress(msg, hdr.original_size);
+            Message uncompressed_msg=uncompress(msg, hdr);
             if(uncompressed_msg != null) {
                 if(log.isTraceEnabled())
                     log.trace("uncompressed %d bytes to %d bytes", msg.getLength(), uncompressed_msg.getLength());
@@ -133,7 +228,7 @@ public class COMPRESS extends Protocol {
         for(Message msg: batch) {
             CompressHeader hdr=msg.getHeader(this.id);
             if(hdr != null) {
-                Message uncompressed_msg=uncompress(msg, hdr.original_size);
+                Message uncompressed_msg=uncompress(msg, hdr);
                 if(uncompressed_msg != null) {
                     if(log.isTraceEnabled())
                         log.trace("uncompressed %d bytes to %d bytes", msg.getLength(), uncompressed_msg.getLength());
@@ -146,40 +241,212 @@ public class COMPRESS extends Protocol {
             up_prot.up(batch);
     }
 
+    /**
+     * Builds a dictionary from the sampled payloads and writes it to a file. The file then needs to be set as
+     * dictionary on all members
+     */
+    @ManagedOperation(description="Trains a dictionary from the sampled payloads and writes it to the given file")
+    public String trainDictionary(String filename) throws Exception {
+        List<byte[]> tmp;
+        synchronized(this) {
+            if(samples == null || samples.isEmpty())
+                return "no samples available (dict_samples needs to be > 0)";
+            tmp=new ArrayList<>(samples);
+        }
+        byte[] d=trainDictionary(tmp, dict_size);
+        Files.write(Paths.get(filename), d);
+        return String.format("wrote dictionary of %d bytes (trained from %d samples) to %s", d.length, tmp.size(), filename);
+    }
+
+    /**
+     * Builds a dictionary from the segments of the samples which contain most of the byte sequences that are common
+     * to multiple samples. The segments with the highest scores are placed at the end of the dictionary, so they are
+     * closest to the data to be compressed
+     * @param samples The sampled payloads
+     * @param dict_size The max size of the dictionary
+     * @return The dictionary, which may be empty if the samples have nothing in common
+     */
+    public static byte[] trainDictionary(Collection<byte[]> samples, int dict_size) {
+        Map<Long,Integer> freq=new HashMap<>(); // number of samples containing a given sequence of GRAM bytes
+        for(byte[] sample: samples) {
+            Set<Long> grams=new HashSet<>();
+            for(int i=0; i + GRAM <= sample.length; i++)
+                grams.add(Bits.readLong(sample, i));
+            grams.forEach(g -> freq.merge(g, 1, Integer::sum));
+        }
+
+        class Segment {
+            final byte[] data; final long score;
+            Segment(byte[] data, long score) {this.data=data; this.score=score;}
+        }
+        List<Segment> segments=new ArrayList<>();
+        Set<ByteBuffer> seen=new HashSet<>();
+        for(byte[] sample: samples) {
+            for(int start=0; start < sample.length; start+=SEGMENT_SIZE) {
+                int end=Math.min(start + SEGMENT_SIZE, sample.length);
+                long score=0;
+                for(int i=start; i + GRAM <= end; i++)
+                    score+=freq.get(Bits.readLong(sample, i)) - 1; // sequences in a single sample don't count
+                byte[] data=Arrays.copyOfRange(sample, start, end);
+                if(score > 0 && seen.add(ByteBuffer.wrap(data)))
+                    segments.add(new Segment(data, score));
+            }
+        }
+        segments.sort((a,b) -> Long.compare(b.score, a.score));
+        List<Segment> selected=new ArrayList<>();
+        int size=0;
+        for(Segment seg: segments) {
+            if(size + seg.data.length > dict_size)
+                continue;
+            selected.add(seg);
+            size+=seg.data.length;
+        }
+        byte[] retval=new byte[size];
+        int pos=size;
+        for(Segment seg: selected) { // the best segment is placed at the end
+            pos-=seg.data.length;
+            System.arraycopy(seg.data, 0, retval, pos, seg.data.length);
+        }
+        return retval;
+    }
+
+    /**
+     * Reservoir sampling: every payload offered has the same probability of being in the sample. As the payloads are
+     * offered randomly (1 in dict_sample_rate), this is also true for all payloads sent
+     */
+    protected synchronized void sample(byte[] buf, int offset, int length) {
+        long n=num_sampled++;
+        int index=samples.size() < dict_samples? samples.size() : (int)Util.random(n + 1) - 1;
+        if(index >= dict_samples)
+            return;
+        byte[] sample=Arrays.copyOfRange(buf, offset, offset + Math.min(length, MAX_SAMPLE_SIZE));
+        if(index == samples.size())
+            samples.add(sample);
+        else
+            samples.set(index, sample);
+    }
+
     /** Returns a new message as a result of uncompressing msg, or null if msg couldn't be uncompressed */
-    protected Message uncompress(Message msg, int original_size) {
+    protected Message uncompress(Message msg, CompressHeader hdr) {
         byte[] compressed_payload=msg.getRawBuffer();
         if(compressed_payload != null && compressed_payload.length > 0) {
-            byte[] uncompressed_payload=new byte[original_size];
-            Inflater inflater=null;
+            BlockingQueue<Codec> pool=pools.get(hdr.codec);
+            if(pool == null) {
+                log.error("%s: codec %d not found; dropping message from %s", Util.getMessage("CompressionFailure"),
+                          hdr.codec, msg.getSrc());
+                return null;
+            }
+            if(hdr.dict_id != dict_id) {
+                log.error("%s: message from %s was compressed with a different dictionary",
+                          Util.getMessage("CompressionFailure"), msg.getSrc());
+                return null;
+            }
+            if(hdr.original_size < 0) {
+                log.error("%s: invalid original size (%d) of message from %s", Util.getMessage("CompressionFailure"),
+                          hdr.original_size, msg.getSrc());
+                return null;
+            }
+            byte[] uncompressed_payload=new byte[hdr.original_size];
+            Codec c=null;
             try {
-                inflater=inflater_pool.take();
-                inflater.reset();
-                inflater.setInput(compressed_payload, msg.getOffset(), msg.getLength());
-                try {
-                    inflater.inflate(uncompressed_payload);
-                    // we need to copy: https://jira.jboss.org/jira/browse/JGRP-867
-                    return msg.copy(false).setBuffer(uncompressed_payload);
-                }
-                catch(DataFormatException e) {
-                    log.error(Util.getMessage("CompressionFailure"), e);
+                c=pool.take();
+                long start=stats? System.nanoTime() : 0;
+                int size=c.uncompress(compressed_payload, msg.getOffset(), msg.getLength(), uncompressed_payload, 0, hdr.original_size);
+                if(size != hdr.original_size) {
+                    log.error("%s: uncompressed size (%d) of message from %s differs from the original size (%d)",
+                              Util.getMessage("CompressionFailure"), size, msg.getSrc(), hdr.original_size);
+                    return null;
                 }
+                if(stats)
+                    codec_stats.get(hdr.codec).addUncompression(System.nanoTime() - start);
+                // we need to copy: https://jira.jboss.org/jira/browse/JGRP-867
+                return msg.copy(false).setBuffer(uncompressed_payload);
             }
             catch(InterruptedException e) {
                 Thread.currentThread().interrupt(); // set the interrupt bit again, so caller can handle it
             }
+            catch(Exception e) {
+                log.error(Util.getMessage("CompressionFailure"), e);
+            }
             finally {
-                if(inflater != null)
-                    inflater_pool.offer(inflater);
+                if(c != null)
+                    pool.offer(c);
             }
         }
         return null;
     }
 
+    protected Codec createCodec(String name) throws Exception {
+        switch(name) {
+            case "deflate": return new DeflateCodec(compression_level);
+            case "lz":      return new LZCodec();
+        }
+        Class<?> clazz=Util.loadClass(name, getClass());
+        return (Codec)clazz.getDeclaredConstructor().newInstance();
+    }
+
+    /** Creates a pool of pool_size instances of codec and returns the codec's id */
+    protected byte addCodec(Codec codec) throws Exception {
+        BlockingQueue<Codec> pool=new ArrayBlockingQueue<>(pool_size);
+        pool.add(codec.dictionary(dict));
+        for(int i=1; i < pool_size; i++)
+            pool.add(codec instanceof DeflateCodec? new DeflateCodec(compression_level).dictionary(dict)
+                       : codec.getClass().getDeclaredConstructor().newInstance().dictionary(dict));
+        if(pools.putIfAbsent(codec.id(), pool) != null)
+            throw new IllegalArgumentException(String.format("codec %s: id %d is already used", codec.name(), codec.id()));
+        codec_stats.put(codec.id(), new CodecStats(codec.name()));
+        return codec.id();
+    }
+
+
+    /** Compression ratio and times of a codec */
+    protected static class CodecStats {
+        protected final String    name;
+        protected final LongAdder num_compressions=new LongAdder(), num_uncompressions=new LongAdder(),
+          bytes_in=new LongAdder(), bytes_out=new LongAdder(), compress_time=new LongAdder(),
+          uncompress_time=new LongAdder(); // ns
+
+        protected CodecStats(String name) {
+            this.name=name;
+        }
+
+        /** Adds a compression of length bytes to compressed_size (-1: didn't fit) bytes */
+        protected void addCompression(int length, int compressed_size, long time) {
+            num_compressions.increment();
+            bytes_in.add(length);
+            bytes_out.add(compressed_size < 0? length : compressed_size);
+            compress_time.add(time);
+        }
+
+        protected void addUncompression(long time) {
+            num_uncompressions.increment();
+            uncompress_time.add(time);
+        }
+
+        protected double ratio() {
+            long in=bytes_in.sum();
+            return in == 0? 0 : bytes_out.sum() / (double)in;
+        }
+
+        protected void reset() {
+            Stream.of(num_compressions, num_uncompressions, bytes_in, bytes_out, compress_time, uncompress_time)
+              .forEach(LongAdder::reset);
+        }
+
+        public String toString() {
+            long compressions=num_compressions.sum(), uncompressions=num_uncompressions.sum();
+            return String.format("%s: %d compressions (ratio: %.2f, avg: %.2f us), %d uncompressions (avg: %.2f us)",
+                                 name, compressions, ratio(),
+                                 compressions == 0? 0 : compress_time.sum() / compressions / 1000.0,
+                                 uncompressions, uncompressions == 0? 0 : uncompress_time.sum() / uncompressions / 1000.0);
+        }
+    }
 
 
     public static class CompressHeader extends Header {
-        int original_size=0;
+        int  original_size=0;
+        byte codec=DeflateCodec.ID;
+        int  dict_id; // hash of the dictionary used for compression, 0 if none was used
 
         public CompressHeader() {
             super();
@@ -189,6 +456,12 @@ public class COMPRESS extends Protocol {
             original_size=s;
         }
 
+        public CompressHeader(int s, byte codec, int dict_id) {
+            this(s);
+            this.codec=codec;
+            this.dict_id=dict_id;
+        }
+
         public short getMagicId() {return 58;}
 
         public Supplier<? extends Header> create() {
@@ -196,15 +469,23 @@ public class COMPRESS extends Protocol {
         }
 
         public int serializedSize() {
-            return Global.INT_SIZE;
+            return Global.INT_SIZE * 2 + Global.BYTE_SIZE;
         }
 
         public void writeTo(DataOutput out) throws Exception {
             out.writeInt(original_size);
+            out.writeByte(codec);
+            out.writeInt(dict_id);
         }
 
         public void readFrom(DataInput in) throws Exception {
             original_size=in.readInt();
+            codec=in.readByte();
+            dict_id=in.readInt();
+        }
+
+        public String toString() {
+            return String.format("original_size=%d, codec=%d, dict_id=%d", original_size, codec, dict_id);
         }
     }
 }
@@ -0,0 +1,499 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.annotations.Property;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Forward error correction for multicasts: the sender groups the multicasts sent by {@link NAKACK2} into blocks of
+ * block_size messages, and sends a parity message for every block, which is the XOR of the (serialized) messages of
+ * the block. A receiver which lost one message of a block recovers it from the parity message and the other messages
+ * of the block, without having to ask the sender for retransmission. Messages which cannot be recovered (more than
+ * one message of a block was lost) are retransmitted by NAKACK2 as usual.
+ * <br/>
+ * To tolerate bursts of lost messages, consecutive messages are added to interleave different blocks: a burst of up
+ * to interleave lost messages hits different blocks, so each of them can be recovered. The overhead is one parity
+ * message (of the size of the largest message of the block) per block_size messages.
+ * <br/>
+ * Parity messages for blocks which are not full are sent after flush_interval ms, so that the last messages of a
+ * burst are also protected. Messages are passed up as soon as they are received; FEC only adds the recovered ones.
+ * <br/>
+ * Only regular NAKACK2 multicasts are protected, as NAKACK2 drops duplicates (e.g. a recovered message which
+ * was merely delayed). Needs to be placed below NAKACK2, e.g. just above the transport.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@MBean(description="Forward error correction: sends parity messages for blocks of multicasts, from which receivers " +
+  "recover lost multicasts without retransmission")
+public class FEC extends Protocol {
+
+    /* -----------------------------------------    Properties     -------------------------------------------------- */
+    @Property(description="Number of messages per block. A parity message is sent for every block, so the overhead " +
+      "is 1/block_size, and 1 lost message per block can be recovered",writable=false)
+    protected int  block_size=8;
+
+    @Property(description="Number of blocks consecutive messages are spread over. Bursts of up to interleave lost " +
+      "messages can be recovered",writable=false)
+    protected int  interleave=4;
+
+    @Property(description="Max time (ms) after which a parity message is sent for a block which is not full. " +
+      "0 disables this: parity messages are only sent for full blocks",writable=false)
+    protected long flush_interval=50;
+
+    @Property(description="Max number of incomplete blocks per sender kept by a receiver")
+    protected int  max_blocks=64;
+
+
+    /* --------------------------------------------- Fields ------------------------------------------------------ */
+    protected volatile Address                  local_addr;
+    protected short                             nak_id;
+    /** The ids of this protocol and the protocols below it: their headers are not part of the parity */
+    protected short[]                           excluded_ids;
+    protected Encoder                           encoder;
+    protected final ConcurrentMap<Address,Decoder> decoders=Util.createConcurrentMap();
+    protected Future<?>                         flush_task;
+    protected NAKACK2                           nak;
+
+    protected final LongAdder                   num_parity_sent=new LongAdder(), num_parity_received=new LongAdder(),
+                                                num_recovered=new LongAdder(), num_unrecoverable=new LongAdder();
+
+
+    public int  blockSize()         {return block_size;}
+    public FEC  blockSize(int s)    {this.block_size=s; return this;}
+    public int  interleave()        {return interleave;}
+    public FEC  interleave(int i)   {this.interleave=i; return this;}
+    public long flushInterval()     {return flush_interval;}
+    public FEC  flushInterval(long i) {this.flush_interval=i; return this;}
+
+    @ManagedAttribute(description="Number of parity messages sent")
+    public long getNumParitySent()      {return num_parity_sent.sum();}
+    @ManagedAttribute(description="Number of parity messages received")
+    public long getNumParityReceived()  {return num_parity_received.sum();}
+    @ManagedAttribute(description="Number of lost messages recovered by FEC")
+    public long getNumRecovered()       {return num_recovered.sum();}
+    @ManagedAttribute(description="Number of blocks with more than one lost message, which could not be recovered")
+    public long getNumUnrecoverable()   {return num_unrecoverable.sum();}
+    @ManagedAttribute(description="Number of retransmission requests sent by NAKACK2 (for comparison with num_recovered)")
+    public long getNumXmitRequests()    {return nak != null? nak.getXmitRequestsSent() : 0;}
+
+    public void resetStats() {
+        super.resetStats();
+        num_parity_sent.reset();
+        num_parity_received.reset();
+        num_recovered.reset();
+        num_unrecoverable.reset();
+    }
+
+    public void init() throws Exception {
+        super.init();
+        if(block_size < 2)
+            throw new IllegalArgumentException("block_size (" + block_size + ") needs to be >= 2");
+        if(interleave < 1)
+            throw new IllegalArgumentException("interleave (" + interleave + ") needs to be >= 1");
+        nak_id=ClassConfigurator.getProtocolId(NAKACK2.class);
+        nak=stack.findProtocol(NAKACK2.class);
+        if(nak == null)
+            log.warn("%s: NAKACK2 not found; no messages will be protected", getClass().getSimpleName());
+        List<Short> ids=new ArrayList<>();
+        ids.add(id);
+        for(Protocol p=down_prot; p != null; p=p.getDownProtocol())
+            ids.add(p.getId());
+        excluded_ids=new short[ids.size()];
+        for(int i=0; i < ids.size(); i++)
+            excluded_ids[i]=ids.get(i);
+        encoder=new Encoder();
+    }
+
+    public void start() throws Exception {
+        super.start();
+        if(flush_interval > 0)
+            flush_task=getTransport().scheduleRecurring(() -> flush(flush_interval), flush_interval, flush_interval,
+                                                        TimeUnit.MILLISECONDS, false);
+    }
+
+    public void stop() {
+        super.stop();
+        if(flush_task != null) {
+            flush_task.cancel(true);
+            flush_task=null;
+        }
+        decoders.clear();
+    }
+
+    @ManagedOperation(description="Sends the parity messages of all blocks which are not full")
+    public void flush() {
+        flush(0);
+    }
+
+    /** Sends the parity messages of the blocks which are older than max_age ms */
+    protected void flush(long max_age) {
+        List<Message> parity=encoder.flush(max_age);
+        if(parity != null)
+            parity.forEach(this::sendParity);
+    }
+
+    @ManagedOperation(description="Prints the incomplete blocks of all senders")
+    public String printBlocks() {
+        StringBuilder sb=new StringBuilder();
+        for(Map.Entry<Address,Decoder> entry: decoders.entrySet())
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        return sb.toString();
+    }
+
+    public Object down(Event evt) {
+        switch(evt.getType()) {
+            case Event.VIEW_CHANGE:
+                View view=evt.getArg();
+                decoders.keySet().retainAll(view.getMembers());
+                break;
+            case Event.SET_LOCAL_ADDRESS:
+                local_addr=evt.getArg();
+                break;
+        }
+        return down_prot.down(evt);
+    }
+
+    public Object down(Message msg) {
+        NakAckHeader2 nak_hdr;
+        if(msg.getDest() != null || (nak_hdr=msg.getHeader(nak_id)) == null || nak_hdr.getType() != NakAckHeader2.MSG)
+            return down_prot.down(msg);
+        byte[] buf;
+        try {
+            buf=serialize(msg, local_addr);
+        }
+        catch(Exception ex) {
+            log.error("%s: failed serializing message: %s", local_addr, ex);
+            return down_prot.down(msg);
+        }
+        Message parity=null;
+        FecHeader hdr;
+        synchronized(encoder) {
+            hdr=encoder.add(buf);
+            if(hdr.index == block_size -1)
+                parity=encoder.remove(hdr.block);
+        }
+        // the message is stored by NAKACK2: add the header to a copy, so that retransmissions don't carry it
+        Object retval=down_prot.down(msg.copy(true, true).putHeader(id, hdr));
+        if(parity != null)
+            sendParity(parity);
+        return retval;
+    }
+
+    public Object up(Message msg) {
+        FecHeader hdr=msg.getHeader(id);
+        if(hdr == null)
+            return up_prot.up(msg);
+        Address sender=msg.getSrc();
+        if(Objects.equals(sender, local_addr))
+            return hdr.type == FecHeader.DATA? up_prot.up(msg) : null;
+        Message recovered=handle(sender, msg, hdr);
+        if(recovered != null)
+            up_prot.up(recovered);
+        return hdr.type == FecHeader.DATA? up_prot.up(msg) : null;
+    }
+
+    public void up(MessageBatch batch) {
+        List<Message> recovered=null;
+        boolean local=Objects.equals(batch.sender(), local_addr);
+        for(Iterator<Message> it=batch.iterator(); it.hasNext();) {
+            Message msg=it.next();
+            FecHeader hdr=msg.getHeader(id);
+            if(hdr == null)
+                continue;
+            if(hdr.type == FecHeader.PARITY)
+                it.remove();
+            if(local)
+                continue;
+            Message rec=handle(batch.sender(), msg, hdr);
+            if(rec != null) {
+                if(recovered == null)
+                    recovered=new ArrayList<>();
+                recovered.add(rec);
+            }
+        }
+        if(!batch.isEmpty())
+            up_prot.up(batch);
+        // not added to the batch: NAKACK2 would deliver recovered (regular) messages right away if the batch was OOB
+        if(recovered != null)
+            recovered.forEach(up_prot::up);
+    }
+
+    /** Adds a data or parity message to its block. Returns the recovered message, or null */
+    protected Message handle(Address sender, Message msg, FecHeader hdr) {
+        Decoder decoder=decoders.get(sender);
+        if(decoder == null) {
+            Decoder tmp=decoders.putIfAbsent(sender, decoder=new Decoder(sender));
+            if(tmp != null)
+                decoder=tmp;
+        }
+        try {
+            return decoder.add(msg, hdr);
+        }
+        catch(Exception ex) {
+            log.error("%s: failed recovering message from %s: %s", local_addr, sender, ex);
+            return null;
+        }
+    }
+
+    protected void sendParity(Message parity) {
+        parity.setSrc(local_addr);
+        down_prot.down(parity);
+        num_parity_sent.increment();
+    }
+
+    /** Serializes a message without the headers of this protocol and the protocols below it */
+    protected byte[] serialize(Message msg, Address sender) throws Exception {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream((int)msg.size());
+        msg.writeToNoAddrs(sender, out, excluded_ids);
+        return Arrays.copyOf(out.buffer(), out.position());
+    }
+
+    /** XORs buf into parity, which has to be at least as long as buf */
+    protected static void xor(byte[] parity, byte[] buf, int len) {
+        for(int i=0; i < len; i++)
+            parity[i]^=buf[i];
+    }
+
+
+    /** Computes the parity of the blocks being sent. Not thread safe: access needs to be synchronized */
+    protected class Encoder {
+        protected final Block[] blocks=new Block[interleave]; // one block per lane
+        protected int           lane;
+        protected long          next_block=1;
+
+        /** Adds a serialized message to the block of the next lane and returns the header for the message */
+        protected FecHeader add(byte[] buf) {
+            Block block=blocks[lane];
+            if(block == null)
+                block=blocks[lane]=new Block(next_block++);
+            FecHeader hdr=new FecHeader(FecHeader.DATA, block.id, (short)block.count, 0);
+            block.add(buf);
+            lane=(lane + 1) % blocks.length;
+            return hdr;
+        }
+
+        /** Removes the block with the given id and returns its parity message */
+        protected Message remove(long block_id) {
+            for(int i=0; i < blocks.length; i++) {
+                Block block=blocks[i];
+                if(block != null && block.id == block_id) {
+                    blocks[i]=null;
+                    return block.toParity();
+                }
+            }
+            return null;
+        }
+
+        /** Removes the blocks older than max_age ms and returns their parity messages */
+        protected synchronized List<Message> flush(long max_age) {
+            List<Message> retval=null;
+            long now=System.nanoTime(), max_age_ns=TimeUnit.MILLISECONDS.toNanos(max_age);
+            for(int i=0; i < blocks.length; i++) {
+                Block block=blocks[i];
+                if(block != null && now - block.start >= max_age_ns) {
+                    blocks[i]=null;
+                    if(retval == null)
+                        retval=new ArrayList<>(blocks.length);
+                    retval.add(block.toParity());
+                }
+            }
+            return retval;
+        }
+    }
+
+    /** A block of messages being sent */
+    protected class Block {
+        protected final long id;
+        protected final long start=System.nanoTime();
+        protected byte[]     parity=new byte[0];
+        protected int        count;
+        protected int        lengths; // XOR of the lengths of all messages
+
+        protected Block(long id) {
+            this.id=id;
+        }
+
+        protected void add(byte[] buf) {
+            if(buf.length > parity.length)
+                parity=Arrays.copyOf(parity, buf.length);
+            xor(parity, buf, buf.length);
+            lengths^=buf.length;
+            count++;
+        }
+
+        protected Message toParity() {
+            // regular message: delivered after the messages of the block sent before it (if those were not lost)
+            return new Message(null).setBuffer(parity)
+              .putHeader(FEC.this.id, new FecHeader(FecHeader.PARITY, id, (short)count, lengths));
+        }
+    }
+
+
+    /** Keeps the blocks of messages received from a sender and recovers lost messages */
+    protected class Decoder {
+        protected final Address              sender;
+        protected final Map<Long,InBlock>    blocks=new LinkedHashMap<>(); // ordered by first reception
+
+        protected Decoder(Address sender) {
+            this.sender=sender;
+        }
+
+        protected synchronized Message add(Message msg, FecHeader hdr) throws Exception {
+            InBlock block=blocks.get(hdr.block);
+            if(hdr.type == FecHeader.PARITY) {
+                num_parity_received.increment();
+                if(block == null) // all messages were received (or all were lost, which cannot be recovered)
+                    return hdr.index == 1? recover(new InBlock(), msg, hdr) : null;
+                block.setParity(msg, hdr);
+            }
+            else {
+                if(block == null) {
+                    if(blocks.size() >= max_blocks)
+                        evictOldest();
+                    blocks.put(hdr.block, block=new InBlock());
+                }
+                // a copy, as the protocols above may modify msg (the copy doesn't point into a pooled receive buffer)
+                if(!block.add(msg.copy(true, true), hdr.index))
+                    return null;
+                if(block.parity == null) {
+                    if(block.received == block_size) // all messages were received: the parity is not needed
+                        blocks.remove(hdr.block);
+                    return null;
+                }
+            }
+            if(block.received == block.count) { // nothing to recover
+                blocks.remove(hdr.block);
+                return null;
+            }
+            if(block.received < block.count-1)  // more than 1 message missing: wait for more messages
+                return null;
+            blocks.remove(hdr.block);
+            return recover(block, block.parity, block.parity_hdr);
+        }
+
+        /** Recovers the single missing message of a block from the parity message and the other messages */
+        protected Message recover(InBlock block, Message parity_msg, FecHeader parity_hdr) throws Exception {
+            byte[] buf=Arrays.copyOfRange(parity_msg.getRawBuffer(), parity_msg.getOffset(),
+                                          parity_msg.getOffset() + parity_msg.getLength());
+            int len=parity_hdr.length;
+            if(block.msgs != null) {
+                for(Message m: block.msgs) {
+                    if(m == null)
+                        continue;
+                    byte[] tmp=serialize(m, sender);
+                    xor(buf, tmp, tmp.length);
+                    len^=tmp.length;
+                }
+            }
+            if(len < 0 || len > buf.length)
+                throw new IllegalStateException("invalid length of recovered message: " + len);
+            Message msg=new Message(false);
+            msg.readFrom(new ByteArrayDataInputStream(buf, 0, len));
+            msg.setSrc(sender);
+            num_recovered.increment();
+            log.trace("%s: recovered message from %s (block %d)", local_addr, sender, parity_hdr.block);
+            return msg;
+        }
+
+        protected void evictOldest() {
+            Iterator<InBlock> it=blocks.values().iterator();
+            InBlock oldest=it.next();
+            if(oldest.parity != null)
+                num_unrecoverable.increment();
+            it.remove();
+        }
+
+        public synchronized String toString() {
+            return blocks.size() + " blocks";
+        }
+    }
+
+    /** A block of received messages */
+    protected class InBlock {
+        protected Message[] msgs;
+        protected int       received;
+        protected Message   parity;
+        protected FecHeader parity_hdr;
+        protected int       count=-1; // the number of messages of the block; known when the parity is received
+
+        /** Adds a message, returns false if the message was already received */
+        protected boolean add(Message msg, int index) {
+            if(msgs == null)
+                msgs=new Message[block_size];
+            if(index < 0 || index >= msgs.length || msgs[index] != null)
+                return false;
+            msgs[index]=msg;
+            received++;
+            return true;
+        }
+
+        protected void setParity(Message msg, FecHeader hdr) {
+            parity=msg.detachPooledBuffer();
+            parity_hdr=hdr;
+            count=hdr.index;
+        }
+    }
+
+
+    public static class FecHeader extends Header {
+        protected static final byte DATA=1, PARITY=2;
+
+        protected byte  type;
+        protected long  block;  // the id of the block
+        protected short index;  // DATA: the index of the message in the block, PARITY: the number of messages
+        protected int   length; // PARITY: the XOR of the lengths of the serialized messages
+
+        public FecHeader() {
+        }
+
+        public FecHeader(byte type, long block, short index, int length) {
+            this.type=type;
+            this.block=block;
+            this.index=index;
+            this.length=length;
+        }
+
+        public short                      getMagicId()                        {return 94;}
+        public Supplier<? extends Header> create()                            {return FecHeader::new;}
+        public int serializedSize() {
+            return Global.BYTE_SIZE + Bits.size(block) + Global.SHORT_SIZE + (type == PARITY? Global.INT_SIZE : 0);
+        }
+
+        public void writeTo(DataOutput out) throws Exception {
+            out.writeByte(type);
+            Bits.writeLong(block, out);
+            out.writeShort(index);
+            if(type == PARITY)
+                out.writeInt(length);
+        }
+
+        public void readFrom(DataInput in) throws Exception {
+            type=in.readByte();
+            block=Bits.readLong(in);
+            index=in.readShort();
+            if(type == PARITY)
+                length=in.readInt();
+        }
+
+        public String toString() {
+            return type == DATA? String.format("DATA block=%d index=%d", block, index)
+              : String.format("PARITY block=%d count=%d", block, index);
+        }
+    }
+}
@@ -293,7 +293,7 @@ public class FRAG2 extends Protocol {
 
         entry.lock();
         try {
-            entry.set(hdr.frag_id, msg);
+            entry.set(hdr.frag_id, msg.detachPooledBuffer()); // the fragment is kept until all fragments have been received
             if(entry.isComplete()) {
                 assembled_msg=entry.assembleMessage();
                 frag_table.remove(hdr.id);
@@ -4,31 +4,47 @@ import org.jgroups.Address;
 import org.jgroups.Message;
 import org.jgroups.logging.Log;
 import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.ByteBufferOutputStream;
 import org.jgroups.util.Util;
 
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.jgroups.protocols.TP.MSG_OVERHEAD;
 
 /**
  * Bundler which doesn't bundle :-) Can be used to measure the diff between bundling and non-bundling (e.g. at runtime)
- * This bundler doesn't use a pool of buffers, but creates a new buffer every time a message is sent.
+ * This bundler doesn't use a pool of buffers, but creates a new buffer every time a message is sent, unless
+ * {@link TP#useByteBuffers()} is true: in this case, messages are marshalled into ByteBuffers taken from a small pool.
  * @author Bela Ban
  * @since  4.0
  */
 public class NoBundler implements Bundler {
     protected TP                                       transport;
     protected Log                                      log;
+    protected BlockingQueue<ByteBufferOutputStream>    buf_pool; // only used if transport.useByteBuffers() is true
+    protected int                                      buf_pool_size=Math.max(4, Runtime.getRuntime().availableProcessors());
 
     public int       size()                {return 0;}
 
     public void init(TP transport) {
         this.transport=transport;
         log=transport.getLog();
+        if(transport.useByteBuffers())
+            buf_pool=new ArrayBlockingQueue<>(buf_pool_size);
     }
     public void start() {}
     public void stop()  {}
 
     public void send(Message msg) throws Exception {
+        if(buf_pool != null && msg.size() <= transport.getMaxBundleSize()) {
+            sendSingleMessage(msg, getBuffer());
+            return;
+        }
         ByteArrayDataOutputStream out=new ByteArrayDataOutputStream((int)(msg.size() + 10));
         sendSingleMessage(msg, out);
     }
@@ -53,4 +69,38 @@ public class NoBundler implements Bundler {
         }
     }
 
-}
\ No newline at end of file
+    /** Marshals msg into a pooled ByteBuffer and sends it; the buffer is returned to the pool when done */
+    protected void sendSingleMessage(final Message msg, final ByteBufferOutputStream output) {
+        Address dest=msg.getDest();
+        try {
+            output.reset();
+            Util.writeMessage(msg, output, dest == null);
+            ByteBuffer buf=output.getBuffer();
+            buf.flip();
+            transport.doSend(buf, dest);
+            if(transport.statsEnabled())
+                transport.incrNumSingleMsgsSent(1);
+        }
+        catch(BufferOverflowException overflow) { // shouldn't happen as the size was checked before
+            sendSingleMessage(msg, new ByteArrayDataOutputStream((int)(msg.size() + 10)));
+        }
+        catch(SocketException | SocketTimeoutException sock_ex) {
+            log.trace(Util.getMessage("SendFailure"),
+                      transport.localAddress(), (dest == null? "cluster" : dest), msg.size(), sock_ex.toString(), msg.printHeaders());
+        }
+        catch(Throwable e) {
+            log.error(Util.getMessage("SendFailure"),
+                      transport.localAddress(), (dest == null? "cluster" : dest), msg.size(), e.toString(), msg.printHeaders());
+        }
+        finally {
+            buf_pool.offer(output); // dropped if the pool is full
+        }
+    }
+
+    /** Returns a buffer from the pool, or creates a new one if the pool is empty */
+    protected ByteBufferOutputStream getBuffer() {
+        ByteBufferOutputStream buf=buf_pool.poll();
+        return buf != null? buf : new ByteBufferOutputStream(transport.createSendBuffer(transport.getMaxBundleSize() + MSG_OVERHEAD));
+    }
+
+}
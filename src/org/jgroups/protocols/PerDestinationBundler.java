@@ -0,0 +1,102 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.View;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bundler which shards destinations over a number of sender threads. Each shard is a {@link TransferQueueBundler} with
+ * its own queue, thread and output buffer, so marshalling and sending to different destinations is done in parallel.
+ * All messages to the same destination (null for multicasts) are handled by the same shard, which preserves
+ * per-destination ordering.
+ * <br/>
+ * This is useful when sending to many different unicast destinations, e.g. over TCP, where a single bundler thread
+ * becomes the bottleneck.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class PerDestinationBundler implements Bundler {
+    protected final Shard[] shards;
+
+    public PerDestinationBundler() {
+        this(Math.min(4, Runtime.getRuntime().availableProcessors()), 16384);
+    }
+
+    public PerDestinationBundler(int num_senders, int capacity) {
+        if(num_senders <= 0)
+            throw new IllegalArgumentException("number of senders (" + num_senders + ") must be > 0");
+        shards=new Shard[num_senders];
+        for(int i=0; i < shards.length; i++)
+            shards[i]=new Shard(capacity, i);
+    }
+
+    public int numSenders() {return shards.length;}
+
+    public void init(TP transport) {
+        for(Shard shard: shards)
+            shard.init(transport);
+    }
+
+    public void start() {
+        for(Shard shard: shards)
+            shard.start();
+    }
+
+    public void stop() {
+        for(Shard shard: shards)
+            shard.stop();
+    }
+
+    public void send(Message msg) throws Exception {
+        shards[index(msg.getDest())].send(msg);
+    }
+
+    public void viewChange(View view) {
+        for(Shard shard: shards)
+            shard.viewChange(view);
+    }
+
+    public int size() {
+        int retval=0;
+        for(Shard shard: shards)
+            retval+=shard.size();
+        return retval;
+    }
+
+    public Map<String,Object> getStats() {
+        Map<String,Object> retval=new HashMap<>(shards.length + 1);
+        retval.put("num_senders", shards.length);
+        for(Shard shard: shards)
+            retval.put(shard.getThreadName(), shard.getStats());
+        return retval;
+    }
+
+    public void resetStats() {
+        for(Shard shard: shards)
+            shard.resetStats();
+    }
+
+    /** Returns the index of the shard for a given destination */
+    protected int index(Address dest) {
+        if(dest == null || shards.length == 1)
+            return 0;
+        int hash=dest.hashCode();
+        hash^=hash >>> 16; // spread the higher bits, as there are typically only a few shards
+        return (hash & Integer.MAX_VALUE) % shards.length;
+    }
+
+
+    protected static class Shard extends TransferQueueBundler {
+        protected final String thread_name;
+
+        protected Shard(int capacity, int index) {
+            super(capacity);
+            this.thread_name=THREAD_NAME + "-" + index;
+        }
+
+        @Override protected String getThreadName() {return thread_name;}
+    }
+}
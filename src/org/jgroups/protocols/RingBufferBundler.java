@@ -77,6 +77,7 @@ public class RingBufferBundler extends BaseBundler {
 
     public void stop() {
         bundler_thread.stop();
+        super.stop();
     }
 
     public void send(Message msg) throws Exception {
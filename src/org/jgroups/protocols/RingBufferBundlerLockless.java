@@ -68,6 +68,7 @@ public class RingBufferBundlerLockless extends BaseBundler {
 
     public void stop() {
         bundler_thread.stop();
+        super.stop();
     }
 
 
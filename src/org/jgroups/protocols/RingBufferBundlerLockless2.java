@@ -67,6 +67,7 @@ public class RingBufferBundlerLockless2 extends BaseBundler {
 
     public void stop() {
         bundler_thread.stop();
+        super.stop();
     }
 
 
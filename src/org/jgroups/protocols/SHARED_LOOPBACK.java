@@ -9,9 +9,11 @@ import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.util.AsciiString;
 import org.jgroups.util.NameCache;
+import org.jgroups.util.Buffer;
 import org.jgroups.util.Util;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -83,6 +85,11 @@ public class SHARED_LOOPBACK extends TP {
         sendToSingleMember(dest, data, offset, length);
     }
 
+    protected void sendToSingleMember(Address dest, ByteBuffer buf) throws Exception {
+        Buffer tmp=toBuffer(buf);
+        sendToSingleMember(dest, tmp.getBuf(), tmp.getOffset(), tmp.getLength());
+    }
+
     protected void sendToSingleMember(Address dest, byte[] buf, int offset, int length) throws Exception {
         Map<Address,SHARED_LOOPBACK> dests=routing_table.get(cluster_name);
         if(dests == null) {
@@ -0,0 +1,441 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.logging.Log;
+import org.jgroups.util.*;
+import org.jgroups.util.UUID;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Side-channel of the transport which sends packets to members on the same host through shared memory, bypassing the
+ * network stack. Packets to members on other hosts (or which cannot be sent through shared memory) are sent by the
+ * transport as usual.
+ * <br/>
+ * Every member creates a directory {@code <shm_dir>/jgroups/<cluster>/<local-addr>}. To send to a member, a sender
+ * creates a {@link ShmRingBuffer} {@code <shm_dir>/jgroups/<cluster>/<dest>/<local-addr>} in the destination's
+ * directory; if that directory doesn't exist, the destination is not on the same host. Every ring buffer therefore has
+ * a single writer (the sender) and a single reader: the member's reader thread, which polls all of its ring buffers
+ * and passes the packets to the transport, as if they had been received from the network. This means that bundling
+ * and the processing of received messages and batches are the same as for packets received from the network.
+ * <br/>
+ * When a ring buffer is full, or a packet is larger than the ring buffer, {@link #send(Address,byte[],int,int)} returns
+ * false and the transport sends the packet over the network instead.
+ * <br/>
+ * The directory of a member is removed when the member disconnects; ring buffers to members which left are removed
+ * on a view change, or when their directory has been removed. Every member holds a lock on the file {@code .lock} in
+ * its directory while it is running; on startup and on a view change, the directories (and ring buffers) of members
+ * whose lock is not held anymore (e.g. because they crashed) are removed.
+ * <br/>
+ * When idle, the reader thread spins for a while and then parks with an exponentially increasing park time (up to
+ * {@link #MAX_PARK_TIME}), so an idle side-channel costs hardly any CPU.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class ShmSideChannel implements Runnable {
+    protected static final String          BASE_DIR="jgroups", TMP_SUFFIX=".tmp", LOCK_FILE=".lock";
+    protected static final int             MAX_READS=64;   // max packets read from a ring buffer before moving on
+    protected static final int             MAX_SPINS=100;  // idle loops before the reader parks
+    protected static final long            MIN_PARK_TIME=TimeUnit.MICROSECONDS.toNanos(50);
+    protected static final long            MAX_PARK_TIME=TimeUnit.MILLISECONDS.toNanos(1);
+    protected static final long            SCAN_INTERVAL=TimeUnit.MILLISECONDS.toNanos(100);
+    // directories of members which haven't been locked for this long are considered stale
+    protected static final long            STALE_TIME=10_000;
+
+    protected final TP                     transport;
+    protected final Log                    log;
+    protected final File                   cluster_dir, local_dir;
+    protected final Address                local_addr;
+    protected final int                    ring_size;
+
+    // ring buffers to members on the same host, written to by the sender threads of the transport
+    protected final Map<Address,ShmRingBuffer> out=new ConcurrentHashMap<>();
+    // members which are not on the same host; cleared on a view change
+    protected final Set<Address>           remote=ConcurrentHashMap.newKeySet();
+    // ring buffers from members on the same host; only accessed by the reader thread, which closes them on exit
+    protected final Map<String,Inbound>    in=new HashMap<>();
+    protected volatile Thread              reader;
+    protected RandomAccessFile             lock_file; // held (locked) while this member is running
+
+    protected final LongAdder              num_sent=new LongAdder();
+    protected final LongAdder              num_received=new LongAdder();
+    protected final LongAdder              num_fallbacks=new LongAdder();
+
+
+    public ShmSideChannel(TP transport, String shm_dir, String cluster, UUID local_addr, int ring_size) {
+        this.transport=Objects.requireNonNull(transport);
+        this.log=transport.getLog();
+        this.local_addr=local_addr;
+        this.ring_size=ring_size;
+        this.cluster_dir=new File(new File(shm_dir, BASE_DIR), cluster);
+        this.local_dir=new File(cluster_dir, name(local_addr));
+    }
+
+    @ManagedAttribute(description="Number of packets sent through shared memory")
+    public long getNumShmSent()         {return num_sent.sum();}
+    @ManagedAttribute(description="Number of packets received through shared memory")
+    public long getNumShmReceived()     {return num_received.sum();}
+    @ManagedAttribute(description="Number of packets to members on the same host which were sent over the network " +
+      "as the ring buffer was full or the packet was too big")
+    public long getNumShmFallbacks()    {return num_fallbacks.sum();}
+    @ManagedAttribute(description="Number of members on the same host to which packets are sent through shared memory")
+    public int  getNumShmLocalMembers() {return out.size();}
+    public File localDir()              {return local_dir;}
+
+    public void resetStats() {
+        num_sent.reset(); num_received.reset(); num_fallbacks.reset();
+    }
+
+    public synchronized void start() throws IOException {
+        if(reader != null)
+            return;
+        if(!local_dir.isDirectory() && !local_dir.mkdirs())
+            throw new IOException("failed creating " + local_dir);
+        lock();
+        removeStaleMembers();
+        reader=transport.getThreadFactory().newThread(this, "SHM-Reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public synchronized void stop() {
+        Thread tmp=reader;
+        reader=null;
+        if(tmp != null) {
+            LockSupport.unpark(tmp);
+            try {
+                tmp.join(500);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if(tmp.isAlive()) // the reader closes its ring buffers when it exits
+                log.warn("%s: shared memory reader thread did not terminate", local_addr);
+        }
+        for(Iterator<Map.Entry<Address,ShmRingBuffer>> it=out.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Address,ShmRingBuffer> entry=it.next();
+            it.remove();
+            close(entry.getValue(), true);
+        }
+        remote.clear();
+        delete(local_dir);
+        Util.close(lock_file); // releases the lock
+        lock_file=null;
+        cluster_dir.delete(); // only succeeds if no other member on this host uses the cluster directory
+    }
+
+    /**
+     * Sends a packet to dest through shared memory
+     * @return True if the packet was sent, false if dest is not on the same host or the packet could not be written
+     * (ring buffer full or packet too big); the caller then needs to send the packet over the network
+     */
+    public boolean send(Address dest, byte[] buf, int offset, int length) {
+        ShmRingBuffer ring=ring(dest);
+        if(ring == null)
+            return false;
+        if(ring.write(buf, offset, length)) {
+            num_sent.increment();
+            return true;
+        }
+        num_fallbacks.increment();
+        return false;
+    }
+
+    /** Same as {@link #send(Address,byte[],int,int)}, but sends the remaining bytes of a ByteBuffer */
+    public boolean send(Address dest, ByteBuffer buf) {
+        ShmRingBuffer ring=ring(dest);
+        if(ring == null)
+            return false;
+        if(ring.write(buf)) {
+            num_sent.increment();
+            return true;
+        }
+        num_fallbacks.increment();
+        return false;
+    }
+
+    /** Same as {@link #send(Address,byte[],int,int)}, but sends the remaining bytes of all buffers as one packet */
+    public boolean send(Address dest, ByteBuffer[] bufs) {
+        ShmRingBuffer ring=ring(dest);
+        if(ring == null)
+            return false;
+        if(ring.write(bufs)) {
+            num_sent.increment();
+            return true;
+        }
+        num_fallbacks.increment();
+        return false;
+    }
+
+    /**
+     * Removes the ring buffers to members which left and the directories of crashed members, and re-checks which
+     * members are on the same host
+     */
+    public void viewChange(Collection<Address> members) {
+        remote.clear();
+        for(Iterator<Map.Entry<Address,ShmRingBuffer>> it=out.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Address,ShmRingBuffer> entry=it.next();
+            if(!members.contains(entry.getKey())) {
+                it.remove();
+                close(entry.getValue(), true);
+            }
+        }
+        removeStaleMembers();
+    }
+
+    /**
+     * Removes the directories of members which are not running anymore, and the ring buffers they created in the
+     * directories of other members. A member is not running if the lock file in its directory is not locked, and
+     * it (or the directory, if there is no lock file) hasn't been modified for {@link #STALE_TIME} ms
+     */
+    public void removeStaleMembers() {
+        File[] dirs=cluster_dir.listFiles(File::isDirectory);
+        if(dirs == null)
+            return;
+        long now=System.currentTimeMillis();
+        for(File dir: dirs) {
+            if(dir.equals(local_dir) || !isStale(dir, now))
+                continue;
+            log.debug("%s: removing stale shared memory directory %s", local_addr, dir);
+            delete(dir);
+            String name=dir.getName();
+            for(File d: dirs) {
+                new File(d, name).delete();
+                new File(d, name + TMP_SUFFIX).delete();
+            }
+        }
+    }
+
+    public void run() {
+        byte[] buf=new byte[transport.getMaxBundleSize() + TP.MSG_OVERHEAD];
+        long last_scan=0, park_time=MIN_PARK_TIME;
+        int idle=0;
+        try {
+            while(reader == Thread.currentThread()) {
+                try {
+                    long now=System.nanoTime();
+                    if(now - last_scan >= SCAN_INTERVAL || last_scan == 0) {
+                        scan();
+                        last_scan=now;
+                    }
+                    int read=0;
+                    for(Inbound inbound: in.values()) {
+                        buf=drain(inbound, buf);
+                        read+=inbound.last_read;
+                    }
+                    if(read > 0) {
+                        idle=0;
+                        park_time=MIN_PARK_TIME;
+                    }
+                    else if(++idle > MAX_SPINS) {
+                        LockSupport.parkNanos(park_time);
+                        park_time=Math.min(park_time * 2, MAX_PARK_TIME);
+                    }
+                    else
+                        Thread.yield();
+                }
+                catch(Throwable t) {
+                    log.error("%s: failed reading from shared memory: %s", local_addr, t);
+                }
+            }
+        }
+        finally {
+            for(Inbound inbound: in.values())
+                close(inbound.ring, false);
+            in.clear();
+        }
+    }
+
+    public String toString() {
+        return String.format("%s (sent=%d, received=%d, fallbacks=%d, local members=%d)",
+                             local_dir, getNumShmSent(), getNumShmReceived(), getNumShmFallbacks(), out.size());
+    }
+
+    /** Returns the ring buffer to dest, creating it if needed, or null if dest is not on the same host */
+    protected ShmRingBuffer ring(Address dest) {
+        if(!(dest instanceof UUID) || dest.equals(local_addr) || reader == null)
+            return null;
+        ShmRingBuffer ring=out.get(dest);
+        if(ring != null || remote.contains(dest))
+            return ring;
+        synchronized(this) {
+            if((ring=out.get(dest)) != null || reader == null)
+                return ring;
+            File dest_dir=new File(cluster_dir, name(dest));
+            if(!dest_dir.isDirectory()) {
+                remote.add(dest);
+                return null;
+            }
+            try {
+                ring=create(dest_dir);
+                out.put(dest, ring);
+                log.debug("%s: sending to %s through shared memory (%s)", local_addr, dest, ring);
+                return ring;
+            }
+            catch(IOException ex) {
+                log.warn("%s: failed creating shared memory ring buffer to %s: %s", local_addr, dest, ex);
+                remote.add(dest);
+                return null;
+            }
+        }
+    }
+
+    /** Creates the ring buffer under a temp name first, so the reader never maps a file which is not fully created */
+    protected ShmRingBuffer create(File dest_dir) throws IOException {
+        File file=new File(dest_dir, name(local_addr)), tmp=new File(dest_dir, name(local_addr) + TMP_SUFFIX);
+        if(file.exists())
+            return new ShmRingBuffer(file, ring_size);
+        tmp.delete();
+        ShmRingBuffer ring=new ShmRingBuffer(tmp, ring_size);
+        try {
+            if(!tmp.renameTo(file))
+                throw new IOException("failed renaming " + tmp + " to " + file);
+            return new ShmRingBuffer(file, ring_size);
+        }
+        finally {
+            close(ring, !file.exists());
+        }
+    }
+
+    /**
+     * Maps the ring buffers of new senders and closes the ones removed by their senders. Also closes the ring buffers
+     * to members which removed their directory (e.g. on disconnect). Called by the reader
+     */
+    protected void scan() {
+        for(Iterator<Map.Entry<Address,ShmRingBuffer>> it=out.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Address,ShmRingBuffer> entry=it.next();
+            if(!entry.getValue().file().exists()) {
+                it.remove();
+                close(entry.getValue(), false);
+            }
+        }
+        String[] names=local_dir.list();
+        if(names == null)
+            return;
+        Set<String> current=new HashSet<>(Arrays.asList(names));
+        for(Iterator<Map.Entry<String,Inbound>> it=in.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String,Inbound> entry=it.next();
+            if(!current.contains(entry.getKey())) {
+                it.remove();
+                close(entry.getValue().ring, false);
+            }
+        }
+        for(String name: names) {
+            if(name.endsWith(TMP_SUFFIX) || name.equals(LOCK_FILE) || in.containsKey(name))
+                continue;
+            try {
+                Address sender=UUID.fromString(name);
+                in.put(name, new Inbound(sender, new ShmRingBuffer(new File(local_dir, name), ring_size)));
+                log.debug("%s: receiving from %s through shared memory", local_addr, sender);
+            }
+            catch(Throwable t) {
+                log.warn("%s: failed mapping shared memory ring buffer %s: %s", local_addr, name, t);
+            }
+        }
+    }
+
+    /** Passes up to MAX_READS packets from a ring buffer to the transport. Returns the (possibly resized) buffer */
+    protected byte[] drain(Inbound inbound, byte[] buf) {
+        BufferPool pool=transport.getReceiveBufferPool();
+        inbound.last_read=0;
+        for(int i=0; i < MAX_READS; i++) {
+            int len=inbound.ring.nextLength();
+            if(len < 0)
+                break;
+            // if pooling is enabled, every packet is read into its own buffer, which the messages point into
+            PooledBuffer pooled=pool != null && len <= pool.bufferSize()? pool.get() : null;
+            if(pooled == null && len > buf.length)
+                buf=new byte[len];
+            byte[] data=pooled != null? pooled.buffer() : buf;
+            try {
+                inbound.ring.read(data, 0);
+                if(pooled != null)
+                    transport.receive(inbound.sender, pooled, 0, len);
+                else
+                    transport.receive(inbound.sender, data, 0, len);
+            }
+            finally {
+                if(pooled != null)
+                    pooled.release();
+            }
+            inbound.last_read++;
+            num_received.increment();
+        }
+        return buf;
+    }
+
+    /** Creates the lock file in the local directory and locks it until {@link #stop()} is called */
+    protected void lock() throws IOException {
+        RandomAccessFile raf=new RandomAccessFile(new File(local_dir, LOCK_FILE), "rw");
+        try {
+            if(raf.getChannel().tryLock() == null)
+                throw new IOException(local_dir + " is locked by a different process");
+            lock_file=raf;
+        }
+        catch(IOException | RuntimeException ex) {
+            Util.close(raf);
+            throw ex;
+        }
+    }
+
+    /** Returns true if the member owning dir is not running anymore */
+    protected static boolean isStale(File dir, long now) {
+        File file=new File(dir, LOCK_FILE);
+        long modified=file.exists()? file.lastModified() : dir.lastModified();
+        if(modified == 0 || now - modified < STALE_TIME) // just created, or removed in the meantime
+            return false;
+        if(!file.exists())
+            return true;
+        try(RandomAccessFile raf=new RandomAccessFile(file, "rw")) {
+            FileLock lock=raf.getChannel().tryLock(); // released when raf is closed
+            return lock != null;
+        }
+        catch(OverlappingFileLockException ex) { // locked by a member in the same JVM
+            return false;
+        }
+        catch(IOException ex) {
+            return false;
+        }
+    }
+
+    protected static void delete(File dir) {
+        File[] files=dir.listFiles();
+        if(files != null)
+            for(File f: files)
+                f.delete();
+        dir.delete();
+    }
+
+    protected void close(ShmRingBuffer ring, boolean delete) {
+        Util.close(ring);
+        if(delete)
+            ring.file().delete();
+    }
+
+    protected static String name(Address addr) {
+        return ((UUID)addr).toStringLong();
+    }
+
+
+    protected static class Inbound {
+        protected final Address       sender;
+        protected final ShmRingBuffer ring;
+        protected int                 last_read; // number of packets read by the last drain()
+
+        protected Inbound(Address sender, ShmRingBuffer ring) {
+            this.sender=sender;
+            this.ring=ring;
+        }
+    }
+}
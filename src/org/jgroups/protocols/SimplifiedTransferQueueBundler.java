@@ -28,6 +28,11 @@ public class SimplifiedTransferQueueBundler extends TransferQueueBundler {
         return curr + removeQueueSize();
     }
 
+    public void init(TP tp) {
+        super.init(tp);
+        linger_time=0; // messages are not kept in the hashmap of the superclass, so lingering is not supported
+    }
+
     protected void addMessage(Message msg, long size) {
         try {
             while(curr < MSG_BUF_SIZE && msg_queue[curr] != null) ++curr;
@@ -9,6 +9,7 @@ import org.jgroups.annotations.Property;
 import org.jgroups.blocks.cs.TcpServer;
 import org.jgroups.util.SocketFactory;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 
 /**
@@ -65,7 +66,12 @@ public class TCP extends BasicTCP {
 
     public void send(Address dest, byte[] data, int offset, int length) throws Exception {
         if(server != null)
-            server.send(dest, data, offset, length);
+            server.send(dest, lane(data, offset, length), data, offset, length);
+    }
+
+    public void send(Address dest, ByteBuffer data) throws Exception {
+        if(server != null)
+            server.send(dest, lane(data), data);
     }
 
     public void retainAll(Collection<Address> members) {
@@ -84,7 +90,7 @@ public class TCP extends BasicTCP {
           .log(this.log);
         server.setBufferedInputStreamSize(buffered_input_stream_size).setBufferedOutputStreamSize(buffered_output_stream_size)
           .peerAddressReadTimeout(peer_addr_read_timeout)
-          .usePeerConnections(true)
+          .usePeerConnections(true).lanes(lanes)
           .socketFactory(getSocketFactory());
 
         if(reaper_interval > 0 || conn_expire_time > 0) {
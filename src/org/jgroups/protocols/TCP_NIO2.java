@@ -8,6 +8,7 @@ import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.blocks.cs.NioServer;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.util.Collection;
@@ -38,9 +39,18 @@ public class TCP_NIO2 extends BasicTCP {
       "until it terminates. New messages will start a new reader")
     protected long    reader_idle_time=5000;
 
+    @Property(description="Number of reactor (selector) threads over which the connections are distributed. If 1, " +
+      "a single thread accepts new connections and reads and writes all connections. If > 1, a dedicated thread " +
+      "accepts new connections, and every connection is read and written by one of the reactor threads",
+      writable=false)
+    protected int     reactor_threads=1;
+
 
     public TCP_NIO2() {}
 
+    public int      reactorThreads()      {return reactor_threads;}
+    public TCP_NIO2 reactorThreads(int n) {this.reactor_threads=n; return this;}
+
 
     @ManagedAttribute
     public int getOpenConnections() {return server.getNumConnections();}
@@ -63,9 +73,12 @@ public class TCP_NIO2 extends BasicTCP {
     @ManagedAttribute(description="Is the acceptor thread (calling select()) running")
     public boolean isAcceptorRunning() {return server != null && server.acceptorRunning();}
 
-    @ManagedAttribute(description="Number of times select() was called")
+    @ManagedAttribute(description="Number of times select() was called (by the acceptor and all reactor threads)")
     public int     numSelects() {return server != null? server.numSelects() : -1;}
 
+    @ManagedAttribute(description="Number of connections, selects and handled keys per reactor thread")
+    public String  reactorStats() {return server != null? server.reactorStats() : "n/a";}
+
     @ManagedAttribute(description="Number of partial writes for all connections (not all bytes were written)")
     public int     numPartialWrites() {return server.numPartialWrites();}
 
@@ -80,7 +93,31 @@ public class TCP_NIO2 extends BasicTCP {
     public void send(Address dest, byte[] data, int offset, int length) throws Exception {
         if(server != null) {
             try {
-                server.send(dest, data, offset, length);
+                server.send(dest, lane(data, offset, length), data, offset, length);
+            }
+            catch(ClosedChannelException | CancelledKeyException ignored_exceptions) {}
+            catch(Throwable ex) {
+                log.warn("%s: failed sending message to %s: %s", local_addr, dest, ex);
+            }
+        }
+    }
+
+    public void send(Address dest, ByteBuffer data) throws Exception {
+        if(server != null) {
+            try {
+                server.send(dest, lane(data), data);
+            }
+            catch(ClosedChannelException | CancelledKeyException ignored_exceptions) {}
+            catch(Throwable ex) {
+                log.warn("%s: failed sending message to %s: %s", local_addr, dest, ex);
+            }
+        }
+    }
+
+    public void send(Address dest, ByteBuffer[] data) throws Exception {
+        if(server != null) {
+            try {
+                server.send(dest, lane(data), data);
             }
             catch(ClosedChannelException | CancelledKeyException ignored_exceptions) {}
             catch(Throwable ex) {
@@ -89,6 +126,8 @@ public class TCP_NIO2 extends BasicTCP {
         }
     }
 
+    public boolean supportsGatheringWrites() {return true;}
+
     public void retainAll(Collection<Address> members) {
         server.retainAll(members);
     }
@@ -103,8 +142,9 @@ public class TCP_NIO2 extends BasicTCP {
           .tcpNodelay(tcp_nodelay).linger(linger)
           .clientBindAddress(client_bind_addr).clientBindPort(client_bind_port).deferClientBinding(defer_client_bind_addr)
           .log(this.log);
-        server.maxSendBuffers(max_send_buffers).usePeerConnections(true);
-        server.copyOnPartialWrite(this.copy_on_partial_write).readerIdleTime(this.reader_idle_time);
+        server.maxSendBuffers(max_send_buffers).usePeerConnections(true).lanes(lanes);
+        server.copyOnPartialWrite(this.copy_on_partial_write).readerIdleTime(this.reader_idle_time)
+          .reactorThreads(reactor_threads);
 
         if(reaper_interval > 0 || conn_expire_time > 0) {
             if(reaper_interval == 0) {
@@ -4,11 +4,13 @@ package org.jgroups.protocols;
 import org.jgroups.*;
 import org.jgroups.annotations.*;
 import org.jgroups.blocks.LazyRemovalCache;
+import org.jgroups.blocks.UUIDCache;
 import org.jgroups.conf.ClassConfigurator;
 import org.jgroups.conf.PropertyConverters;
 import org.jgroups.jmx.AdditionalJmxObjects;
 import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
+import org.jgroups.nio.Buffers;
 import org.jgroups.stack.*;
 import org.jgroups.util.*;
 import org.jgroups.util.ThreadFactory;
@@ -20,9 +22,15 @@ import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 
 /**
@@ -54,6 +62,7 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
     public static final byte       LIST=1; // we have a list of messages rather than a single message when set
     public static final byte       MULTICAST=2; // message is a multicast (versus a unicast) message when set
+    public static final byte       COMPRESSED=4; // the message list following the flags is compressed when set
     public static final int        MSG_OVERHEAD=Global.SHORT_SIZE + Global.BYTE_SIZE; // version + flags
     protected static final long    MIN_WAIT_BETWEEN_DISCOVERIES=TimeUnit.NANOSECONDS.convert(10, TimeUnit.SECONDS);  // ns
     protected static final boolean can_bind_to_mcast_addr;
@@ -169,6 +178,13 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     @Property(description="Interval (in ms) at which the time service updates its timestamp. 0 disables the time service")
     protected long time_service_interval=500;
 
+    @Property(description="Interval (ms) of the tick service. If > 0, the recurring tasks of protocols (e.g. the " +
+      "retransmission tasks of NAKACK2 and UNICAST3, or the heartbeats of FD_ALL) are run by the tick service in a " +
+      "single timer task, rather than each being scheduled on the timer. The intervals of the tasks are rounded up to " +
+      "a multiple of tick_service_interval; tasks which may block are run by the timer's thread pool. " +
+      "0 disables the tick service",writable=false)
+    protected long tick_service_interval;
+
     @Property(description="Switch to enable diagnostic probing. Default is true")
     protected boolean enable_diagnostics=true;
 
@@ -220,8 +236,8 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     @Property(name="max_bundle_size", description="Maximum number of bytes for messages to be queued until they are sent")
     protected int max_bundle_size=64000;
 
-    @Property(description="The type of bundler used (\"ring-buffer\", \"transfer-queue\" (default), \"sender-sends\" or " +
-      "\"no-bundler\") or the fully qualified classname of a Bundler implementation")
+    @Property(description="The type of bundler used (\"ring-buffer\", \"transfer-queue\" (default), \"sender-sends\", " +
+      "\"per-destination\", \"adaptive\" or \"no-bundler\") or the fully qualified classname of a Bundler implementation")
     protected String bundler_type="transfer-queue";
 
     @Property(description="The max number of elements in a bundler if the bundler supports size limitations")
@@ -230,9 +246,119 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     @Property(description="Number of spins before a real lock is acquired")
     protected int bundler_num_spins=5;
 
+    @Property(description="Number of sender threads of the per-destination bundler. Destinations are sharded over " +
+      "the sender threads; each thread has its own queue and output buffer")
+    protected int bundler_num_senders=Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    @Property(description="Max time (in microseconds) the first message to a destination waits in the bundler for " +
+      "more messages to be bundled with it. This bounds the latency added by bundling, while still coalescing " +
+      "messages under moderate load. Used by the transfer-queue based bundlers (transfer-queue, per-destination and " +
+      "adaptive). 0 sends a bundle as soon as the queue is empty")
+    protected long bundler_linger_time;
+
+    @Property(description="Message rate (msgs/sec) at which the adaptive bundler switches from direct sends to bundling")
+    protected double bundler_adaptive_high_rate=20_000;
+
+    @Property(description="Message rate (msgs/sec) below which the adaptive bundler switches from bundling back to " +
+      "direct sends. Needs to be lower than bundler_adaptive_high_rate")
+    protected double bundler_adaptive_low_rate=5_000;
+
+    @Property(description="Interval (ms) at which the adaptive bundler measures the load and decides whether to switch")
+    protected long bundler_adaptive_interval=500;
+
     @Property(description="The wait strategy for a RingBuffer")
     protected String bundler_wait_strategy="park";
 
+    @Property(description="If true, bundlers marshal messages into a pooled ByteBuffer and pass it to the transport " +
+      "via doSend(ByteBuffer,Address). Transports which can write ByteBuffers directly (e.g. TCP_NIO2) then avoid " +
+      "an additional copy of the data")
+    protected boolean bundler_use_byte_buffers;
+
+    @Property(description="If true, the ByteBuffers used by the bundlers are allocated off-heap (direct). " +
+      "Ignored unless bundler_use_byte_buffers is true")
+    protected boolean bundler_use_direct_buffers;
+
+    @Property(description="If true, bundlers marshal only the metadata (e.g. headers) of messages into a buffer and " +
+      "pass the payloads of messages as separate buffers to the transport, which writes them with a single gathering " +
+      "write. Payloads are not copied. Only used if the transport supports gathering writes (TCP_NIO2); takes " +
+      "precedence over bundler_use_byte_buffers")
+    protected boolean bundler_gathering_writes;
+
+    @Property(description="Min size (bytes) of a payload to be passed as a separate buffer; smaller payloads are " +
+      "copied. Ignored unless bundler_gathering_writes is true")
+    protected int bundler_gathering_min_size=1024;
+
+    @Property(description="If true, bundlers compress a serialized message list (bundle) as a whole when it is " +
+      "larger than bundler_compression_min_size. Contrary to COMPRESS, which compresses the payloads of large " +
+      "messages, this also compresses many small (and similar) messages. The receiver uncompresses the bundle before " +
+      "reading the messages. Takes precedence over bundler_gathering_writes and bundler_use_byte_buffers for message " +
+      "lists. Not used by the RingBuffer bundlers",writable=false)
+    protected boolean bundler_compression;
+
+    @Property(description="Min size (bytes) of a serialized message list for it to be compressed. " +
+      "Ignored unless bundler_compression is true")
+    protected int bundler_compression_min_size=1024;
+
+    @Property(description="Compression level (from java.util.zip.Deflater) of compressed message lists " +
+      "(1=best speed, 9=best compression). Ignored unless bundler_compression is true",writable=false)
+    protected int bundler_compression_level=Deflater.BEST_SPEED;
+
+    @Property(description="Number of inflaters for concurrent uncompression of received message lists. " +
+      "Ignored unless bundler_compression is true",writable=false)
+    protected int bundler_compression_pool_size=4;
+
+    /** Max ratio of uncompressed to compressed size of deflate (zlib) */
+    protected static final int MAX_DEFLATE_RATIO=1032;
+    /** Inflaters to uncompress received message lists; created lazily on reception of the first compressed list */
+    protected volatile BlockingQueue<Inflater> inflater_pool;
+
+    protected final LongAdder num_bundles_compressed=new LongAdder(), num_bytes_compressed=new LongAdder(),
+      num_bytes_uncompressed=new LongAdder();
+
+    @Property(description="Max number of pooled receive buffers. If > 0, the payloads of received messages point " +
+      "into a pooled receive buffer instead of being copied. A buffer is returned to the pool when all of its messages " +
+      "have been delivered, or copied by a protocol keeping them (e.g. NAKACK2 or UNICAST3). Applications which keep " +
+      "a message after receive() returns need to copy it. Only used by transports with a receive buffer per " +
+      "packet (UDP). 0 disables pooling")
+    protected int receive_buffer_pool_size;
+
+    /** Pool of receive buffers, null unless receive_buffer_pool_size > 0 */
+    protected BufferPool receive_buffer_pool;
+
+    @Property(description="If true, consecutive message batches received from the same sender (for the same " +
+      "destination, cluster and mode) are merged into larger batches before being processed. This amortizes the " +
+      "cost of locking in protocols such as NAKACK2 and UNICAST3 over more messages, at the expense of a small delay",
+      writable=false)
+    protected boolean coalesce_batches;
+
+    @Property(description="Max number of messages in a coalesced batch. Ignored unless coalesce_batches is true")
+    protected int coalesce_max_size=512;
+
+    @Property(description="Max time (ms) a message is held in a coalesced batch before it is processed. Ignored " +
+      "unless coalesce_batches is true")
+    protected long coalesce_max_time=1;
+
+    /** Merges received batches; null unless coalesce_batches is true */
+    protected BatchCoalescer batch_coalescer;
+
+    protected Future<?>      batch_coalescer_flusher;
+
+    @Property(description="If true, packets to members on the same host are sent through ring buffers in shared " +
+      "memory (under shm_dir) rather than over the network. Packets to members on other hosts, and packets which " +
+      "don't fit into a ring buffer, are sent over the network",writable=false)
+    protected boolean shm_enabled;
+
+    @Property(description="The directory in which the shared memory ring buffers are created. Needs to be on a " +
+      "memory-backed file system (e.g. tmpfs). Ignored unless shm_enabled is true",writable=false)
+    protected String shm_dir="/dev/shm";
+
+    @Property(description="Size (bytes) of a shared memory ring buffer; one is created for every sender-receiver " +
+      "pair on the same host. Needs to be a multiple of 4. Ignored unless shm_enabled is true",writable=false)
+    protected int shm_ring_size=1 << 20;
+
+    /** Sends packets to members on the same host through shared memory; null unless shm_enabled is true */
+    protected ShmSideChannel shm;
+
     @ManagedAttribute(description="Fully qualified classname of bundler")
     public String getBundlerClass() {
         return bundler != null? bundler.getClass().getName() : "null";
@@ -246,6 +372,40 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     }
     public final int getMaxBundleSize()            {return max_bundle_size;}
     public int getBundlerCapacity()                {return bundler_capacity;}
+    public int getBundlerNumSenders()              {return bundler_num_senders;}
+    public long getBundlerLingerTime()             {return bundler_linger_time;}
+    public TP  setBundlerLingerTime(long time)     {bundler_linger_time=time; return this;}
+    public TP  setBundlerNumSenders(int num)       {bundler_num_senders=num; return this;}
+    public boolean useByteBuffers()                {return bundler_use_byte_buffers;}
+    public TP useByteBuffers(boolean b)            {bundler_use_byte_buffers=b; return this;}
+    public boolean useDirectBuffers()              {return bundler_use_direct_buffers;}
+    /** True if bundler_gathering_writes is enabled and the transport supports gathering writes */
+    public boolean useGatheringWrites()            {return bundler_gathering_writes && supportsGatheringWrites();}
+    public TP useGatheringWrites(boolean b)        {bundler_gathering_writes=b; return this;}
+    public int getBundlerGatheringMinSize()        {return bundler_gathering_min_size;}
+    public TP setBundlerGatheringMinSize(int size) {bundler_gathering_min_size=size; return this;}
+    public boolean useBundlerCompression()         {return bundler_compression;}
+    public TP useBundlerCompression(boolean b)     {bundler_compression=b; return this;}
+    public int getBundlerCompressionMinSize()      {return bundler_compression_min_size;}
+    public TP setBundlerCompressionMinSize(int s)  {bundler_compression_min_size=s; return this;}
+    public int getBundlerCompressionLevel()        {return bundler_compression_level;}
+    public TP setBundlerCompressionLevel(int l)    {bundler_compression_level=l; return this;}
+    public TP useDirectBuffers(boolean b)          {bundler_use_direct_buffers=b; return this;}
+    public BufferPool getReceiveBufferPool()       {return receive_buffer_pool;}
+    public boolean coalesceBatches()               {return coalesce_batches;}
+    public TP coalesceBatches(boolean b)           {coalesce_batches=b; return this;}
+    public int coalesceMaxSize()                   {return coalesce_max_size;}
+    public TP coalesceMaxSize(int size)            {coalesce_max_size=size; return this;}
+    public long coalesceMaxTime()                  {return coalesce_max_time;}
+    public TP coalesceMaxTime(long time)           {coalesce_max_time=time; return this;}
+    public BatchCoalescer getBatchCoalescer()      {return batch_coalescer;}
+    public boolean shmEnabled()                    {return shm_enabled;}
+    public TP shmEnabled(boolean b)                {shm_enabled=b; return this;}
+    public String shmDir()                         {return shm_dir;}
+    public TP shmDir(String dir)                   {shm_dir=dir; return this;}
+    public int shmRingSize()                       {return shm_ring_size;}
+    public TP shmRingSize(int size)                {shm_ring_size=size; return this;}
+    public ShmSideChannel getShmSideChannel()      {return shm;}
     public int getMessageProcessingMaxBufferSize() {return msg_processing_max_buffer_size;}
 
     @ManagedAttribute public int getBundlerBufferSize() {
@@ -327,7 +487,15 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     public long getThreadPoolKeepAliveTime() {return thread_pool_keep_alive_time;}
 
     public Object[] getJmxObjects() {
-        return new Object[]{msg_stats, msg_processing_policy, bundler};
+        List<Object> retval=new ArrayList<>(5);
+        retval.add(msg_stats);
+        retval.add(msg_processing_policy);
+        retval.add(bundler);
+        if(batch_coalescer != null)
+            retval.add(batch_coalescer);
+        if(shm != null)
+            retval.add(shm);
+        return retval.toArray();
     }
 
     public <T extends Protocol> T setLevel(String level) {
@@ -379,6 +547,19 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
       "experimental and may be removed without notice.")
     protected boolean timer_handle_non_blocking_tasks=true;
 
+    @Property(description="The timer implementation: \"new3\" (TimeScheduler3, tasks are ordered in a DelayQueue) " +
+      "or \"wheel\" (HashedTimingWheel: O(1) scheduling and cancellation, at the granularity of timer_tick_time)",
+      writable=false)
+    protected String timer_type="new3";
+
+    @Property(description="Number of slots per level of the timing wheel; needs to be a power of 2. " +
+      "Ignored unless timer_type is \"wheel\"",writable=false)
+    protected int timer_wheel_size=256;
+
+    @Property(description="Duration (ms) of a tick of the timing wheel; tasks are executed with this granularity. " +
+      "Ignored unless timer_type is \"wheel\"",writable=false)
+    protected long timer_tick_time=10;
+
     @ManagedAttribute(description="Class of the timer implementation")
     public String getTimerClass() {
         return timer != null? timer.getClass().getSimpleName() : "null";
@@ -391,6 +572,23 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
     public AsciiString getClusterNameAscii() {return cluster_name;}
 
+    @ManagedAttribute(description="Number of message lists sent compressed")
+    public long getNumBundlesCompressed() {return num_bundles_compressed.sum();}
+
+    @ManagedAttribute(description="Total size (bytes) of the compressed message lists that were sent")
+    public long getNumBytesCompressed() {return num_bytes_compressed.sum();}
+
+    @ManagedAttribute(description="Total size (bytes) of the sent compressed message lists before compression")
+    public long getNumBytesUncompressed() {return num_bytes_uncompressed.sum();}
+
+    /** Called by the bundlers when a message list of uncompressed_size bytes was sent as compressed_size bytes */
+    public TP incrBundlesCompressed(int uncompressed_size, int compressed_size) {
+        num_bundles_compressed.increment();
+        num_bytes_uncompressed.add(uncompressed_size);
+        num_bytes_compressed.add(compressed_size);
+        return this;
+    }
+
     @ManagedAttribute(description="Number of messages from members in a different cluster")
     public int getDifferentClusterMessages() {
         return suppress_log_different_cluster != null? suppress_log_different_cluster.getCache().size() : 0;
@@ -463,6 +661,9 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
     protected TimeService             time_service;
 
+    /** Runs the recurring tasks of protocols; null unless tick_service_interval > 0 */
+    protected TickService             tick_service;
+
 
     // ================================= Default SocketFactory ========================
     protected SocketFactory           socket_factory=new DefaultSocketFactory();
@@ -483,9 +684,10 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     /**
      * Cache which maintains mappings between logical and physical addresses. When sending a message to a logical
      * address,  we look up the physical address from logical_addr_cache and send the message to the physical address<br/>
-     * The keys are logical addresses, the values physical addresses
+     * The keys are logical addresses, the values physical addresses. Lookups are lock-free, as they're done for
+     * every unicast message sent
      */
-    protected LazyRemovalCache<Address,PhysicalAddress> logical_addr_cache;
+    protected UUIDCache<PhysicalAddress> logical_addr_cache;
 
     // last time (in ns) we sent a discovery request
     protected long last_discovery_request;
@@ -545,6 +747,11 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     public Address localAddress()    {return local_addr;}
     public View    view()            {return view;}
 
+    @ManagedAttribute(description="Stats of the receive buffer pool (null if not enabled)")
+    public String getReceiveBufferPoolStats() {
+        return receive_buffer_pool != null? receive_buffer_pool.toString() : null;
+    }
+
     @ManagedAttribute(description="The physical address of the channel")
     public String getLocalPhysicalAddress() {return local_physical_addr != null? local_physical_addr.printIpAddress() : null;}
 
@@ -554,6 +761,15 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
         msg_stats.reset();
         avg_batch_size.clear();
         msg_processing_policy.reset();
+        if(receive_buffer_pool != null)
+            receive_buffer_pool.resetStats();
+        if(batch_coalescer != null)
+            batch_coalescer.resetStats();
+        num_bundles_compressed.reset();
+        num_bytes_compressed.reset();
+        num_bytes_uncompressed.reset();
+        if(tick_service != null)
+            tick_service.resetStats();
     }
 
     public TP registerProbeHandler(DiagnosticsHandler.ProbeHandler handler) {
@@ -649,6 +865,29 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
     public TimeService getTimeService() {return time_service;}
 
+    public TickService getTickService() {return tick_service;}
+
+    /**
+     * Schedules a recurring task with the tick service if enabled, or else with the timer. Used by protocols for
+     * their recurring tasks
+     */
+    public Future<?> scheduleRecurring(Runnable task, long initial_delay, long interval, TimeUnit unit, boolean can_block) {
+        TickService ts=tick_service;
+        return ts != null? ts.scheduleWithFixedDelay(task, initial_delay, interval, unit, can_block)
+          : getTimer().scheduleWithFixedDelay(task, initial_delay, interval, unit, can_block);
+    }
+
+    /** Same as {@link #scheduleRecurring(Runnable,long,long,TimeUnit,boolean)}, but with a dynamic interval */
+    public Future<?> scheduleRecurring(TimeScheduler.Task task, boolean can_block) {
+        TickService ts=tick_service;
+        return ts != null? ts.scheduleWithDynamicInterval(task, can_block) : getTimer().scheduleWithDynamicInterval(task, can_block);
+    }
+
+    @ManagedOperation(description="Prints the tasks run by the tick service, with their invocations and execution times")
+    public String printTickCallbacks() {
+        return tick_service != null? tick_service.printCallbacks() : "tick service is disabled";
+    }
+
     public TP setTimeService(TimeService ts) {
         if(ts == null)
             return this;
@@ -806,6 +1045,56 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
      */
     public abstract void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception;
 
+    /**
+     * Sends the contents of a ByteBuffer (from position to limit) to all members. The default implementation
+     * delegates to {@link #sendMulticast(byte[],int,int)}; transports which can write ByteBuffers directly should
+     * override this.
+     * @param data The data to be sent. Not a copy, so don't modify it
+     */
+    public void sendMulticast(ByteBuffer data) throws Exception {
+        Buffer buf=toBuffer(data);
+        sendMulticast(buf.getBuf(), buf.getOffset(), buf.getLength());
+    }
+
+    /**
+     * Sends the contents of a ByteBuffer (from position to limit) to a single member. The default implementation
+     * delegates to {@link #sendUnicast(PhysicalAddress,byte[],int,int)}; transports which can write ByteBuffers
+     * directly should override this.
+     * @param dest Must be a non-null unicast address
+     * @param data The data to be sent. Not a copy, so don't modify it
+     */
+    public void sendUnicast(PhysicalAddress dest, ByteBuffer data) throws Exception {
+        Buffer buf=toBuffer(data);
+        sendUnicast(dest, buf.getBuf(), buf.getOffset(), buf.getLength());
+    }
+
+    /**
+     * Sends the remaining bytes of all buffers as a single packet to all members. The default implementation copies
+     * the buffers into a single buffer; transports supporting gathering writes should override this.
+     * @param data The data to be sent. Not a copy, so don't modify it
+     */
+    public void sendMulticast(ByteBuffer[] data) throws Exception {
+        sendMulticast(Buffers.concat(data));
+    }
+
+    /**
+     * Sends the remaining bytes of all buffers as a single packet to a single member. The default implementation
+     * copies the buffers into a single buffer; transports supporting gathering writes should override this.
+     * @param dest Must be a non-null unicast address
+     * @param data The data to be sent. Not a copy, so don't modify it
+     */
+    public void sendUnicast(PhysicalAddress dest, ByteBuffer[] data) throws Exception {
+        sendUnicast(dest, Buffers.concat(data));
+    }
+
+    /** Whether the transport can write a packet consisting of multiple buffers without copying them */
+    public boolean supportsGatheringWrites() {return false;}
+
+    /** Creates a buffer for the bundlers to marshal messages into; direct if bundler_use_direct_buffers is true */
+    public ByteBuffer createSendBuffer(int capacity) {
+        return bundler_use_direct_buffers? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
     public abstract String getInfo();
 
     /* ------------------------------------------------------------------------------- */
@@ -865,13 +1154,25 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
         // ========================================== Timer ==============================
         if(timer == null) {
-            timer=new TimeScheduler3(thread_pool, thread_factory);
+            switch(timer_type) {
+                case "new3":
+                    timer=new TimeScheduler3(thread_pool, thread_factory);
+                    break;
+                case "wheel":
+                    timer=new HashedTimingWheel(thread_pool, thread_factory, timer_wheel_size, timer_tick_time);
+                    break;
+                default:
+                    throw new IllegalArgumentException("timer_type " + timer_type + " not known");
+            }
             timer.setNonBlockingTaskHandling(timer_handle_non_blocking_tasks);
         }
 
         if(time_service_interval > 0)
             time_service=new TimeService(timer, time_service_interval).start();
 
+        if(tick_service_interval > 0)
+            tick_service=new TickService(timer, tick_service_interval);
+
 
         Map<String, Object> m=new HashMap<>(2);
         if(bind_addr != null)
@@ -883,7 +1184,7 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
         if(!m.isEmpty())
             up(new Event(Event.CONFIG, m));
 
-        logical_addr_cache=new LazyRemovalCache<>(logical_addr_cache_max_size, logical_addr_cache_expiration);
+        logical_addr_cache=new UUIDCache<>(logical_addr_cache_max_size, logical_addr_cache_expiration);
         
         if(logical_addr_cache_reaper_interval > 0 && (logical_addr_cache_reaper == null || logical_addr_cache_reaper.isDone())) {
             logical_addr_cache_reaper=timer.scheduleWithFixedDelay(new Runnable() {
@@ -901,6 +1202,31 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
             setMessageProcessingPolicy(message_processing_policy);
         else
             msg_processing_policy.init(this);
+
+        if(receive_buffer_pool_size > 0)
+            receive_buffer_pool=new BufferPool(receive_buffer_pool_size, getReceiveBufferSize());
+
+        if(coalesce_batches) {
+            if(coalesce_max_size <= 0 || coalesce_max_time <= 0)
+                throw new IllegalArgumentException("coalesce_max_size and coalesce_max_time have to be > 0");
+            batch_coalescer=new BatchCoalescer(coalesce_max_size, coalesce_max_time, this::processBatch);
+        }
+
+        if(shm_enabled && (shm_ring_size <= 0 || shm_ring_size % 4 != 0))
+            throw new IllegalArgumentException("shm_ring_size (" + shm_ring_size + ") needs to be a positive multiple of 4");
+
+        if(bundler_compression) {
+            if(bundler_compression_level < Deflater.BEST_SPEED || bundler_compression_level > Deflater.BEST_COMPRESSION)
+                throw new IllegalArgumentException("bundler_compression_level (" + bundler_compression_level +
+                                                     ") needs to be in range [1..9]");
+            if(bundler_compression_pool_size <= 0)
+                throw new IllegalArgumentException("bundler_compression_pool_size needs to be > 0");
+        }
+    }
+
+    /** The size of a pooled receive buffer: needs to be able to hold the largest packet that can be received */
+    protected int getReceiveBufferSize() {
+        return max_bundle_size + MSG_OVERHEAD;
     }
 
 
@@ -915,6 +1241,9 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
         if(time_service != null)
             time_service.stop();
 
+        if(tick_service != null)
+            tick_service.stop();
+
         // Stop the thread pool
         if(thread_pool instanceof ExecutorService)
             shutdownThreadPool(thread_pool);
@@ -924,6 +1253,10 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
         if(timer != null)
             timer.stop();
+
+        BlockingQueue<Inflater> tmp=inflater_pool;
+        if(tmp != null)
+            tmp.forEach(Inflater::end);
     }
 
     /**
@@ -947,6 +1280,9 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
             bundler.init(this);
             bundler.start();
         }
+        if(batch_coalescer != null && batch_coalescer_flusher == null)
+            batch_coalescer_flusher=timer.scheduleWithFixedDelay(batch_coalescer::flushExpired, coalesce_max_time,
+                                                                 coalesce_max_time, TimeUnit.MILLISECONDS, false);
         // local_addr is null when shared transport
         setInAllThreadFactories(cluster_name != null? cluster_name.toString() : null, local_addr, thread_naming_pattern);
     }
@@ -985,6 +1321,13 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
             bundler.stop();
             bundler=null;
         }
+        if(batch_coalescer_flusher != null) {
+            batch_coalescer_flusher.cancel(false);
+            batch_coalescer_flusher=null;
+        }
+        if(batch_coalescer != null)
+            batch_coalescer.flush();
+        stopShm();
         if(msg_processing_policy != null)
             msg_processing_policy.destroy();
     }
@@ -1076,6 +1419,27 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     protected void handleDisconnect() {
     }
 
+    /** Creates and starts the shared memory side-channel if shm_enabled is true. Called on connect */
+    protected void startShm() throws Exception {
+        if(!shm_enabled || shm != null)
+            return;
+        if(!(local_addr instanceof UUID)) {
+            log.warn("%s: shared memory requires a UUID address; packets to members on the same host are sent " +
+                       "over the network", local_addr);
+            return;
+        }
+        ShmSideChannel tmp=new ShmSideChannel(this, shm_dir, cluster_name.toString(), (UUID)local_addr, shm_ring_size);
+        tmp.start();
+        shm=tmp;
+    }
+
+    protected void stopShm() {
+        ShmSideChannel tmp=shm;
+        shm=null;
+        if(tmp != null)
+            tmp.stop();
+    }
+
 
     public Object down(Event evt) {
         return handleDownEvent(evt);
@@ -1156,6 +1520,13 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
             case "ab":
             case "alternating-bundler":
                 return new AlternatingBundler();
+            case "per-destination":
+            case "pd":
+                return new PerDestinationBundler(bundler_num_senders, bundler_capacity);
+            case "adaptive":
+            case "ad":
+                return new AdaptiveBundler(bundler_capacity).highRate(bundler_adaptive_high_rate)
+                  .lowRate(bundler_adaptive_low_rate).interval(bundler_adaptive_interval);
             case "rqb": case "rq":
             case "remove-queue-bundler": case "remove-queue":
                 return new RemoveQueueBundler();
@@ -1223,6 +1594,16 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
     public void passMessageUp(Message msg, byte[] cluster_name, boolean perform_cluster_name_matching,
                               boolean multicast, boolean discard_own_mcast) {
+        try {
+            _passMessageUp(msg, cluster_name, perform_cluster_name_matching, multicast, discard_own_mcast);
+        }
+        finally {
+            msg.releasePooledBuffer();
+        }
+    }
+
+    protected void _passMessageUp(Message msg, byte[] cluster_name, boolean perform_cluster_name_matching,
+                                  boolean multicast, boolean discard_own_mcast) {
         if(is_trace)
             log.trace("%s: received %s, headers are %s", local_addr, msg, msg.printHeaders());
 
@@ -1250,6 +1631,19 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
 
     public void passBatchUp(MessageBatch batch, boolean perform_cluster_name_matching, boolean discard_own_mcast) {
+        // protocols may remove messages from the batch, so we need to remember the messages to be released
+        Message[] pooled=receive_buffer_pool != null? getPooledMessages(batch) : null;
+        try {
+            _passBatchUp(batch, perform_cluster_name_matching, discard_own_mcast);
+        }
+        finally {
+            if(pooled != null)
+                for(Message msg: pooled)
+                    msg.releasePooledBuffer();
+        }
+    }
+
+    protected void _passBatchUp(MessageBatch batch, boolean perform_cluster_name_matching, boolean discard_own_mcast) {
         if(is_trace)
             log.trace("%s: received message batch of %d messages from %s", local_addr, batch.size(), batch.sender());
         if(up_prot == null)
@@ -1279,6 +1673,19 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
      * Subclasses must call this method when a unicast or multicast message has been received.
      */
     public void receive(Address sender, byte[] data, int offset, int length) {
+        receive(sender, data, offset, length, null);
+    }
+
+    /**
+     * Called by subclasses when a packet has been received into a pooled buffer. The payloads of the messages point
+     * into the buffer, which is retained until all messages have been delivered; the caller still needs to
+     * release its own reference
+     */
+    public void receive(Address sender, PooledBuffer buf, int offset, int length) {
+        receive(sender, buf.buffer(), offset, length, buf);
+    }
+
+    protected void receive(Address sender, byte[] data, int offset, int length, PooledBuffer pooled) {
         if(data == null) return;
 
         // drop message from self; it has already been looped back up (https://issues.jboss.org/browse/JGRP-1765)
@@ -1298,10 +1705,21 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
         boolean is_message_list=(flags & LIST) == LIST, multicast=(flags & MULTICAST) == MULTICAST;
         ByteArrayDataInputStream in=new ByteArrayDataInputStream(data, offset, length);
+        if((flags & COMPRESSED) == COMPRESSED) {
+            try {
+                if((in=uncompress(in, sender)) == null)
+                    return;
+            }
+            catch(Throwable t) {
+                log.error(String.format(Util.getMessage("IncomingMsgFailure"), local_addr), t);
+                return;
+            }
+            pooled=null; // the messages are read from the uncompressed copy
+        }
         if(is_message_list) // used if message bundling is enabled
-            handleMessageBatch(in, multicast);
+            handleMessageBatch(in, multicast, pooled);
         else
-            handleSingleMessage(in, multicast);
+            handleSingleMessage(in, multicast, pooled);
     }
 
     public void receive(Address sender, DataInput in) throws Exception {
@@ -1317,6 +1735,8 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
         byte flags=in.readByte();
 
         boolean is_message_list=(flags & LIST) == LIST, multicast=(flags & MULTICAST) == MULTICAST;
+        if((flags & COMPRESSED) == COMPRESSED && (in=uncompress(in, sender)) == null)
+            return;
         if(is_message_list) // used if message bundling is enabled
             handleMessageBatch(in, multicast);
         else
@@ -1324,11 +1744,84 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     }
 
 
+    /**
+     * Reads a compressed message list (| uncompressed size | compressed size | compressed data |) from in and
+     * returns a stream over the uncompressed data, or null if the data could not be uncompressed. The sizes are
+     * validated before anything is allocated: the compressed data has to be smaller than the uncompressed data (or
+     * else the sender wouldn't have compressed it), the uncompressed data cannot be larger than the maximum expansion
+     * of deflate, and the compressed data has to be in the packet. If in is a {@link ByteArrayDataInputStream}, the
+     * compressed data is inflated directly from its buffer
+     */
+    protected ByteArrayDataInputStream uncompress(DataInput in, Address sender) throws Exception {
+        int uncompressed_size=in.readInt(), compressed_size=in.readInt();
+        ByteArrayDataInputStream input=in instanceof ByteArrayDataInputStream? (ByteArrayDataInputStream)in : null;
+        if(compressed_size <= 0 || uncompressed_size <= compressed_size
+          || uncompressed_size / MAX_DEFLATE_RATIO > compressed_size
+          || (input != null && compressed_size > input.limit() - input.position())) {
+            log.error("%s: %s from %s: invalid sizes (uncompressed=%d, compressed=%d)",
+                      local_addr, Util.getMessage("CompressionFailure"), sender, uncompressed_size, compressed_size);
+            return null;
+        }
+        byte[] compressed;
+        int offset=0;
+        if(input != null) {
+            compressed=input.buffer();
+            offset=input.position();
+            input.skipBytes(compressed_size);
+        }
+        else
+            in.readFully(compressed=new byte[compressed_size]);
+        byte[] uncompressed=new byte[uncompressed_size];
+        BlockingQueue<Inflater> pool=inflaterPool();
+        Inflater inflater=pool.take();
+        try {
+            inflater.reset();
+            inflater.setInput(compressed, offset, compressed_size);
+            if(inflater.inflate(uncompressed) != uncompressed_size)
+                throw new DataFormatException("uncompressed size differs from the expected size of " + uncompressed_size);
+            return new ByteArrayDataInputStream(uncompressed);
+        }
+        catch(DataFormatException ex) {
+            log.error("%s: %s from %s: %s", local_addr, Util.getMessage("CompressionFailure"), sender, ex);
+            return null;
+        }
+        finally {
+            pool.offer(inflater);
+        }
+    }
+
+    protected BlockingQueue<Inflater> inflaterPool() {
+        BlockingQueue<Inflater> pool=inflater_pool;
+        if(pool == null) {
+            synchronized(this) {
+                if((pool=inflater_pool) == null) {
+                    int size=Math.max(1, bundler_compression_pool_size);
+                    pool=new ArrayBlockingQueue<>(size);
+                    for(int i=0; i < size; i++)
+                        pool.add(new Inflater());
+                    inflater_pool=pool;
+                }
+            }
+        }
+        return pool;
+    }
+
     protected void handleMessageBatch(DataInput in, boolean multicast) {
+        handleMessageBatch(in, multicast, null);
+    }
+
+    protected void handleMessageBatch(DataInput in, boolean multicast, PooledBuffer pooled) {
         try {
-            final MessageBatch[] batches=Util.readMessageBatch(in, multicast);
+            final MessageBatch[] batches=Util.readMessageBatch(in, multicast, pooled);
             final MessageBatch batch=batches[0], oob_batch=batches[1], internal_batch_oob=batches[2], internal_batch=batches[3];
 
+            if(batch_coalescer != null) {
+                batch_coalescer.add(oob_batch,          true,  false);
+                batch_coalescer.add(batch,              false, false);
+                batch_coalescer.add(internal_batch_oob, true,  true);
+                batch_coalescer.add(internal_batch,     false, true);
+                return;
+            }
             processBatch(oob_batch,          true,  false);
             processBatch(batch,              false, false);
             processBatch(internal_batch_oob, true,  true);
@@ -1341,14 +1834,25 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
 
     protected void handleSingleMessage(DataInput in, boolean multicast) {
+        handleSingleMessage(in, multicast, null);
+    }
+
+    protected void handleSingleMessage(DataInput in, boolean multicast, PooledBuffer pooled) {
         try {
             Message msg=new Message(false); // don't create headers, readFrom() will do this
-            msg.readFrom(in);
+            if(pooled != null)
+                msg.readFrom((ByteArrayDataInputStream)in, pooled);
+            else
+                msg.readFrom(in);
 
-            if(!multicast && unicastDestMismatch(msg.getDest()))
+            if(!multicast && unicastDestMismatch(msg.getDest())) {
+                msg.releasePooledBuffer();
                 return;
+            }
 
             boolean oob=msg.isFlagSet(Message.Flag.OOB), internal=msg.isFlagSet(Message.Flag.INTERNAL);
+            if(batch_coalescer != null && coalesce(msg, multicast, oob, internal))
+                return;
             msg_processing_policy.process(msg, oob, internal);
         }
         catch(Throwable t) {
@@ -1356,6 +1860,22 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
         }
     }
 
+    /** Adds a single message to a pending coalesced batch from the same sender (if any), to preserve ordering */
+    protected boolean coalesce(Message msg, boolean multicast, boolean oob, boolean internal) {
+        TpHeader hdr=msg.getHeader(id);
+        byte[] cname=hdr != null? hdr.getClusterName() : null;
+        return cname != null && batch_coalescer.add(msg, new AsciiString(cname), multicast, oob, internal);
+    }
+
+    /**
+     * Passes all batches pending in the coalescing stage on. Called by transports which know that there is currently
+     * no more data to be read, so that messages are not delayed until coalesce_max_time has elapsed
+     */
+    protected void flushCoalescedBatches() {
+        if(batch_coalescer != null)
+            batch_coalescer.flush();
+    }
+
     protected void processBatch(MessageBatch batch, boolean oob, boolean internal) {
         try {
             if(batch != null && !batch.isEmpty())
@@ -1451,8 +1971,40 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
             sendToSingleMember(dest, buf, offset, length);
     }
 
+    /**
+     * Sends the contents of buf (from position to limit) to dest, or to all members if dest is null. Used by the
+     * bundlers when bundler_use_byte_buffers is true. The buffer may be reused by the caller after this method returns
+     */
+    public void doSend(ByteBuffer buf, Address dest) throws Exception {
+        if(stats) {
+            msg_stats.incrNumMsgsSent(1);
+            msg_stats.incrNumBytesSent(buf.remaining());
+        }
+        if(dest == null)
+            sendMulticast(buf);
+        else
+            sendToSingleMember(dest, buf);
+    }
+
+
+    /**
+     * Sends the remaining bytes of all buffers as a single packet to dest, or to all members if dest is null. Used by
+     * the bundlers when gathering writes are enabled. The buffers' positions are not changed
+     */
+    public void doSend(ByteBuffer[] bufs, Address dest) throws Exception {
+        if(stats) {
+            msg_stats.incrNumMsgsSent(1);
+            msg_stats.incrNumBytesSent(Buffers.remaining(bufs));
+        }
+        if(dest == null)
+            sendMulticast(Buffers.duplicate(bufs));
+        else
+            sendToSingleMember(dest, Buffers.duplicate(bufs));
+    }
 
     protected void sendToSingleMember(final Address dest, byte[] buf, int offset, int length) throws Exception {
+        if(shm != null && shm.send(dest, buf, offset, length))
+            return;
         if(dest instanceof PhysicalAddress) {
             sendUnicast((PhysicalAddress)dest, buf, offset, length);
             return;
@@ -1464,23 +2016,58 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
             return;
         }
 
-        if(who_has_cache.addIfAbsentOrExpired(dest)) { // true if address was added
-            // FIND_MBRS must return quickly
-            Responses responses=fetchResponsesFromDiscoveryProtocol(Collections.singletonList(dest));
-            try {
-                for(PingData data : responses) {
-                    if(data.getAddress() != null && data.getAddress().equals(dest)) {
-                        if((physical_dest=data.getPhysicalAddr()) != null) {
-                            sendUnicast(physical_dest, buf, offset, length);
-                            return;
-                        }
-                    }
-                }
-                log.warn(Util.getMessage("PhysicalAddrMissing"), local_addr, dest);
-            }
-            finally {
-                responses.done();
+        if((physical_dest=fetchPhysicalAddress(dest)) != null)
+            sendUnicast(physical_dest, buf, offset, length);
+    }
+
+    protected void sendToSingleMember(final Address dest, ByteBuffer buf) throws Exception {
+        if(shm != null && shm.send(dest, buf))
+            return;
+        if(dest instanceof PhysicalAddress) {
+            sendUnicast((PhysicalAddress)dest, buf);
+            return;
+        }
+
+        PhysicalAddress physical_dest;
+        if((physical_dest=getPhysicalAddressFromCache(dest)) != null) {
+            sendUnicast(physical_dest, buf);
+            return;
+        }
+
+        if((physical_dest=fetchPhysicalAddress(dest)) != null)
+            sendUnicast(physical_dest, buf);
+    }
+
+    protected void sendToSingleMember(final Address dest, ByteBuffer[] bufs) throws Exception {
+        if(shm != null && shm.send(dest, bufs))
+            return;
+        PhysicalAddress physical_dest=dest instanceof PhysicalAddress? (PhysicalAddress)dest : getPhysicalAddressFromCache(dest);
+        if(physical_dest == null)
+            physical_dest=fetchPhysicalAddress(dest);
+        if(physical_dest != null)
+            sendUnicast(physical_dest, bufs);
+    }
+
+    /**
+     * Asks the discovery protocol for the physical address of dest. Requests for the same address are sent at most
+     * once every who_has_cache_timeout ms
+     * @return The physical address, or null if not (yet) known
+     */
+    protected PhysicalAddress fetchPhysicalAddress(final Address dest) {
+        if(!who_has_cache.addIfAbsentOrExpired(dest)) // true if address was added
+            return null;
+        // FIND_MBRS must return quickly
+        Responses responses=fetchResponsesFromDiscoveryProtocol(Collections.singletonList(dest));
+        try {
+            for(PingData data : responses) {
+                if(data.getAddress() != null && data.getAddress().equals(dest) && data.getPhysicalAddr() != null)
+                    return data.getPhysicalAddr();
             }
+            log.warn(Util.getMessage("PhysicalAddrMissing"), local_addr, dest);
+            return null;
+        }
+        finally {
+            responses.done();
         }
     }
 
@@ -1489,12 +2076,38 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     /** Fetches the physical addrs for mbrs and sends the msg to each physical address. Asks discovery for missing
      * members' physical addresses if needed */
     protected void sendToMembers(Collection<Address> mbrs, byte[] buf, int offset, int length) throws Exception {
+        ShmSideChannel tmp=shm;
+        sendToMembers(mbrs, target -> sendUnicast(target, buf, offset, length),
+                      tmp != null? mbr -> tmp.send(mbr, buf, offset, length) : null);
+    }
+
+    /** Same as {@link #sendToMembers(Collection,byte[],int,int)}, but sends the contents of a ByteBuffer */
+    protected void sendToMembers(Collection<Address> mbrs, ByteBuffer buf) throws Exception {
+        ShmSideChannel tmp=shm;
+        sendToMembers(mbrs, target -> sendUnicast(target, buf.duplicate()),
+                      tmp != null? mbr -> tmp.send(mbr, buf) : null);
+    }
+
+    /** Same as {@link #sendToMembers(Collection,byte[],int,int)}, but sends the contents of multiple ByteBuffers */
+    protected void sendToMembers(Collection<Address> mbrs, ByteBuffer[] bufs) throws Exception {
+        ShmSideChannel tmp=shm;
+        sendToMembers(mbrs, target -> sendUnicast(target, Buffers.duplicate(bufs)),
+                      tmp != null? mbr -> tmp.send(mbr, bufs) : null);
+    }
+
+    /**
+     * Sends data to all members. If shm_sender is non-null, it is tried first for every member; members to which it
+     * returns true (sent through shared memory) are skipped
+     */
+    protected void sendToMembers(Collection<Address> mbrs, UnicastSender sender, Predicate<Address> shm_sender) throws Exception {
         List<Address> missing=null;
 
         if(mbrs == null || mbrs.isEmpty())
             mbrs=logical_addr_cache.keySet();
 
         for(Address mbr: mbrs) {
+            if(shm_sender != null && shm_sender.test(mbr))
+                continue;
             PhysicalAddress target=mbr instanceof PhysicalAddress? (PhysicalAddress)mbr : logical_addr_cache.get(mbr);
             if(target == null) {
                 if(missing == null)
@@ -1505,7 +2118,7 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
             try {
                 if(!Objects.equals(local_physical_addr, target))
-                    sendUnicast(target, buf, offset, length);
+                    sender.send(target);
             }
             catch(SocketException sock_ex) {
                 log.debug(Util.getMessage("FailureSendingToPhysAddr"), local_addr, mbr, sock_ex);
@@ -1575,6 +2188,8 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
                     bundler.viewChange(evt.getArg());
                 if(msg_processing_policy instanceof MaxOneThreadPerSender)
                     ((MaxOneThreadPerSender)msg_processing_policy).viewChange(view.getMembers());
+                if(shm != null)
+                    shm.viewChange(view.getMembers());
                 break;
 
             case Event.CONNECT:
@@ -1590,6 +2205,7 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
                 connectLock.lock();
                 try {
                     handleConnect();
+                    startShm();
                 }
                 catch(Exception e) {
                     throw new RuntimeException(e);
@@ -1603,6 +2219,7 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
                 unsetThreadNames();
                 connectLock.lock();
                 try {
+                    stopShm();
                     handleDisconnect();
                 }
                 finally {
@@ -1785,7 +2402,35 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
     protected abstract PhysicalAddress getPhysicalAddress();
 
+    /** Returns the messages of a batch which point into a pooled receive buffer, or null if there are none */
+    protected static Message[] getPooledMessages(MessageBatch batch) {
+        Message[] retval=null;
+        int index=0;
+        for(Message msg: batch) {
+            if(!msg.hasPooledBuffer())
+                continue;
+            if(retval == null)
+                retval=new Message[batch.size()];
+            retval[index++]=msg;
+        }
+        return retval == null || index == retval.length? retval : Arrays.copyOf(retval, index);
+    }
+
+    protected static Buffer toBuffer(ByteBuffer buf) {
+        if(buf.hasArray())
+            return new Buffer(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        byte[] tmp=new byte[buf.remaining()];
+        buf.duplicate().get(tmp);
+        return new Buffer(tmp);
+    }
+
     /* ----------------------------- End of Private Methods ---------------------------------------- */
 
+    /** Sends data to a single physical address; used by {@link #sendToMembers(Collection,UnicastSender,Predicate)} */
+    @FunctionalInterface
+    protected interface UnicastSender {
+        void send(PhysicalAddress target) throws Exception;
+    }
+
 
 }
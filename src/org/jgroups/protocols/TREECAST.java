@@ -0,0 +1,216 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.annotations.Property;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Bits;
+import org.jgroups.util.MessageBatch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Disseminates multicasts along a spanning tree over the members of the current view: the sender sends a multicast
+ * to its (up to fanout) children, each child passes it up and forwards it to its own children, and so on. The tree is
+ * rooted at the sender: the member at position i (relative to the sender's position in the view) forwards to
+ * members i*fanout+1 .. i*fanout+fanout. A multicast thus reaches all N members in log(N) hops, and the sender only
+ * sends fanout messages instead of N-1 (as with {@link TP#sendToMembers(Collection,byte[],int,int)}).
+ * <br/>
+ * Contrary to {@link DAISYCHAIN}, which forwards along a single chain, the fan-out (and thus the number of hops) is
+ * configurable. The view id is sent with every multicast: a member whose view differs from the sender's delivers the
+ * message, but doesn't forward it. Messages which are therefore not received by some members are retransmitted by
+ * NAKACK2, which needs to be above this protocol. The original sender is kept as the sender of forwarded messages, so
+ * receivers pass them up as if they had been multicast by the sender.
+ * <br/>
+ * Should be placed just above the transport (or MERGE3), in TCP-based configurations.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@MBean(description="Protocol just above the transport which disseminates multicasts along a spanning tree")
+public class TREECAST extends Protocol {
+
+    /* -----------------------------------------    Properties     -------------------------------------------------- */
+    @Property(description="Number of children to which a member sends or forwards a multicast")
+    protected int fanout=3;
+
+
+    /* --------------------------------------------- Fields ------------------------------------------------------ */
+    protected volatile Address    local_addr;
+    protected volatile View       view;
+    protected TP                  transport;
+
+    protected final LongAdder     num_sent=new LongAdder(), num_forwarded=new LongAdder(),
+                                  num_not_forwarded=new LongAdder();
+
+
+    public int      fanout()      {return fanout;}
+    public TREECAST fanout(int f) {this.fanout=f; return this;}
+
+    @ManagedAttribute(description="Number of multicasts sent along the tree")
+    public long getNumSent()         {return num_sent.sum();}
+    @ManagedAttribute(description="Number of multicasts forwarded to children")
+    public long getNumForwarded()    {return num_forwarded.sum();}
+    @ManagedAttribute(description="Number of multicasts which were not forwarded because the view differed from " +
+      "the sender's view")
+    public long getNumNotForwarded() {return num_not_forwarded.sum();}
+
+    public void resetStats() {
+        super.resetStats();
+        num_sent.reset();
+        num_forwarded.reset();
+        num_not_forwarded.reset();
+    }
+
+    public void init() throws Exception {
+        super.init();
+        if(fanout < 1)
+            throw new IllegalArgumentException("fanout (" + fanout + ") needs to be >= 1");
+        transport=getTransport();
+        if(transport.supportsMulticasting())
+            log.warn("%s: the transport supports IP multicasting; %s is not needed",
+                     transport.getClass().getSimpleName(), getClass().getSimpleName());
+    }
+
+    @ManagedOperation(description="Prints the children of this member in the tree rooted at the given member " +
+      "(null: this member)")
+    public String printChildren(String root) {
+        View tmp=view;
+        if(tmp == null)
+            return "n/a";
+        Address r=root == null? local_addr : tmp.getMembers().stream().filter(m -> root.equals(m.toString()))
+          .findFirst().orElse(null);
+        return r == null? root + " not found" : String.valueOf(children(tmp, r, local_addr, fanout));
+    }
+
+    public Object down(Event evt) {
+        switch(evt.getType()) {
+            case Event.VIEW_CHANGE:
+                view=evt.getArg();
+                break;
+            case Event.SET_LOCAL_ADDRESS:
+                local_addr=evt.getArg();
+                break;
+        }
+        return down_prot.down(evt);
+    }
+
+    public Object down(Message msg) {
+        View tmp=view;
+        if(msg.getDest() != null || tmp == null || tmp.size() <= 2) // nothing to be gained with 2 members
+            return down_prot.down(msg);
+
+        if(msg.getSrc() == null)
+            msg.setSrc(local_addr);
+        List<Address> children=children(tmp, local_addr, local_addr, fanout);
+        if(children == null) // we're not a member of our view
+            return down_prot.down(msg);
+
+        TreeHeader hdr=new TreeHeader(tmp.getViewId().getId());
+        // the copies are sent down before looping back msg: a protocol above may modify msg when it is received
+        for(Address child: children)
+            down_prot.down(msg.copy(true).dest(child).putHeader(id, hdr));
+        num_sent.increment();
+        if(!msg.isTransientFlagSet(Message.TransientFlag.DONT_LOOPBACK))
+            transport.loopback(msg, true);
+        return null;
+    }
+
+    public Object up(Message msg) {
+        TreeHeader hdr=msg.getHeader(id);
+        if(hdr == null)
+            return up_prot.up(msg);
+        forward(msg, hdr);
+        msg.setDest(null);
+        return up_prot.up(msg);
+    }
+
+    /**
+     * Forwards the multicasts in a batch and passes them up in separate batches per original sender: the batch may
+     * contain multicasts from different senders, forwarded by the batch's sender
+     */
+    public void up(MessageBatch batch) {
+        Map<Address,MessageBatch> mcasts=null;
+        for(Iterator<Message> it=batch.iterator(); it.hasNext();) {
+            Message msg=it.next();
+            TreeHeader hdr=msg.getHeader(id);
+            if(hdr == null)
+                continue;
+            it.remove();
+            forward(msg, hdr);
+            msg.setDest(null);
+            if(mcasts == null)
+                mcasts=new LinkedHashMap<>();
+            mcasts.computeIfAbsent(msg.getSrc(), src -> new MessageBatch(null, src, batch.clusterName(), true,
+                                                                         batch.mode(), batch.size()))
+              .add(msg);
+        }
+        if(!batch.isEmpty())
+            up_prot.up(batch);
+        if(mcasts != null)
+            mcasts.values().forEach(b -> up_prot.up(b));
+    }
+
+    protected void forward(Message msg, TreeHeader hdr) {
+        View tmp=view;
+        if(tmp == null || tmp.getViewId().getId() != hdr.view_id) {
+            num_not_forwarded.increment();
+            log.trace("%s: not forwarding multicast from %s: view %s differs from sender's view %d",
+                      local_addr, msg.getSrc(), tmp != null? tmp.getViewId() : null, hdr.view_id);
+            return;
+        }
+        List<Address> children=children(tmp, msg.getSrc(), local_addr, fanout);
+        if(children == null || children.isEmpty())
+            return;
+        for(Address child: children)
+            down_prot.down(msg.copy(true).dest(child));
+        num_forwarded.increment();
+    }
+
+    /**
+     * Returns the children of a member in the tree rooted at root, or null if root or the member are not in the view
+     */
+    protected static List<Address> children(View view, Address root, Address mbr, int fanout) {
+        Address[] mbrs=view.getMembersRaw();
+        int n=mbrs.length, root_index=indexOf(mbrs, root), index=indexOf(mbrs, mbr);
+        if(root_index < 0 || index < 0)
+            return null;
+        int rank=(index - root_index + n) % n; // position relative to the root
+        List<Address> retval=new ArrayList<>(fanout);
+        for(long child=(long)rank * fanout + 1; child <= (long)rank * fanout + fanout && child < n; child++)
+            retval.add(mbrs[(int)((root_index + child) % n)]);
+        return retval;
+    }
+
+    protected static int indexOf(Address[] mbrs, Address mbr) {
+        for(int i=0; i < mbrs.length; i++)
+            if(mbrs[i].equals(mbr))
+                return i;
+        return -1;
+    }
+
+
+    public static class TreeHeader extends Header {
+        protected long view_id; // the id of the sender's view when the multicast was sent
+
+        public TreeHeader() {
+        }
+
+        public TreeHeader(long view_id) {
+            this.view_id=view_id;
+        }
+
+        public short                      getMagicId()                        {return 93;}
+        public long                       viewId()                            {return view_id;}
+        public Supplier<? extends Header> create()                            {return TreeHeader::new;}
+        public int                        serializedSize()                    {return Bits.size(view_id);}
+        public void                       writeTo(DataOutput out) throws Exception {Bits.writeLong(view_id, out);}
+        public void                       readFrom(DataInput in) throws Exception  {view_id=Bits.readLong(in);}
+        public String                     toString()                          {return "view_id=" + view_id;}
+    }
+}
@@ -10,11 +10,13 @@ import org.jgroups.stack.GossipData;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.stack.RouterStub;
 import org.jgroups.stack.RouterStubManager;
+import org.jgroups.util.Buffer;
 import org.jgroups.util.Util;
 
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -212,6 +214,11 @@ public class TUNNEL extends TP implements RouterStub.StubReceiver {
         sendUnicast(dest, buf, offset, length);
     }
 
+    protected void sendToSingleMember(final Address dest, ByteBuffer buf) throws Exception {
+        Buffer tmp=toBuffer(buf);
+        sendToSingleMember(dest, tmp.getBuf(), tmp.getOffset(), tmp.getLength());
+    }
+
     protected void sendUnicast(Address dest, byte[] data, int offset, int length) throws Exception {
         String group=cluster_name != null? cluster_name.toString() : null;
         tunnel_policy.sendToSingleMember(group, dest, local_addr, data, offset, length);
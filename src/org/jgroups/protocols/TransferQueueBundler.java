@@ -10,6 +10,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This bundler adds all (unicast or multicast) messages to a queue until max size has been exceeded, but does send
@@ -20,8 +21,10 @@ public class TransferQueueBundler extends BaseBundler implements Runnable {
     protected List<Message>          remove_queue;
     protected volatile     Thread    bundler_thread;
     protected volatile boolean       running=true;
-    protected int                    num_sends_because_full_queue;
-    protected int                    num_sends_because_no_msgs;
+    // written by the bundler thread only, volatile as they're read by other threads (e.g. AdaptiveBundler)
+    protected volatile int           num_sends_because_full_queue;
+    protected volatile int           num_sends_because_no_msgs;
+    protected volatile int           num_sends_because_linger; // sends of bundles whose first message expired
     protected final AverageMinMax    fill_count=new AverageMinMax(); // avg number of bytes when a batch is sent
     protected static final String    THREAD_NAME="TQ-Bundler";
 
@@ -50,13 +53,15 @@ public class TransferQueueBundler extends BaseBundler implements Runnable {
             retval=new HashMap<>(3);
         retval.put("sends_because_full", num_sends_because_full_queue);
         retval.put("sends_because_no_msgs", num_sends_because_no_msgs);
+        if(linger_time > 0)
+            retval.put("sends_because_linger", num_sends_because_linger);
         retval.put("avg_fill_count", fill_count);
         return retval;
     }
 
     @Override
     public void resetStats() {
-        num_sends_because_full_queue=num_sends_because_no_msgs=0;
+        num_sends_because_full_queue=num_sends_because_no_msgs=num_sends_because_linger=0;
         fill_count.clear();
     }
 
@@ -69,7 +74,7 @@ public class TransferQueueBundler extends BaseBundler implements Runnable {
     public synchronized void start() {
         if(running)
             stop();
-        bundler_thread=transport.getThreadFactory().newThread(this, THREAD_NAME);
+        bundler_thread=transport.getThreadFactory().newThread(this, getThreadName());
         running=true;
         bundler_thread.start();
     }
@@ -85,6 +90,7 @@ public class TransferQueueBundler extends BaseBundler implements Runnable {
             }
         }
         queue.clear();
+        super.stop();
     }
 
 
@@ -92,16 +98,25 @@ public class TransferQueueBundler extends BaseBundler implements Runnable {
         return super.size() + removeQueueSize() + getBufferSize();
     }
 
+    protected String getThreadName() {return THREAD_NAME;}
+
     public void send(Message msg) throws Exception {
         if(running)
             queue.put(msg);
     }
 
     public void run() {
+        long linger_wait=-1; // time (ns) until the next bundle needs to be sent when lingering, -1 if none
         while(running) {
             Message msg=null;
             try {
-                if((msg=queue.take()) == null)
+                if(linger_wait < 0)
+                    msg=queue.take();
+                else if((msg=queue.poll(linger_wait, TimeUnit.NANOSECONDS)) == null) {
+                    linger_wait=_sendExpiredMessages();
+                    continue;
+                }
+                if(msg == null)
                     continue;
                 long size=msg.size();
                 if(count + size >= transport.getMaxBundleSize()) {
@@ -127,10 +142,15 @@ public class TransferQueueBundler extends BaseBundler implements Runnable {
                     }
                 }
                 if(count > 0) {
+                    if(linger_time > 0) { // wait for more messages until the first message of a bundle expires
+                        linger_wait=_sendExpiredMessages();
+                        continue;
+                    }
                     num_sends_because_no_msgs++;
                     fill_count.add(count);
                     _sendBundledMessages();
                 }
+                linger_wait=-1;
             }
             catch(Throwable t) {
             }
@@ -148,6 +168,22 @@ public class TransferQueueBundler extends BaseBundler implements Runnable {
         }
     }
 
+    protected long _sendExpiredMessages() {
+        lock.lock();
+        try {
+            long tmp=count;
+            long next=sendExpiredMessages(System.nanoTime());
+            if(count < tmp) {
+                num_sends_because_linger++;
+                fill_count.add(tmp - count);
+            }
+            return next;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     protected void _addMessage(Message msg, long size) {
         lock.lock();
         try {
@@ -8,6 +8,7 @@ import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.stack.IpAddress;
+import org.jgroups.util.PooledBuffer;
 import org.jgroups.util.SuppressLog;
 import org.jgroups.util.Util;
 
@@ -65,6 +66,7 @@ public class UDP extends TP {
 
     protected static final String UCAST_NAME="ucast-receiver";
     protected static final String MCAST_NAME="mcast-receiver";
+    protected static final int    RECEIVE_BUF_SIZE=66000; // to be on the safe side (IPv6 == 65575 bytes, IPv4 = 65535)
 
     @Property(name="mcast_addr", description="The multicast address used for sending and receiving packets",
               defaultValueIPv4="228.8.8.8", defaultValueIPv6="ff0e::8:8:8",
@@ -235,6 +237,10 @@ public class UDP extends TP {
         return sb.toString();
     }
 
+    protected int getReceiveBufferSize() {
+        return RECEIVE_BUF_SIZE;
+    }
+
     public void sendMulticast(byte[] data, int offset, int length) throws Exception {
         if(ip_mcast && mcast_addr != null)
             _send(mcast_addr.getIpAddress(), mcast_addr.getPort(), data, offset, length);
@@ -692,22 +698,29 @@ public class UDP extends TP {
 
 
         public void run() {
-            final byte           receive_buf[]=new byte[66000]; // to be on the safe side (IPv6 == 65575 bytes, IPv4 = 65535)
+            final byte           receive_buf[]=new byte[RECEIVE_BUF_SIZE];
             final DatagramPacket packet=new DatagramPacket(receive_buf, receive_buf.length);
 
             while(thread != null && Thread.currentThread().equals(thread)) {
+                // if pooling is enabled, every packet is received into its own buffer, which the messages point into
+                PooledBuffer pooled=receive_buffer_pool != null? receive_buffer_pool.get() : null;
+                byte[]       buf=pooled != null? pooled.buffer() : receive_buf;
                 try {
-                    // solves Android ISSUE #24748 - DatagramPacket truncated UDP in ICS
-                    if(is_android)
+                    if(pooled != null)
+                        packet.setData(buf, 0, buf.length); // also resets the length
+                    else if(is_android) // solves Android ISSUE #24748 - DatagramPacket truncated UDP in ICS
                         packet.setLength(receive_buf.length);
 
                     receiver_socket.receive(packet);
                     int len=packet.getLength();
-                    if(len > receive_buf.length && log.isErrorEnabled())
-                        log.error(Util.getMessage("SizeOfTheReceivedPacket"), len, receive_buf.length, receive_buf.length);
-
-                    receive(new IpAddress(packet.getAddress(), packet.getPort()),
-                            receive_buf, packet.getOffset(), len);
+                    if(len > buf.length && log.isErrorEnabled())
+                        log.error(Util.getMessage("SizeOfTheReceivedPacket"), len, buf.length, buf.length);
+
+                    IpAddress sender=new IpAddress(packet.getAddress(), packet.getPort());
+                    if(pooled != null)
+                        receive(sender, pooled, packet.getOffset(), len);
+                    else
+                        receive(sender, receive_buf, packet.getOffset(), len);
                 }
                 catch(SocketException sock_ex) {
                     if(receiver_socket.isClosed()) {
@@ -719,6 +732,10 @@ public class UDP extends TP {
                 catch(Throwable ex) {
                     log.error(Util.getMessage("FailedReceivingPacket"), ex);
                 }
+                finally {
+                    if(pooled != null)
+                        pooled.release();
+                }
             }
             if(log.isDebugEnabled()) log.debug(name + " thread terminated");
         }
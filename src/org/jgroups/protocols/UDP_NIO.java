@@ -0,0 +1,509 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Global;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.Property;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.util.PooledBuffer;
+import org.jgroups.util.SuppressLog;
+import org.jgroups.util.Util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * UDP transport based on NIO {@link DatagramChannel}s rather than on blocking {@link DatagramSocket}s. The unicast and
+ * multicast channels are non-blocking and registered with a configurable number of selector threads, so no thread
+ * is needed per socket. Datagrams are read into direct buffers, and up to max_reads_per_wakeup datagrams are drained
+ * from a channel when its selector wakes up.<p>
+ * When the send buffer of the unicast channel is full, a sender blocks until there is room again (waiting for
+ * OP_WRITE), up to send_timeout ms. Only if the datagram cannot be sent within send_timeout is it dropped.<p>
+ * Multicast group membership is managed via {@link MulticastChannel#join(InetAddress,NetworkInterface)}, on all
+ * interfaces given by receive_interfaces (or all interfaces if receive_on_all_interfaces is true), or else on the
+ * interface of bind_addr.<p>
+ * The properties of {@link UDP} (e.g. mcast_addr, ip_ttl, tos or the buffer sizes) apply, except for the number of
+ * receiver threads.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class UDP_NIO extends UDP {
+
+    /* ------------------------------------------ Properties  ------------------------------------------ */
+
+    @Property(description="Number of selector threads (1 or 2). With 2, the unicast and the multicast channel " +
+      "have their own selector thread")
+    protected int selector_threads=1;
+
+    @Property(description="Max number of datagrams read from a channel every time its selector wakes up")
+    protected int max_reads_per_wakeup=64;
+
+    @Property(description="Max time (ms) a sender blocks when the send buffer is full. The datagram is dropped if " +
+      "it cannot be sent within this time. 0 blocks until the datagram has been sent")
+    protected long send_timeout=2000;
+
+
+    /* --------------------------------------------- Fields ------------------------------------------------ */
+
+    /** Channel for receiving unicasts and sending unicasts and multicasts; its address is our physical address */
+    protected DatagramChannel      ucast_channel;
+
+    /** Channel for receiving multicasts */
+    protected DatagramChannel      mcast_channel;
+
+    protected final List<MembershipKey> memberships=new ArrayList<>();
+
+    protected InetSocketAddress    mcast_dest; // the multicast address and port to send multicasts to
+
+    protected Reactor[]            reactors;
+
+    /** Selector on which senders wait for OP_WRITE on ucast_channel when its send buffer is full */
+    protected Selector             write_selector;
+
+    protected final Lock           write_lock=new ReentrantLock(); // serializes the senders waiting on write_selector
+
+    protected final LongAdder      num_blocked_sends=new LongAdder(), num_dropped_sends=new LongAdder();
+
+
+    public int     selectorThreads()                 {return selector_threads;}
+    public UDP_NIO selectorThreads(int num)          {this.selector_threads=num; return this;}
+    public int     maxReadsPerWakeup()               {return max_reads_per_wakeup;}
+    public UDP_NIO maxReadsPerWakeup(int num)        {this.max_reads_per_wakeup=num; return this;}
+    public long    sendTimeout()                     {return send_timeout;}
+    public UDP_NIO sendTimeout(long timeout)         {this.send_timeout=timeout; return this;}
+
+    @ManagedAttribute(description="Number of sends which had to wait as the send buffer was full")
+    public long getNumBlockedSends() {return num_blocked_sends.sum();}
+
+    @ManagedAttribute(description="Number of datagrams which could not be sent within send_timeout as the send buffer was full")
+    public long getNumDroppedSends() {return num_dropped_sends.sum();}
+
+    @ManagedAttribute(description="Number of selector wakeups, per selector thread")
+    public String getSelectorWakeups() {
+        return reactors == null? "n/a" : Arrays.stream(reactors).map(r -> String.valueOf(r.num_wakeups))
+          .reduce((a,b) -> a + ", " + b).orElse("");
+    }
+
+    @ManagedAttribute(description="Number of datagrams received, per selector thread")
+    public String getDatagramsReceived() {
+        return reactors == null? "n/a" : Arrays.stream(reactors).map(r -> String.valueOf(r.num_reads))
+          .reduce((a,b) -> a + ", " + b).orElse("");
+    }
+
+    public void setMulticastTTL(int ttl) {
+        this.ip_ttl=ttl;
+        setOption(ucast_channel, StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+    }
+
+    public void resetStats() {
+        super.resetStats();
+        num_blocked_sends.reset();
+        num_dropped_sends.reset();
+    }
+
+    public void init() throws Exception {
+        super.init();
+        if(selector_threads < 1 || selector_threads > 2) // only 2 channels (unicast and multicast) are registered
+            throw new IllegalArgumentException("selector_threads (" + selector_threads + ") must be 1 or 2");
+        if(max_reads_per_wakeup < 1)
+            throw new IllegalArgumentException("max_reads_per_wakeup (" + max_reads_per_wakeup + ") must be >= 1");
+        if(send_timeout < 0)
+            throw new IllegalArgumentException("send_timeout (" + send_timeout + ") must be >= 0");
+    }
+
+    public void sendMulticast(ByteBuffer data) throws Exception {
+        if(ip_mcast && mcast_dest != null)
+            send(mcast_dest, data);
+        else
+            sendToMembers(members, data);
+    }
+
+    public void sendUnicast(PhysicalAddress dest, ByteBuffer data) throws Exception {
+        send(new InetSocketAddress(((IpAddress)dest).getIpAddress(), ((IpAddress)dest).getPort()), data);
+    }
+
+    protected void _send(InetAddress dest, int port, byte[] data, int offset, int length) throws Exception {
+        send(new InetSocketAddress(dest, port), ByteBuffer.wrap(data, offset, length));
+    }
+
+    protected void send(InetSocketAddress dest, ByteBuffer buf) throws Exception {
+        DatagramChannel ch=ucast_channel;
+        if(ch == null)
+            return;
+        try {
+            // the channel is non-blocking: 0 bytes are sent if there's no room in the socket's send buffer
+            if(ch.send(buf, dest) == 0 && !sendBlocking(ch, dest, buf)) {
+                num_dropped_sends.increment();
+                log.trace("%s: dropped datagram to %s as the send buffer was full for %d ms", local_addr, dest, send_timeout);
+            }
+        }
+        catch(ClosedChannelException | ClosedSelectorException closed) {
+        }
+        catch(IOException ex) {
+            if(suppress_log_out_of_buffer_space != null)
+                suppress_log_out_of_buffer_space.log(SuppressLog.Level.warn, dest.getAddress(), suppress_time_out_of_buffer_space,
+                                                     local_addr, dest, ex);
+            else
+                throw ex;
+        }
+    }
+
+
+    /**
+     * Waits until the channel is writable and sends the datagram, retrying until send_timeout has elapsed.
+     * Returns true if the datagram was sent, false otherwise
+     */
+    protected boolean sendBlocking(DatagramChannel ch, InetSocketAddress dest, ByteBuffer buf) throws IOException {
+        num_blocked_sends.increment();
+        long deadline=send_timeout > 0? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(send_timeout) : 0;
+        write_lock.lock();
+        try {
+            for(;;) {
+                if(ch.send(buf, dest) > 0)
+                    return true;
+                long wait=0; // 0 blocks in select() until the channel is writable
+                if(deadline > 0) {
+                    long remaining=deadline - System.nanoTime();
+                    if(remaining <= 0)
+                        return false;
+                    wait=Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+                }
+                write_selector.select(wait);
+                write_selector.selectedKeys().clear();
+                if(!ch.isOpen())
+                    return false;
+            }
+        }
+        finally {
+            write_lock.unlock();
+        }
+    }
+
+
+    /* ------------------------------ Private Methods -------------------------------- */
+
+    protected void createSockets() throws Exception {
+        if(bind_addr == null)
+            throw new IllegalArgumentException("bind_addr cannot be null") ;
+
+        Util.checkIfValidAddress(bind_addr, getName());
+        log.debug("channels will use interface %s", bind_addr.getHostAddress());
+
+        ProtocolFamily family=bind_addr instanceof Inet6Address? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+        NetworkInterface bind_intf=NetworkInterface.getByInetAddress(bind_addr);
+
+        ucast_channel=createUnicastChannel(family);
+        setOption(ucast_channel, StandardSocketOptions.IP_MULTICAST_TTL, ip_ttl);
+        if(bind_intf != null) // determines the interface to *send* multicasts on
+            setOption(ucast_channel, StandardSocketOptions.IP_MULTICAST_IF, bind_intf);
+        if(tos > 0)
+            setOption(ucast_channel, StandardSocketOptions.IP_TOS, tos);
+        write_selector=Selector.open();
+        ucast_channel.register(write_selector, SelectionKey.OP_WRITE);
+
+        if(ip_mcast) {
+            mcast_addr=new IpAddress(mcast_group_addr, mcast_port);
+            mcast_dest=new InetSocketAddress(mcast_group_addr, mcast_port);
+
+            // check that we're not using the same mcast address and port as the diagnostics socket
+            if(enable_diagnostics && diagnostics_addr.equals(mcast_group_addr) && diagnostics_port == mcast_port)
+                throw new IllegalArgumentException("diagnostics_addr:diagnostics_port and mcast_addr:mcast_port " +
+                                                     "have to be different");
+
+            mcast_channel=DatagramChannel.open(family);
+            mcast_channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            // binding to mcast_addr:mcast_port drops multicasts to different multicast addresses (JGRP-777)
+            mcast_channel.bind(can_bind_to_mcast_addr? mcast_dest : new InetSocketAddress(mcast_port));
+            mcast_channel.configureBlocking(false);
+            setOption(mcast_channel, StandardSocketOptions.IP_MULTICAST_LOOP, !disable_loopback);
+            if(tos > 0)
+                setOption(mcast_channel, StandardSocketOptions.IP_TOS, tos);
+
+            List<NetworkInterface> interfaces;
+            if(receive_interfaces != null && !receive_interfaces.isEmpty())
+                interfaces=receive_interfaces;
+            else if(receive_on_all_interfaces)
+                interfaces=Util.getAllAvailableInterfaces();
+            else
+                interfaces=Collections.singletonList(bind_intf != null? bind_intf : findMulticastInterface());
+            joinGroup(interfaces);
+        }
+
+        setBufferSizes();
+        log.debug("socket information:\n%s", dumpSocketInfo());
+    }
+
+    protected DatagramChannel createUnicastChannel(ProtocolFamily family) throws Exception {
+        int port=bind_port, max_port=bind_port > 0? bind_port + port_range : 0;
+        while(true) {
+            DatagramChannel ch=DatagramChannel.open(family);
+            try {
+                ch.setOption(StandardSocketOptions.SO_REUSEADDR, false); // so we get a conflict on an existing port
+                ch.bind(new InetSocketAddress(bind_addr, port));
+                ch.configureBlocking(false);
+                return ch;
+            }
+            catch(BindException | SecurityException bind_ex) { // cannot listen on this port
+                Util.close(ch);
+                if(++port > max_port)
+                    throw new Exception("failed to open a port in range " + bind_port + '-' + max_port, bind_ex);
+            }
+        }
+    }
+
+    protected void joinGroup(List<NetworkInterface> interfaces) {
+        for(NetworkInterface intf: interfaces) {
+            if(intf == null)
+                continue;
+            try { //[ JGRP-680] - receive_on_all_interfaces requires every NIC to be configured
+                memberships.add(mcast_channel.join(mcast_group_addr, intf));
+                log.trace("joined %s on %s", mcast_group_addr, intf.getName());
+            }
+            catch(Exception e) {
+                log.warn(Util.getMessage("InterfaceJoinFailed"), mcast_dest, intf.getName());
+            }
+        }
+    }
+
+    /** Returns the first interface which is up and supports multicasting; used if bind_addr is a wildcard address */
+    protected static NetworkInterface findMulticastInterface() throws SocketException {
+        for(NetworkInterface intf: Util.getAllAvailableInterfaces())
+            if(intf.isUp() && intf.supportsMulticast())
+                return intf;
+        return null;
+    }
+
+    protected void destroySockets() {
+        memberships.forEach(MembershipKey::drop);
+        memberships.clear();
+        Util.close(mcast_channel, ucast_channel, write_selector);
+        mcast_channel=null;
+        mcast_addr=null;
+        mcast_dest=null;
+    }
+
+    /** No receiver threads are needed: the channels are read by the reactors */
+    protected PacketReceiver[] createReceivers(int num, DatagramSocket sock, String name) {
+        return new PacketReceiver[0];
+    }
+
+    protected void startThreads() throws Exception {
+        if(reactors != null)
+            return;
+        reactors=new Reactor[selector_threads];
+        for(int i=0; i < reactors.length; i++)
+            reactors[i]=new Reactor("udp-nio-" + i);
+        reactors[0].register(ucast_channel);
+        if(mcast_channel != null)
+            reactors[1 % reactors.length].register(mcast_channel);
+        for(Reactor r: reactors)
+            r.start();
+    }
+
+    protected void stopThreads() {
+        Util.close(reactors);
+        reactors=null;
+    }
+
+    protected IpAddress createLocalAddress() {
+        DatagramChannel ch=ucast_channel;
+        if(ch == null || !ch.isOpen())
+            return null;
+        try {
+            InetSocketAddress local=(InetSocketAddress)ch.getLocalAddress();
+            if(external_addr != null)
+                return new IpAddress(external_addr, external_port > 0? external_port : local.getPort());
+            return new IpAddress(local.getAddress(), local.getPort());
+        }
+        catch(IOException e) {
+            return null;
+        }
+    }
+
+    protected String dumpSocketInfo() throws Exception {
+        StringBuilder sb=new StringBuilder(128);
+        Formatter formatter=new Formatter(sb);
+        formatter.format("mcast_addr=%s, bind_addr=%s, ttl=%d, selector threads=%d", mcast_addr, bind_addr, ip_ttl, selector_threads);
+        if(ucast_channel != null)
+            formatter.format("\nucast_channel: bound to %s, receive buffer size=%d, send buffer size=%d",
+                             ucast_channel.getLocalAddress(), ucast_channel.getOption(StandardSocketOptions.SO_RCVBUF),
+                             ucast_channel.getOption(StandardSocketOptions.SO_SNDBUF));
+        if(mcast_channel != null)
+            formatter.format("\nmcast_channel: bound to %s, joined on %s, receive buffer size=%d",
+                             mcast_channel.getLocalAddress(), memberships.stream().map(k -> k.networkInterface().getName())
+                               .reduce((a,b) -> a + ", " + b).orElse("none"),
+                             mcast_channel.getOption(StandardSocketOptions.SO_RCVBUF));
+        return sb.toString();
+    }
+
+    void setBufferSizes() {
+        setBufferSize(ucast_channel, ucast_send_buf_size, ucast_recv_buf_size);
+        setBufferSize(mcast_channel, mcast_send_buf_size, mcast_recv_buf_size);
+    }
+
+    protected void setBufferSize(DatagramChannel ch, int send_buf_size, int recv_buf_size) {
+        if(ch == null)
+            return;
+        setBufferSize(ch, StandardSocketOptions.SO_SNDBUF, send_buf_size, "send", "net.core.wmem_max");
+        setBufferSize(ch, StandardSocketOptions.SO_RCVBUF, recv_buf_size, "receive", "net.core.rmem_max");
+    }
+
+    protected void setBufferSize(DatagramChannel ch, SocketOption<Integer> option, int size, String type, String sysctl) {
+        try {
+            ch.setOption(option, size);
+            int actual_size=ch.getOption(option);
+            if(actual_size < size && log.isWarnEnabled())
+                log.warn(Util.getMessage("IncorrectBufferSize"), type, ch.getClass().getSimpleName(),
+                         Util.printBytes(size), Util.printBytes(actual_size), type, sysctl);
+        }
+        catch(Throwable ex) {
+            log.warn(Util.getMessage("BufferSizeFailed"), type, size, ch, ex);
+        }
+    }
+
+    protected <T> void setOption(DatagramChannel ch, SocketOption<T> option, T value) {
+        try {
+            if(ch != null)
+                ch.setOption(option, value);
+        }
+        catch(Throwable ex) { // e.g. options not supported on some platforms
+            log.error("failed setting %s to %s: %s", option.name(), value, ex);
+        }
+    }
+
+    /* ----------------------------- End of Private Methods ---------------------------------------- */
+
+
+
+    /**
+     * Selector thread reading datagrams from all channels registered with it. Datagrams are read into a direct buffer
+     * and copied into a pooled receive buffer (if enabled) or a byte[] owned by the reactor, which is then passed up
+     */
+    protected class Reactor implements Runnable, Closeable {
+        protected final Selector                       selector;
+        protected final String                         name;
+        protected final Queue<DatagramChannel>         pending=new ConcurrentLinkedQueue<>(); // channels to be registered
+        protected final ByteBuffer                     recv_buf=ByteBuffer.allocateDirect(RECEIVE_BUF_SIZE);
+        protected final byte[]                         array=new byte[RECEIVE_BUF_SIZE];
+        protected volatile Thread                      thread;
+        protected long                                 num_wakeups, num_reads; // only updated by the reactor thread
+
+        protected Reactor(String name) throws IOException {
+            this.selector=Selector.open();
+            this.name=name;
+        }
+
+        protected void register(DatagramChannel ch) {
+            pending.add(ch);
+            selector.wakeup();
+        }
+
+        public synchronized void start() {
+            if(thread == null || !thread.isAlive()) {
+                thread=getThreadFactory().newThread(this, name);
+                thread.start();
+            }
+        }
+
+        public synchronized void close() throws IOException {
+            Thread tmp=thread;
+            thread=null;
+            selector.wakeup();
+            if(tmp != null && tmp.isAlive()) {
+                try {
+                    tmp.join(Global.THREAD_SHUTDOWN_WAIT_TIME);
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt(); // set interrupt flag again
+                }
+            }
+            Util.close(selector);
+        }
+
+        public void run() {
+            while(thread != null && Thread.currentThread().equals(thread)) {
+                try {
+                    registerPendingChannels();
+                    if(selector.select() == 0)
+                        continue;
+                    num_wakeups++;
+                    for(Iterator<SelectionKey> it=selector.selectedKeys().iterator(); it.hasNext();) {
+                        SelectionKey key=it.next();
+                        it.remove();
+                        if(key.isValid() && key.isReadable())
+                            read((DatagramChannel)key.channel());
+                    }
+                    flushCoalescedBatches(); // the ready channels have been drained
+                }
+                catch(ClosedSelectorException closed) {
+                    break;
+                }
+                catch(Throwable ex) {
+                    log.error(Util.getMessage("FailedReceivingPacket"), ex);
+                }
+            }
+            log.debug("%s thread terminated", name);
+        }
+
+        protected void registerPendingChannels() throws ClosedChannelException {
+            DatagramChannel ch;
+            while((ch=pending.poll()) != null)
+                ch.register(selector, SelectionKey.OP_READ);
+        }
+
+        /** Drains up to max_reads_per_wakeup datagrams from the channel */
+        protected void read(DatagramChannel ch) {
+            for(int i=0; i < max_reads_per_wakeup; i++) {
+                SocketAddress sender;
+                recv_buf.clear();
+                try {
+                    if((sender=ch.receive(recv_buf)) == null)
+                        break;
+                }
+                catch(IOException ex) {
+                    if(ch.isOpen())
+                        log.error(Util.getMessage("FailedReceivingPacket"), ex);
+                    break;
+                }
+                num_reads++;
+                recv_buf.flip();
+                deliver(new IpAddress((InetSocketAddress)sender), recv_buf);
+            }
+        }
+
+        protected void deliver(IpAddress sender, ByteBuffer buf) {
+            int len=buf.remaining();
+            PooledBuffer pooled=receive_buffer_pool != null? receive_buffer_pool.get() : null;
+            try {
+                if(pooled != null) {
+                    buf.get(pooled.buffer(), 0, len);
+                    receive(sender, pooled, 0, len);
+                }
+                else {
+                    buf.get(array, 0, len);
+                    receive(sender, array, 0, len);
+                }
+            }
+            catch(Throwable t) {
+                log.error(Util.getMessage("FailedReceivingPacket"), t);
+            }
+            finally {
+                if(pooled != null)
+                    pooled.release();
+            }
+        }
+
+        public String toString() {
+            return String.format("%s: wakeups=%d, reads=%d", name, num_wakeups, num_reads);
+        }
+    }
+}
@@ -57,12 +57,28 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
       "is compacted (only for experts)",writable=false)
     protected long    xmit_table_max_compaction_time= (long) 10 * 60 * 1000;
 
+    @Property(description="If true, a ConcurrentTable is used as retransmission table, which lets multiple threads " +
+      "add messages concurrently and doesn't block reads (e.g. on retransmission)",writable=false)
+    protected boolean xmit_table_concurrent;
+
     // @Property(description="Max time (in ms) after which a connection to a non-member is closed")
     protected long    max_retransmit_time=60 * 1000L;
 
     @Property(description="Interval (in milliseconds) at which messages in the send windows are resent")
     protected long    xmit_interval=500;
 
+    @Property(description="If true, the retransmission deadline for each connection is derived from its round-trip " +
+      "time (like TCP's RTO), measured from the acks of sent messages and the retransmissions of missing messages, " +
+      "rather than being xmit_interval for all connections. The retransmission task then runs (and sends delayed " +
+      "acks) every min_rto ms, and xmit_interval is the initial RTO",writable=false)
+    protected boolean adaptive_xmit;
+
+    @Property(description="Min retransmission timeout (ms) when adaptive_xmit is enabled",writable=false)
+    protected long    min_rto=20;
+
+    @Property(description="Max retransmission timeout (ms) when adaptive_xmit is enabled",writable=false)
+    protected long    max_rto=10000;
+
     @Property(description="If true, trashes warnings about retransmission messages not found in the xmit_table (used for testing)")
     protected boolean log_not_found_msgs=true;
 
@@ -77,6 +93,22 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
       "the max bundle size in the transport")
     protected int     max_xmit_req_size;
 
+    @Property(description="If true, the acks sent by the retransmission task carry the highest received seqno and " +
+      "the seqnos missing above the cumulative ack (selective acks), replacing separate retransmit requests. The " +
+      "sender resends the missing messages, and stops resending its highest sent message when the receiver has " +
+      "reported it as received")
+    protected boolean selective_acks;
+
+    @Property(description="Max number of bytes of off-heap memory for the messages in the send windows. If > 0, " +
+      "sent messages are serialized into an off-heap store until they're acked, and deserialized only when they " +
+      "need to be retransmitted. When the max has been reached, messages are kept on the heap. 0 disables the store",
+      writable=false)
+    protected long    xmit_store_max_bytes;
+
+    @Property(description="Size (in bytes) of the slabs of off-heap memory used by the store. Messages larger than " +
+      "this are kept on the heap",writable=false)
+    protected int     xmit_store_slab_size=1 << 20;
+
     /* --------------------------------------------- JMX  ---------------------------------------------- */
 
 
@@ -92,11 +124,28 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     @ManagedAttribute(description="Number of retransmit responses sent")
     protected final LongAdder  xmit_rsps_sent=new LongAdder();
 
+    @ManagedAttribute(description="Number of selective acks sent")
+    protected final LongAdder  sacks_sent=new LongAdder();
+
+    @ManagedAttribute(description="Number of selective acks received")
+    protected final LongAdder  sacks_received=new LongAdder();
+
     protected final AverageMinMax avg_delivery_batch_size=new AverageMinMax();
 
     @ManagedAttribute(description="True if sending a message can block at the transport level")
     protected boolean sends_can_block=true;
 
+    @ManagedAttribute(description="Number of bytes of serialized messages held in the off-heap store")
+    public long getXmitStoreBytes() {return xmit_store_pool != null? xmit_store_pool.storedBytes() : 0;}
+
+    @ManagedAttribute(description="Number of bytes of off-heap memory allocated by the store")
+    public long getXmitStoreAllocatedBytes() {return xmit_store_pool != null? xmit_store_pool.allocatedBytes() : 0;}
+
+    @ManagedAttribute(description="Number of messages in the store which are kept on the heap")
+    public int getXmitStoreHeapMessages() {
+        return send_table.values().stream().filter(e -> e.store != null).mapToInt(e -> e.store.heapMessages()).sum();
+    }
+
     @ManagedAttribute(description="tracing is enabled or disabled for the given log",writable=true)
     protected boolean is_trace=log.isTraceEnabled();
 
@@ -135,6 +184,12 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
     protected static final Message         DUMMY_OOB_MSG=new Message().setFlag(Message.Flag.OOB);
 
+    /** Added to a send window instead of a message which is in the off-heap store */
+    protected static final Message         STORED_MSG=new Message(false);
+
+    /** Shared by the off-heap stores of all send windows; null if xmit_store_max_bytes is 0 */
+    protected SlabPool                     xmit_store_pool;
+
     protected final Predicate<Message>     drop_oob_and_dont_loopback_msgs_filter= msg ->
       msg != null && msg != DUMMY_OOB_MSG
         && (!msg.isFlagSet(Message.Flag.OOB) || msg.setTransientFlagIfAbsent(Message.TransientFlag.OOB_DELIVERED))
@@ -310,10 +365,26 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     }
 
 
+    @ManagedOperation(description="Prints the round-trip times and retransmission timeouts of all connections " +
+      "(adaptive_xmit only)")
+    public String printRtts() {
+        StringBuilder sb=new StringBuilder(local_addr + ":\n");
+        for(Map.Entry<Address,SenderEntry> entry: send_table.entrySet())
+            if(entry.getValue().rtt != null)
+                sb.append(entry.getKey()).append(" (send): ").append(entry.getValue().rtt).append('\n');
+        for(Map.Entry<Address,ReceiverEntry> entry: recv_table.entrySet())
+            if(entry.getValue().rtt != null)
+                sb.append(entry.getKey()).append(" (recv): ").append(entry.getValue().rtt).append('\n');
+        return sb.toString();
+    }
+
+
     public void resetStats() {
         num_msgs_sent=num_msgs_received=num_acks_sent=num_acks_received=num_xmits=0;
         avg_delivery_batch_size.clear();
-        Stream.of(xmit_reqs_received, xmit_reqs_sent, xmit_rsps_sent).forEach(LongAdder::reset);
+        Stream.of(xmit_reqs_received, xmit_reqs_sent, xmit_rsps_sent, sacks_sent, sacks_received).forEach(LongAdder::reset);
+        if(xmit_store_pool != null)
+            xmit_store_pool.resetStats();
     }
 
 
@@ -326,6 +397,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         if(time_service == null)
             throw new IllegalStateException("time service from transport is null");
         last_sync_sent=new ExpiryCache<>(sync_min_interval);
+        if(adaptive_xmit && (min_rto <= 0 || min_rto > max_rto))
+            throw new IllegalArgumentException(String.format("min_rto (%d) must be > 0 and <= max_rto (%d)", min_rto, max_rto));
 
         // max bundle size (minus overhead) divided by <long size> times bits per long
         // Example: for 8000 missing messages, SeqnoList has a serialized size of 1012 bytes, for 64000 messages, the
@@ -342,6 +415,9 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             log.trace("%s: set max_xmit_req_size from %d to %d", local_addr, old_max_xmit_size, max_xmit_req_size);
 
 
+        if(xmit_store_max_bytes > 0)
+            xmit_store_pool=new SlabPool(xmit_store_slab_size, xmit_store_max_bytes);
+
         boolean regular_pool_enabled=(boolean)transport.getValue("thread_pool_enabled");
         if(!regular_pool_enabled)
             log.info("the thread pool is disabled; %s could be removed (JGRP-2069)", getClass().getSimpleName());
@@ -397,7 +473,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
                 case UnicastHeader3.DATA:  // received regular message
                     throw new IllegalStateException("header of type DATA is not supposed to be handled by this method");
                 case UnicastHeader3.ACK:   // received ACK for previously sent message
-                    handleAckReceived(sender, hdr.seqno, hdr.conn_id, hdr.timestamp());
+                    handleAckReceived(sender, hdr.seqno, hdr.conn_id, hdr.timestamp(), msg);
                     break;
                 case UnicastHeader3.SEND_FIRST_SEQNO:
                     handleResendingOfFirstMessage(sender, hdr.timestamp());
@@ -584,6 +660,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
         boolean dont_loopback_set=msg.isTransientFlagSet(Message.TransientFlag.DONT_LOOPBACK)
           && dst.equals(local_addr);
+        // messages to self are not stored: the window is also used to deliver them
+        boolean store=entry.store != null && !dst.equals(local_addr);
         short send_conn_id=entry.connId();
         long seqno=entry.sent_msgs_seqno.getAndIncrement();
         long sleep=10;
@@ -591,7 +669,11 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             try {
                 msg.putHeader(this.id,UnicastHeader3.createDataHeader(seqno,send_conn_id,seqno == DEFAULT_FIRST_SEQNO));
                 // add *including* UnicastHeader, adds to retransmitter
-                entry.msgs.add(seqno, msg, dont_loopback_set? dont_loopback_filter : null);
+                if(store)
+                    entry.store.put(seqno, msg);
+                entry.msgs.add(seqno, store? STORED_MSG : msg, dont_loopback_set? dont_loopback_filter : null);
+                if(entry.rtt != null && entry.rtt.timedSeqno() < 0)
+                    entry.rtt.sent(seqno, System.nanoTime());
                 if(conn_expiry_timeout > 0)
                     entry.update();
                 if(dont_loopback_set)
@@ -646,6 +728,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         SenderEntry entry=send_table.remove(mbr);
         if(entry != null) {
             entry.state(State.CLOSED);
+            entry.closeStore();
             if(members.contains(mbr))
                 sendClose(mbr, entry.connId());
         }
@@ -664,6 +747,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
      */
     @ManagedOperation(description="Trashes all connections to other nodes. This is only used for testing")
     public void removeAllConnections() {
+        send_table.values().forEach(SenderEntry::closeStore);
         send_table.clear();
         recv_table.clear();
     }
@@ -715,7 +799,11 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         update(entry, 1);
         boolean oob=msg.isFlagSet(Message.Flag.OOB);
         final Table<Message> win=entry.msgs;
+        if(!oob)
+            msg.detachPooledBuffer(); // the message is kept in the table, so it cannot point into a pooled receive buffer
         boolean added=win.add(seqno, oob? DUMMY_OOB_MSG : msg); // adding the same dummy OOB msg saves space (we won't remove it)
+        if(entry.rtt != null)
+            checkRtt(entry);
 
         if(ack_threshold <= 1)
             sendAck(sender, win.getHighestDeliverable(), entry.connId());
@@ -779,9 +867,13 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
         int batch_size=msgs.size();
         Table<Message> win=entry.msgs;
+        if(!oob)
+            msgs.forEach(tuple -> tuple.getVal2().detachPooledBuffer()); // messages are kept in the table
 
         // adds all messages to the table, removing messages from 'msgs' which could not be added (already present)
         boolean added=win.add(msgs, oob, oob? DUMMY_OOB_MSG : null);
+        if(entry.rtt != null)
+            checkRtt(entry);
 
         update(entry, batch_size);
         if(batch_size >= ack_threshold)
@@ -913,9 +1005,16 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     }
 
 
+    protected Table<Message> createTable(long offset) {
+        return xmit_table_concurrent?
+          new ConcurrentTable<>(xmit_table_num_rows, xmit_table_msgs_per_row, offset,
+                                xmit_table_resize_factor, xmit_table_max_compaction_time)
+          : new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row, offset,
+                        xmit_table_resize_factor, xmit_table_max_compaction_time);
+    }
+
     protected ReceiverEntry createReceiverEntry(Address sender, long seqno, short conn_id) {
-        Table<Message> table=new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row, seqno-1,
-                                                xmit_table_resize_factor, xmit_table_max_compaction_time);
+        Table<Message> table=createTable(seqno-1);
         ReceiverEntry entry=new ReceiverEntry(table, conn_id);
         ReceiverEntry entry2=recv_table.putIfAbsent(sender, entry);
         if(entry2 != null)
@@ -924,8 +1023,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         return entry;
     }
 
-    /** Add the ACK to hashtable.sender.sent_msgs */
-    protected void handleAckReceived(Address sender, long seqno, short conn_id, int timestamp) {
+    /** Add the ACK to hashtable.sender.sent_msgs. If the ACK is a selective ack, missing messages are resent */
+    protected void handleAckReceived(Address sender, long seqno, short conn_id, int timestamp, Message msg) {
         if(is_trace)
             log.trace("%s <-- ACK(%s: #%d, conn-id=%d, ts=%d)", local_addr, sender, seqno, conn_id, timestamp);
         SenderEntry entry=send_table.get(sender);
@@ -936,8 +1035,32 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
         Table<Message> win=entry != null? entry.msgs : null;
         if(win != null && entry.updateLastTimestamp(timestamp)) {
+            if(entry.rtt != null && entry.rtt.timedSeqno() >= 0)
+                entry.rtt.received(seqno, System.nanoTime(), true);
             win.purge(seqno, true); // removes all messages <= seqno (forced purge)
+            if(entry.store != null)
+                entry.store.purge(seqno);
             num_acks_received++;
+            if(msg != null && msg.getLength() > 0)
+                handleSelectiveAck(sender, entry, msg);
+        }
+    }
+
+    /** Records the highest seqno received by the receiver and resends the messages it reported as missing */
+    protected void handleSelectiveAck(Address sender, SenderEntry entry, Message msg) {
+        try {
+            ByteArrayDataInputStream in=new ByteArrayDataInputStream(msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+            long highest_received=Bits.readLong(in);
+            SeqnoList missing=Util.readStreamable(SeqnoList::new, in);
+            sacks_received.increment();
+            if(is_trace)
+                log.trace("%s <-- SACK(%s: hr=#%d, missing=%s)", local_addr, sender, highest_received, missing);
+            entry.highestSacked(highest_received);
+            if(missing != null)
+                resend(sender, entry, missing);
+        }
+        catch(Exception ex) {
+            log.error("%s: failed reading selective ack from %s: %s", local_addr, sender, ex);
         }
     }
 
@@ -959,7 +1082,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         if(!entry.updateLastTimestamp(timestamp))
             return;
 
-        Message rsp=win.get(win.getLow() +1);
+        Message rsp=getMessage(entry, win.getLow() +1);
         if(rsp != null) {
             // We need to copy the UnicastHeader and put it back into the message because Message.copy() doesn't copy
             // the headers and therefore we'd modify the original message in the sender retransmission window
@@ -980,19 +1103,48 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
         SenderEntry entry=send_table.get(sender);
         xmit_reqs_received.add(missing.size());
-        Table<Message> win=entry != null? entry.msgs : null;
-        if(win != null) {
-            for(long seqno: missing) {
-                Message msg=win.get(seqno);
-                if(msg == null) {
-                    if(log.isWarnEnabled() && log_not_found_msgs && !local_addr.equals(sender) && seqno > win.getLow())
-                        log.warn(Util.getMessage("MessageNotFound"), local_addr, sender, seqno);
-                    continue;
-                }
+        if(entry != null)
+            resend(sender, entry, missing);
+    }
 
-                down_prot.down(msg);
-                xmit_rsps_sent.increment();
+    /** Resends the given messages of a send window */
+    protected void resend(Address sender, SenderEntry entry, SeqnoList missing) {
+        Table<Message> win=entry.msgs;
+        if(win == null)
+            return;
+        for(long seqno: missing) {
+            Message msg=getMessage(entry, seqno);
+            if(msg == null) {
+                if(log.isWarnEnabled() && log_not_found_msgs && !local_addr.equals(sender) && seqno > win.getLow())
+                    log.warn(Util.getMessage("MessageNotFound"), local_addr, sender, seqno);
+                continue;
             }
+
+            if(entry.rtt != null)
+                entry.rtt.resent(seqno);
+            down_prot.down(msg);
+            xmit_rsps_sent.increment();
+        }
+    }
+
+    /** Takes an RTT sample if the message whose retransmission was requested has been received */
+    protected static void checkRtt(ReceiverEntry entry) {
+        long timed=entry.rtt.timedSeqno();
+        if(timed >= 0 && (timed <= entry.msgs.getHighestDelivered() || entry.msgs.get(timed) != null))
+            entry.rtt.received(timed, System.nanoTime(), false);
+    }
+
+    /** Returns a message from a send window, or from the off-heap store if the window only has a placeholder */
+    protected Message getMessage(SenderEntry entry, long seqno) {
+        Message msg=entry.msgs.get(seqno);
+        if(msg != STORED_MSG)
+            return msg;
+        try {
+            return entry.store.get(seqno);
+        }
+        catch(Throwable t) {
+            log.error("%s: failed reading message #%d from the xmit store: %s", local_addr, seqno, t);
+            return null;
         }
     }
 
@@ -1036,7 +1188,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
     protected void startRetransmitTask() {
         if(xmit_task == null || xmit_task.isDone())
-            xmit_task=timer.scheduleWithFixedDelay(new RetransmitTask(), 0, xmit_interval, TimeUnit.MILLISECONDS, sends_can_block);
+            xmit_task=getTransport().scheduleRecurring(new RetransmitTask(), 0, adaptive_xmit? min_rto : xmit_interval,
+                                                       TimeUnit.MILLISECONDS, sends_can_block);
     }
 
     protected void stopRetransmitTask() {
@@ -1048,15 +1201,41 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
 
     protected void sendAck(Address dst, long seqno, short conn_id) {
+        sendAck(dst, seqno, conn_id, null, null);
+    }
+
+    /**
+     * Sends an ACK for all messages <= seqno. If win is not null, the ACK is a selective ack, carrying the highest
+     * received seqno of win and the seqnos in missing (if not null)
+     */
+    protected void sendAck(Address dst, long seqno, short conn_id, Table<Message> win, SeqnoList missing) {
         if(!running) // if we are disconnected, then don't send any acks which throw exceptions on shutdown
             return;
         Message ack=new Message(dst).setFlag(Message.Flag.INTERNAL).
           putHeader(this.id, UnicastHeader3.createAckHeader(seqno, conn_id, timestamper.incrementAndGet()));
-        if(is_trace)
+        if(win != null) {
+            long highest_received=win.getHighestReceived();
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(Global.LONG_SIZE + 1
+                                                                          + (missing != null? missing.serializedSize() : 0));
+            try {
+                Bits.writeLong(highest_received, out);
+                Util.writeStreamable(missing, out);
+            }
+            catch(Exception ex) {
+                log.error("%s: failed writing selective ack: %s", local_addr, ex);
+                return;
+            }
+            ack.setBuffer(out.getBuffer());
+            if(is_trace)
+                log.trace("%s --> SACK(%s: #%d, hr=#%d, missing=%s)", local_addr, dst, seqno, highest_received, missing);
+        }
+        else if(is_trace)
             log.trace("%s --> ACK(%s: #%d)", local_addr, dst, seqno);
         try {
             down_prot.down(ack);
             num_acks_sent++;
+            if(win != null)
+                sacks_sent.increment();
         }
         catch(Throwable t) {
             log.error(Util.getMessage("FailedSendingAck"), local_addr, seqno, dst, t);
@@ -1218,10 +1397,12 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         protected final short           conn_id;
         protected final AtomicLong      timestamp=new AtomicLong(0); // ns
         protected volatile State        state=State.OPEN;
+        protected final RttEstimator    rtt; // null unless adaptive_xmit is enabled
 
         protected Entry(short conn_id, Table<Message> msgs) {
             this.conn_id=conn_id;
             this.msgs=msgs;
+            this.rtt=adaptive_xmit? new RttEstimator(xmit_interval, min_rto, max_rto, TimeUnit.MILLISECONDS) : null;
             update();
         }
 
@@ -1237,14 +1418,23 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         final AtomicLong       sent_msgs_seqno=new AtomicLong(DEFAULT_FIRST_SEQNO);   // seqno for msgs sent by us
         protected final long[] watermark={0,0}; // the highest acked and highest sent seqno
         protected int          last_timestamp;  // to prevent out-of-order ACKs from a receiver
+        protected volatile long highest_sacked; // the highest seqno reported as received by a selective ack
+        protected final MessageStore store;     // off-heap copies of the messages in msgs; null if disabled
 
         public SenderEntry(short send_conn_id) {
-            super(send_conn_id, new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row, 0,
-                                            xmit_table_resize_factor, xmit_table_max_compaction_time));
+            super(send_conn_id, createTable(0));
+            store=xmit_store_pool != null? new MessageStore(xmit_store_pool) : null;
+        }
+
+        void closeStore() {
+            if(store != null)
+                store.close();
         }
 
         long[]      watermark()                 {return watermark;}
         SenderEntry watermark(long ha, long hs) {watermark[0]=ha; watermark[1]=hs; return this;}
+        long        highestSacked()             {return highest_sacked;}
+        SenderEntry highestSacked(long seqno)   {if(seqno > highest_sacked) highest_sacked=seqno; return this;}
 
         /** Updates last_timestamp. Returns true of the update was in order (ts > last_timestamp) */
         protected synchronized boolean updateLastTimestamp(int ts) {
@@ -1265,6 +1455,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             sb.append("send_conn_id=" + conn_id).append(" (" + age()/1000 + " secs old) - " + state);
             if(last_timestamp != 0)
                 sb.append(", last-ts: ").append(last_timestamp);
+            if(store != null)
+                sb.append(", store: ").append(store);
             return sb.toString();
         }
     }
@@ -1302,6 +1494,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
      *     <li>For all sender windows, checks if highest acked (HA) < highest sent (HS). If not, and HA/HS is the same
      *         as on the last retransmission run, send the highest sent message again</li>
      * </ul>
+     * With adaptive_xmit, the task runs every min_rto ms, but retransmissions on a connection are only triggered
+     * when its retransmission deadline has passed
      */
     protected class RetransmitTask implements Runnable {
 
@@ -1310,13 +1504,14 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         }
 
         public String toString() {
-            return UNICAST3.class.getSimpleName() + ": RetransmitTask (interval=" + xmit_interval + " ms)";
+            return UNICAST3.class.getSimpleName() + ": RetransmitTask (interval=" + (adaptive_xmit? min_rto : xmit_interval) + " ms)";
         }
     }
 
     @ManagedOperation(description="Triggers the retransmission task")
     public void triggerXmit() {
         SeqnoList missing;
+        long now=adaptive_xmit? System.nanoTime() : 0;
 
         for(Map.Entry<Address,ReceiverEntry> entry: recv_table.entrySet()) {
             Address        target=entry.getKey(); // target to send retransmit requests to
@@ -1324,25 +1519,45 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             Table<Message> win=val != null? val.msgs : null;
 
             // receiver: send ack for received messages if needed
-            if(win != null && val.sendAck()) // sendAck() resets send_ack to false
+            boolean send_ack=win != null && val.sendAck(); // sendAck() resets send_ack to false
+            if(send_ack && !selective_acks)
                 sendAck(target, win.getHighestDeliverable(), val.connId());
 
+            // receiver: the retransmission deadline for target has not yet passed
+            if(val != null && val.rtt != null && win != null && win.getNumMissing() > 0 && !val.rtt.expired(now)) {
+                if(send_ack && selective_acks)
+                    sendAck(target, win.getHighestDeliverable(), val.connId());
+                continue;
+            }
+
             // receiver: retransmit missing messages (getNumMissing() is fast)
             if(win != null && win.getNumMissing() > 0 && (missing=win.getMissing(max_xmit_req_size)) != null) {
                 long highest=missing.getLast();
                 Long prev_seqno=xmit_task_map.get(target);
-                if(prev_seqno == null)
+                if(prev_seqno == null) {
                     xmit_task_map.put(target, highest); // no retransmission
+                    missing=null;
+                }
                 else {
                     missing.removeHigherThan(prev_seqno); // we only retransmit the 'previous batch'
                     if(highest > prev_seqno)
                         xmit_task_map.put(target, highest);
-                    if(!missing.isEmpty())
-                        retransmit(missing, target);
+                    if(missing.isEmpty())
+                        missing=null;
                 }
+                if(missing != null && val.rtt != null)
+                    val.rtt.requested(missing.iterator().next(), now);
+                if(selective_acks) // the missing messages are requested by the selective ack
+                    sendAck(target, win.getHighestDeliverable(), val.connId(), win, missing);
+                else if(missing != null)
+                    retransmit(missing, target);
+            }
+            else {
+                if(send_ack && selective_acks)
+                    sendAck(target, win.getHighestDeliverable(), val.connId());
+                if(!xmit_task_map.isEmpty())
+                    xmit_task_map.remove(target); // no current gaps for target
             }
-            else if(!xmit_task_map.isEmpty())
-                xmit_task_map.remove(target); // no current gaps for target
         }
 
         // sender: only send the *highest sent* message if HA < HS and HA/HS didn't change from the prev run
@@ -1352,11 +1567,17 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
                 long highest_acked=win.getHighestDelivered(); // highest delivered == highest ack (sender win)
                 long highest_sent=win.getHighestReceived();   // we use table as a *sender* win, so it's highest *sent*...
 
-                if(highest_acked < highest_sent && val.watermark[0] == highest_acked && val.watermark[1] == highest_sent) {
-                    // highest acked and sent hasn't moved up - let's resend the HS
-                    Message highest_sent_msg=win.get(highest_sent);
-                    if(highest_sent_msg != null)
+                if(val.rtt != null && highest_acked < highest_sent && !val.rtt.expired(now))
+                    continue; // the retransmission deadline for this connection has not yet passed
+                if(highest_acked < highest_sent && val.watermark[0] == highest_acked && val.watermark[1] == highest_sent
+                  && val.highestSacked() < highest_sent) {
+                    // highest acked and sent hasn't moved up (and HS wasn't reported as received) - let's resend the HS
+                    Message highest_sent_msg=getMessage(val, highest_sent);
+                    if(highest_sent_msg != null) {
+                        if(val.rtt != null)
+                            val.rtt.resent(highest_sent).backoff(true);
                         retransmit(highest_sent_msg);
+                    }
                 }
                 else
                     val.watermark(highest_acked, highest_sent);
@@ -31,8 +31,9 @@ import java.util.function.Supplier;
  * according to seqno and request retransmission of missing messages.<br/>
  * Retransmit requests are usually sent to the original sender of a message, but
  * this can be changed by xmit_from_random_member (send to random member) or
- * use_mcast_xmit_req (send to everyone). Responses can also be sent to everyone
- * instead of the requester by setting use_mcast_xmit to true.
+ * use_mcast_xmit_req (send to everyone). Large ranges of missing messages can be
+ * split across several members with xmit_sources. Responses can also be sent to
+ * everyone instead of the requester by setting use_mcast_xmit to true.
  *
  * @author Bela Ban
  */
@@ -66,6 +67,20 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     @Property(description="Ask a random member for retransmission of a missing message. Default is false")
     protected boolean xmit_from_random_member=false;
 
+    /**
+     * Max number of members a large range of missing messages is split across: the original sender is asked for
+     * the first part and other members for the rest. Messages which are still missing in the next retransmission
+     * round are asked from the original sender. If > 1, discard_delivered_msgs will be set to false
+     */
+    @Property(description="Max number of members (including the original sender) across which a large range of " +
+      "missing messages is split when asking for retransmission. 1 asks only the original sender. If > 1, " +
+      "discard_delivered_msgs is set to false")
+    protected int     xmit_sources=1;
+
+    @Property(description="Min number of missing messages asked from each member when xmit_sources > 1: " +
+      "a range of missing messages is only split if it has at least 2 * xmit_split_size messages")
+    protected int     xmit_split_size=100;
+
 
     /**
      * Messages that have been received in order are sent up the stack (= delivered to the application).
@@ -90,6 +105,17 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
       "are retransmitted")
     protected long    xmit_interval=1000;
 
+    @Property(description="If true, the retransmission deadline for each member is derived from the round-trip " +
+      "time of its retransmissions (like TCP's RTO), rather than being xmit_interval for all members. The " +
+      "retransmission task then runs every min_rto ms, and xmit_interval is the initial RTO",writable=false)
+    protected boolean adaptive_xmit;
+
+    @Property(description="Min retransmission timeout (ms) when adaptive_xmit is enabled",writable=false)
+    protected long    min_rto=20;
+
+    @Property(description="Max retransmission timeout (ms) when adaptive_xmit is enabled",writable=false)
+    protected long    max_rto=10000;
+
     @Property(description="Number of rows of the matrix in the retransmission table (only for experts)",writable=false)
     protected int     xmit_table_num_rows=100;
 
@@ -105,6 +131,10 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
       "is compacted (only for experts)",writable=false)
     protected long    xmit_table_max_compaction_time=10000;
 
+    @Property(description="If true, a ConcurrentTable is used as retransmission table, which lets multiple threads " +
+      "add messages concurrently and doesn't block reads (e.g. on retransmission)",writable=false)
+    protected boolean xmit_table_concurrent;
+
     @Property(description="Size of the queue to hold messages received after creating the channel, but before being " +
       "connected (is_server=false). After becoming the server, the messages in the queue are fed into up() and the " +
       "queue is cleared. The motivation is to avoid retransmissions (see https://issues.jboss.org/browse/JGRP-1509 " +
@@ -127,6 +157,16 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     @Property(description="Max number of times the last seqno is resent before acquiescing if last seqno isn't incremented")
     protected int     resend_last_seqno_max_times=1;
 
+    @Property(description="Max number of bytes of off-heap memory for the messages sent by this member. If > 0, " +
+      "sent messages are serialized into an off-heap store until they're stable, and deserialized only when they " +
+      "need to be retransmitted. When the max has been reached, messages are kept on the heap. 0 disables the store",
+      writable=false)
+    protected long    xmit_store_max_bytes;
+
+    @Property(description="Size (in bytes) of the slabs of off-heap memory used by the store. Messages larger than " +
+      "this are kept on the heap",writable=false)
+    protected int     xmit_store_slab_size=1 << 20;
+
     @ManagedAttribute(description="True if sending a message can block at the transport level")
     protected boolean sends_can_block=true;
 
@@ -158,6 +198,10 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     @ManagedAttribute(description="Number of retransmit requests sent")
     protected final LongAdder xmit_reqs_sent=new LongAdder();
 
+    @ManagedAttribute(description="Number of retransmit requests sent to members other than the original sender " +
+      "(xmit_sources > 1)")
+    protected final LongAdder xmit_reqs_sent_to_others=new LongAdder();
+
     @ManagedAttribute(description="Number of retransmit responses received")
     protected final LongAdder xmit_rsps_received=new LongAdder();
 
@@ -167,6 +211,15 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     @ManagedAttribute(description="Is the retransmit task running")
     public boolean isXmitTaskRunning() {return xmit_task != null && !xmit_task.isDone();}
 
+    @ManagedAttribute(description="Number of bytes of serialized messages held in the off-heap store")
+    public long getXmitStoreBytes() {return xmit_store_pool != null? xmit_store_pool.storedBytes() : 0;}
+
+    @ManagedAttribute(description="Number of bytes of off-heap memory allocated by the store")
+    public long getXmitStoreAllocatedBytes() {return xmit_store_pool != null? xmit_store_pool.allocatedBytes() : 0;}
+
+    @ManagedAttribute(description="Number of messages in the store which are kept on the heap")
+    public int getXmitStoreHeapMessages() {return xmit_store != null? xmit_store.heapMessages() : 0;}
+
     @ManagedAttribute(description="Number of messages from non-members")
     public int getNonMemberMessages() {
         return suppress_log_non_member != null? suppress_log_non_member.getCache().size() : 0;
@@ -208,10 +261,20 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     /** Map to store sent and received messages (keyed by sender) */
     protected final ConcurrentMap<Address,Table<Message>> xmit_table=Util.createConcurrentMap();
 
+    /** Stores the messages sent by this member off-heap; null if xmit_store_max_bytes is 0 */
+    protected MessageStore              xmit_store;
+    protected SlabPool                  xmit_store_pool;
+
     /** RetransmitTask running every xmit_interval ms */
     protected Future<?>                 xmit_task;
     /** Used by the retransmit task to keep the last retransmitted seqno per sender (https://issues.jboss.org/browse/JGRP-1539) */
     protected final Map<Address,Long>   xmit_task_map=new ConcurrentHashMap<>();
+    /** RTT estimates of the members from which we request retransmissions (keyed by sender); used by adaptive_xmit */
+    protected final ConcurrentMap<Address,RttEstimator> xmit_rtts=Util.createConcurrentMap();
+    /** The highest seqno per sender whose retransmission was asked from other members; used by xmit_sources */
+    protected final ConcurrentMap<Address,Long> xmit_split_seqnos=Util.createConcurrentMap();
+    /** The last time (ns) the last seqno was resent; used by adaptive_xmit */
+    protected long                      last_seqno_resend_time;
 
     protected volatile boolean          leaving=false;
     protected volatile boolean          running=false;
@@ -240,6 +303,7 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
 
     public long    getXmitRequestsReceived()               {return xmit_reqs_received.sum();}
     public long    getXmitRequestsSent()                   {return xmit_reqs_sent.sum();}
+    public long    getXmitRequestsSentToOthers()           {return xmit_reqs_sent_to_others.sum();}
     public long    getXmitResponsesReceived()              {return xmit_rsps_received.sum();}
     public long    getXmitResponsesSent()                  {return xmit_rsps_sent.sum();}
     public boolean isUseMcastXmit()                        {return use_mcast_xmit;}
@@ -364,6 +428,18 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
 
     @ManagedAttribute public long getCurrentSeqno() {return seqno.get();}
 
+    /** Returns the RTT estimate for the given member (null if none); used by adaptive_xmit */
+    public RttEstimator getRtt(Address mbr) {return xmit_rtts.get(mbr);}
+
+    @ManagedOperation(description="Prints the round-trip times and retransmission timeouts of all members " +
+      "(adaptive_xmit only)")
+    public String printRtts() {
+        StringBuilder sb=new StringBuilder();
+        for(Map.Entry<Address,RttEstimator> entry: xmit_rtts.entrySet())
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        return sb.toString();
+    }
+
     @ManagedOperation(description="Prints the stability messages received")
     public String printStabilityMessages() {
         return Util.printListWithDelimiter(stability_msgs, "\n");
@@ -398,6 +474,7 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         num_messages_sent=num_messages_received=0;
         xmit_reqs_received.reset();
         xmit_reqs_sent.reset();
+        xmit_reqs_sent_to_others.reset();
         xmit_rsps_received.reset();
         xmit_rsps_sent.reset();
         stability_msgs.clear();
@@ -405,6 +482,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         Table<Message> table=local_addr != null? xmit_table.get(local_addr) : null;
         if(table != null)
             table.resetStats();
+        if(xmit_store_pool != null)
+            xmit_store_pool.resetStats();
     }
 
     public void init() throws Exception {
@@ -412,6 +491,14 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             discard_delivered_msgs=false;
             log.debug("%s: xmit_from_random_member set to true: changed discard_delivered_msgs to false", local_addr);
         }
+        if(xmit_sources < 1)
+            throw new IllegalArgumentException("xmit_sources (" + xmit_sources + ") needs to be >= 1");
+        if(xmit_sources > 1 && xmit_split_size < 1)
+            throw new IllegalArgumentException("xmit_split_size (" + xmit_split_size + ") needs to be >= 1");
+        if(xmit_sources > 1 && discard_delivered_msgs) {
+            discard_delivered_msgs=false;
+            log.debug("%s: xmit_sources > 1: changed discard_delivered_msgs to false", local_addr);
+        }
 
         TP transport=getTransport();
         sends_can_block=transport instanceof TCP; // UDP and TCP_NIO2 won't block
@@ -427,6 +514,9 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             }
         }
 
+        if(adaptive_xmit && (min_rto <= 0 || min_rto > max_rto))
+            throw new IllegalArgumentException(String.format("min_rto (%d) must be > 0 and <= max_rto (%d)", min_rto, max_rto));
+
         if(become_server_queue_size > 0)
             become_server_queue=new BoundedList<>(become_server_queue_size);
 
@@ -445,6 +535,11 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
 
         if(resend_last_seqno)
             setResendLastSeqno(resend_last_seqno);
+
+        if(xmit_store_max_bytes > 0) {
+            xmit_store_pool=new SlabPool(xmit_store_slab_size, xmit_store_max_bytes);
+            xmit_store=new MessageStore(xmit_store_pool);
+        }
     }
 
 
@@ -725,7 +820,7 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
 
     protected void queueMessage(Message msg, long seqno) {
         if(become_server_queue != null) {
-            become_server_queue.add(msg);
+            become_server_queue.add(msg.detachPooledBuffer());
             log.trace("%s: message %s::%d was added to queue (not yet server)", local_addr, msg.getSrc(), seqno);
         }
         else
@@ -771,6 +866,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         do {
             try {
                 msg.putHeader(this.id, NakAckHeader2.createMessageHeader(msg_id));
+                if(xmit_store != null) // before adding it to the table, which nulls the message when delivered
+                    xmit_store.put(msg_id, msg);
                 buf.add(msg_id, msg, dont_loopback_set? dont_loopback_filter : null);
                 break;
             }
@@ -809,11 +906,15 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
 
         num_messages_received++;
         boolean loopback=local_addr.equals(sender);
+        if(!loopback && !msg.isFlagSet(Message.Flag.OOB))
+            msg.detachPooledBuffer(); // the message is kept in the table, so it cannot point into a pooled receive buffer
 
         // If the message was sent by myself, then it is already in the table and we don't need to add it. If not,
         // and the message is OOB, insert a dummy message (same msg, saving space), deliver it and drop it later on
         // removal. Else insert the real message
         boolean added=loopback || buf.add(hdr.seqno, msg.isFlagSet(Message.Flag.OOB)? DUMMY_OOB_MSG : msg);
+        if(added && adaptive_xmit && !loopback)
+            checkRtt(sender, buf);
 
         if(added && is_trace)
             log.trace("%s: received %s#%d", local_addr, sender, hdr.seqno);
@@ -842,7 +943,11 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         }
         num_messages_received+= msgs.size();
         boolean loopback=local_addr.equals(sender);
+        if(!loopback && !oob)
+            msgs.forEach(tuple -> tuple.getVal2().detachPooledBuffer()); // messages are kept in the table
         boolean added=loopback || buf.add(msgs, oob, oob? DUMMY_OOB_MSG : null);
+        if(added && adaptive_xmit && !loopback)
+            checkRtt(sender, buf);
 
         if(added && is_trace)
             log.trace("%s: received %s#%d-%d (%d messages)",
@@ -879,7 +984,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         AtomicInteger adders=buf.getAdders();
         if(adders.getAndIncrement() != 0)
             return;
-        boolean remove_msgs=discard_delivered_msgs && !loopback;
+        // my own messages are kept for retransmission, unless they're in the xmit store
+        boolean remove_msgs=loopback? xmit_store != null : discard_delivered_msgs;
         MessageBatch batch=new MessageBatch(buf.size()).dest(null).sender(sender).clusterName(cluster_name).multicast(true);
         Supplier<MessageBatch> batch_creator=() -> batch;
         do {
@@ -921,8 +1027,11 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             return;
         }
 
+        boolean from_store=xmit_store != null && original_sender.equals(local_addr);
         for(long i: missing_msgs) {
             Message msg=buf.get(i);
+            if(msg == null && from_store)
+                msg=getFromXmitStore(i);
             if(msg == null) {
                 if(log.isWarnEnabled() && log_not_found_msgs && !local_addr.equals(xmit_requester) && i > buf.getLow())
                     log.warn(Util.getMessage("MessageNotFound"), local_addr, original_sender, i);
@@ -1209,6 +1318,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
                 if(Objects.equals(local_addr, member))
                     continue;
                 Table<Message> buf=xmit_table.remove(member);
+                xmit_rtts.remove(member);
+                xmit_split_seqnos.remove(member);
                 if(buf != null)
                     log.debug("%s: removed %s from xmit_table (not member anymore)", local_addr, member);
             }
@@ -1353,8 +1464,11 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
 
 
     protected Table<Message> createTable(long initial_seqno) {
-        return new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row,
-                                  initial_seqno, xmit_table_resize_factor, xmit_table_max_compaction_time);
+        return xmit_table_concurrent?
+          new ConcurrentTable<>(xmit_table_num_rows, xmit_table_msgs_per_row,
+                                initial_seqno, xmit_table_resize_factor, xmit_table_max_compaction_time)
+          : new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row,
+                        initial_seqno, xmit_table_resize_factor, xmit_table_max_compaction_time);
     }
 
 
@@ -1395,6 +1509,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             if(hd >= 0 && buf != null) {
                 log.trace("%s: deleting msgs <= %s from %s", local_addr, hd, member);
                 buf.purge(hd);
+                if(xmit_store != null && member.equals(local_addr))
+                    xmit_store.purge(hd);
             }
         }
     }
@@ -1415,12 +1531,68 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     protected void retransmit(SeqnoList missing_msgs, final Address sender, boolean multicast_xmit_request) {
         Address dest=(multicast_xmit_request || this.use_mcast_xmit_req)? null : sender; // to whom do we send the XMIT request ?
 
+        if(dest != null && xmit_sources > 1 && !local_addr.equals(sender) && retransmitFromMultipleMembers(missing_msgs, sender))
+            return;
+
         if(xmit_from_random_member && !local_addr.equals(sender)) {
             Address random_member=Util.pickRandomElement(members);
             if(random_member != null && !local_addr.equals(random_member))
                 dest=random_member;
         }
+        sendXmitRequest(missing_msgs, sender, dest);
+    }
 
+    /**
+     * Splits the missing messages from sender into at most xmit_sources parts of at least xmit_split_size messages:
+     * the original sender is asked for the first part and other members for the remaining parts. Messages above the
+     * last stability digest are held by all members which received them (discard_delivered_msgs is false), so a
+     * member which doesn't have a requested message (e.g. because it lost it, too) simply doesn't send it; messages
+     * which were asked from other members before and are still missing are asked from the original sender.
+     * @return True if the request was split, false if the caller needs to ask the original sender for all messages
+     */
+    protected boolean retransmitFromMultipleMembers(SeqnoList missing_msgs, Address sender) {
+        Long tmp=xmit_split_seqnos.get(sender);
+        long split_high=tmp != null? tmp : 0; // seqnos <= split_high were asked from other members before
+        int num_new=0;
+        for(long seqno: missing_msgs)
+            if(seqno > split_high)
+                num_new++;
+
+        List<Address> others=new ArrayList<>(members);
+        others.remove(local_addr);
+        others.remove(sender);
+        int num_sources=Math.min(Math.min(xmit_sources, others.size() + 1), num_new / xmit_split_size);
+        if(num_sources < 2)
+            return false;
+
+        Collections.shuffle(others);
+        long last=missing_msgs.getLast();
+        int  part_size=(num_new + num_sources - 1) / num_sources, count=0;
+        SeqnoList[] parts=new SeqnoList[num_sources];
+        for(long seqno: missing_msgs) {
+            // the new seqnos are split into consecutive parts; the others are asked from the sender (part 0)
+            int index=seqno > split_high? count++ / part_size : 0;
+            SeqnoList part=parts[index];
+            if(part == null)
+                part=parts[index]=new SeqnoList((int)(last - seqno + 1), seqno); // seqnos are iterated in order
+            part.add(seqno);
+        }
+        for(int i=0; i < parts.length; i++) {
+            if(parts[i] == null)
+                continue;
+            Address dest=i == 0? sender : others.get(i-1);
+            sendXmitRequest(parts[i], sender, dest);
+            if(i > 0) {
+                split_high=Math.max(split_high, parts[i].getLast());
+                if(stats)
+                    xmit_reqs_sent_to_others.add(parts[i].size());
+            }
+        }
+        xmit_split_seqnos.put(sender, split_high);
+        return true;
+    }
+
+    protected void sendXmitRequest(SeqnoList missing_msgs, Address sender, Address dest) {
         Message retransmit_msg=new Message(dest).setBuffer(Util.streamableToBuffer(missing_msgs))
           .setFlag(Message.Flag.OOB, Message.Flag.INTERNAL)
           .putHeader(this.id, NakAckHeader2.createXmitRequestHeader(sender));
@@ -1435,6 +1607,20 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     protected void reset() {
         seqno.set(0);
         xmit_table.clear();
+        xmit_rtts.clear();
+        xmit_split_seqnos.clear();
+        if(xmit_store != null)
+            xmit_store.clear();
+    }
+
+    protected Message getFromXmitStore(long seqno) {
+        try {
+            return xmit_store.get(seqno);
+        }
+        catch(Throwable t) {
+            log.error("%s: failed reading message #%d from the xmit store: %s", local_addr, seqno, t);
+            return null;
+        }
     }
 
 
@@ -1450,7 +1636,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
 
     protected void startRetransmitTask() {
         if(xmit_task == null || xmit_task.isDone())
-            xmit_task=timer.scheduleWithFixedDelay(new RetransmitTask(), 0, xmit_interval, TimeUnit.MILLISECONDS, sends_can_block);
+            xmit_task=getTransport().scheduleRecurring(new RetransmitTask(), 0, adaptive_xmit? min_rto : xmit_interval,
+                                                       TimeUnit.MILLISECONDS, sends_can_block);
     }
 
     protected void stopRetransmitTask() {
@@ -1464,7 +1651,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
 
     /**
      * Retransmitter task which periodically (every xmit_interval ms) looks at all the retransmit tables and
-     * sends retransmit request to all members from which we have missing messages
+     * sends retransmit request to all members from which we have missing messages. With adaptive_xmit, the task
+     * runs every min_rto ms, but sends retransmit requests to a member only when its retransmission deadline passed
      */
     protected class RetransmitTask implements Runnable {
         public void run() {
@@ -1472,17 +1660,21 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         }
 
         public String toString() {
-            return NAKACK2.class.getSimpleName() + ": RetransmitTask (interval=" + xmit_interval + " ms)";
+            return NAKACK2.class.getSimpleName() + ": RetransmitTask (interval=" + (adaptive_xmit? min_rto : xmit_interval) + " ms)";
         }
     }
 
     @ManagedOperation(description="Triggers the retransmission task, asking all senders for missing messages")
     public void triggerXmit() {
         SeqnoList missing;
+        long now=adaptive_xmit? System.nanoTime() : 0;
 
         for(Map.Entry<Address,Table<Message>> entry: xmit_table.entrySet()) {
             Address target=entry.getKey(); // target to send retransmit requests to
             Table<Message> buf=entry.getValue();
+            RttEstimator rtt=adaptive_xmit? getOrCreateRtt(target) : null;
+            if(rtt != null && buf != null && buf.getNumMissing() > 0 && !rtt.expired(now))
+                continue; // the retransmission deadline of target has not yet passed
 
             if(buf != null && buf.getNumMissing() > 0 && (missing=buf.getMissing(max_xmit_req_size)) != null) { // getNumMissing() is fast
                 long highest=missing.getLast();
@@ -1494,16 +1686,46 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
                     missing.removeHigherThan(prev_seqno); // we only retransmit the 'previous batch'
                     if(highest > prev_seqno)
                         xmit_task_map.put(target, highest);
-                    if(!missing.isEmpty())
+                    if(!missing.isEmpty()) {
+                        if(rtt != null)
+                            rtt.requested(missing.iterator().next(), now);
                         retransmit(missing, target, false);
+                    }
                 }
             }
             else if(!xmit_task_map.isEmpty())
                 xmit_task_map.remove(target); // no current gaps for target
         }
 
-        if(resend_last_seqno && last_seqno_resender != null)
+        if(resend_last_seqno && last_seqno_resender != null) {
+            if(adaptive_xmit) { // the task runs every min_rto ms, but the last seqno is resent every xmit_interval ms
+                if(now - last_seqno_resend_time < TimeUnit.MILLISECONDS.toNanos(xmit_interval))
+                    return;
+                last_seqno_resend_time=now;
+            }
             last_seqno_resender.execute(seqno.get());
+        }
+    }
+
+    /**
+     * Takes an RTT sample if the message whose retransmission was requested has been received (as XMIT_RSP, or as
+     * the original multicast message with use_mcast_xmit)
+     */
+    protected void checkRtt(Address sender, Table<Message> buf) {
+        RttEstimator rtt=xmit_rtts.get(sender);
+        long timed=rtt != null? rtt.timedSeqno() : -1;
+        if(timed >= 0 && (timed <= buf.getHighestDelivered() || buf.get(timed) != null))
+            rtt.received(timed, System.nanoTime(), false);
+    }
+
+    protected RttEstimator getOrCreateRtt(Address mbr) {
+        RttEstimator rtt=xmit_rtts.get(mbr);
+        if(rtt == null) {
+            RttEstimator tmp=xmit_rtts.putIfAbsent(mbr, rtt=new RttEstimator(xmit_interval, min_rto, max_rto, TimeUnit.MILLISECONDS));
+            if(tmp != null)
+                rtt=tmp;
+        }
+        return rtt;
     }
 
 
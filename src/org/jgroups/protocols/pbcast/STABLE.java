@@ -33,6 +33,13 @@ import java.util.function.Supplier;
  * <p>
  * When send_stable_msgs_to_coord_only is true, far fewer messages are exchanged, as members don't multicast
  * STABLE messages, but instead send them only to the coordinator.
+ * <p>
+ * When delta_digests is true, STABLE and STABILITY messages only carry the entries which differ from the last
+ * stability digest (which all members have), e.g. the entries of the members which sent multicasts since the last
+ * round. A member which cannot apply a delta (because it missed the last STABILITY message) discards it, and the
+ * next digest sent by a member whose delta was not acknowledged by a STABILITY message is a full one. As STABILITY
+ * messages are sent unreliably, a member without a stability digest marks its STABLE messages as needing a full
+ * digest, and the STABILITY message of a round in which such a STABLE message was received carries the full digest.
  * @author Bela Ban
  */
 @MBean(description="Computes the broadcast messages that are stable")
@@ -70,6 +77,14 @@ public class STABLE extends Protocol {
       "on the coordinator")
     protected boolean send_stable_msgs_to_coord_only=true;
 
+    @Property(description="If true, STABLE and STABILITY messages only carry the entries of the digest which changed " +
+      "since the last stability digest, rather than the full digest")
+    protected boolean delta_digests;
+
+    @Property(description="Every full_digest_interval-th STABLE or STABILITY message carries the full digest " +
+      "(if delta_digests is true)")
+    protected int     full_digest_interval=10;
+
     
     /* --------------------------------------------- JMX  ---------------------------------------------- */
 
@@ -77,6 +92,8 @@ public class STABLE extends Protocol {
     protected int    num_stable_msgs_received;
     protected int    num_stability_msgs_sent;
     protected int    num_stability_msgs_received;
+    protected int    num_delta_digests_sent;
+    protected int    num_delta_digests_discarded;
 
     
     /* --------------------------------------------- Fields ------------------------------------------------------ */
@@ -95,6 +112,26 @@ public class STABLE extends Protocol {
     @GuardedBy("lock")
     protected FixedSizeBitSet     votes;
 
+    /** The last stability digest (received or computed) in the current view; the base of delta digests */
+    @GuardedBy("lock")
+    protected Digest              stability_digest;
+
+    /** The round of stability_digest. Incremented by every STABILITY message; 0 if stability_digest is null */
+    @GuardedBy("lock")
+    protected long                stability_round;
+
+    /** The number of delta digests sent in STABLE messages since the last full digest */
+    @GuardedBy("lock")
+    protected int                 num_deltas;
+
+    /** True if a delta digest was sent and no STABILITY message has been received since */
+    @GuardedBy("lock")
+    protected boolean             delta_pending;
+
+    /** True if a member asked for a full digest in the current round, so the next STABILITY message is a full one */
+    @GuardedBy("lock")
+    protected boolean             full_digest_needed;
+
     protected final Lock          lock=new ReentrantLock();
 
     @GuardedBy("stability_lock")
@@ -158,6 +195,12 @@ public class STABLE extends Protocol {
     public int getStabilitySent() {return num_stability_msgs_sent;}
     @ManagedAttribute
     public int getStabilityReceived() {return num_stability_msgs_received;}
+    @ManagedAttribute(description="Number of STABLE and STABILITY messages sent with a delta digest")
+    public int getDeltaDigestsSent() {return num_delta_digests_sent;}
+    @ManagedAttribute(description="Number of delta digests which were discarded as their base digest was not found")
+    public int getDeltaDigestsDiscarded() {return num_delta_digests_discarded;}
+    public boolean deltaDigests() {return delta_digests;}
+    public STABLE  deltaDigests(boolean flag) {this.delta_digests=flag; return this;}
 
     @ManagedAttribute
     public boolean getStableTaskRunning() {
@@ -173,6 +216,7 @@ public class STABLE extends Protocol {
     public void resetStats() {
         super.resetStats();
         num_stability_msgs_received=num_stability_msgs_sent=num_stable_msgs_sent=num_stable_msgs_received=0;
+        num_delta_digests_sent=num_delta_digests_discarded=0;
     }
 
 
@@ -204,6 +248,8 @@ public class STABLE extends Protocol {
     
     public void init() throws Exception {
         super.init();
+        if(full_digest_interval < 1)
+            throw new IllegalArgumentException("full_digest_interval (" + full_digest_interval + ") needs to be >= 1");
     }
 
     public void start() throws Exception {
@@ -240,17 +286,19 @@ public class STABLE extends Protocol {
             return up_prot.up(msg);
         }
 
-        handleUpEvent(hdr, msg.getSrc(), readDigest(msg.getRawBuffer(), msg.getOffset(), msg.getLength()));
+        handleUpEvent(hdr, msg.getSrc(), readDigest(hdr, msg.getRawBuffer(), msg.getOffset(), msg.getLength()));
         return null;  // don't pass STABLE or STABILITY messages up the stack
     }
 
     protected void handleUpEvent(StableHeader hdr, Address sender, Digest digest) {
+        if(digest == null && hdr.delta) // the base of the delta digest was not found
+            return;
         switch(hdr.type) {
             case StableHeader.STABLE_GOSSIP:
-                handleStableMessage(digest, sender, hdr.view_id);
+                handleStableMessage(digest, sender, hdr.view_id, hdr.needsFull());
                 break;
             case StableHeader.STABILITY:
-                handleStabilityMessage(digest, sender, hdr.view_id);
+                handleStabilityMessage(digest, sender, hdr.view_id, hdr.round);
                 break;
             default:
                 log.error("%s: StableHeader type %s not known", local_addr, hdr.type);
@@ -264,7 +312,7 @@ public class STABLE extends Protocol {
         for(Message msg: batch) { // remove and handle messages with flow control headers (STABLE_GOSSIP, STABILITY)
             if((hdr=msg.getHeader(id)) != null) {
                 batch.remove(msg);
-                handleUpEvent(hdr, batch.sender(), readDigest(msg.getRawBuffer(), msg.getOffset(), msg.getLength()));
+                handleUpEvent(hdr, batch.sender(), readDigest(hdr, msg.getRawBuffer(), msg.getOffset(), msg.getLength()));
             }
         }
 
@@ -363,6 +411,9 @@ public class STABLE extends Protocol {
             this.view=v;
             coordinator=v.getCoord();
             resetDigest();
+            stability_digest=null; // the next digests are full digests
+            stability_round=num_deltas=0;
+            delta_pending=false;
             if(!initialized)
                 initialized=true;
         }
@@ -412,6 +463,7 @@ public class STABLE extends Protocol {
             return;
         digest=new MutableDigest(view.getMembersRaw()); // .set(getDigest());
         votes=new FixedSizeBitSet(view.size()); // all 0's initially
+        full_digest_needed=false;
     }
 
     /**
@@ -449,7 +501,7 @@ public class STABLE extends Protocol {
         try {
             if(stable_task_future == null || stable_task_future.isDone()) {
                 StableTask stable_task=new StableTask();
-                stable_task_future=timer.scheduleWithDynamicInterval(stable_task, getTransport() instanceof TCP);
+                stable_task_future=getTransport().scheduleRecurring(stable_task, getTransport() instanceof TCP);
                 log.trace("%s: stable task started", local_addr);
             }
         }
@@ -499,11 +551,11 @@ public class STABLE extends Protocol {
     }
 
 
-    protected void startStabilityTask(Digest d, ViewId view_id, long delay) {
+    protected void startStabilityTask(Digest d, ViewId view_id, long round, Digest base, long delay) {
         stability_lock.lock();
         try {
             if(stability_task_future == null || stability_task_future.isDone()) {
-                StabilitySendTask stability_task=new StabilitySendTask(d, view_id); // runs only once
+                StabilitySendTask stability_task=new StabilitySendTask(d, view_id, round, base); // runs only once
                 stability_task_future=timer.schedule(stability_task, delay, TimeUnit.MILLISECONDS,
                                                      getTransport() instanceof TCP);
             }
@@ -535,8 +587,10 @@ public class STABLE extends Protocol {
      message, which results in garbage collection of messages lower than the ones in the stability vector. The
      maximum of all seqnos will be taken to trigger possible retransmission of last missing seqno (see DESIGN
      for details).
+     @param needs_full True if the sender has no stability digest, so the STABILITY message of this round has to carry
+                       the full digest
      */
-    protected void handleStableMessage(final Digest d, final Address sender, final ViewId view_id) {
+    protected void handleStableMessage(final Digest d, final Address sender, final ViewId view_id, boolean needs_full) {
         if(d == null || sender == null) {
             if(log.isErrorEnabled()) log.error(Util.getMessage("DigestOrSenderIsNull"));
             return;
@@ -554,8 +608,9 @@ public class STABLE extends Protocol {
             return;
         }
 
-        Digest stable_digest=null;
+        Digest stable_digest=null, base=null;
         ViewId stable_view_id=null;
+        long   round=0;
         lock.lock();
         try {
             int rank=getRank(sender, view);
@@ -563,9 +618,12 @@ public class STABLE extends Protocol {
                 return;
             num_stable_msgs_received++;
             updateLocalDigest(d, sender);
+            full_digest_needed|=needs_full;
             if(addVote(rank)) {       // votes from all members have been received
                 stable_digest=digest; // no need to copy, as digest (although mutable) is reassigned below
                 stable_view_id=view.getViewId();
+                base=full_digest_needed? null : stability_digest;
+                round=setStabilityDigest(stable_digest, stability_round+1);
                 resetDigest();        // sets digest
             }
         }
@@ -580,7 +638,7 @@ public class STABLE extends Protocol {
         // received votes from their senders
         if(stable_digest != null) {
             resetNumBytes();
-            sendStabilityMessage(stable_digest, stable_view_id);
+            sendStabilityMessage(stable_digest, stable_view_id, round, base);
             // we discard our own STABILITY message: pass it down now, so NAKACK can purge old messages
             down_prot.down(new Event(Event.STABLE, stable_digest));
         }
@@ -597,7 +655,8 @@ public class STABLE extends Protocol {
     }
 
 
-    protected void handleStabilityMessage(final Digest stable_digest, final Address sender, final ViewId view_id) {
+    protected void handleStabilityMessage(final Digest stable_digest, final Address sender, final ViewId view_id,
+                                          long round) {
         if(stable_digest == null) {
             if(log.isErrorEnabled()) log.error(Util.getMessage("StabilityDigestIsNull"));
             return;
@@ -630,6 +689,7 @@ public class STABLE extends Protocol {
 
             num_stability_msgs_received++;
             resetDigest();
+            setStabilityDigest(stable_digest, round);
         }
         finally {
             lock.unlock();
@@ -659,10 +719,38 @@ public class STABLE extends Protocol {
             return;
         }
 
+        Digest  base=null;
+        long    round=0;
+        boolean needs_full=false;
+        if(delta_digests) {
+            lock.lock();
+            try {
+                // without a stability digest, we cannot apply delta STABILITY messages
+                needs_full=stability_digest == null;
+                // a full digest is sent if the last delta was not acknowledged (e.g. the recipient had a different
+                // stability digest), if the view changed in the meantime, or every full_digest_interval digests
+                if(stability_digest != null && !delta_pending && Objects.equals(current_view, view)
+                  && num_deltas < full_digest_interval-1) {
+                    base=stability_digest;
+                    round=stability_round;
+                    num_deltas++;
+                    delta_pending=true;
+                }
+                else
+                    num_deltas=0;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
         final Message msg=new Message(dest)
           .setFlag(Message.Flag.OOB,Message.Flag.INTERNAL,Message.Flag.NO_RELIABILITY)
-          .putHeader(this.id, new StableHeader(StableHeader.STABLE_GOSSIP, current_view.getViewId()))
-          .setBuffer(marshal(d));
+          .putHeader(this.id, new StableHeader(StableHeader.STABLE_GOSSIP, current_view.getViewId(), round, base != null)
+            .needsFull(needs_full))
+          .setBuffer(base != null? marshal(d, base) : marshal(d));
+        if(base != null)
+            num_delta_digests_sent++;
         try {
             if(!send_in_background) {
                 down_prot.down(msg);
@@ -689,9 +777,25 @@ public class STABLE extends Protocol {
         return Util.streamableToBuffer(digest);
     }
 
-    protected Digest readDigest(byte[] buffer, int offset, int length) {
+    /** Marshals the entries of digest which differ from base */
+    public static Buffer marshal(Digest digest, Digest base) {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(digest.serializedSizeDelta(base));
         try {
-            return buffer != null? Util.streamableFromBuffer(Digest::new, buffer, offset, length) : null;
+            digest.writeDelta(out, base);
+            return out.getBuffer();
+        }
+        catch(Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    protected Digest readDigest(StableHeader hdr, byte[] buffer, int offset, int length) {
+        try {
+            if(buffer == null)
+                return null;
+            if(!hdr.delta)
+                return Util.streamableFromBuffer(Digest::new, buffer, offset, length);
+            return readDelta(hdr, new ByteArrayDataInputStream(buffer, offset, length));
         }
         catch(Exception ex) {
             log.error("%s: failed reading Digest from message: %s", local_addr, ex);
@@ -699,6 +803,42 @@ public class STABLE extends Protocol {
         }
     }
 
+    /**
+     * Reads a delta digest and applies it to the stability digest it was computed against: the current stability
+     * digest for a STABLE message, or the previous one for a STABILITY message. Returns null if the base digest is
+     * not available, e.g. because the STABILITY message with the base digest was not received
+     */
+    protected Digest readDelta(StableHeader hdr, DataInput in) throws Exception {
+        lock.lock();
+        try {
+            if(view != null && hdr.view_id.equals(view.getViewId())) {
+                if(hdr.type == StableHeader.STABILITY && hdr.round == stability_round)
+                    return stability_digest; // computed the same stability digest from the STABLE messages
+                long base_round=hdr.type == StableHeader.STABILITY? hdr.round-1 : hdr.round;
+                if(stability_digest != null && base_round == stability_round)
+                    return new MutableDigest(stability_digest).readDelta(in);
+            }
+            num_delta_digests_discarded++;
+            log.trace("%s: discarded %s delta digest with base round %d (my round: %d)", local_addr,
+                      StableHeader.type2String(hdr.type), hdr.round, stability_round);
+            if(hdr.type == StableHeader.STABILITY)
+                stability_digest=null; // missed a STABILITY message: the next STABLE message asks for a full digest
+            return null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Sets the stability digest (the base of delta digests) and its round; returns the round */
+    @GuardedBy("lock")
+    protected long setStabilityDigest(Digest d, long round) {
+        stability_digest=d;
+        stability_round=round;
+        delta_pending=false;
+        return round;
+    }
+
 
     /**
      Schedules a stability message to be mcast after a random number of milliseconds (range [1-stability_delay] secs).
@@ -708,18 +848,23 @@ public class STABLE extends Protocol {
      elapses, some other member sent the STABILITY message, we just cancel our own message. If, during
      waiting for N msecs to send STABILITY message S1, another STABILITY message S2 is to be sent, we just discard S2.
      @param tmp A copy of the stability digest, so we don't need to copy it again
+     @param round The round of the stability digest
+     @param base The previous stability digest (null if none): if delta_digests is true, only the entries which differ
+                 from base are sent
      */
-    protected void sendStabilityMessage(Digest tmp, final ViewId view_id) {
+    protected void sendStabilityMessage(Digest tmp, final ViewId view_id, long round, Digest base) {
+        if(!delta_digests || round % full_digest_interval == 0)
+            base=null;
         if(send_stable_msgs_to_coord_only || stability_delay <= 1)
-            _sendStabilityMessage(tmp, view_id);
+            _sendStabilityMessage(tmp, view_id, round, base);
         else {
             // give other members a chance to mcast STABILITY message. if we receive STABILITY by the end of our random
             // sleep, we will not send the STABILITY msg. this prevents that all mbrs mcast a STABILITY msg at the same time
-            startStabilityTask(tmp, view_id, Util.random(stability_delay));
+            startStabilityTask(tmp, view_id, round, base, Util.random(stability_delay));
         }
     }
 
-    protected void _sendStabilityMessage(Digest stability_digest, final ViewId view_id) {
+    protected void _sendStabilityMessage(Digest stability_digest, final ViewId view_id, long round, Digest base) {
         if(suspended) {
             log.debug("STABILITY message will not be sent as suspended=%b", suspended);
             return;
@@ -729,8 +874,10 @@ public class STABLE extends Protocol {
         // but clear votes *before* sending it
         try {
             Message msg=new Message().setFlag(Message.Flag.OOB, Message.Flag.INTERNAL, Message.Flag.NO_RELIABILITY)
-              .putHeader(id, new StableHeader(StableHeader.STABILITY, view_id))
-              .setBuffer(marshal(stability_digest));
+              .putHeader(id, new StableHeader(StableHeader.STABILITY, view_id, round, base != null))
+              .setBuffer(base != null? marshal(stability_digest, base) : marshal(stability_digest));
+            if(base != null)
+                num_delta_digests_sent++;
             log.trace("%s: sending stability msg %s", local_addr, printDigest(stability_digest));
             num_stability_msgs_sent++;
             down_prot.down(msg);
@@ -761,18 +908,33 @@ public class STABLE extends Protocol {
     public static class StableHeader extends Header {
         public static final byte STABLE_GOSSIP=1;
         public static final byte STABILITY=2;
+        protected static final byte DELTA=1, NEEDS_FULL=2; // flags
 
-        protected byte   type;
-        protected ViewId view_id;
+        protected byte    type;
+        protected ViewId  view_id;
+        protected long    round; // STABILITY: the round of the digest, STABLE_GOSSIP: the round of the base digest
+        protected boolean delta; // true if the message carries a delta digest
+        protected boolean needs_full; // STABLE_GOSSIP: the sender has no stability digest and needs a full STABILITY
 
         public StableHeader() {
         }
 
         public StableHeader(byte type, ViewId view_id) {
+            this(type, view_id, 0, false);
+        }
+
+        public StableHeader(byte type, ViewId view_id, long round, boolean delta) {
             this.type=type;
             this.view_id=view_id;
+            this.round=round;
+            this.delta=delta;
         }
 
+        public byte         getType()                {return type;}
+        public boolean      isDelta()                {return delta;}
+        public boolean      needsFull()              {return needs_full;}
+        public StableHeader needsFull(boolean flag)  {needs_full=flag; return this;}
+
         public short getMagicId() {return 56;}
 
         public Supplier<? extends Header> create() {return StableHeader::new;}
@@ -786,22 +948,31 @@ public class STABLE extends Protocol {
         }
 
         public String toString() {
-            return String.format("[%s] view-id= %s", type2String(type), view_id);
+            return String.format("[%s] view-id= %s, round=%d%s%s", type2String(type), view_id, round,
+                                 delta? " (delta)" : "", needs_full? " (needs full)" : "");
         }
 
         public int serializedSize() {
             return Global.BYTE_SIZE // type
-              + Util.size(view_id);
+              + Util.size(view_id)
+              + Bits.size(round)
+              + Global.BYTE_SIZE; // flags
         }
 
         public void writeTo(DataOutput out) throws Exception {
             out.writeByte(type);
             Util.writeViewId(view_id, out);
+            Bits.writeLong(round, out);
+            out.writeByte((delta? DELTA : 0) | (needs_full? NEEDS_FULL : 0));
         }
 
         public void readFrom(DataInput in) throws Exception {
             type=in.readByte();
             view_id=Util.readViewId(in);
+            round=Bits.readLong(in);
+            byte flags=in.readByte();
+            delta=(flags & DELTA) != 0;
+            needs_full=(flags & NEEDS_FULL) != 0;
         }
     }
 
@@ -841,15 +1012,19 @@ public class STABLE extends Protocol {
     protected class StabilitySendTask implements Runnable {
         protected final Digest stability_digest;
         protected final ViewId view_id; // ViewId at the time the STABILITY message was created
+        protected final long   round;
+        protected final Digest base;    // the previous stability digest, or null to send the full digest
 
 
-        protected StabilitySendTask(Digest d, ViewId view_id) {
+        protected StabilitySendTask(Digest d, ViewId view_id, long round, Digest base) {
             this.stability_digest=d;
             this.view_id=view_id;
+            this.round=round;
+            this.base=base;
         }
 
         public void run() {
-            _sendStabilityMessage(stability_digest, view_id);
+            _sendStabilityMessage(stability_digest, view_id, round, base);
         }
 
         public String toString() {return STABLE.class.getSimpleName() + ": StabilityTask";}
@@ -0,0 +1,262 @@
+package org.jgroups.util;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.annotations.ManagedAttribute;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Receive stage which merges consecutive message batches from the same sender (and for the same destination, cluster
+ * and mode) into larger batches before they are passed to the {@link org.jgroups.stack.MessageProcessingPolicy}.
+ * <br/>
+ * Each datagram received by the transport typically results in a small batch; processing many small batches means
+ * that protocols such as NAKACK2 or UNICAST3 have to acquire their locks once per batch. Coalescing amortizes this cost
+ * over more messages.
+ * <br/>
+ * A pending batch is passed on when it reaches max_size messages, when its first message is older than max_time, or
+ * when {@link #flush()} is called, e.g. by a transport which knows that there is currently no more data to be read.
+ * Single messages are only added to a pending batch for the same key (to preserve ordering); if there is none, they're
+ * passed on directly, so that their latency is not affected.
+ * <br/>
+ * The entry for a key is removed as soon as its pending batch has been passed on, so keys of members which have left
+ * don't accumulate.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class BatchCoalescer {
+    protected final int                max_size;  // max number of messages in a coalesced batch
+    protected final long               max_time;  // max time (ns) a message is kept in a pending batch
+    protected final BatchHandler       handler;
+    protected final Map<Key,Entry>     pending=new ConcurrentHashMap<>();
+    protected final LongAdder          batches_added=new LongAdder();  // batches added to pending batches
+    protected final LongAdder          msgs_added=new LongAdder();     // single messages added to pending batches
+    protected final LongAdder          batches_passed=new LongAdder(); // coalesced batches passed to the handler
+    protected final LongAdder          msgs_passed=new LongAdder();    // messages in the batches passed on
+    protected static final MessageBatch NOT_ADDED=new MessageBatch(0); // marker, never passed on
+    protected static final MessageBatch REMOVED=new MessageBatch(0);   // marker: the entry was removed, retry
+
+
+    @FunctionalInterface
+    public interface BatchHandler {
+        void process(MessageBatch batch, boolean oob, boolean internal);
+    }
+
+
+    /**
+     * Creates a new coalescer
+     * @param max_size The max number of messages in a coalesced batch
+     * @param max_time The max time (in ms) a message is kept in a pending batch
+     * @param handler Gets passed all coalesced batches
+     */
+    public BatchCoalescer(int max_size, long max_time, BatchHandler handler) {
+        if(max_size <= 0)
+            throw new IllegalArgumentException("max_size (" + max_size + ") must be > 0");
+        this.max_size=max_size;
+        this.max_time=TimeUnit.NANOSECONDS.convert(max_time, TimeUnit.MILLISECONDS);
+        this.handler=Objects.requireNonNull(handler);
+    }
+
+    @ManagedAttribute(description="Number of batches added to pending batches")
+    public long   getNumBatchesAdded()   {return batches_added.sum();}
+    @ManagedAttribute(description="Number of single messages added to pending batches")
+    public long   getNumMessagesAdded()  {return msgs_added.sum();}
+    @ManagedAttribute(description="Number of coalesced batches passed on")
+    public long   getNumBatchesPassed()  {return batches_passed.sum();}
+    @ManagedAttribute(description="Average number of messages in a coalesced batch")
+    public double getAvgCoalescedSize()  {long b=batches_passed.sum(); return b == 0? 0 : msgs_passed.sum() / (double)b;}
+    @ManagedAttribute(description="Number of keys (sender/destination/mode) for which batches are coalesced")
+    public int    getNumPendingKeys()    {return pending.size();}
+
+    public void resetStats() {
+        batches_added.reset(); msgs_added.reset(); batches_passed.reset(); msgs_passed.reset();
+    }
+
+    /** Adds a batch to the pending batch for the same key. Passes the pending batch on if it is full or expired */
+    public void add(MessageBatch batch, boolean oob, boolean internal) {
+        if(batch == null || batch.isEmpty())
+            return;
+        Key key=new Key(batch.sender(), batch.dest(), batch.clusterName(), batch.multicast(), oob, internal);
+        batches_added.increment();
+        for(;;) {
+            Entry entry=pending.computeIfAbsent(key, Entry::new);
+            MessageBatch full=entry.add(batch, System.nanoTime());
+            if(full != REMOVED) { // else the entry was removed concurrently: retry with a new entry
+                pass(entry, full);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds a single message to the pending batch with the same key. If there is no pending batch, the message is
+     * not added and false is returned: the caller has to process the message itself.
+     */
+    public boolean add(Message msg, AsciiString cluster_name, boolean multicast, boolean oob, boolean internal) {
+        if(pending.isEmpty())
+            return false;
+        Entry entry=pending.get(new Key(msg.src(), msg.dest(), cluster_name, multicast, oob, internal));
+        if(entry == null)
+            return false;
+        MessageBatch full=entry.add(msg, System.nanoTime());
+        if(full == NOT_ADDED)
+            return false;
+        msgs_added.increment();
+        pass(entry, full);
+        return true;
+    }
+
+    /** Passes all pending batches on */
+    public void flush() {
+        if(pending.isEmpty())
+            return;
+        for(Entry entry: pending.values())
+            pass(entry, entry.remove());
+    }
+
+    /** Passes all pending batches whose first message is older than max_time on. Called periodically */
+    public void flushExpired() {
+        if(pending.isEmpty())
+            return;
+        long now=System.nanoTime();
+        for(Entry entry: pending.values())
+            pass(entry, entry.removeIfOlderThan(now, max_time));
+    }
+
+    public String toString() {
+        return String.format("max_size=%d, max_time=%d ms, pending keys=%d, avg coalesced size=%.2f",
+                             max_size, TimeUnit.MILLISECONDS.convert(max_time, TimeUnit.NANOSECONDS),
+                             pending.size(), getAvgCoalescedSize());
+    }
+
+    protected void pass(Entry entry, MessageBatch batch) {
+        if(batch == null)
+            return;
+        batches_passed.increment();
+        msgs_passed.add(batch.size());
+        handler.process(batch, entry.key.oob, entry.key.internal);
+    }
+
+
+    /** Holds the pending batch for a key; removed from pending (under lock) when the batch is passed on */
+    protected class Entry {
+        protected final Key          key;
+        protected final Lock         lock=new ReentrantLock();
+        protected MessageBatch       batch;      // the pending batch, null if none
+        protected long               first_added; // time (ns) at which the first message was added to batch
+        protected boolean            removed;    // true once the entry has been removed from pending
+
+        protected Entry(Key key) {
+            this.key=key;
+        }
+
+        /** Adds the batch and returns the pending batch if it needs to be passed on, null, or REMOVED */
+        protected MessageBatch add(MessageBatch b, long now) {
+            lock.lock();
+            try {
+                if(removed)
+                    return REMOVED;
+                if(batch == null) {
+                    batch=b;
+                    first_added=now;
+                }
+                else
+                    batch.add(b);
+                return removeIfFull(now);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /** Adds the message to the pending batch (if present), or returns NOT_ADDED */
+        protected MessageBatch add(Message msg, long now) {
+            lock.lock();
+            try {
+                if(batch == null)
+                    return NOT_ADDED;
+                batch.add(msg);
+                return removeIfFull(now);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        protected MessageBatch remove() {
+            lock.lock();
+            try {
+                return removeBatch();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        protected MessageBatch removeIfOlderThan(long now, long age) {
+            lock.lock();
+            try {
+                if(batch == null || now - first_added < age)
+                    return null;
+                return removeBatch();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        // must be called with lock held
+        protected MessageBatch removeIfFull(long now) {
+            if(batch.size() < max_size && now - first_added < max_time)
+                return null;
+            return removeBatch();
+        }
+
+        // must be called with lock held. Removes the batch and the entry itself from pending
+        protected MessageBatch removeBatch() {
+            MessageBatch retval=batch;
+            batch=null;
+            if(!removed) {
+                removed=true;
+                pending.remove(key, this);
+            }
+            return retval;
+        }
+    }
+
+
+    protected static class Key {
+        protected final Address     sender, dest;
+        protected final AsciiString cluster_name;
+        protected final boolean     multicast, oob, internal;
+        protected final int         hash;
+
+        protected Key(Address sender, Address dest, AsciiString cluster_name, boolean multicast,
+                      boolean oob, boolean internal) {
+            this.sender=sender;
+            this.dest=multicast? null : dest;
+            this.cluster_name=cluster_name;
+            this.multicast=multicast;
+            this.oob=oob;
+            this.internal=internal;
+            this.hash=Objects.hash(sender, this.dest, cluster_name, multicast, oob, internal);
+        }
+
+        public int hashCode() {return hash;}
+
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key))
+                return false;
+            Key other=(Key)obj;
+            return multicast == other.multicast && oob == other.oob && internal == other.internal
+              && Objects.equals(sender, other.sender) && Objects.equals(dest, other.dest)
+              && Objects.equals(cluster_name, other.cluster_name);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.jgroups.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of {@link PooledBuffer}s of the same size. {@link #get()} returns a buffer from the pool, or creates
+ * a new one if the pool is empty. Buffers are returned to the pool when their last reference has been released; if
+ * the pool is full at that time, the buffer is dropped and left to the garbage collector.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class BufferPool {
+    protected final BlockingQueue<PooledBuffer> pool;
+    protected final int                         buffer_size;
+    protected final LongAdder                   hits=new LongAdder();   // buffers taken from the pool
+    protected final LongAdder                   misses=new LongAdder(); // buffers created as the pool was empty
+    protected final LongAdder                   drops=new LongAdder();  // released buffers which didn't fit into the pool
+
+
+    public BufferPool(int capacity, int buffer_size) {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("capacity (" + capacity + ") must be > 0");
+        this.pool=new ArrayBlockingQueue<>(capacity);
+        this.buffer_size=buffer_size;
+    }
+
+    public int  bufferSize() {return buffer_size;}
+    public int  size()       {return pool.size();}
+    public int  capacity()   {return pool.size() + pool.remainingCapacity();}
+    public long hits()       {return hits.sum();}
+    public long misses()     {return misses.sum();}
+    public long drops()      {return drops.sum();}
+
+    /** Returns a buffer with a reference count of 1 */
+    public PooledBuffer get() {
+        PooledBuffer buf=pool.poll();
+        if(buf != null) {
+            hits.increment();
+            return buf.reset();
+        }
+        misses.increment();
+        return new PooledBuffer(new byte[buffer_size], this);
+    }
+
+    public void resetStats() {
+        hits.reset(); misses.reset(); drops.reset();
+    }
+
+    protected void put(PooledBuffer buf) {
+        if(!pool.offer(buf))
+            drops.increment();
+    }
+
+    public String toString() {
+        return String.format("%d/%d buffers of %d bytes (hits=%d, misses=%d, drops=%d)",
+                             size(), capacity(), buffer_size, hits(), misses(), drops());
+    }
+}
@@ -49,7 +49,8 @@ public class ByteArrayDataInputStream implements DataInput {
         this.pos=checkBounds(pos); return this;
     }
 
-    public int position() {return pos;}
+    public int    position() {return pos;}
+    public byte[] buffer()   {return buf;}
     public int limit()    {return limit;}
     public int capacity() {return buf.length;}
 
@@ -0,0 +1,42 @@
+package org.jgroups.util;
+
+/**
+ * A compression algorithm used by {@link org.jgroups.protocols.COMPRESS}. The id of the codec is sent with every
+ * compressed message, so the receiver can pick the same codec to uncompress it. Custom codecs need a public no-arg
+ * constructor and an id that differs from the ids of the built-in codecs ({@link DeflateCodec}: 1, {@link LZCodec}: 2).
+ * <br/>
+ * Instances are not thread-safe; COMPRESS keeps pools of them.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public interface Codec {
+
+    /** The id of the codec; needs to be the same on all members */
+    byte id();
+
+    /** The name of the codec, used for statistics */
+    String name();
+
+    /**
+     * Sets a preset dictionary: data similar to the data to be compressed, which improves the compression of small
+     * buffers. Compressor and uncompressor need to use the same dictionary. Null clears the dictionary
+     */
+    Codec dictionary(byte[] dict);
+
+    /**
+     * Compresses src[offset .. offset+length) into dst[dst_offset .. dst_offset+dst_length)
+     * @return The size of the compressed data, or -1 if it didn't fit into dst_length bytes
+     */
+    int compress(byte[] src, int offset, int length, byte[] dst, int dst_offset, int dst_length) throws Exception;
+
+    /**
+     * Uncompresses src[offset .. offset+length) into dst, starting at dst_offset
+     * @param original_length The size of the uncompressed data. dst needs to be able to hold it.
+     * @return The number of bytes written to dst
+     * @throws Exception Thrown if the data is corrupt
+     */
+    int uncompress(byte[] src, int offset, int length, byte[] dst, int dst_offset, int original_length) throws Exception;
+
+    /** Releases the resources held by this codec */
+    default void destroy() {}
+}
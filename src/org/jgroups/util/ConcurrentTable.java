@@ -0,0 +1,476 @@
+package org.jgroups.util;
+
+import org.jgroups.annotations.GuardedBy;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+/**
+ * A {@link Table} which allows concurrent additions of single elements and non-blocking reads. The rows of the matrix
+ * are {@link AtomicReferenceArray}s; an element is added by a CAS on its slot while holding the read lock of a
+ * {@link StampedLock}, so adders don't block each other. {@link #get(long)} is an optimistic read, which only acquires
+ * the read lock if a concurrent removal, purge, resize or compaction invalidated it.
+ * <p/>
+ * All other operations (e.g. adding a list, {@link #removeMany(boolean,int)} or {@link #purge(long)}) acquire the
+ * write lock, and creating a new row or resizing the matrix falls back to the write lock, too. The number of elements
+ * and the highest seqno added under the read lock are kept in separate counters, which are folded into size and hr
+ * when the write lock is acquired.
+ * <p/>
+ * Used by NAKACK2 and UNICAST3 when xmit_table_concurrent is true.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class ConcurrentTable<T> extends Table<T> {
+    protected final StampedLock               sl=new StampedLock();
+
+    /** The matrix; replaces {@link #matrix}, which is not used */
+    protected AtomicReferenceArray<T>[]       rows;
+
+    /** The number of elements added under the read lock, which have not yet been added to size */
+    protected final LongAdder                 added=new LongAdder();
+
+    /** The highest seqno added under the read lock; hr is set to it when the write lock is acquired */
+    protected final AtomicLong                highest_added;
+
+
+    public ConcurrentTable() {
+        this(0);
+    }
+
+    public ConcurrentTable(long offset) {
+        this(5, 8192, offset, DEFAULT_RESIZE_FACTOR);
+    }
+
+    public ConcurrentTable(int num_rows, int elements_per_row, long offset) {
+        this(num_rows,elements_per_row, offset, DEFAULT_RESIZE_FACTOR);
+    }
+
+    public ConcurrentTable(int num_rows, int elements_per_row, long offset, double resize_factor) {
+        this(num_rows,elements_per_row, offset, resize_factor, DEFAULT_MAX_COMPACTION_TIME);
+    }
+
+    public ConcurrentTable(int num_rows, int elements_per_row, long offset, double resize_factor, long max_compaction_time) {
+        super(num_rows, elements_per_row, offset, resize_factor, max_compaction_time);
+        matrix=null;
+        rows=createMatrix(num_rows);
+        highest_added=new AtomicLong(offset);
+    }
+
+    public int     capacity()               {return rows.length * elements_per_row;}
+    public int     getNumRows()             {return rows.length;}
+    public int     size()                   {return size + added.intValue();}
+    public boolean isEmpty()                {return size() <= 0;}
+
+    public long getHighestReceived() {
+        long highest=highest_added.get();
+        return highest - hr > 0? highest : hr;
+    }
+
+    /**
+     * Adds an element under the read lock if its row exists, else under the write lock (creating the row and resizing
+     * the matrix if needed)
+     */
+    public boolean add(long seqno, T element) {
+        long stamp=sl.readLock();
+        try {
+            if(seqno - hd <= 0)
+                return false;
+            AtomicReferenceArray<T> row=findRow(seqno);
+            if(row != null) {
+                if(!row.compareAndSet(computeIndex(seqno), null, element))
+                    return false;
+                added.increment();
+                for(long highest; seqno - (highest=highest_added.get()) > 0;)
+                    if(highest_added.compareAndSet(highest, seqno))
+                        break;
+                return true;
+            }
+        }
+        finally {
+            sl.unlockRead(stamp);
+        }
+        return super.add(seqno, element);
+    }
+
+    public boolean add(long seqno, T element, Predicate<T> remove_filter) {
+        return remove_filter == null? add(seqno, element) : super.add(seqno, element, remove_filter);
+    }
+
+    public boolean add(final List<LongTuple<T>> list, boolean remove_added_elements, T const_value) {
+        if(list == null || list.isEmpty())
+            return false;
+        long highest_seqno=findHighestSeqno(list);
+        lock.lock();
+        try {
+            if(highest_seqno != -1 && computeRow(highest_seqno) >= rows.length)
+                resize(highest_seqno);
+            boolean added=false;
+            for(Iterator<LongTuple<T>> it=list.iterator(); it.hasNext();) {
+                LongTuple<T> tuple=it.next();
+                T element=const_value != null? const_value : tuple.getVal2();
+                if(_add(tuple.getVal1(), element, false, null))
+                    added=true;
+                else if(remove_added_elements)
+                    it.remove();
+            }
+            return added;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the element at seqno. Doesn't acquire a lock unless a concurrent modification of the matrix is detected */
+    public T get(long seqno) {
+        long stamp=sl.tryOptimisticRead();
+        if(stamp != 0) {
+            T element=find(seqno);
+            if(sl.validate(stamp))
+                return element;
+        }
+        stamp=sl.readLock();
+        try {
+            return find(seqno);
+        }
+        finally {
+            sl.unlockRead(stamp);
+        }
+    }
+
+    public T _get(long seqno) {
+        long stamp=sl.readLock();
+        try {
+            AtomicReferenceArray<T> row=findRow(seqno);
+            int index=computeIndex(seqno);
+            return row != null && index >= 0? row.get(index) : null;
+        }
+        finally {
+            sl.unlockRead(stamp);
+        }
+    }
+
+    public T remove(boolean nullify) {
+        lock.lock();
+        try {
+            AtomicReferenceArray<T> row=findRow(hd+1);
+            int index=computeIndex(hd+1);
+            if(row == null || index < 0)
+                return null;
+            T existing_element=row.get(index);
+            if(existing_element != null) {
+                hd++;
+                size=Math.max(size-1, 0);
+                if(nullify) {
+                    row.set(index, null);
+                    if(hd - low > 0)
+                        low=hd;
+                }
+            }
+            return existing_element;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void purge(long seqno, boolean force) {
+        lock.lock();
+        try {
+            if(seqno - low <= 0)
+                return;
+            if(force) {
+                if(seqno - hr > 0)
+                    seqno=hr;
+            }
+            else {
+                if(seqno - hd > 0) // we cannot be higher than the highest removed seqno
+                    seqno=hd;
+            }
+
+            int start_row=computeRow(low), end_row=computeRow(seqno);
+            if(start_row < 0) start_row=0;
+            if(end_row < 0)
+                return;
+            for(int i=start_row; i < end_row; i++) // null all rows which can be fully removed
+                rows[i]=null;
+
+            AtomicReferenceArray<T> row=rows[end_row];
+            if(row != null) {
+                int index=computeIndex(seqno);
+                for(int i=0; i <= index; i++) // null all elements up to and including seqno in the given row
+                    row.set(i, null);
+            }
+            if(seqno - low > 0)
+                low=seqno;
+            if(force) {
+                if(seqno - hd > 0)
+                    low=hd=seqno;
+                size=computeSize();
+            }
+            num_purges++;
+            if(max_compaction_time <= 0) // see if compaction should be triggered
+                return;
+
+            long current_time=System.nanoTime();
+            if(last_compaction_timestamp > 0) {
+                if(current_time - last_compaction_timestamp >= max_compaction_time) {
+                    _compact();
+                    last_compaction_timestamp=current_time;
+                }
+            }
+            else // the first time we don't do a compaction
+                last_compaction_timestamp=current_time;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    public void forEach(long from, long to, Visitor<T> visitor) {
+        if(from - to > 0) // same as if(from > to), but prevents long overflow
+            return;
+        int row=computeRow(from), column=computeIndex(from);
+        int distance=(int)(to - from +1);
+        AtomicReferenceArray<T> current_row=row+1 > rows.length? null : rows[row];
+
+        for(int i=0; i < distance; i++) {
+            T element=current_row == null? null : current_row.get(column);
+            if(!visitor.visit(from, element, row, column))
+                break;
+
+            from++;
+            if(++column >= elements_per_row) {
+                column=0;
+                row++;
+                current_row=row+1 > rows.length? null : rows[row];
+            }
+        }
+    }
+
+    public Iterator<T> iterator() {
+        return new ConcurrentTableIterator(hd+1, getHighestReceived());
+    }
+
+    public Iterator<T> iterator(long from, long to) {
+        return new ConcurrentTableIterator(from, to);
+    }
+
+    public String toString() {
+        return "[" + low + " | " + hd + " | " + getHighestReceived() + "] (" + size() +
+          " elements, " + getNumMissing() + " missing)";
+    }
+
+    protected WriteLock createLock() {
+        return new WriteLock();
+    }
+
+    @GuardedBy("lock")
+    protected boolean _add(long seqno, T element, boolean check_if_resize_needed, Predicate<T> remove_filter) {
+        if(seqno - hd <= 0)
+            return false;
+
+        int row_index=computeRow(seqno);
+        if(check_if_resize_needed && row_index >= rows.length) {
+            resize(seqno);
+            row_index=computeRow(seqno);
+        }
+        AtomicReferenceArray<T> row=getRow(row_index, true);
+        int index=computeIndex(seqno);
+        if(row.get(index) != null)
+            return false;
+        row.set(index, element);
+        size++;
+        if(seqno - hr > 0)
+            hr=seqno;
+        if(remove_filter != null && hd +1 == seqno) {
+            forEach(hd + 1, hr,
+                    (seq, msg, r, c) -> {
+                        if(msg == null || !remove_filter.test(msg))
+                            return false;
+                        if(seq - hd > 0)
+                            hd=seq;
+                        size=Math.max(size-1, 0);
+                        return true;
+                    });
+        }
+        return true;
+    }
+
+    @GuardedBy("lock")
+    protected void resize(long seqno) {
+        int num_rows_to_purge=computeRow(low);
+        int row_index=computeRow(seqno) - num_rows_to_purge;
+        if(row_index < 0)
+            return;
+
+        int new_size=Math.max(row_index +1, rows.length);
+        if(new_size > rows.length) {
+            AtomicReferenceArray<T>[] new_rows=createMatrix(new_size);
+            System.arraycopy(rows, num_rows_to_purge, new_rows, 0, rows.length - num_rows_to_purge);
+            rows=new_rows;
+            num_resizes++;
+        }
+        else if(num_rows_to_purge > 0) {
+            move(num_rows_to_purge);
+        }
+
+        offset+=(num_rows_to_purge * elements_per_row);
+    }
+
+    @GuardedBy("lock")
+    protected void move(int num_rows) {
+        if(num_rows <= 0 || num_rows > rows.length)
+            return;
+
+        int target_index=0;
+        for(int i=num_rows; i < rows.length; i++)
+            rows[target_index++]=rows[i];
+
+        for(int i=rows.length - num_rows; i < rows.length; i++)
+            rows[i]=null;
+        num_moves++;
+    }
+
+    @GuardedBy("lock")
+    protected void _compact() {
+        int from=computeRow(low), to=computeRow(hr);
+        int range=to - from +1;
+
+        int new_size=(int)Math.max( (double)range * resize_factor, (double) range +1 );
+        new_size=Math.max(new_size, num_rows); // don't fall below the initial size defined
+        if(new_size < rows.length) {
+            AtomicReferenceArray<T>[] new_rows=createMatrix(new_size);
+            System.arraycopy(rows, from, new_rows, 0, range);
+            rows=new_rows;
+            offset+=from * elements_per_row;
+            num_compactions++;
+        }
+    }
+
+    @GuardedBy("lock")
+    protected void clear(int row, int column) {
+        rows[row].set(column, null);
+        if(column == elements_per_row-1)
+            rows[row]=null;
+    }
+
+    /** Returns the row at index; if it doesn't exist and create is true, a new row is created */
+    @GuardedBy("lock")
+    protected AtomicReferenceArray<T> getRow(int index, boolean create) {
+        AtomicReferenceArray<T> row=rows[index];
+        if(row == null && create)
+            rows[index]=row=new AtomicReferenceArray<>(elements_per_row);
+        return row;
+    }
+
+    /** Returns the row for seqno, or null if it doesn't exist. Must not throw an exception on inconsistent reads */
+    protected AtomicReferenceArray<T> findRow(long seqno) {
+        AtomicReferenceArray<T>[] tmp=rows;
+        int row_index=computeRow(seqno);
+        return row_index < 0 || row_index >= tmp.length? null : tmp[row_index];
+    }
+
+    /** Reads the element at seqno. Called with or without (optimistic read) the read lock */
+    protected T find(long seqno) {
+        if(seqno - low <= 0 || seqno - getHighestReceived() > 0)
+            return null;
+        AtomicReferenceArray<T> row=findRow(seqno);
+        int index=computeIndex(seqno);
+        return row != null && index >= 0? row.get(index) : null;
+    }
+
+    /** Folds the additions under the read lock into size and hr. Called when the write lock has been acquired */
+    @GuardedBy("lock")
+    protected void sync() {
+        long highest=highest_added.get();
+        if(highest - hr > 0)
+            hr=highest;
+        size+=(int)added.sumThenReset();
+    }
+
+    @SuppressWarnings({"unchecked","rawtypes"})
+    protected AtomicReferenceArray<T>[] createMatrix(int length) {
+        return (AtomicReferenceArray<T>[])new AtomicReferenceArray[length];
+    }
+
+
+    /** The write lock of {@link #sl}, used as the lock of {@link Table} */
+    protected class WriteLock implements Lock {
+        public void lock() {
+            sl.writeLock();
+            sync();
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            sl.writeLockInterruptibly();
+            sync();
+        }
+
+        public boolean tryLock() {
+            if(sl.tryWriteLock() == 0)
+                return false;
+            sync();
+            return true;
+        }
+
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if(sl.tryWriteLock(time, unit) == 0)
+                return false;
+            sync();
+            return true;
+        }
+
+        public void unlock() {
+            if(!sl.tryUnlockWrite())
+                throw new IllegalMonitorStateException();
+        }
+
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+
+    /** Iterates over the elements in range [from .. to]. Should be used with the lock held */
+    protected class ConcurrentTableIterator implements Iterator<T> {
+        protected int                     row, column;
+        protected AtomicReferenceArray<T> current_row;
+        protected long                    from;
+        protected final long              to;
+
+        protected ConcurrentTableIterator(final long from, final long to) {
+            this.from=from;
+            this.to=to;
+            row=computeRow(from);
+            column=computeIndex(from);
+            current_row=row < 0 || row+1 > rows.length? null : rows[row];
+        }
+
+        public boolean hasNext() {
+            return to - from >= 0;
+        }
+
+        public T next() {
+            if(row > rows.length)
+                throw new NoSuchElementException(String.format("row (%d) is > matrix.length (%d)", row, rows.length));
+            T element=current_row == null? null : current_row.get(column);
+            from++;
+            if(++column >= elements_per_row) {
+                column=0;
+                row++;
+                current_row=row+1 > rows.length? null : rows[row];
+            }
+            return element;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.jgroups.util;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link Codec} based on {@link Deflater} and {@link Inflater}. Compresses well, but is slow
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class DeflateCodec implements Codec {
+    public static final byte ID=1;
+    protected final Deflater deflater;
+    protected final Inflater inflater=new Inflater();
+    protected byte[]         dict;
+
+    public DeflateCodec() {
+        this(Deflater.BEST_COMPRESSION);
+    }
+
+    public DeflateCodec(int level) {
+        deflater=new Deflater(level);
+    }
+
+    public byte   id()                     {return ID;}
+    public String name()                   {return "deflate";}
+    public Codec  dictionary(byte[] dict)  {this.dict=dict; return this;}
+
+    public int compress(byte[] src, int offset, int length, byte[] dst, int dst_offset, int dst_length) {
+        deflater.reset(); // also clears the dictionary
+        if(dict != null)
+            deflater.setDictionary(dict);
+        deflater.setInput(src, offset, length);
+        deflater.finish();
+        int size=deflater.deflate(dst, dst_offset, dst_length);
+        return deflater.finished()? size : -1;
+    }
+
+    public int uncompress(byte[] src, int offset, int length, byte[] dst, int dst_offset, int original_length) throws Exception {
+        inflater.reset();
+        inflater.setInput(src, offset, length);
+        int size=inflater.inflate(dst, dst_offset, original_length);
+        if(size == 0 && inflater.needsDictionary()) {
+            if(dict == null)
+                throw new DataFormatException("data was compressed with a dictionary, but no dictionary is set");
+            inflater.setDictionary(dict);
+            size=inflater.inflate(dst, dst_offset, original_length);
+        }
+        return size;
+    }
+
+    public void destroy() {
+        deflater.end();
+        inflater.end();
+    }
+
+    public String toString() {
+        return name();
+    }
+}
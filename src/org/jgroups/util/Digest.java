@@ -172,6 +172,42 @@ public class Digest implements SizeStreamable, Iterable<Digest.Entry>, Construct
             Bits.readLongSequence(in, seqnos, i*2);
     }
 
+    /**
+     * Writes only the entries whose seqnos differ from the ones in base, without the members. Base needs to have the
+     * same members (in the same order) as this digest. The delta is read by {@link MutableDigest#readDelta(DataInput)}
+     * into a copy of base.
+     */
+    public void writeDelta(DataOutput out, Digest base) throws Exception {
+        if(!Arrays.equals(members, base.members))
+            throw new IllegalArgumentException("the members of the base digest don't match the members of this digest");
+        out.writeShort(members.length);
+        out.writeShort(numDifferences(base));
+        for(int i=0; i < members.length; i++) {
+            if(seqnos[i*2] != base.seqnos[i*2] || seqnos[i*2+1] != base.seqnos[i*2+1]) {
+                out.writeShort(i);
+                Bits.writeLongSequence(seqnos[i*2], seqnos[i*2+1], out);
+            }
+        }
+    }
+
+    /** Returns the size of the delta written by {@link #writeDelta(DataOutput,Digest)} */
+    public int serializedSizeDelta(Digest base) {
+        int retval=Global.SHORT_SIZE *2;
+        for(int i=0; i < members.length; i++)
+            if(seqnos[i*2] != base.seqnos[i*2] || seqnos[i*2+1] != base.seqnos[i*2+1])
+                retval+=Global.SHORT_SIZE + Bits.size(seqnos[i*2], seqnos[i*2+1]);
+        return retval;
+    }
+
+    /** Returns the number of entries whose seqnos differ from the ones in base (which has the same members) */
+    public int numDifferences(Digest base) {
+        int retval=0;
+        for(int i=0; i < seqnos.length; i+=2)
+            if(seqnos[i] != base.seqnos[i] || seqnos[i+1] != base.seqnos[i+1])
+                retval++;
+        return retval;
+    }
+
     public int serializedSize() {
         return (int)serializedSize(true);
     }
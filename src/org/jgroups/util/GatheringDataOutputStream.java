@@ -0,0 +1,84 @@
+package org.jgroups.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Output stream which doesn't copy large byte arrays (e.g. the payloads of messages), but keeps references to them.
+ * All other data (e.g. the headers of messages) is written into the (expandable) header block. {@link #buffers()}
+ * returns the header block and the referenced arrays, interleaved in the order in which they were written, e.g. for
+ * a gathering write with {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])}.
+ * <br/>
+ * The referenced arrays must not be modified until the data has been written. Data in the header block can be
+ * overwritten (e.g. to back-patch a length) with {@link #position(int)}, as the header block is only wrapped by
+ * {@link #buffers()}.
+ * <br/>
+ * This class is not thread safe.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class GatheringDataOutputStream extends ByteArrayDataOutputStream {
+    protected final int  min_slice_size; // arrays of this size or larger are referenced instead of copied
+    protected ByteBuffer[] slices=new ByteBuffer[16];
+    protected int[]        slice_pos=new int[16]; // positions in the header block at which the slices were written
+    protected int          num_slices;
+    protected int          slice_bytes; // total number of bytes in all slices
+
+    public GatheringDataOutputStream(int capacity, int min_slice_size) {
+        super(capacity);
+        this.min_slice_size=min_slice_size;
+    }
+
+    public int minSliceSize() {return min_slice_size;}
+    public int numSlices()    {return num_slices;}
+
+    /** The total number of bytes written: the bytes in the header block and in all slices */
+    public int size() {return pos + slice_bytes;}
+
+    /** Clears the header block and drops the references to all slices */
+    public GatheringDataOutputStream reset() {
+        Arrays.fill(slices, 0, num_slices, null);
+        num_slices=slice_bytes=pos=0;
+        return this;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if(len < min_slice_size) {
+            super.write(b, off, len);
+            return;
+        }
+        if((off < 0) || (off > b.length) || ((off + len) - b.length > 0))
+            throw new IndexOutOfBoundsException(String.format("off=%d, len=%d, b.length=%d", off, len, b.length));
+        if(num_slices == slices.length) {
+            slices=Arrays.copyOf(slices, num_slices * 2);
+            slice_pos=Arrays.copyOf(slice_pos, num_slices * 2);
+        }
+        slices[num_slices]=ByteBuffer.wrap(b, off, len);
+        slice_pos[num_slices++]=pos;
+        slice_bytes+=len;
+    }
+
+    /**
+     * Returns the segments of the header block and the slices in the order in which they were written. Empty
+     * segments are skipped
+     */
+    public ByteBuffer[] buffers() {
+        ByteBuffer[] retval=new ByteBuffer[num_slices * 2 + 1];
+        int index=0, start=0;
+        for(int i=0; i < num_slices; i++) {
+            int end=slice_pos[i];
+            if(end > start)
+                retval[index++]=ByteBuffer.wrap(buf, start, end - start);
+            retval[index++]=slices[i];
+            start=end;
+        }
+        if(pos > start)
+            retval[index++]=ByteBuffer.wrap(buf, start, pos - start);
+        return index == retval.length? retval : Arrays.copyOf(retval, index);
+    }
+
+    public String toString() {
+        return String.format("%s (%d slices, %d bytes)", getClass().getSimpleName(), num_slices, size());
+    }
+}
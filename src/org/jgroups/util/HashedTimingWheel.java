@@ -0,0 +1,219 @@
+package org.jgroups.util;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Implementation of {@link TimeScheduler} backed by a hierarchical hashed timing wheel. Time is divided into ticks
+ * of tick_time ms. The wheel has {@link #LEVELS} levels of wheel_size slots each: a slot at level 0 holds the tasks
+ * expiring in a given tick, a slot at level 1 the tasks expiring in a given range of wheel_size ticks and so on.
+ * When the runner thread reaches the start of a range, the tasks of the range are moved (cascaded) to the lower
+ * levels. Scheduling and cancelling a task are O(1): a cancelled task is dropped when its slot is reached.
+ * <br/>
+ * Tasks are submitted lock-free through a concurrent queue, which is drained by the runner thread; only the runner
+ * thread accesses the slots. Tasks are executed at the granularity of tick_time: a task may be executed up to one
+ * tick late. Execution of tasks is the same as in {@link TimeScheduler3}: non-blocking tasks may be run by the runner
+ * thread, all others are passed to the thread pool.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class HashedTimingWheel extends TimeScheduler3 {
+    public static final int                 LEVELS=4;
+    protected final int                     bits, mask;    // number of bits for a slot index and the mask for it
+    protected final long                    tick;          // ns
+    protected final Queue<Task>[][]         wheel;         // slots, indexed by level and slot index
+    protected final Queue<Task>             incoming=new ConcurrentLinkedQueue<>(); // tasks added by other threads
+    protected final AtomicInteger           num_tasks=new AtomicInteger(); // tasks in incoming and in the wheel
+    protected int                           in_wheel;      // tasks in the wheel, only accessed by the runner
+    protected final long                    start_time=System.nanoTime();
+    protected volatile boolean              idle;          // true if the runner is parked without a timeout
+
+
+    /** Creates a timing wheel with 256 slots per level and a tick time of 10 ms and its own thread pool */
+    public HashedTimingWheel() {
+        this(new ThreadPoolExecutor(4, 10, 30000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(100),
+                                    Executors.defaultThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy()),
+             null, 256, 10);
+    }
+
+    /**
+     * Creates a timing wheel
+     * @param thread_pool The thread pool to execute tasks
+     * @param factory The thread factory to create the runner thread
+     * @param wheel_size The number of slots per level; needs to be a power of 2
+     * @param tick_time The duration of a tick (ms)
+     */
+    @SuppressWarnings({"unchecked","rawtypes"})
+    public HashedTimingWheel(Executor thread_pool, ThreadFactory factory, int wheel_size, long tick_time) {
+        super(thread_pool, factory, false);
+        if(wheel_size < 2 || Integer.bitCount(wheel_size) != 1)
+            throw new IllegalArgumentException("wheel_size (" + wheel_size + ") needs to be a power of 2 and >= 2");
+        if(tick_time <= 0)
+            throw new IllegalArgumentException("tick_time (" + tick_time + ") needs to be > 0");
+        bits=Integer.numberOfTrailingZeros(wheel_size);
+        mask=wheel_size - 1;
+        tick=TimeUnit.NANOSECONDS.convert(tick_time, TimeUnit.MILLISECONDS);
+        wheel=new Queue[LEVELS][wheel_size];
+        for(Queue<Task>[] level: wheel)
+            for(int i=0; i < level.length; i++)
+                level[i]=new ConcurrentLinkedQueue<>();
+        start();
+    }
+
+    public int    size()        {return num_tasks.get();}
+    public int    wheelSize()   {return mask + 1;}
+    public long   tickTime()    {return TimeUnit.MILLISECONDS.convert(tick, TimeUnit.NANOSECONDS);}
+    public String toString()    {return String.format("%s (wheel size=%d, tick=%d ms)", getClass().getSimpleName(),
+                                                      wheelSize(), tickTime());}
+
+    public String dumpTimerTasks() {
+        StringBuilder sb=new StringBuilder();
+        for(Task task: incoming)
+            dump(task, sb);
+        for(Queue<Task>[] level: wheel)
+            for(Queue<Task> slot: level)
+                for(Task task: slot)
+                    dump(task, sb);
+        return sb.toString();
+    }
+
+    public void stop() {
+        super.stop();
+        for(Task task=incoming.poll(); task != null; task=incoming.poll())
+            task.cancel(true);
+        for(Queue<Task>[] level: wheel)
+            for(Queue<Task> slot: level)
+                for(Task task=slot.poll(); task != null; task=slot.poll())
+                    task.cancel(true);
+        in_wheel=0;
+        num_tasks.set(0);
+    }
+
+
+    public void run() {
+        long current=ticks(System.nanoTime()); // the last processed tick
+        while(Thread.currentThread() == runner) {
+            try {
+                long now=ticks(System.nanoTime());
+                if(in_wheel == 0) // nothing to expire in the ticks until now: skip them
+                    current=Math.max(current, now);
+                for(Task task=incoming.poll(); task != null; task=incoming.poll())
+                    place(task, current);
+                while(current < now)
+                    processTick(++current);
+                park(current);
+            }
+            catch(Throwable t) {
+                log.error(Util.getMessage("FailedSubmittingTaskToThreadPool"), t);
+            }
+        }
+    }
+
+
+    protected Task add(Task task) {
+        if(!isRunning())
+            return null;
+        num_tasks.incrementAndGet();
+        incoming.add(task);
+        if(idle)
+            LockSupport.unpark(runner);
+        return task;
+    }
+
+    /** Parks the runner until the next tick, or until a task is added if the wheel is empty */
+    protected void park(long current) {
+        if(in_wheel > 0) {
+            long sleep=start_time + (current + 1) * tick - System.nanoTime();
+            if(sleep > 0)
+                LockSupport.parkNanos(this, sleep);
+            return;
+        }
+        idle=true;
+        try {
+            if(incoming.isEmpty()) // re-check after setting idle, or else we might miss an unpark()
+                LockSupport.park(this);
+        }
+        finally {
+            idle=false;
+        }
+    }
+
+    /** Cascades the higher levels if a range starts at tick t, then expires the tasks in the level 0 slot of t */
+    protected void processTick(long t) {
+        if((t & mask) == 0) {
+            for(int level=1; level < LEVELS; level++) {
+                int index=index(t, level);
+                cascade(level, index, t);
+                if(index != 0)
+                    break;
+            }
+        }
+        Queue<Task> slot=wheel[0][index(t, 0)];
+        for(Task task=slot.poll(); task != null; task=slot.poll()) {
+            in_wheel--;
+            expire(task);
+        }
+    }
+
+    /** Moves the tasks of a slot to lower levels. Tasks placed into the same slot again are not processed */
+    protected void cascade(int level, int index, long t) {
+        Queue<Task> slot=wheel[level][index];
+        if(slot.isEmpty())
+            return;
+        wheel[level][index]=new ConcurrentLinkedQueue<>();
+        for(Task task: slot) {
+            in_wheel--;
+            place(task, t);
+        }
+    }
+
+    /** Adds a task to the slot of its expiration tick, relative to the current tick, or expires it if it is due */
+    protected void place(Task task, long current) {
+        if(task.isDone()) { // cancelled
+            num_tasks.decrementAndGet();
+            return;
+        }
+        long deadline=deadline(task), diff=deadline - current;
+        if(diff <= 0) {
+            expire(task);
+            return;
+        }
+        int level=0;
+        while(level < LEVELS-1 && diff >= 1L << (bits * (level+1)))
+            level++;
+        // beyond the top level: the task is placed into the top level slot which is reached last, and placed again
+        int index=diff >= 1L << (bits * LEVELS)? (int)((current >>> (bits * (LEVELS-1))) - 1) & mask : index(deadline, level);
+        wheel[level][index].add(task);
+        in_wheel++;
+    }
+
+    protected void expire(Task task) {
+        num_tasks.decrementAndGet();
+        if(!task.isDone())
+            submitToPool(task); // a recurring task calls add() to be placed again
+    }
+
+    protected int index(long t, int level) {
+        return (int)(t >>> (bits * level)) & mask;
+    }
+
+    /** The number of ticks since start (rounded down) */
+    protected long ticks(long time) {
+        return (time - start_time) / tick;
+    }
+
+    /** The tick at which a task expires (rounded up, so a task is never executed early) */
+    protected long deadline(Task task) {
+        long time=task.creation_time + task.delay - start_time;
+        return time <= 0? 0 : (time + tick - 1) / tick;
+    }
+
+    protected static void dump(Task task, StringBuilder sb) {
+        sb.append(task);
+        if(task.isCancelled())
+            sb.append(" (cancelled)");
+        sb.append("\n");
+    }
+}
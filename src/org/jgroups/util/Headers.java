@@ -39,11 +39,12 @@ public final class Headers {
     public static <T extends Header> T getHeader(final Header[] hdrs, short id) {
         if(hdrs == null)
             return null;
-        for(Header hdr: hdrs) {
+        for(int i=0; i < hdrs.length; i++) {
+            Header hdr=hdrs[i];
             if(hdr == null)
                 return null;
             if(hdr.getProtId() == id)
-                return (T)hdr;
+                return (T)materialize(hdrs, i, hdr);
         }
         return null;
     }
@@ -58,25 +59,40 @@ public final class Headers {
     public static <T extends Header> T getHeader(final Header[] hdrs, short ... ids) {
         if(hdrs == null || ids == null || ids.length == 0)
             return null;
-        for(Header hdr: hdrs) {
+        for(int i=0; i < hdrs.length; i++) {
+            Header hdr=hdrs[i];
             if(hdr == null)
                 return null;
             for(short id: ids)
                 if(hdr.getProtId() == id)
-                    return (T)hdr;
+                    return (T)materialize(hdrs, i, hdr);
         }
         return null;
     }
 
+    /**
+     * Returns the header at the given index. If it is a {@link LazyHeader}, the real header is created and replaces
+     * the lazy header (unless the header at index has been changed in the meantime)
+     */
+    protected static Header materialize(final Header[] hdrs, int index, Header hdr) {
+        if(!(hdr instanceof LazyHeader))
+            return hdr;
+        Header retval=((LazyHeader)hdr).materialize();
+        if(hdrs[index] == hdr)
+            hdrs[index]=retval;
+        return retval;
+    }
+
 
     public static Map<Short,Header> getHeaders(final Header[] hdrs) {
         if(hdrs == null)
             return new HashMap<>();
         Map<Short,Header> retval=new HashMap<>(hdrs.length);
-        for(Header hdr: hdrs) {
+        for(int i=0; i < hdrs.length; i++) {
+            Header hdr=hdrs[i];
             if(hdr == null)
                 break;
-            retval.put(hdr.getProtId(), hdr);
+            retval.put(hdr.getProtId(), materialize(hdrs, i, hdr));
         }
         return retval;
     }
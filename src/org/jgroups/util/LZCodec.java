@@ -0,0 +1,199 @@
+package org.jgroups.util;
+
+import java.util.Arrays;
+
+/**
+ * Fast {@link Codec} of the LZ77 family, using the LZ4 block format: a compressed buffer is a sequence of
+ * | token | [literal length*] | literals | offset (2 bytes) | [match length*] |. The upper 4 bits of the token are
+ * the number of literals, the lower 4 bits the match length minus 4; a value of 15 is followed by bytes adding to it
+ * (255 means another byte follows). The last sequence has only literals.
+ * <br/>
+ * Matches are found with a single hash table lookup, so compression is much faster than {@link DeflateCodec} at the
+ * expense of a lower compression ratio. A dictionary is treated as data preceding the buffer, so matches can refer
+ * to it. The hash table seeded with the positions of the dictionary is computed once (when the dictionary is set) and
+ * copied at the start of every compression; matches into the dictionary are read from (and copied from) the
+ * dictionary directly, so neither compression nor uncompression copy the dictionary.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class LZCodec implements Codec {
+    public static final byte   ID=2;
+    protected static final int MIN_MATCH=4, MAX_OFFSET=0xFFFF, HASH_LOG=12, LAST_LITERALS=5, EMPTY=Integer.MIN_VALUE;
+    // positions (relative to the start of the data) of 4-byte sequences, indexed by hash. Positions in the dictionary
+    // are negative: -dict.length is the first byte of the dictionary
+    protected final int[]      table=new int[1 << HASH_LOG];
+    protected byte[]           dict;
+    protected int[]            dict_table; // the table seeded with the positions of the dictionary; null if no dict
+
+    public byte   id()                    {return ID;}
+    public String name()                  {return "lz";}
+    public Codec  dictionary(byte[] dict) {
+        // only the last 64K of the dictionary can be referenced
+        this.dict=dict == null || dict.length <= MAX_OFFSET? dict : Arrays.copyOfRange(dict, dict.length - MAX_OFFSET, dict.length);
+        if(this.dict == null)
+            dict_table=null;
+        else {
+            dict_table=new int[table.length];
+            Arrays.fill(dict_table, EMPTY);
+            for(int i=0; i + MIN_MATCH <= this.dict.length; i++)
+                dict_table[hash(this.dict, i)]=i - this.dict.length;
+        }
+        return this;
+    }
+
+    /** The max size of length bytes compressed; the compressed data may be larger than the input */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    public int compress(byte[] src, int offset, int length, byte[] dst, int dst_offset, int dst_length) {
+        if(dict_table != null) // matches may refer to the dictionary
+            System.arraycopy(dict_table, 0, table, 0, table.length);
+        else
+            Arrays.fill(table, EMPTY);
+        // positions are relative to offset; negative positions refer to the dictionary
+        int match_limit=length - LAST_LITERALS, anchor=0, pos=0;
+        int op=dst_offset, dst_end=dst_offset + dst_length;
+
+        while(pos + MIN_MATCH <= match_limit) {
+            int h=hash(src, offset + pos), ref=table[h];
+            table[h]=pos;
+            if(ref == EMPTY || pos - ref > MAX_OFFSET || !matches(src, offset, ref, pos)) {
+                pos++;
+                continue;
+            }
+            int match_len=MIN_MATCH;
+            while(pos + match_len < match_limit && byteAt(src, offset, ref + match_len) == src[offset + pos + match_len])
+                match_len++;
+            if((op=writeSequence(src, offset + anchor, pos - anchor, pos - ref, match_len, dst, op, dst_end)) < 0)
+                return -1;
+            pos+=match_len;
+            anchor=pos;
+        }
+        // the remaining bytes are written as literals
+        if((op=writeSequence(src, offset + anchor, length - anchor, 0, 0, dst, op, dst_end)) < 0)
+            return -1;
+        return op - dst_offset;
+    }
+
+    public int uncompress(byte[] src, int offset, int length, byte[] dst, int dst_offset, int original_length) throws Exception {
+        byte[] out=dst;
+        // matches cannot refer to data before base; data before dst_offset is in the dictionary
+        int base=dst_offset - (dict != null? dict.length : 0);
+        int op=dst_offset, out_start=op, out_end=op + original_length;
+        int ip=offset, end=offset + length;
+
+        while(ip < end) {
+            int token=src[ip++] & 0xFF;
+            int literals=token >>> 4;
+            if(literals == 15) {
+                int b;
+                do {
+                    if(ip >= end)
+                        throw new IllegalStateException("truncated literal length at offset " + (ip - offset));
+                    literals+=b=src[ip++] & 0xFF;
+                }
+                while(b == 255);
+            }
+            if(ip + literals > end || op + literals > out_end)
+                throw new IllegalStateException(String.format("literals (%d) exceed the input or output", literals));
+            System.arraycopy(src, ip, out, op, literals);
+            ip+=literals;
+            op+=literals;
+            if(ip >= end) // the last sequence has no match
+                break;
+
+            if(ip + 2 > end)
+                throw new IllegalStateException("truncated offset at offset " + (ip - offset));
+            int match_offset=(src[ip] & 0xFF) | (src[ip+1] & 0xFF) << 8;
+            ip+=2;
+            int match_len=(token & 0x0F);
+            if(match_len == 15) {
+                int b;
+                do {
+                    if(ip >= end)
+                        throw new IllegalStateException("truncated match length at offset " + (ip - offset));
+                    match_len+=b=src[ip++] & 0xFF;
+                }
+                while(b == 255);
+            }
+            match_len+=MIN_MATCH;
+            int ref=op - match_offset;
+            if(match_offset == 0 || ref < base || op + match_len > out_end)
+                throw new IllegalStateException(String.format("invalid match (offset=%d, length=%d)", match_offset, match_len));
+            if(ref < out_start) { // the match starts in the dictionary and may continue in the uncompressed data
+                int from_dict=Math.min(match_len, out_start - ref);
+                System.arraycopy(dict, dict.length - (out_start - ref), out, op, from_dict);
+                op+=from_dict;
+                match_len-=from_dict;
+                ref=out_start;
+            }
+            if(match_offset >= match_len) // no overlap
+                System.arraycopy(out, ref, out, op, match_len);
+            else
+                for(int i=0; i < match_len; i++) // the match overlaps with the bytes being copied, e.g. a run
+                    out[op + i]=out[ref + i];
+            op+=match_len;
+        }
+        return op - out_start;
+    }
+
+    public String toString() {
+        return name();
+    }
+
+    /**
+     * Writes the literals buf[lit_offset .. lit_offset+literals) and the match (if match_len > 0) to dst
+     * @return The new position in dst, or -1 if dst_end would be exceeded
+     */
+    protected static int writeSequence(byte[] buf, int lit_offset, int literals, int match_offset, int match_len,
+                                       byte[] dst, int op, int dst_end) {
+        int ml=match_len > 0? match_len - MIN_MATCH : 0;
+        if(op + 1 + literals/255 + 1 + literals + 2 + ml/255 + 1 > dst_end)
+            return -1;
+        int token_pos=op++;
+        int token=Math.min(literals, 15) << 4;
+        if(literals >= 15)
+            op=writeLength(literals - 15, dst, op);
+        System.arraycopy(buf, lit_offset, dst, op, literals);
+        op+=literals;
+        if(match_len > 0) {
+            dst[op++]=(byte)match_offset;
+            dst[op++]=(byte)(match_offset >>> 8);
+            token|=Math.min(ml, 15);
+            if(ml >= 15)
+                op=writeLength(ml - 15, dst, op);
+        }
+        dst[token_pos]=(byte)token;
+        return op;
+    }
+
+    protected static int writeLength(int len, byte[] dst, int op) {
+        for(; len >= 255; len-=255)
+            dst[op++]=(byte)255;
+        dst[op++]=(byte)len;
+        return op;
+    }
+
+    protected static int hash(byte[] buf, int pos) {
+        int val=(buf[pos] & 0xFF) | (buf[pos+1] & 0xFF) << 8 | (buf[pos+2] & 0xFF) << 16 | (buf[pos+3] & 0xFF) << 24;
+        return (val * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    /** Compares the 4 bytes at positions ref and pos (relative to offset); ref may be in the dictionary */
+    protected boolean matches(byte[] src, int offset, int ref, int pos) {
+        if(ref >= 0) {
+            int a=offset + ref, b=offset + pos;
+            return src[a] == src[b] && src[a+1] == src[b+1] && src[a+2] == src[b+2] && src[a+3] == src[b+3];
+        }
+        for(int i=0; i < MIN_MATCH; i++)
+            if(byteAt(src, offset, ref + i) != src[offset + pos + i])
+                return false;
+        return true;
+    }
+
+    /** Returns the byte at position pos (relative to offset); negative positions are in the dictionary */
+    protected byte byteAt(byte[] src, int offset, int pos) {
+        return pos >= 0? src[offset + pos] : dict[dict.length + pos];
+    }
+}
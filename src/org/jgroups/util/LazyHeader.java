@@ -0,0 +1,80 @@
+package org.jgroups.util;
+
+import org.jgroups.Header;
+import org.jgroups.conf.ClassConfigurator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * A header which is kept in serialized form until it is accessed. Created by {@link org.jgroups.Message#readFrom(DataInput)}
+ * when the sender marshalled its headers together with their lengths (see {@link org.jgroups.Global#LAZY_HEADERS}).
+ * The real header is created on the first {@link Headers#getHeader(Header[],short)}; until then, the header can be
+ * marshalled again (e.g. on a retransmission) by writing its serialized form.
+ * <br/>
+ * The serialized form may point into a pooled receive buffer (see {@link #pointsInto(byte[])}); such headers are copied
+ * when the message is detached from the pooled buffer.
+ * <br/>
+ * Instances are not changed after creation (except by {@link #readFrom(DataInput)}) and can therefore be shared
+ * between copies of a message.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class LazyHeader extends Header {
+    protected short  magic_id; // the magic ID of the real header
+    protected byte[] buf;      // holds the serialized form of this (and possibly other) headers
+    protected int    offset, length;
+
+    public LazyHeader() { // only used by create()
+    }
+
+    public LazyHeader(short prot_id, short magic_id, byte[] buf, int offset, int length) {
+        this.prot_id=prot_id;
+        this.magic_id=magic_id;
+        this.buf=buf;
+        this.offset=offset;
+        this.length=length;
+    }
+
+    public short                      getMagicId()          {return magic_id;}
+    public Supplier<? extends Header> create()              {return LazyHeader::new;}
+    public int                        serializedSize()      {return length;}
+    /** Returns true if the serialized form is stored in the given buffer */
+    public boolean                    pointsInto(byte[] b)  {return buf == b;}
+
+    /** Returns a copy whose serialized form is stored in its own array */
+    public LazyHeader copy() {
+        return new LazyHeader(prot_id, magic_id, Arrays.copyOfRange(buf, offset, offset+length), 0, length);
+    }
+
+    /** Creates the real header from the serialized form */
+    public Header materialize() {
+        try {
+            Header hdr=ClassConfigurator.create(magic_id);
+            hdr.readFrom(new ByteArrayDataInputStream(buf, offset, length));
+            return hdr.setProtId(prot_id);
+        }
+        catch(Exception ex) {
+            throw new IllegalStateException(String.format("failed unmarshalling header with magic ID %d (protocol ID %d)",
+                                                          magic_id, prot_id), ex);
+        }
+    }
+
+    /** Writes the serialized form; the (unchanged) header therefore never needs to be created when resent */
+    public void writeTo(DataOutput out) throws Exception {
+        out.write(buf, offset, length);
+    }
+
+    /** Reads the serialized form; as with {@link #writeTo(DataOutput)}, the magic ID is not part of it */
+    public void readFrom(DataInput in) throws Exception {
+        buf=new byte[length];
+        offset=0;
+        in.readFully(buf);
+    }
+
+    public String toString() {
+        return String.format("[lazy header (magic ID %d), %d bytes]", magic_id, length);
+    }
+}
@@ -0,0 +1,184 @@
+package org.jgroups.util;
+
+import org.jgroups.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Stores the messages of a sender, indexed by seqno, until they're purged. Messages are serialized and appended to
+ * off-heap slabs acquired from a {@link SlabPool}, and are only deserialized when retrieved (e.g. on retransmission).
+ * A slab is returned to the pool when all messages in it have been purged. If the pool's cap has been reached, or a
+ * message is larger than a slab, the message is kept on the heap.
+ * <br/>
+ * Used by NAKACK2 and UNICAST3 to keep messages for retransmission off the heap. Messages are purged in seqno order,
+ * so slabs are released in the order in which they were filled.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class MessageStore {
+    protected final SlabPool             pool;
+    protected final Deque<Slab>          slabs=new ArrayDeque<>(); // the last slab is the one written to
+    protected final NavigableMap<Long,Ref> index=new TreeMap<>();
+    protected long                       bytes;      // bytes of the messages in the slabs
+    protected int                        heap_msgs;  // number of messages kept on the heap
+    protected boolean                    closed;     // no slabs are acquired after close()
+
+
+    public MessageStore(SlabPool pool) {
+        this.pool=pool;
+    }
+
+    public synchronized int  size()          {return index.size();}
+    public synchronized long bytes()         {return bytes;}
+    public synchronized int  heapMessages()  {return heap_msgs;}
+    public synchronized int  slabs()         {return slabs.size();}
+
+    /**
+     * Adds a message. If a message with the same seqno is present, it is not replaced. If the message cannot be
+     * serialized into a slab, it is kept on the heap
+     */
+    public synchronized MessageStore put(long seqno, Message msg) {
+        if(index.containsKey(seqno))
+            return this;
+        int size=(int)msg.size();
+        if(closed || size > pool.slabSize()) { // no need to serialize it
+            addToHeap(seqno, msg);
+            return this;
+        }
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(size);
+        try {
+            msg.writeTo(out);
+        }
+        catch(Exception ex) {
+            addToHeap(seqno, msg);
+            return this;
+        }
+        int len=out.position();
+        Slab slab=slabs.peekLast();
+        if(slab == null || slab.buf.remaining() < len) {
+            ByteBuffer buf=len <= pool.slabSize()? pool.acquire() : null;
+            if(buf == null) {
+                addToHeap(seqno, msg);
+                return this;
+            }
+            slabs.add(slab=new Slab(buf));
+        }
+        int offset=slab.buf.position();
+        slab.buf.put(out.buffer(), 0, len);
+        slab.live++;
+        index.put(seqno, new Ref(slab, offset, len));
+        bytes+=len;
+        pool.stored.add(len);
+        return this;
+    }
+
+    /** Returns the message with the given seqno, or null if not found. A serialized message is deserialized */
+    public synchronized Message get(long seqno) throws Exception {
+        Ref ref=index.get(seqno);
+        if(ref == null)
+            return null;
+        if(ref.msg != null)
+            return ref.msg;
+        byte[] tmp=new byte[ref.length];
+        ByteBuffer buf=ref.slab.buf.duplicate();
+        buf.position(ref.offset);
+        buf.get(tmp);
+        Message msg=new Message(false);
+        msg.readFrom(new ByteArrayDataInputStream(tmp));
+        return msg;
+    }
+
+    /** Removes all messages with a seqno <= seqno and releases the slabs whose messages have all been removed */
+    public synchronized MessageStore purge(long seqno) {
+        Map<Long,Ref> head=index.headMap(seqno, true);
+        for(Ref ref: head.values())
+            remove(ref);
+        head.clear();
+        releaseSlabs();
+        return this;
+    }
+
+    /** Removes all messages and releases all slabs */
+    public synchronized MessageStore clear() {
+        index.values().forEach(this::remove);
+        index.clear();
+        releaseSlabs();
+        return this;
+    }
+
+    /** Clears the store; messages added after this are kept on the heap */
+    public synchronized MessageStore close() {
+        closed=true;
+        return clear();
+    }
+
+    public synchronized String toString() {
+        return String.format("%d msgs (%d on heap), %s in %d slabs", index.size(), heap_msgs,
+                             Util.printBytes(bytes), slabs.size());
+    }
+
+    protected void addToHeap(long seqno, Message msg) {
+        index.put(seqno, new Ref(msg));
+        heap_msgs++;
+    }
+
+    protected void remove(Ref ref) {
+        if(ref.msg != null) {
+            heap_msgs--;
+            return;
+        }
+        ref.slab.live--;
+        bytes-=ref.length;
+        pool.stored.add(-ref.length);
+    }
+
+    /** Releases empty slabs; the slab which is written to is reused if empty */
+    protected void releaseSlabs() {
+        for(Slab slab; (slab=slabs.peekFirst()) != null && slab.live == 0;) {
+            if(slab == slabs.peekLast()) {
+                slab.buf.clear();
+                break;
+            }
+            pool.release(slabs.pollFirst().buf);
+        }
+        if(index.isEmpty()) { // return the last slab, too
+            for(Slab slab; (slab=slabs.pollFirst()) != null;)
+                pool.release(slab.buf);
+        }
+    }
+
+
+    protected static class Slab {
+        protected final ByteBuffer buf;
+        protected int              live; // number of messages in the slab which have not been purged
+
+        protected Slab(ByteBuffer buf) {
+            this.buf=buf;
+        }
+    }
+
+    /** The location of a serialized message, or the message itself if it is kept on the heap */
+    protected static class Ref {
+        protected final Slab    slab;
+        protected final int     offset, length;
+        protected final Message msg;
+
+        protected Ref(Slab slab, int offset, int length) {
+            this.slab=slab;
+            this.offset=offset;
+            this.length=length;
+            this.msg=null;
+        }
+
+        protected Ref(Message msg) {
+            this.slab=null;
+            this.offset=this.length=0;
+            this.msg=msg;
+        }
+    }
+}
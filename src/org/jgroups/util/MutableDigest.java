@@ -2,6 +2,8 @@ package org.jgroups.util;
 
 import org.jgroups.Address;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.util.Arrays;
 
 /**
@@ -16,7 +18,7 @@ public class MutableDigest extends Digest {
     }
 
 
-    /** Only used for testing */
+    /** Creates a copy of digest */
     public MutableDigest(Digest digest) {
         super(digest);
     }
@@ -62,6 +64,26 @@ public class MutableDigest extends Digest {
     }
 
 
+    /**
+     * Reads a delta written by {@link Digest#writeDelta(DataOutput,Digest)} and sets the entries it contains. This
+     * digest needs to be a copy of the base digest the delta was computed against.
+     */
+    public MutableDigest readDelta(DataInput in) throws Exception {
+        int capacity=in.readShort();
+        if(capacity != capacity())
+            throw new IllegalStateException(String.format("capacity of delta (%d) doesn't match capacity (%d)",
+                                                          capacity, capacity()));
+        int num=in.readShort();
+        for(int i=0; i < num; i++) {
+            int index=in.readShort();
+            if(index < 0 || index >= capacity)
+                throw new IllegalStateException(String.format("index %d is out of range [0 .. %d]", index, capacity-1));
+            Bits.readLongSequence(in, seqnos, index * 2);
+        }
+        return this;
+    }
+
+
     /**
      * Adds a digest to this digest. For each sender in the other digest, the merge() method will be called.
      */
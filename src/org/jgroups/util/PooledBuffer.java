@@ -0,0 +1,53 @@
+package org.jgroups.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference-counted byte[] buffer, handed out by a {@link BufferPool}. Every user of the buffer (e.g. a message whose
+ * payload points into it) holds a reference; the buffer is returned to the pool when the last reference is released.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class PooledBuffer {
+    protected final byte[]        buf;
+    protected final BufferPool    pool; // null if the buffer was not created by a pool
+    protected final AtomicInteger refs=new AtomicInteger(1);
+
+    public PooledBuffer(byte[] buf, BufferPool pool) {
+        this.buf=buf;
+        this.pool=pool;
+    }
+
+    public byte[] buffer()   {return buf;}
+    public int    refCount() {return refs.get();}
+
+    /** Acquires an additional reference */
+    public PooledBuffer retain() {
+        refs.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Releases a reference. When the last reference has been released, the buffer is returned to the pool
+     * @return True if this was the last reference, false otherwise
+     */
+    public boolean release() {
+        int count=refs.decrementAndGet();
+        if(count > 0)
+            return false;
+        if(count < 0)
+            throw new IllegalStateException(String.format("buffer released too many times (refs=%d)", count));
+        if(pool != null)
+            pool.put(this);
+        return true;
+    }
+
+    protected PooledBuffer reset() {
+        refs.set(1);
+        return this;
+    }
+
+    public String toString() {
+        return String.format("%d bytes, refs=%d", buf.length, refs.get());
+    }
+}
@@ -0,0 +1,147 @@
+package org.jgroups.util;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Estimates the round-trip time (RTT) to a member and computes a retransmission timeout (RTO) from it, the way TCP
+ * does (RFC 6298): the smoothed RTT (SRTT) and the RTT variation (RTTVAR) are moving averages of the RTT samples, and
+ * RTO=SRTT + 4*RTTVAR, bounded by [min_rto .. max_rto]. The RTO is the initial RTO until the first sample is taken.
+ * <p/>
+ * One seqno is timed at a time: a sample is the time between sending a seqno (or requesting its retransmission) and
+ * receiving its ack (or the retransmitted message). As per Karn's algorithm, a seqno that is sent more than once
+ * doesn't yield a sample, as the response cannot be matched to a transmission. Instead, the RTO is doubled on
+ * every retransmission, until the next valid sample is taken.
+ * <p/>
+ * Used by {@link org.jgroups.protocols.pbcast.NAKACK2} and {@link org.jgroups.protocols.UNICAST3} to compute the
+ * retransmission deadline of each member.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class RttEstimator {
+    protected final long    min_rto, max_rto;  // ns
+    protected long          srtt, rttvar;      // ns, 0 until the first sample is taken
+    protected long          rto;               // ns
+    protected int           backoff;           // the RTO is doubled backoff times
+    protected volatile long timed_seqno=-1;    // the seqno being timed, -1 if none
+    protected long          timed_at;          // the time (ns) at which timed_seqno was sent
+    protected long          highest_requested; // the highest seqno passed to requested()
+    protected long          deadline;          // the next retransmission deadline (ns), 0 if not set
+    protected int           num_samples;
+
+    protected static final int MAX_BACKOFF=6;
+
+    public RttEstimator(long initial_rto, long min_rto, long max_rto, TimeUnit unit) {
+        this.min_rto=unit.toNanos(min_rto);
+        this.max_rto=unit.toNanos(max_rto);
+        this.rto=clamp(unit.toNanos(initial_rto));
+    }
+
+    public synchronized long srtt(TimeUnit unit)   {return unit.convert(srtt, NANOSECONDS);}
+    public synchronized long rttvar(TimeUnit unit) {return unit.convert(rttvar, NANOSECONDS);}
+    public synchronized long rto(TimeUnit unit)    {return unit.convert(currentRto(), NANOSECONDS);}
+    public synchronized int  numSamples()          {return num_samples;}
+    public synchronized int  backoff()             {return backoff;}
+    /** Returns the seqno currently being timed, or -1 if none */
+    public long              timedSeqno()          {return timed_seqno;}
+
+
+    /** Called when seqno is sent for the first time. Starts timing it if no other seqno is currently being timed */
+    public RttEstimator sent(long seqno, long now) {
+        if(timed_seqno >= 0) // fast path: called for every message sent
+            return this;
+        synchronized(this) {
+            if(timed_seqno < 0) {
+                timed_seqno=seqno;
+                timed_at=now;
+            }
+        }
+        return this;
+    }
+
+    /** Called when seqno is sent again. If seqno is being timed, its sample is discarded (Karn's algorithm) */
+    public RttEstimator resent(long seqno) {
+        long timed=timed_seqno;
+        if(timed < 0 || seqno > timed)
+            return this;
+        synchronized(this) {
+            if(timed_seqno >= 0 && seqno <= timed_seqno)
+                timed_seqno=-1;
+        }
+        return this;
+    }
+
+    /**
+     * Called by the receiver of messages when the retransmission of seqno is requested. The first request times
+     * seqno; a repeated request (seqno was requested before) discards the sample and doubles the RTO
+     */
+    public synchronized RttEstimator requested(long seqno, long now) {
+        if(seqno <= highest_requested)
+            return resent(seqno).backoff(true);
+        highest_requested=seqno;
+        return sent(seqno, now);
+    }
+
+    /**
+     * Called when the response to seqno is received. If cumulative is true, the response acknowledges all
+     * seqnos lower than or equal to seqno (an ack), otherwise only seqno (a retransmitted message)
+     */
+    public RttEstimator received(long seqno, long now, boolean cumulative) {
+        long timed=timed_seqno;
+        if(timed < 0 || (cumulative? seqno < timed : seqno != timed))
+            return this;
+        synchronized(this) {
+            if(timed_seqno < 0 || (cumulative? seqno < timed_seqno : seqno != timed_seqno))
+                return this;
+            timed_seqno=-1;
+            return add(now - timed_at, NANOSECONDS);
+        }
+    }
+
+    /** Adds an RTT sample and recomputes the RTO */
+    public synchronized RttEstimator add(long rtt, TimeUnit unit) {
+        long r=unit.toNanos(rtt);
+        if(r < 0)
+            return this;
+        if(num_samples++ == 0) {
+            srtt=r;
+            rttvar=r / 2;
+        }
+        else {
+            rttvar=(3 * rttvar + Math.abs(srtt - r)) / 4; // beta=1/4
+            srtt=(7 * srtt + r) / 8;                      // alpha=1/8
+        }
+        rto=clamp(srtt + 4 * rttvar);
+        backoff=0;
+        return this;
+    }
+
+    /** Doubles the RTO (up to max_rto) if flag is true, or resets it to the computed RTO */
+    public synchronized RttEstimator backoff(boolean flag) {
+        backoff=flag? Math.min(backoff+1, MAX_BACKOFF) : 0;
+        return this;
+    }
+
+    /**
+     * Returns true if the retransmission deadline has passed (or was never set), and sets the next deadline
+     * to now + RTO. Returns false if the deadline has not yet passed.
+     */
+    public synchronized boolean expired(long now) {
+        if(deadline != 0 && now - deadline < 0)
+            return false;
+        deadline=now + currentRto();
+        return true;
+    }
+
+    public synchronized String toString() {
+        return String.format("srtt=%s, rttvar=%s, rto=%s (%d samples%s)",
+                             Util.printTime(srtt, NANOSECONDS), Util.printTime(rttvar, NANOSECONDS),
+                             Util.printTime(currentRto(), NANOSECONDS), num_samples,
+                             backoff > 0? ", backoff=" + backoff : "");
+    }
+
+    protected long currentRto() {return clamp(rto << backoff);}
+
+    protected long clamp(long val) {return Math.max(min_rto, Math.min(max_rto, val));}
+}
@@ -0,0 +1,275 @@
+package org.jgroups.util;
+
+import org.jgroups.Global;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Single-producer single-consumer ring buffer in a memory-mapped file, used to pass packets between processes on the
+ * same host (e.g. a file under /dev/shm). The producer and consumer may live in different JVMs.
+ * <br/>
+ * Layout: the write position (long) is at offset 0, the read position (long) at offset 64 (separate cache lines), and
+ * the data starts at offset 128. Both positions increase monotonically; the index into the data region is
+ * position % capacity. Every record consists of its length (int) followed by the data, padded to a multiple of 4
+ * bytes. If a record doesn't fit before the end of the data region, a length of -1 is written and the record is
+ * written at the start of the data region.
+ * <br/>
+ * The producer writes the record before advancing the write position; the consumer reads the record before advancing
+ * the read position. The positions are written with ordered (release) stores and read with volatile (acquire) loads
+ * via {@code sun.misc.Unsafe}, directly on the address of the mapped buffer, which orders the accesses to the records
+ * across processes. A ring buffer therefore cannot be created if Unsafe is not available.
+ * <br/>
+ * Writes never block: when the ring is full, {@link #write(byte[],int,int)} returns false and the caller can choose to
+ * send the data by other means. Concurrent writers need to be serialized by the caller (all write methods are
+ * synchronized); there can only be one reader.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class ShmRingBuffer implements Closeable {
+    public static final int         HEADER_SIZE=128;
+    protected static final int      WRITE_POS=0, READ_POS=64, PADDING=-1;
+
+    protected final File            file;
+    protected final FileChannel     channel;
+    protected final MappedByteBuffer buf;
+    protected final int             capacity;   // size of the data region
+    protected final long            address;    // the address of the mapped buffer
+
+    // Unsafe.getLong(Object,long), getLongVolatile(Object,long) and putOrderedLong(Object,long,long), bound to the
+    // Unsafe instance; null if Unsafe is not available. Method handles are used as sun.misc.Unsafe may not be visible
+    // to javac
+    protected static final MethodHandle GET_LONG, GET_LONG_VOLATILE, PUT_ORDERED_LONG;
+    protected static final long         BUFFER_ADDRESS_OFFSET; // offset of field address in java.nio.Buffer
+
+    static {
+        MethodHandle get_long=null, get=null, put=null;
+        long offset=-1;
+        try {
+            Class<?> cl=Class.forName("sun.misc.Unsafe");
+            Field field=cl.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe=field.get(null);
+            MethodHandles.Lookup lookup=MethodHandles.lookup();
+            get_long=lookup.findVirtual(cl, "getLong", MethodType.methodType(long.class, Object.class, long.class))
+              .bindTo(unsafe);
+            get=lookup.findVirtual(cl, "getLongVolatile", MethodType.methodType(long.class, Object.class, long.class))
+              .bindTo(unsafe);
+            put=lookup.findVirtual(cl, "putOrderedLong", MethodType.methodType(void.class, Object.class, long.class, long.class))
+              .bindTo(unsafe);
+            offset=(long)lookup.findVirtual(cl, "objectFieldOffset", MethodType.methodType(long.class, Field.class))
+              .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+        }
+        catch(Throwable t) {
+            get_long=get=put=null;
+        }
+        GET_LONG=get_long;
+        GET_LONG_VOLATILE=get;
+        PUT_ORDERED_LONG=put;
+        BUFFER_ADDRESS_OFFSET=offset;
+    }
+
+
+    /**
+     * Maps an existing ring buffer, or creates a new one if the file doesn't exist
+     * @param file The file backing the ring buffer
+     * @param capacity The size of the data region; needs to be a multiple of 4. If the file exists, its size is used
+     */
+    public ShmRingBuffer(File file, int capacity) throws IOException {
+        if(capacity <= 0 || capacity % 4 != 0)
+            throw new IllegalArgumentException("capacity (" + capacity + ") needs to be a positive multiple of 4");
+        if(GET_LONG_VOLATILE == null)
+            throw new IOException("shared memory ring buffers need sun.misc.Unsafe, which is not available");
+        this.file=file;
+        try(RandomAccessFile raf=new RandomAccessFile(file, "rw")) {
+            long len=raf.length();
+            if(len == 0)
+                raf.setLength(len=HEADER_SIZE + capacity);
+            if(len <= HEADER_SIZE || (len - HEADER_SIZE) % 4 != 0 || len > Integer.MAX_VALUE)
+                throw new IOException(String.format("%s has an invalid size (%d)", file, len));
+            this.capacity=(int)(len - HEADER_SIZE);
+            this.channel=raf.getChannel();
+            this.buf=channel.map(FileChannel.MapMode.READ_WRITE, 0, len);
+            this.address=address(buf);
+        }
+    }
+
+    public File file()     {return file;}
+    public int  capacity() {return capacity;}
+
+    /** The number of bytes used by records (including their length and padding) */
+    public int size() {
+        long w=writePos(), r=readPos();
+        return (int)(w - r);
+    }
+
+    /** The space needed by a record with a given length */
+    public static int recordSize(int length) {
+        return (Global.INT_SIZE + length + 3) & ~3;
+    }
+
+    /** Appends a record. Returns false if there isn't enough space in the ring, or the record is too big */
+    public synchronized boolean write(byte[] data, int offset, int length) {
+        int idx=reserve(length);
+        if(idx < 0)
+            return false;
+        ByteBuffer tmp=buf.duplicate();
+        tmp.position(idx + Global.INT_SIZE);
+        tmp.put(data, offset, length);
+        commit(idx, length);
+        return true;
+    }
+
+    /** Appends the remaining bytes of a ByteBuffer as a record. The buffer's position is not changed */
+    public synchronized boolean write(ByteBuffer data) {
+        int length=data.remaining(), idx=reserve(length);
+        if(idx < 0)
+            return false;
+        ByteBuffer tmp=buf.duplicate();
+        tmp.position(idx + Global.INT_SIZE);
+        tmp.put(data.duplicate());
+        commit(idx, length);
+        return true;
+    }
+
+    /** Appends the remaining bytes of all buffers as a single record. The buffers' positions are not changed */
+    public synchronized boolean write(ByteBuffer[] data) {
+        int length=0;
+        for(ByteBuffer b: data)
+            length+=b.remaining();
+        int idx=reserve(length);
+        if(idx < 0)
+            return false;
+        ByteBuffer tmp=buf.duplicate();
+        tmp.position(idx + Global.INT_SIZE);
+        for(ByteBuffer b: data)
+            tmp.put(b.duplicate());
+        commit(idx, length);
+        return true;
+    }
+
+    /** Returns the length of the next record, or -1 if the ring is empty. Called by the reader */
+    public int nextLength() {
+        long r=readPos();
+        if(r == writePos())
+            return -1;
+        int idx=index(r), len=buf.getInt(HEADER_SIZE + idx);
+        return len == PADDING? buf.getInt(HEADER_SIZE) : len;
+    }
+
+    /**
+     * Copies the next record into a buffer and removes it from the ring. Called by the reader
+     * @return The length of the record, or -1 if the ring is empty
+     * @throws IndexOutOfBoundsException If the buffer cannot hold the record; use {@link #nextLength()} to check first
+     */
+    public int read(byte[] dst, int offset) {
+        long r=readPos();
+        if(r == writePos())
+            return -1;
+        int idx=index(r), len=buf.getInt(HEADER_SIZE + idx);
+        if(len == PADDING) {
+            r+=capacity - idx;
+            idx=0;
+            len=buf.getInt(HEADER_SIZE);
+        }
+        if(len > dst.length - offset)
+            throw new IndexOutOfBoundsException(String.format("record (%d bytes) doesn't fit into buffer (%d bytes)",
+                                                              len, dst.length - offset));
+        ByteBuffer tmp=buf.duplicate();
+        tmp.position(HEADER_SIZE + idx + Global.INT_SIZE);
+        tmp.get(dst, offset, len);
+        putOrdered(READ_POS, r + recordSize(len)); // the record has been read before the read position is advanced
+        return len;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public String toString() {
+        return String.format("%s (%d/%d bytes)", file, size(), capacity);
+    }
+
+    /** Returns the absolute index of the record's length in the mapped buffer, or -1 if it cannot be written */
+    protected int reserve(int length) {
+        int rec_size=recordSize(length);
+        if(rec_size > capacity)
+            return -1;
+        long w=writePos(), r=readPos(); // the writer is the only one changing the write position
+        int idx=index(w), tail=capacity - idx;
+        int padding=tail < rec_size? tail : 0; // tail is always a multiple of 4, so a padding marker fits
+        if(w + padding + rec_size - r > capacity)
+            return -1;
+        if(padding > 0) {
+            buf.putInt(HEADER_SIZE + idx, PADDING);
+            idx=0;
+        }
+        return HEADER_SIZE + idx;
+    }
+
+    /** Writes the length and publishes the record by advancing the write position */
+    protected void commit(int idx, int length) {
+        buf.putInt(idx, length);
+        long w=writePos();
+        int padding=idx == HEADER_SIZE && index(w) != 0? capacity - index(w) : 0;
+        putOrdered(WRITE_POS, w + padding + recordSize(length)); // the record has been written before
+    }
+
+    /** Reads the write position; the record(s) up to it are read after it (acquire) */
+    protected long writePos() {
+        return getVolatile(WRITE_POS);
+    }
+
+    /** Reads the read position; the space before it is written to after it (acquire) */
+    protected long readPos() {
+        return getVolatile(READ_POS);
+    }
+
+    protected long getVolatile(int pos) {
+        try {
+            return (long)GET_LONG_VOLATILE.invokeExact((Object)null, address + pos);
+        }
+        catch(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /** Writes a position after all previous reads and writes of the mapped buffer (release) */
+    protected void putOrdered(int pos, long value) {
+        try {
+            PUT_ORDERED_LONG.invokeExact((Object)null, address + pos, value);
+        }
+        catch(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    protected static long address(MappedByteBuffer buf) throws IOException {
+        try {
+            long addr=(long)GET_LONG.invokeExact((Object)buf, BUFFER_ADDRESS_OFFSET);
+            if(addr == 0)
+                throw new IOException("mapped buffer has no address");
+            return addr;
+        }
+        catch(IOException ex) {
+            throw ex;
+        }
+        catch(Throwable t) {
+            throw new IOException("failed getting the address of the mapped buffer", t);
+        }
+    }
+
+    protected int index(long pos) {
+        return (int)(pos % capacity);
+    }
+}
@@ -0,0 +1,78 @@
+package org.jgroups.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of off-heap (direct) {@link ByteBuffer}s (slabs) of the same size, with a cap on the total memory. Slabs are
+ * allocated on demand until the cap has been reached; released slabs are kept in the pool and reused, as freeing
+ * direct memory depends on the garbage collector. Shared by all {@link MessageStore}s of a protocol.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class SlabPool {
+    protected final int               slab_size;
+    protected final long              max_bytes;
+    protected final Queue<ByteBuffer> free=new ConcurrentLinkedQueue<>();
+    protected final AtomicLong        allocated=new AtomicLong(); // bytes of all slabs allocated
+    protected final LongAdder         stored=new LongAdder();     // bytes of serialized messages in the slabs
+    protected final LongAdder         failed=new LongAdder();     // number of times no slab could be allocated
+
+
+    /**
+     * Creates a pool
+     * @param slab_size The size of a slab (bytes)
+     * @param max_bytes The max number of bytes of all slabs
+     */
+    public SlabPool(int slab_size, long max_bytes) {
+        if(slab_size <= 0)
+            throw new IllegalArgumentException("slab_size (" + slab_size + ") needs to be > 0");
+        if(max_bytes < slab_size)
+            throw new IllegalArgumentException("max_bytes (" + max_bytes + ") needs to be >= slab_size (" + slab_size + ")");
+        this.slab_size=slab_size;
+        this.max_bytes=max_bytes;
+    }
+
+    public int  slabSize()       {return slab_size;}
+    public long maxBytes()       {return max_bytes;}
+    public long allocatedBytes() {return allocated.get();}
+    public long storedBytes()    {return stored.sum();}
+    public int  freeSlabs()      {return free.size();}
+    public long failedAllocations() {return failed.sum();}
+
+    /** Returns a slab, or null if the cap has been reached */
+    public ByteBuffer acquire() {
+        ByteBuffer buf=free.poll();
+        if(buf != null)
+            return buf;
+        for(;;) {
+            long curr=allocated.get();
+            if(curr + slab_size > max_bytes) {
+                failed.increment();
+                return null;
+            }
+            if(allocated.compareAndSet(curr, curr + slab_size))
+                return ByteBuffer.allocateDirect(slab_size);
+        }
+    }
+
+    public void release(ByteBuffer buf) {
+        if(buf != null) {
+            buf.clear();
+            free.offer(buf);
+        }
+    }
+
+    public void resetStats() {
+        failed.reset();
+    }
+
+    public String toString() {
+        return String.format("%s of %s allocated (slab size: %s, stored: %s, free slabs: %d)",
+                             Util.printBytes(allocatedBytes()), Util.printBytes(max_bytes), Util.printBytes(slab_size),
+                             Util.printBytes(storedBytes()), freeSlabs());
+    }
+}
@@ -60,7 +60,7 @@ public class Table<T> implements Iterable<T> {
      * last compaction is more than max_compaction_time nanoseconds ago, a compaction will take place */
     protected long                 last_compaction_timestamp=0;
 
-    protected final Lock           lock=new ReentrantLock();
+    protected final Lock           lock=createLock();
 
     protected final AtomicInteger  adders=new AtomicInteger(0);
 
@@ -125,6 +125,9 @@ public class Table<T> implements Iterable<T> {
 
     public AtomicInteger getAdders()     {return adders;}
 
+    /** Creates the lock guarding the table. Called from the constructor, before subclasses are initialized */
+    protected Lock createLock()          {return new ReentrantLock();}
+
     public long getOffset()              {return offset;}
     public int  getElementsPerRow()      {return elements_per_row;}
 
@@ -152,18 +155,23 @@ public class Table<T> implements Iterable<T> {
     /** Returns the highest deliverable (= removable) seqno. This may be higher than {@link #getHighestDelivered()},
      * e.g. if elements have been added but not yet removed */
     public long getHighestDeliverable() {
-        HighestDeliverable visitor=new HighestDeliverable();
         lock.lock();
         try {
-            forEach(hd+1, hr, visitor);
-            long retval=visitor.getResult();
-            return retval == -1? hd : retval;
+            return _getHighestDeliverable();
         }
         finally {
             lock.unlock();
         }
     }
 
+    @GuardedBy("lock")
+    protected long _getHighestDeliverable() {
+        HighestDeliverable visitor=new HighestDeliverable();
+        forEach(hd+1, hr, visitor);
+        long retval=visitor.getResult();
+        return retval == -1? hd : retval;
+    }
+
     /** Returns the number of messages that can be delivered */
     public int getNumDeliverable() {
         NumDeliverable visitor=new NumDeliverable();
@@ -672,7 +680,7 @@ public class Table<T> implements Iterable<T> {
         try {
             if(size == 0)
                 return null;
-            long start_seqno=getHighestDeliverable() +1;
+            long start_seqno=_getHighestDeliverable() +1;
             int capacity=(int)(hr - start_seqno);
             int max_size=max_msgs > 0? Math.min(max_msgs, capacity) : capacity;
             if(max_size <= 0)
@@ -737,6 +745,15 @@ public class Table<T> implements Iterable<T> {
     }
 
 
+    /** Nulls the element at matrix[row][column]. If it is the last element of the row, the row is nulled as well */
+    @GuardedBy("lock")
+    protected void clear(int row, int column) {
+        matrix[row][column]=null;
+        if(column == elements_per_row-1)
+            matrix[row]=null;
+    }
+
+
     /** Computes and returns the row index for seqno. The caller must hold the lock. */
     // Note that seqno-offset is never > Integer.MAX_VALUE and thus doesn't overflow into a negative long,
     // as offset is always adjusted in resize() or compact(). Even if it was negative, callers of computeRow() will
@@ -840,10 +857,7 @@ public class Table<T> implements Iterable<T> {
                     hd=seqno;
                 size=Math.max(size-1, 0); // cannot be < 0 (well that would be a bug, but let's have this 2nd line of defense !)
                 if(nullify) {
-                    matrix[row][column]=null;
-                    // if we're nulling the last element of a row, null the row as well
-                    if(column == elements_per_row-1)
-                        matrix[row]=null;
+                    clear(row, column);
                     if(seqno - low > 0)
                         low=seqno;
                 }
@@ -0,0 +1,221 @@
+package org.jgroups.util;
+
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+
+import java.util.Collection;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Runs recurring tasks (callbacks) of protocols in a single recurring timer task (tick), instead of each protocol
+ * scheduling its own tasks on the timer. At every tick (every interval ms), all callbacks whose next execution time
+ * has been reached are run, one after the other, by the same thread. Callbacks with compatible intervals (e.g. 1000
+ * and 2000 ms) therefore run in the same tick, and a member with many protocols (e.g. in fork stacks) wakes up once
+ * per tick instead of once per task.
+ * <br/>
+ * A callback is run by the first tick at or after its next execution time, never before: its interval is therefore
+ * rounded up to a multiple of the tick interval (and may occasionally be a tick longer, due to timer jitter).
+ * Callbacks run in the thread of the tick, one after the other. Callbacks which may block (can_block) are handed to
+ * the thread pool of the timer instead, so they don't delay the other callbacks; such a callback is not run again
+ * before its previous execution has completed. The number of invocations and the execution times of every callback
+ * are recorded.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class TickService implements Runnable {
+    protected final TimeScheduler        timer;
+    protected final long                 interval; // ms
+    protected final Collection<Callback> callbacks=new CopyOnWriteArrayList<>();
+    protected Future<?>                  task;     // the tick, started when the first callback is added
+    protected final LongAdder            num_ticks=new LongAdder();
+    protected static final Log           log=LogFactory.getLog(TickService.class);
+
+    public TickService(TimeScheduler timer, long interval) {
+        if(timer == null)
+            throw new IllegalArgumentException("timer must not be null");
+        if(interval <= 0)
+            throw new IllegalArgumentException("interval (" + interval + ") needs to be > 0");
+        this.timer=timer;
+        this.interval=interval;
+    }
+
+    public long interval() {return interval;}
+    public int  size()     {return callbacks.size();}
+    public long numTicks() {return num_ticks.sum();}
+
+    /**
+     * Runs a task every delay time units, after an initial delay; the equivalent of
+     * {@link TimeScheduler#scheduleWithFixedDelay(Runnable,long,long,TimeUnit)}
+     * @return A future which can be used to cancel the task
+     */
+    public Future<?> scheduleWithFixedDelay(Runnable task, long initial_delay, long delay, TimeUnit unit) {
+        return scheduleWithFixedDelay(task, initial_delay, delay, unit, false);
+    }
+
+    /**
+     * Same as {@link #scheduleWithFixedDelay(Runnable,long,long,TimeUnit)}
+     * @param can_block True if the task may block; it is then run by the thread pool of the timer
+     */
+    public Future<?> scheduleWithFixedDelay(Runnable task, long initial_delay, long delay, TimeUnit unit, boolean can_block) {
+        if(delay <= 0)
+            throw new IllegalArgumentException("delay (" + delay + ") needs to be > 0");
+        return add(new Callback(task, TimeUnit.NANOSECONDS.convert(initial_delay, unit), TimeUnit.NANOSECONDS.convert(delay, unit),
+                                can_block));
+    }
+
+    /**
+     * Runs a task after {@link TimeScheduler.Task#nextInterval()} ms, until nextInterval() returns a value <= 0; the
+     * equivalent of {@link TimeScheduler#scheduleWithDynamicInterval(TimeScheduler.Task)}
+     * @return A future which can be used to cancel the task
+     */
+    public Future<?> scheduleWithDynamicInterval(TimeScheduler.Task task) {
+        return scheduleWithDynamicInterval(task, false);
+    }
+
+    /**
+     * Same as {@link #scheduleWithDynamicInterval(TimeScheduler.Task)}
+     * @param can_block True if the task may block; it is then run by the thread pool of the timer
+     */
+    public Future<?> scheduleWithDynamicInterval(TimeScheduler.Task task, boolean can_block) {
+        return add(new Callback(task, TimeUnit.NANOSECONDS.convert(task.nextInterval(), TimeUnit.MILLISECONDS), 0, can_block));
+    }
+
+    public synchronized TickService stop() {
+        if(task != null) {
+            task.cancel(false);
+            task=null;
+        }
+        callbacks.forEach(cb -> cb.cancel(false));
+        callbacks.clear();
+        return this;
+    }
+
+    /** Runs all callbacks whose next execution time has been reached */
+    public void run() {
+        num_ticks.increment();
+        for(Callback cb: callbacks) {
+            if(cb.isDone()) {
+                callbacks.remove(cb);
+                continue;
+            }
+            if(cb.next - System.nanoTime() > 0 || cb.running)
+                continue;
+            if(!cb.can_block) {
+                cb.run();
+                continue;
+            }
+            cb.running=true; // reset by the callback when done
+            try {
+                timer.execute(cb::run, true);
+            }
+            catch(Throwable t) { // e.g. the timer has been stopped
+                cb.running=false;
+                log.error(Util.getMessage("FailedExecutingTask") + ' ' + cb.task, t);
+            }
+        }
+    }
+
+    @Override public String toString() {
+        return String.format("%s (interval=%d ms, callbacks=%d)", getClass().getSimpleName(), interval, size());
+    }
+
+    /** Prints the callbacks, with their invocations and execution times */
+    public String printCallbacks() {
+        return callbacks.stream().map(Callback::toString).collect(Collectors.joining("\n"));
+    }
+
+    public void resetStats() {
+        num_ticks.reset();
+        callbacks.forEach(Callback::resetStats);
+    }
+
+    protected Callback add(Callback cb) {
+        callbacks.add(cb);
+        synchronized(this) {
+            if(task == null || task.isDone())
+                task=timer.scheduleAtFixedRate(this, interval, interval, TimeUnit.MILLISECONDS, true);
+        }
+        return cb;
+    }
+
+
+    /** A recurring task, which is also the future returned to the caller */
+    protected class Callback implements Future<Object> {
+        protected final Runnable   task;
+        protected final long       period; // ns, 0 if the interval is dynamic
+        protected volatile long    next;   // time (ns) of the next execution
+        protected final boolean    can_block; // run by the thread pool of the timer if true
+        protected volatile boolean cancelled, done;
+        protected volatile boolean running;   // only used if can_block: true while the task is run by the timer
+        protected final LongAdder  invocations=new LongAdder(), time=new LongAdder(); // ns
+        protected volatile long    max_time; // ns
+
+        protected Callback(Runnable task, long initial_delay, long period, boolean can_block) {
+            if(task == null)
+                throw new IllegalArgumentException("task must not be null");
+            this.task=task;
+            this.period=period;
+            this.can_block=can_block;
+            this.next=System.nanoTime() + initial_delay;
+        }
+
+        public boolean cancel(boolean may_interrupt) {
+            boolean retval=!isDone();
+            cancelled=true;
+            callbacks.remove(this);
+            return retval;
+        }
+
+        public boolean isCancelled() {return cancelled;}
+        public boolean isDone()      {return cancelled || done;}
+        public Object  get()         {return null;}
+        public Object  get(long timeout, TimeUnit unit) {return null;}
+
+        /** Runs the task and computes the next execution time, relative to the start of this execution */
+        protected void run() {
+            long start=System.nanoTime();
+            try {
+                task.run();
+            }
+            catch(Throwable t) {
+                log.error(Util.getMessage("FailedExecutingTask") + ' ' + task, t);
+            }
+            finally {
+                long duration=System.nanoTime() - start;
+                invocations.increment();
+                time.add(duration);
+                if(duration > max_time)
+                    max_time=duration;
+            }
+            try {
+                if(period > 0) {
+                    next=start + period;
+                    return;
+                }
+                long next_interval=((TimeScheduler.Task)task).nextInterval();
+                if(next_interval <= 0)
+                    done=true;
+                else
+                    next=start + TimeUnit.NANOSECONDS.convert(next_interval, TimeUnit.MILLISECONDS);
+            }
+            finally {
+                running=false;
+            }
+        }
+
+        protected void resetStats() {
+            invocations.reset();
+            time.reset();
+            max_time=0;
+        }
+
+        public String toString() {
+            long num=invocations.sum();
+            return String.format("%s: interval=%s%s, invocations=%d, avg time=%.2f us, max time=%.2f us",
+                                 task, period > 0? TimeUnit.MILLISECONDS.convert(period, TimeUnit.NANOSECONDS) + " ms" : "dynamic",
+                                 can_block? " (can block)" : "", num, num == 0? 0 : time.sum() / (double)num / 1000.0, max_time / 1000.0);
+        }
+    }
+}
@@ -64,9 +64,15 @@ public class TimeScheduler3 implements TimeScheduler, Runnable {
     }
 
     public TimeScheduler3(Executor thread_pool, ThreadFactory factory) {
+        this(thread_pool, factory, true);
+    }
+
+    /** Used by subclasses which need to initialize their state before the runner thread is started */
+    protected TimeScheduler3(Executor thread_pool, ThreadFactory factory, boolean start) {
         timer_thread_factory=factory;
         pool=thread_pool;
-        start();
+        if(start)
+            start();
     }
 
     public void    setThreadFactory(ThreadFactory f)     {condSet((p) -> p.setThreadFactory(f));}
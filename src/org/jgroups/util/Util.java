@@ -1151,6 +1151,14 @@ public class Util {
      * @throws Exception
      */
     public static MessageBatch[] readMessageBatch(DataInput in, boolean multicast) throws Exception {
+        return readMessageBatch(in, multicast, null);
+    }
+
+    /**
+     * Same as {@link #readMessageBatch(DataInput,boolean)}, but if pooled is non-null, the payloads of the messages
+     * point into the pooled buffer (which in must read from) rather than being copied
+     */
+    public static MessageBatch[] readMessageBatch(DataInput in, boolean multicast, PooledBuffer pooled) throws Exception {
         MessageBatch[] batches=new MessageBatch[4]; // [0]: reg, [1]: OOB, [2]: internal-oob, [3]: internal
         Address dest=Util.readAddress(in);
         Address src=Util.readAddress(in);
@@ -1162,7 +1170,10 @@ public class Util {
         int len=in.readInt();
         for(int i=0; i < len; i++) {
             Message msg=new Message(false);
-            msg.readFrom(in);
+            if(pooled != null)
+                msg.readFrom((ByteArrayDataInputStream)in, pooled);
+            else
+                msg.readFrom(in);
             msg.setDest(dest);
             if(msg.getSrc() == null)
                 msg.setSrc(src);
@@ -0,0 +1,187 @@
+package org.jgroups.blocks;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.util.ExtendedUUID;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link UUIDCache}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,sequential=false)
+public class UUIDCacheTest {
+
+    public void testAdd() {
+        UUIDCache<String> cache=new UUIDCache<>();
+        UUID uuid=UUID.randomUUID();
+        assert cache.add(uuid, "node-1");
+        assert !cache.add(uuid, "node-2");
+        assert cache.size() == 1;
+        assert cache.get(uuid).equals("node-2");
+        assert !cache.addIfAbsent(uuid, "node-3");
+        assert cache.get(uuid).equals("node-2");
+        assert cache.get(UUID.randomUUID()) == null;
+        assert cache.get(null) == null;
+    }
+
+    /** Lookups compare the bits of a UUID, so a UUID finds the entry of an ExtendedUUID with the same bits */
+    public void testSubclasses() {
+        UUIDCache<String> cache=new UUIDCache<>();
+        ExtendedUUID ext=ExtendedUUID.randomUUID("A").put("key", new byte[]{1,2,3});
+        cache.add(ext, "A");
+        UUID uuid=new UUID(ext.getMostSignificantBits(), ext.getLeastSignificantBits());
+        assert cache.get(uuid).equals("A");
+        assert cache.keySet().iterator().next() == ext;
+    }
+
+    public void testNonUUIDKeys() throws Exception {
+        UUIDCache<String> cache=new UUIDCache<>(10, 0);
+        Address ip=new IpAddress("127.0.0.1", 5000), uuid=UUID.randomUUID();
+        cache.add(ip, "ip");
+        cache.add(uuid, "uuid");
+        assert cache.size() == 2;
+        assert cache.get(new IpAddress("127.0.0.1", 5000)).equals("ip");
+        assert cache.contents().size() == 2;
+        cache.retainAll(Arrays.asList(uuid));
+        assert cache.nonRemovedValues().size() == 1 && cache.nonRemovedValues().contains("uuid");
+        cache.removeMarkedElements();
+        assert cache.size() == 1 && cache.get(ip) == null;
+    }
+
+    public void testRemoveAndAdd() {
+        UUIDCache<String> cache=new UUIDCache<>();
+        UUID uuid=UUID.randomUUID();
+        cache.add(uuid, "val");
+        cache.remove(uuid);
+        assert cache.size() == 1;
+        assert cache.get(uuid).equals("val");
+        assert cache.contents(true).isEmpty();
+
+        cache.add(uuid, "val2");
+        assert cache.get(uuid).equals("val2");
+        assert cache.contents(true).size() == 1;
+
+        cache.remove(uuid, true);
+        assert cache.size() == 0 && cache.get(uuid) == null;
+    }
+
+    public void testRetainAll() {
+        UUIDCache<String> cache=new UUIDCache<>(10, 0);
+        List<UUID> list=Arrays.asList(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        int cnt=1;
+        for(UUID uuid: list)
+            cache.add(uuid, "node-" + cnt++);
+        UUID uuid1=UUID.randomUUID(), uuid2=UUID.randomUUID();
+        cache.add(uuid1, "foo");
+        cache.add(uuid2, "bar");
+        assert cache.size() == 5;
+
+        cache.retainAll(Arrays.asList(uuid1, uuid2));
+        System.out.println("cache = " + cache);
+        assert cache.size() == 5;
+        assert cache.nonRemovedValues().size() == 2;
+
+        cache.removeMarkedElements();
+        assert cache.size() == 2;
+        assert cache.get(uuid1).equals("foo");
+        assert cache.get(uuid2).equals("bar");
+        list.forEach(u -> {assert cache.get(u) == null;});
+    }
+
+    public void testRemovalOnExceedingMaxSize() {
+        UUIDCache<String> cache=new UUIDCache<>(2, 0);
+        UUID u1=UUID.randomUUID(), u2=UUID.randomUUID(), u3=UUID.randomUUID(), u4=UUID.randomUUID();
+        cache.add(u1, "u1"); cache.add(u2, "u2");
+        cache.add(u3, "u3"); cache.add(u4, "u4");
+        assert cache.size() == 4;
+
+        cache.remove(u3);
+        assert cache.size() == 3;
+        cache.remove(u1);
+        assert cache.size() == 2;
+        cache.remove(u4);
+        assert cache.size() == 2;
+        cache.removeMarkedElements();
+        assert cache.size() == 1 && cache.get(u2).equals("u2");
+    }
+
+    public void testRemovalOnExceedingMaxSizeAndMaxTime() {
+        UUIDCache<String> cache=new UUIDCache<>(2, 1000);
+        Address a=Util.createRandomAddress("A"), b=Util.createRandomAddress("B"),
+          c=Util.createRandomAddress("C"), d=Util.createRandomAddress("D");
+        cache.add(a, "A"); cache.add(b, "B");
+        cache.add(c, "C"); cache.add(d, "D");
+        cache.remove(c);
+        cache.remove(a);
+        cache.remove(d);
+        cache.removeMarkedElements();
+        assert cache.size() == 4;
+
+        Util.sleep(1100);
+        cache.remove(d);
+        assert cache.size() == 1 && cache.get(b).equals("B");
+    }
+
+    public void testClear() {
+        UUIDCache<String> cache=new UUIDCache<>(100, 0);
+        for(int i=0; i < 20; i++)
+            cache.add(UUID.randomUUID(), "val-" + i);
+        cache.clear(false);
+        assert cache.size() == 20 && cache.nonRemovedValues().isEmpty();
+        cache.clear(true);
+        assert cache.size() == 0 && cache.capacity() == UUIDCache.INITIAL_CAPACITY;
+    }
+
+    /** Adds and removes entries while other threads look up entries which are never removed */
+    public void testConcurrentReads() throws Exception {
+        UUIDCache<String> cache=new UUIDCache<>(100_000, 0);
+        List<UUID> stable=new ArrayList<>();
+        for(int i=0; i < 100; i++) {
+            UUID uuid=UUID.randomUUID();
+            stable.add(uuid);
+            cache.add(uuid, uuid.toString());
+        }
+        AtomicInteger misses=new AtomicInteger();
+        CountDownLatch done=new CountDownLatch(1);
+        Thread[] readers=new Thread[4];
+        for(int i=0; i < readers.length; i++) {
+            readers[i]=new Thread(() -> {
+                while(done.getCount() > 0) {
+                    for(UUID uuid: stable) {
+                        String val=cache.get(uuid);
+                        if(val == null || !val.equals(uuid.toString()))
+                            misses.incrementAndGet();
+                    }
+                }
+            });
+            readers[i].start();
+        }
+        for(int i=0; i < 20; i++) { // grows the table and removes the added entries again
+            List<UUID> tmp=new ArrayList<>();
+            for(int j=0; j < 500; j++) {
+                UUID uuid=UUID.randomUUID();
+                tmp.add(uuid);
+                cache.add(uuid, "tmp");
+            }
+            tmp.forEach(cache::remove);
+            cache.removeMarkedElements(true);
+        }
+        done.countDown();
+        for(Thread reader: readers)
+            reader.join();
+        assert misses.get() == 0 : "misses: " + misses;
+        assert cache.size() == stable.size();
+        assert cache.capacity() == 256 : "capacity: " + cache.capacity();
+    }
+}
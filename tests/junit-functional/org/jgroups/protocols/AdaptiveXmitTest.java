@@ -0,0 +1,93 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.RttEstimator;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests RTT-based retransmission (adaptive_xmit=true) in {@link NAKACK2} and {@link UNICAST3}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class AdaptiveXmitTest {
+    protected JChannel            a, b;
+    protected DISCARD             discard;
+    protected MyReceiver<Integer> receiver;
+    protected static final int    NUM_MSGS=200;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        b.setReceiver(receiver=new MyReceiver<>());
+        a.getProtocolStack().insertProtocol(discard=new DISCARD(), ProtocolStack.Position.ABOVE, SHARED_LOOPBACK.class);
+    }
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+
+    /** A times the acks from B, and B times the retransmissions of the messages dropped by A */
+    public void testUnicasts() throws Exception {
+        Address target=b.getAddress();
+        for(int i=1; i <= NUM_MSGS; i++) {
+            if(i % 20 == 0)
+                discard.setDropDownUnicasts(1);
+            a.send(target, i);
+            if(i % 10 == 0) // gives A time to receive acks, so that more than the first message is timed
+                Util.sleep(50);
+        }
+        checkReception();
+        UNICAST3 uni_a=a.getProtocolStack().findProtocol(UNICAST3.class), uni_b=b.getProtocolStack().findProtocol(UNICAST3.class);
+        System.out.printf("%s%s", uni_a.printRtts(), uni_b.printRtts());
+        RttEstimator send_rtt=uni_a.send_table.get(target).rtt, recv_rtt=uni_b.recv_table.get(a.getAddress()).rtt;
+        assert send_rtt.numSamples() > 0 && recv_rtt.numSamples() > 0;
+    }
+
+    /** B times the retransmissions of the multicasts dropped by A */
+    public void testMulticasts() throws Exception {
+        for(int i=1; i <= NUM_MSGS; i++) {
+            if(i % 20 == 0)
+                discard.setDropDownMulticasts(1);
+            a.send(null, i);
+        }
+        checkReception();
+        NAKACK2 nak=b.getProtocolStack().findProtocol(NAKACK2.class);
+        RttEstimator rtt=nak.getRtt(a.getAddress());
+        System.out.printf("B:\n%s", nak.printRtts());
+        assert rtt != null && rtt.numSamples() > 0;
+    }
+
+
+    protected void checkReception() {
+        List<Integer> list=receiver.list();
+        for(int i=0; i < 50 && list.size() < NUM_MSGS; i++)
+            Util.sleep(200);
+        List<Integer> expected=IntStream.rangeClosed(1, NUM_MSGS).boxed().collect(Collectors.toList());
+        assert list.equals(expected) : String.format("expected %d messages, got %d: %s", NUM_MSGS, list.size(), list);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        return new JChannel(new SHARED_LOOPBACK(),
+                            new SHARED_LOOPBACK_PING(),
+                            new NAKACK2().setValue("adaptive_xmit", true),
+                            new UNICAST3().setValue("adaptive_xmit", true),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000))
+          .name(name).connect(AdaptiveXmitTest.class.getSimpleName());
+    }
+}
@@ -0,0 +1,168 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Tests {@link FEC}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class FEC_Test {
+    protected JChannel            a, b;
+    protected FEC                 fec_a, fec_b;
+    protected long                base; // the highest seqno sent by A before the test
+    protected DropMulticasts      drop;
+    protected MyReceiver<Integer> receiver;
+    protected static final short  NAKACK2_ID=ClassConfigurator.getProtocolId(NAKACK2.class);
+    protected static final int    NUM_MSGS=64;
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+
+    /** Sends messages without loss: the parity messages are received, but nothing is recovered */
+    public void testNoLoss() throws Exception {
+        setup(8, 4);
+        send();
+        checkReception();
+        FEC.Decoder decoder=fec_b.decoders.get(a.getAddress());
+        for(int i=0; i < 50 && !decoder.blocks.isEmpty(); i++)
+            Util.sleep(100);
+        assert fec_a.getNumParitySent() >= NUM_MSGS / 8 : print(); // more if a block was flushed before it was full
+        assert fec_b.getNumRecovered() == 0 && decoder.blocks.isEmpty() : print();
+    }
+
+    /** A single lost message is recovered by FEC, without retransmission by NAKACK2 */
+    public void testSingleLoss() throws Exception {
+        setup(8, 4);
+        drop.drop(5);
+        send();
+        checkReception();
+        assert fec_b.getNumRecovered() == 1 && fec_b.getNumXmitRequests() == 0 : print();
+    }
+
+    /** A burst of interleave consecutive lost messages hits different blocks, and all lost messages are recovered */
+    public void testBurstLoss() throws Exception {
+        setup(8, 4);
+        drop.drop(10, 11, 12, 13);
+        send();
+        checkReception();
+        assert fec_b.getNumRecovered() == 4 && fec_b.getNumXmitRequests() == 0 : print();
+    }
+
+    /** The last messages of a burst are in blocks which are not full: they are recovered after flush_interval */
+    public void testLossInPartialBlock() throws Exception {
+        setup(8, 4);
+        drop.drop(NUM_MSGS+2);
+        send(NUM_MSGS+3);
+        checkReception(NUM_MSGS+3);
+        assert fec_b.getNumRecovered() == 1 && fec_b.getNumXmitRequests() == 0 : print();
+    }
+
+    /** 2 lost messages in the same block cannot be recovered, so they are retransmitted by NAKACK2 */
+    public void testUnrecoverableLoss() throws Exception {
+        setup(8, 1);
+        drop.drop(3, 4);
+        send();
+        checkReception();
+        assert fec_b.getNumRecovered() == 0 && fec_b.getNumXmitRequests() >= 2 : print();
+    }
+
+
+    protected void setup(int block_size, int interleave) throws Exception {
+        a=create("A", block_size, interleave);
+        b=create("B", block_size, interleave);
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        fec_a=a.getProtocolStack().findProtocol(FEC.class);
+        fec_b=b.getProtocolStack().findProtocol(FEC.class);
+        b.setReceiver(receiver=new MyReceiver<>());
+        b.getProtocolStack().insertProtocol(drop=new DropMulticasts(), ProtocolStack.Position.BELOW, FEC.class);
+        base=((NAKACK2)a.getProtocolStack().findProtocol(NAKACK2.class)).getCurrentSeqno();
+        Util.sleep(200); // the blocks of the multicasts sent so far (e.g. views) are flushed
+        fec_a.resetStats();
+        fec_b.resetStats();
+    }
+
+    protected String print() {
+        return String.format("parity sent=%d, parity received=%d, recovered=%d, unrecoverable=%d, xmit requests=%d, blocks=%s",
+                             fec_a.getNumParitySent(), fec_b.getNumParityReceived(), fec_b.getNumRecovered(),
+                             fec_b.getNumUnrecoverable(), fec_b.getNumXmitRequests(), fec_b.printBlocks());
+    }
+
+    protected void send() throws Exception {
+        send(NUM_MSGS);
+    }
+
+    protected void send(int num) throws Exception {
+        for(int i=1; i <= num; i++)
+            a.send(null, i);
+    }
+
+    protected void checkReception() {
+        checkReception(NUM_MSGS);
+    }
+
+    protected void checkReception(int num) {
+        List<Integer> list=receiver.list();
+        for(int i=0; i < 50 && list.size() < num; i++)
+            Util.sleep(200);
+        List<Integer> expected=IntStream.rangeClosed(1, num).boxed().collect(Collectors.toList());
+        assert list.equals(expected) : String.format("expected %d messages, got %d: %s", num, list.size(), list);
+    }
+
+    protected static JChannel create(String name, int block_size, int interleave) throws Exception {
+        return new JChannel(new SHARED_LOOPBACK(),
+                            new SHARED_LOOPBACK_PING(),
+                            new FEC().blockSize(block_size).interleave(interleave),
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000))
+          .name(name).connect(FEC_Test.class.getSimpleName());
+    }
+
+
+    /** Drops the multicasts with the given NAKACK2 seqnos (relative to base) once */
+    protected class DropMulticasts extends Protocol {
+        protected final Set<Long> seqnos=new HashSet<>();
+
+        protected synchronized DropMulticasts drop(long ... seqnos) {
+            LongStream.of(seqnos).forEach(s -> this.seqnos.add(base + s));
+            return this;
+        }
+
+        public Object up(Message msg) {
+            return drop(msg)? null : up_prot.up(msg);
+        }
+
+        public void up(MessageBatch batch) {
+            batch.remove(this::drop);
+            if(!batch.isEmpty())
+                up_prot.up(batch);
+        }
+
+        protected synchronized boolean drop(Message msg) {
+            NakAckHeader2 hdr=msg.getDest() == null? msg.getHeader(NAKACK2_ID) : null;
+            return hdr != null && hdr.getType() == NakAckHeader2.MSG && seqnos.remove(hdr.getSeqno());
+        }
+    }
+}
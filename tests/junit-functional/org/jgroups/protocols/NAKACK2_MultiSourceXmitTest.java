@@ -0,0 +1,144 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.stack.Protocol;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.*;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Tests splitting the retransmission requests for large ranges of missing messages across multiple members
+ * (xmit_sources > 1) in {@link NAKACK2}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class NAKACK2_MultiSourceXmitTest {
+    protected static final short   ID=ClassConfigurator.getProtocolId(NAKACK2.class);
+    protected static final Address A=Util.createRandomAddress("A"), B=Util.createRandomAddress("B"),
+                                   C=Util.createRandomAddress("C"), D=Util.createRandomAddress("D");
+    protected static final View    view=View.create(A, 1, A, B, C, D);
+    protected NAKACK2              nak;
+    protected MockTransport        transport;
+
+    @BeforeMethod
+    protected void setup() throws Exception {
+        nak=(NAKACK2)new NAKACK2().setValue("use_mcast_xmit", false).setValue("xmit_sources", 3)
+          .setValue("xmit_split_size", 10);
+        transport=new MockTransport();
+        ProtocolStack stack=new ProtocolStack();
+        stack.addProtocols(transport, nak, new Protocol() {
+            public Object up(Message msg)      {return null;}
+            public void up(MessageBatch batch) {}
+        });
+        stack.init();
+
+        nak.down(new Event(Event.BECOME_SERVER));
+        nak.down(new Event(Event.SET_LOCAL_ADDRESS, A));
+        nak.down(new Event(Event.VIEW_CHANGE, view));
+        Digest digest=new Digest(view.getMembersRaw(), new long[]{0, 0, 0, 0, 0, 0, 0, 0});
+        nak.down(new Event(Event.SET_DIGEST, digest));
+    }
+
+    public void testDiscardDeliveredMsgsDisabled() {
+        assert !nak.isDiscardDeliveredMsgs();
+    }
+
+    /** A small range of missing messages is asked from the original sender only */
+    public void testSmallRangeNotSplit() {
+        injectMessages(15);
+        nak.triggerXmit();
+        nak.triggerXmit();
+        Map<Address,List<Long>> reqs=transport.xmitRequests();
+        assert reqs.size() == 1 && reqs.get(B).equals(range(1, 14)) : "xmit requests: " + reqs;
+        assert nak.getXmitRequestsSentToOthers() == 0;
+    }
+
+    /**
+     * Missing messages 1-100 are split across B (the original sender) and 2 other members. The messages which are
+     * still missing in the next round are asked from B
+     */
+    public void testLargeRangeSplit() {
+        injectMessages(101);
+        nak.triggerXmit(); // the first run only records the missing messages
+        assert transport.xmitRequests().isEmpty();
+
+        nak.triggerXmit();
+        Map<Address,List<Long>> reqs=transport.xmitRequests();
+        assert reqs.size() == 3 && reqs.get(B).equals(range(1, 34)) : "xmit requests: " + reqs;
+        List<List<Long>> others=Arrays.asList(reqs.get(C), reqs.get(D));
+        assert others.contains(range(35, 68)) && others.contains(range(69, 100)) : "xmit requests: " + reqs;
+        assert nak.getXmitRequestsSentToOthers() == 66;
+
+        // C or D didn't have 51-100 (e.g. it lost them, too): they are now asked from B
+        injectMessages(LongStream.rangeClosed(1, 50).toArray());
+        transport.clear();
+        nak.triggerXmit();
+        reqs=transport.xmitRequests();
+        assert reqs.size() == 1 && reqs.get(B).equals(range(51, 100)) : "xmit requests: " + reqs;
+        assert nak.getXmitRequestsSentToOthers() == 66;
+    }
+
+    /** Only members other than the local member and the original sender help, so fewer than xmit_sources are used */
+    public void testFewerMembersThanXmitSources() {
+        nak.down(new Event(Event.VIEW_CHANGE, View.create(A, 2, A, B, C)));
+        injectMessages(101);
+        nak.triggerXmit();
+        nak.triggerXmit();
+        Map<Address,List<Long>> reqs=transport.xmitRequests();
+        assert reqs.size() == 2 && reqs.get(B).equals(range(1, 50)) && reqs.get(C).equals(range(51, 100))
+          : "xmit requests: " + reqs;
+    }
+
+
+    protected void injectMessages(long ... seqnos) {
+        for(long seqno: seqnos) {
+            Message msg=new Message(null).src(B).putHeader(ID, NakAckHeader2.createMessageHeader(seqno));
+            nak.up(msg);
+        }
+    }
+
+    protected static List<Long> range(long from, long to) {
+        return LongStream.rangeClosed(from, to).boxed().collect(Collectors.toList());
+    }
+
+
+    /** Records the retransmit requests sent by NAKACK2, keyed by destination */
+    protected static class MockTransport extends TP {
+        protected final Map<Address,List<Long>> xmit_requests=new HashMap<>();
+
+        public Map<Address,List<Long>> xmitRequests() {return xmit_requests;}
+        public void                    clear() {xmit_requests.clear();}
+        public void                    init() throws Exception {}
+        public boolean                 supportsMulticasting() {return true;}
+        public void                    sendMulticast(byte[] data, int offset, int length) throws Exception {}
+        public void                    sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception {}
+        public String                  getInfo() {return null;}
+        protected PhysicalAddress      getPhysicalAddress() {return null;}
+        public Object                  down(Event evt) {return null;}
+
+        public Object down(Message msg) {
+            NakAckHeader2 hdr=msg.getHeader(ID);
+            if(hdr == null || hdr.getType() != NakAckHeader2.XMIT_REQ)
+                return null;
+            try {
+                SeqnoList seqnos=Util.streamableFromBuffer(SeqnoList::new, msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+                List<Long> list=xmit_requests.computeIfAbsent(msg.getDest(), k -> new ArrayList<>());
+                for(Long seqno: seqnos)
+                    list.add(seqno);
+            }
+            catch(Exception e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests delta digests in {@link STABLE} (delta_digests=true)
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class STABLE_DeltaDigestTest {
+    protected JChannel            a, b, c;
+    protected static final short  STABLE_ID=ClassConfigurator.getProtocolId(STABLE.class);
+    protected static final int    NUM_MSGS=10, FULL_DIGEST_INTERVAL=4;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A", FULL_DIGEST_INTERVAL, 0);
+        b=create("B", FULL_DIGEST_INTERVAL, 0);
+        c=create("C", FULL_DIGEST_INTERVAL, 0);
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b, c);
+    }
+
+    @AfterMethod protected void destroy() {Util.close(c, b, a);}
+
+
+    /** A sends messages in every round: the stability digests only need to carry A's entry */
+    public void testDeltaDigests() throws Exception {
+        for(int i=0; i < 2 * FULL_DIGEST_INTERVAL; i++)
+            sendAndWaitForStability();
+        for(JChannel ch: channels()) {
+            STABLE stable=ch.getProtocolStack().findProtocol(STABLE.class);
+            assert stable.getDeltaDigestsSent() > 0 && stable.getDeltaDigestsDiscarded() == 0
+              : String.format("%s: delta digests sent=%d, discarded=%d", ch.getAddress(),
+                              stable.getDeltaDigestsSent(), stable.getDeltaDigestsDiscarded());
+        }
+    }
+
+    /** C misses a STABILITY message: its delta digests are discarded, until it sends a full digest */
+    public void testMissedStabilityMessage() throws Exception {
+        sendAndWaitForStability();
+        sendAndWaitForStability();
+        DropStability drop=new DropStability();
+        c.getProtocolStack().insertProtocol(drop, ProtocolStack.Position.ABOVE, SHARED_LOOPBACK.class);
+        sendAndWaitForStability();
+        assert drop.dropped;
+        for(int i=0; i < FULL_DIGEST_INTERVAL; i++)
+            sendAndWaitForStability();
+        STABLE stable_a=a.getProtocolStack().findProtocol(STABLE.class), stable_c=c.getProtocolStack().findProtocol(STABLE.class);
+        assert stable_a.getDeltaDigestsDiscarded() + stable_c.getDeltaDigestsDiscarded() > 0;
+    }
+
+    /**
+     * C misses a delta STABILITY message, and subsequently discards all delta STABILITY messages. As full digests are
+     * never sent because of full_digest_interval, and only the coordinator collects the STABLE messages, C only
+     * recovers because its STABLE messages ask for a full digest. The rounds are run by the periodic STABLE task, not
+     * by calling gc()
+     */
+    public void testMissedStabilityMessageWithoutGc() throws Exception {
+        Util.close(c, b, a);
+        a=create("A", Integer.MAX_VALUE, 100);
+        b=create("B", Integer.MAX_VALUE, 100);
+        c=create("C", Integer.MAX_VALUE, 100);
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b, c);
+        DropStability drop=new DropStability();
+        c.getProtocolStack().insertProtocol(drop, ProtocolStack.Position.ABOVE, SHARED_LOOPBACK.class);
+        STABLE stable_c=c.getProtocolStack().findProtocol(STABLE.class);
+
+        for(int i=0; i < 100 && !drop.dropped; i++) {
+            for(int j=0; j < NUM_MSGS; j++)
+                a.send(null, j);
+            Util.sleep(100);
+        }
+        assert drop.dropped;
+
+        // full_digest_interval never triggers a full digest, so a full STABILITY is only sent when C asks for it
+        for(int i=0; i < 100 && drop.full_after_drop == 0; i++) {
+            for(int j=0; j < NUM_MSGS; j++)
+                a.send(null, j);
+            Util.sleep(100);
+        }
+        assert drop.full_after_drop > 0 : "C didn't receive a full STABILITY message after missing a delta";
+        assert stable_c.getDeltaDigestsDiscarded() > 0;
+    }
+
+
+    /** Sends NUM_MSGS messages from A and runs STABLE rounds until all members have purged them */
+    protected void sendAndWaitForStability() throws Exception {
+        for(int i=0; i < NUM_MSGS; i++)
+            a.send(null, i);
+        long seqno=((NAKACK2)a.getProtocolStack().findProtocol(NAKACK2.class)).getCurrentSeqno();
+        for(int i=0; i < 50 && !allPurged(seqno); i++) {
+            for(JChannel ch: channels()) {
+                STABLE stable=ch.getProtocolStack().findProtocol(STABLE.class);
+                stable.gc();
+            }
+            Util.sleep(100);
+        }
+        assert allPurged(seqno) : String.format("expected all members to have purged %s#%d", a.getAddress(), seqno);
+    }
+
+    /** Returns true if all members have purged the messages from A up to seqno */
+    protected boolean allPurged(long seqno) {
+        for(JChannel ch: channels()) {
+            NAKACK2 nak=ch.getProtocolStack().findProtocol(NAKACK2.class);
+            if(nak.getWindow(a.getAddress()).getLow() < seqno)
+                return false;
+        }
+        return true;
+    }
+
+    protected JChannel[] channels() {
+        return new JChannel[]{a, b, c};
+    }
+
+    /** Creates a member; if desired_avg_gossip is 0, STABLE rounds are only run by calling gc() */
+    protected static JChannel create(String name, int full_digest_interval, long desired_avg_gossip) throws Exception {
+        return new JChannel(new SHARED_LOOPBACK(),
+                            new SHARED_LOOPBACK_PING(),
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE().deltaDigests(true).setValue("full_digest_interval", full_digest_interval)
+                              .setValue("desired_avg_gossip", desired_avg_gossip).setValue("stability_delay", 50L),
+                            new GMS().joinTimeout(1000))
+          .name(name).connect(STABLE_DeltaDigestTest.class.getSimpleName());
+    }
+
+
+    /** Drops the first delta STABILITY message and counts the full STABILITY messages received after that */
+    protected static class DropStability extends Protocol {
+        protected volatile boolean dropped;
+        protected volatile int     full_after_drop;
+
+        public Object up(Message msg) {
+            return drop(msg)? null : up_prot.up(msg);
+        }
+
+        public void up(MessageBatch batch) {
+            batch.remove(this::drop);
+            if(!batch.isEmpty())
+                up_prot.up(batch);
+        }
+
+        protected synchronized boolean drop(Message msg) {
+            STABLE.StableHeader hdr=msg.getHeader(STABLE_ID);
+            if(hdr == null || hdr.getType() != STABLE.StableHeader.STABILITY)
+                return false;
+            if(dropped) {
+                if(!hdr.isDelta())
+                    full_after_drop++;
+                return false;
+            }
+            return hdr.isDelta() && (dropped=true);
+        }
+    }
+}
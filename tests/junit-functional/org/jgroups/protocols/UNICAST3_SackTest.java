@@ -0,0 +1,130 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.stack.Protocol;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests selective acks (selective_acks=true) in {@link UNICAST3}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class UNICAST3_SackTest {
+    protected JChannel              a, b;
+    protected UNICAST3              uni_a, uni_b;
+    protected DropData              drop;
+    protected MyReceiver<Integer>   receiver;
+    protected static final short    UNICAST3_ID=ClassConfigurator.getProtocolId(UNICAST3.class);
+    protected static final int      NUM_MSGS=100;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        uni_a=a.getProtocolStack().findProtocol(UNICAST3.class);
+        uni_b=b.getProtocolStack().findProtocol(UNICAST3.class);
+        b.setReceiver(receiver=new MyReceiver<>());
+        b.getProtocolStack().insertProtocol(drop=new DropData(), ProtocolStack.Position.BELOW, UNICAST3.class);
+    }
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+
+    /** A message in the middle is dropped: the selective acks of B make A resend it */
+    public void testMissingMessage() throws Exception {
+        drop.drop(5, 1);
+        send();
+        checkReception();
+        assert uni_b.sacks_sent.sum() > 0 && uni_a.sacks_received.sum() > 0;
+        assert uni_b.xmit_reqs_sent.sum() == 0 : "retransmit requests are replaced by selective acks";
+        assert uni_a.xmit_rsps_sent.sum() > 0;
+    }
+
+    /**
+     * A message in the middle is dropped repeatedly. As B reported the highest sent message as received, A doesn't
+     * resend it, but only the missing message
+     */
+    public void testHighestSentIsNotResent() throws Exception {
+        drop.drop(5, 10);
+        send();
+        checkReception();
+        assert drop.dropped() == 10;
+        assert uni_a.xmit_rsps_sent.sum() >= 10;
+        // the highest sent message may be resent before A receives the first selective ack
+        assert uni_a.getNumXmits() <= 1 : "highest sent message was resent " + uni_a.getNumXmits() + " times";
+    }
+
+    /** The last message is dropped: B has no gaps, so A resends it as the highest sent message */
+    public void testLastMessageDropped() throws Exception {
+        drop.drop(NUM_MSGS, 1);
+        send();
+        checkReception();
+        assert uni_a.getNumXmits() > 0;
+    }
+
+
+    protected void send() throws Exception {
+        Address target=b.getAddress();
+        for(int i=1; i <= NUM_MSGS; i++)
+            a.send(target, i);
+    }
+
+    protected void checkReception() {
+        List<Integer> list=receiver.list();
+        for(int i=0; i < 50 && list.size() < NUM_MSGS; i++)
+            Util.sleep(200);
+        List<Integer> expected=IntStream.rangeClosed(1, NUM_MSGS).boxed().collect(Collectors.toList());
+        assert list.equals(expected) : String.format("expected %d messages, got %d: %s", NUM_MSGS, list.size(), list);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        return new JChannel(new SHARED_LOOPBACK(),
+                            new SHARED_LOOPBACK_PING(),
+                            new UNICAST3().setValue("selective_acks", true).setValue("xmit_interval", 100L))
+          .name(name).connect(UNICAST3_SackTest.class.getSimpleName());
+    }
+
+
+    /** Drops the unicast message with a given seqno a number of times */
+    protected static class DropData extends Protocol {
+        protected volatile long seqno;
+        protected int           times, dropped;
+
+        protected synchronized DropData drop(long seqno, int times) {
+            this.seqno=seqno;
+            this.times=times;
+            return this;
+        }
+
+        protected synchronized int dropped() {return dropped;}
+
+        public Object up(Message msg) {
+            return drop(msg)? null : up_prot.up(msg);
+        }
+
+        public void up(MessageBatch batch) {
+            batch.remove(this::drop);
+            if(!batch.isEmpty())
+                up_prot.up(batch);
+        }
+
+        protected synchronized boolean drop(Message msg) {
+            UnicastHeader3 hdr=msg.getHeader(UNICAST3_ID);
+            if(hdr == null || hdr.type() != UnicastHeader3.DATA || hdr.seqno() != seqno || dropped >= times)
+                return false;
+            dropped++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Tests retransmission of messages from the off-heap stores of {@link NAKACK2} and {@link UNICAST3}
+ * (xmit_store_max_bytes > 0)
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class XmitStoreTest {
+    protected static final int NUM_MSGS=500, SIZE=1000;
+    protected JChannel         a, b;
+    protected MyReceiver<Message> receiver;
+
+    @AfterMethod protected void destroy() {Util.close(b,a);}
+
+    public void testMulticastRetransmission() throws Exception {
+        setup(1 << 20, 10 << 20);
+        for(int i=1; i <= NUM_MSGS; i++)
+            a.send(createMessage(null, i));
+        NAKACK2 nak=a.getProtocolStack().findProtocol(NAKACK2.class);
+        assert nak.getXmitStoreBytes() > 0 && nak.getXmitStoreAllocatedBytes() > 0;
+        assert nak.getXmitStoreHeapMessages() == 0;
+        checkReception();
+        waitUntilStoreIsEmpty(nak::getXmitStoreBytes, () -> stable(a, b));
+    }
+
+    public void testUnicastRetransmission() throws Exception {
+        setup(1 << 20, 10 << 20);
+        Address target=b.getAddress();
+        for(int i=1; i <= NUM_MSGS; i++)
+            a.send(createMessage(target, i));
+        UNICAST3 unicast=a.getProtocolStack().findProtocol(UNICAST3.class);
+        assert unicast.getXmitStoreAllocatedBytes() > 0;
+        checkReception();
+        waitUntilStoreIsEmpty(unicast::getXmitStoreBytes, null);
+    }
+
+    /** Messages which don't fit into the off-heap store are kept on the heap and are retransmitted, too */
+    public void testMaxBytesExceeded() throws Exception {
+        setup(16 * 1024, 32 * 1024);
+        for(int i=1; i <= NUM_MSGS; i++)
+            a.send(createMessage(null, i));
+        NAKACK2 nak=a.getProtocolStack().findProtocol(NAKACK2.class);
+        assert nak.getXmitStoreAllocatedBytes() == 32 * 1024;
+        assert nak.getXmitStoreHeapMessages() > 0;
+        checkReception();
+    }
+
+
+    protected void setup(int slab_size, long max_bytes) throws Exception {
+        a=create("A", slab_size, max_bytes);
+        b=create("B", slab_size, max_bytes);
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        b.setReceiver(receiver=new MyReceiver<Message>().rawMsgs(true));
+        // B drops 30% of the messages received from A, which A needs to retransmit
+        DISCARD discard=new DISCARD().setUpDiscardRate(0.3);
+        b.getProtocolStack().insertProtocol(discard, ProtocolStack.Position.ABOVE, TP.class);
+    }
+
+    protected void checkReception() throws Exception {
+        List<Message> list=receiver.list();
+        for(int i=0; i < 30 && list.size() < NUM_MSGS; i++) {
+            stable(a, b); // the STABLE digests make B request the last message(s) if they were dropped
+            Util.sleep(500);
+        }
+        b.getProtocolStack().removeProtocol(DISCARD.class);
+        assert list.size() == NUM_MSGS : String.format("expected %d messages, got %d", NUM_MSGS, list.size());
+        for(int i=0; i < NUM_MSGS; i++) {
+            Message msg=list.get(i);
+            int num=Bits.readInt(msg.getRawBuffer(), msg.getOffset());
+            assert num == i+1 : String.format("expected %d, got %d", i+1, num);
+            assert msg.getLength() == SIZE;
+        }
+    }
+
+    /** Makes all members send a STABLE message, so that a STABILITY message is sent */
+    protected static void stable(JChannel... channels) {
+        for(JChannel ch: channels) {
+            STABLE stable=ch.getProtocolStack().findProtocol(STABLE.class);
+            stable.gc();
+        }
+    }
+
+    protected static void waitUntilStoreIsEmpty(LongSupplier bytes, Runnable action) {
+        for(int i=0; i < 20 && bytes.getAsLong() > 0; i++) {
+            if(action != null)
+                action.run();
+            Util.sleep(500);
+        }
+        assert bytes.getAsLong() == 0 : "bytes in store: " + bytes.getAsLong();
+    }
+
+    protected static Message createMessage(Address dest, int num) {
+        byte[] buf=new byte[SIZE];
+        Bits.writeInt(num, buf, 0);
+        return new Message(dest, buf);
+    }
+
+    protected static JChannel create(String name, int slab_size, long max_bytes) throws Exception {
+        return new JChannel(new SHARED_LOOPBACK(),
+                            new SHARED_LOOPBACK_PING(),
+                            new NAKACK2().setValue("xmit_store_slab_size", slab_size)
+                              .setValue("xmit_store_max_bytes", max_bytes).setValue("xmit_interval", 100L),
+                            new UNICAST3().setValue("xmit_store_slab_size", slab_size)
+                              .setValue("xmit_store_max_bytes", max_bytes).setValue("xmit_interval", 100L),
+                            new STABLE().setValue("max_bytes", 50_000L),
+                            new GMS().setValue("print_local_addr", false)).name(name).connect("XmitStoreTest");
+    }
+}
@@ -0,0 +1,206 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.View;
+import org.jgroups.protocols.AdaptiveBundler;
+import org.jgroups.protocols.TP;
+import org.jgroups.util.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link AdaptiveBundler}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class AdaptiveBundlerTest {
+    protected static final Address A=Util.createRandomAddress("A"), B=Util.createRandomAddress("B");
+    protected MockTransport        transport;
+    protected AdaptiveBundler      bundler;
+
+    @BeforeMethod protected void setup() {
+        transport=new MockTransport();
+        bundler=new AdaptiveBundler(1024).interval(100).highRate(2000).lowRate(500);
+        bundler.init(transport);
+        bundler.start();
+    }
+
+    @AfterMethod protected void destroy() {
+        bundler.stop();
+        transport.getTimer().stop();
+    }
+
+    public void testSwitching() throws Exception {
+        assert bundler.getMode().equals("DIRECT");
+        bundler.send(new Message(A, 0));
+        assert transport.size() == 1; // sent directly by the caller
+
+        // high load: bundling needs to be switched on
+        int seqno=1;
+        for(int i=0; i < 20 && bundler.getNumSwitchesToBundling() == 0; i++) {
+            for(int j=0; j < 1000; j++)
+                bundler.send(new Message(A, seqno++));
+            Util.sleep(50);
+        }
+        assert bundler.getNumSwitchesToBundling() == 1 : bundler.getStats();
+
+        // no load: bundling is switched off again (on the next send, when the queue has been drained)
+        for(int i=0; i < 20 && !bundler.getMode().equals("DRAINING"); i++)
+            Util.sleep(100);
+        assert bundler.getMode().equals("DRAINING") : bundler.getStats();
+        for(int i=0; i < 20 && bundler.size() > 0; i++)
+            Util.sleep(100);
+        bundler.send(new Message(A, seqno++));
+        assert bundler.getMode().equals("DIRECT");
+        assert bundler.getNumSwitchesToDirect() == 1;
+
+        final int expected=seqno;
+        for(int i=0; i < 20 && transport.size() < expected; i++)
+            Util.sleep(100);
+        List<Message> list=transport.messages();
+        assert list.size() == expected : String.format("expected %d messages, got %d", expected, list.size());
+        for(int i=0; i < list.size(); i++)
+            assert (Integer)list.get(i).getObject() == i;
+    }
+
+    public void testNoSwitchingUnderLowLoad() throws Exception {
+        for(int i=0; i < 10; i++) {
+            bundler.send(new Message(A, i));
+            Util.sleep(30);
+        }
+        assert bundler.getMode().equals("DIRECT");
+        assert bundler.getNumSwitchesToBundling() == 0;
+        assert transport.size() == 10;
+    }
+
+    /**
+     * The bundler thread has taken a message from the queue, but not yet sent it, when bundling is switched off.
+     * Subsequent messages must not be sent directly before it
+     */
+    public void testOrderingWhenSwitchingToDirect() throws Exception {
+        bundler.stop();
+        ControlledBundler b=new ControlledBundler();
+        bundler=b;
+        b.interval(60_000).init(transport); // the mode is only changed by the test
+        b.start();
+        b.mode("BUNDLING");
+        b.send(new SlowMessage(A, 0)); // delays the bundler thread between taking the message and sending it
+        for(int i=0; i < 20 && b.size() > 0; i++) // the bundler thread has taken the message
+            Util.sleep(10);
+        b.mode("DRAINING");
+        for(int i=1; i <= 10; i++)
+            b.send(new Message(A, i));
+        for(int i=0; i < 20 && transport.size() < 11; i++)
+            Util.sleep(100);
+        List<Message> list=transport.messages();
+        assert list.size() == 11 : String.format("expected %d messages, got %d", 11, list.size());
+        for(int i=0; i < list.size(); i++)
+            assert (Integer)list.get(i).getObject() == i : "messages were reordered: " + print(list);
+
+        b.send(new Message(A, 11)); // all queued messages have been sent: bundling is switched off
+        assert b.getMode().equals("DIRECT") && transport.size() == 12;
+    }
+
+    /** Messages queued to a member which left are dropped by a view change; they must not prevent the switch to DIRECT */
+    public void testSwitchToDirectAfterViewChange() throws Exception {
+        bundler.stop();
+        ControlledBundler b=new ControlledBundler();
+        bundler=b;
+        transport.setBundlerLingerTime(10_000_000); // 10s: the messages to B are not sent before the view change
+        b.interval(60_000).init(transport);
+        b.start();
+        b.mode("BUNDLING");
+        long size=0;
+        for(int i=0; i < 5; i++) {
+            Message msg=new Message(B, i);
+            size+=msg.size();
+            b.send(msg);
+        }
+        for(int i=0; i < 20 && b.size() < size; i++) // the bundler thread has added all messages to its bundle
+            Util.sleep(50);
+        assert b.size() == size;
+
+        b.viewChange(View.create(A, 2, A)); // B left: its messages are dropped
+        b.mode("DRAINING");
+        b.send(new Message(A, 0));
+        assert b.getMode().equals("DIRECT") : b.getStats();
+        assert transport.size() == 1 && transport.messages().get(0).getDest().equals(A);
+    }
+
+    protected static String print(List<Message> list) {
+        StringBuilder sb=new StringBuilder();
+        for(Message msg: list)
+            sb.append((Integer)msg.getObject()).append(" ");
+        return sb.toString();
+    }
+
+
+    /** Allows the test to set the mode */
+    protected static class ControlledBundler extends AdaptiveBundler {
+        protected void mode(String m) {setMode(Mode.valueOf(m));}
+    }
+
+    /** Blocks the bundler thread for some time when it computes the size of the message */
+    protected static class SlowMessage extends Message {
+        protected boolean delayed;
+
+        public SlowMessage(Address dest, Object obj) {
+            super(dest, obj);
+        }
+
+        public long size() {
+            if(!delayed && Thread.currentThread().getName().contains("Bundler")) {
+                delayed=true;
+                Util.sleep(500);
+            }
+            return super.size();
+        }
+    }
+
+    protected static class MockTransport extends TP {
+        protected final List<Message> msgs=new ArrayList<>();
+
+        public MockTransport() {
+            this.cluster_name=new AsciiString("mock");
+            thread_factory=new DefaultThreadFactory("", false);
+            timer=new TimeScheduler3();
+        }
+
+        public boolean            supportsMulticasting() {return true;}
+        public String             getInfo()              {return null;}
+        protected PhysicalAddress getPhysicalAddress()   {return null;}
+
+        public void sendMulticast(byte[] data, int offset, int length) throws Exception {
+            add(data, offset, length);
+        }
+
+        protected void sendToSingleMember(Address dest, byte[] buf, int offset, int length) throws Exception {
+            add(buf, offset, length);
+        }
+
+        public void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception {}
+
+        protected synchronized int           size()     {return msgs.size();}
+        protected synchronized List<Message> messages() {return new ArrayList<>(msgs);}
+
+        protected void add(byte[] buf, int offset, int length) throws Exception {
+            ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf, offset, length);
+            in.readShort(); // version
+            byte flags=in.readByte();
+            List<Message> list=(flags & LIST) == LIST? Util.readMessageList(in, (short)0)
+              : Collections.singletonList(Util.readMessage(in));
+            synchronized(this) {
+                msgs.addAll(list);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.util.AsciiString;
+import org.jgroups.util.BatchCoalescer;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.Util;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link BatchCoalescer}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class BatchCoalescerTest {
+    protected static final Address     A=Util.createRandomAddress("A"), B=Util.createRandomAddress("B");
+    protected static final AsciiString CLUSTER=new AsciiString("cluster");
+    protected final List<MessageBatch> batches=new ArrayList<>();
+    protected BatchCoalescer           coalescer;
+
+    @BeforeMethod protected void setup() {
+        batches.clear();
+        coalescer=new BatchCoalescer(10, 60_000, (batch, oob, internal) -> batches.add(batch));
+    }
+
+    public void testMergeBatchesFromSameSender() {
+        coalescer.add(create(A, 3, MessageBatch.Mode.REG), false, false);
+        coalescer.add(create(A, 3, MessageBatch.Mode.REG), false, false);
+        assert batches.isEmpty();
+        coalescer.flush();
+        assert batches.size() == 1 && batches.get(0).size() == 6;
+        assert coalescer.getNumBatchesAdded() == 2 && coalescer.getNumBatchesPassed() == 1;
+    }
+
+    public void testDifferentSendersAndModes() {
+        coalescer.add(create(A, 2, MessageBatch.Mode.REG), false, false);
+        coalescer.add(create(B, 2, MessageBatch.Mode.REG), false, false);
+        coalescer.add(create(A, 2, MessageBatch.Mode.OOB), true, false);
+        coalescer.flush();
+        assert batches.size() == 3;
+        batches.forEach(b -> {assert b.size() == 2;});
+    }
+
+    public void testMaxSize() {
+        for(int i=0; i < 4; i++)
+            coalescer.add(create(A, 3, MessageBatch.Mode.REG), false, false);
+        assert batches.size() == 1 && batches.get(0).size() == 12;
+        coalescer.flush();
+        assert batches.size() == 1; // nothing pending
+    }
+
+    public void testMaxTime() {
+        coalescer=new BatchCoalescer(100, 1, (batch, oob, internal) -> batches.add(batch));
+        coalescer.add(create(A, 3, MessageBatch.Mode.REG), false, false);
+        coalescer.flushExpired();
+        if(batches.isEmpty()) {
+            Util.sleep(10);
+            coalescer.flushExpired();
+        }
+        assert batches.size() == 1 && batches.get(0).size() == 3;
+    }
+
+    public void testSingleMessages() {
+        Message msg=new Message(null).src(A);
+        assert !coalescer.add(msg, CLUSTER, true, false, false); // no pending batch
+        coalescer.add(create(A, 3, MessageBatch.Mode.REG), false, false);
+        assert coalescer.add(new Message(null, 4).src(A), CLUSTER, true, false, false);
+        assert !coalescer.add(new Message(null, 5).src(A), CLUSTER, true, true, false); // different mode
+        assert !coalescer.add(new Message(null, 5).src(A), new AsciiString("other"), true, false, false);
+        coalescer.flush();
+        assert batches.size() == 1 && batches.get(0).size() == 4;
+        assert (Integer)batches.get(0).last().getObject() == 4;
+        assert !coalescer.add(msg, CLUSTER, true, false, false); // the pending batch was flushed
+    }
+
+    /** The entries of keys are removed once their batches have been passed on */
+    public void testKeysAreRemoved() {
+        coalescer.add(create(A, 3, MessageBatch.Mode.REG), false, false);
+        coalescer.add(create(B, 3, MessageBatch.Mode.OOB), true, false);
+        assert coalescer.getNumPendingKeys() == 2;
+        for(int i=0; i < 3; i++)
+            coalescer.add(create(A, 3, MessageBatch.Mode.REG), false, false); // A's batch is full and passed on
+        assert batches.size() == 1 && coalescer.getNumPendingKeys() == 1;
+        coalescer.flush();
+        assert batches.size() == 2 && coalescer.getNumPendingKeys() == 0;
+        coalescer.add(create(A, 3, MessageBatch.Mode.REG), false, false);
+        coalescer.flush();
+        assert batches.size() == 3 && coalescer.getNumPendingKeys() == 0;
+    }
+
+    protected static MessageBatch create(Address sender, int num, MessageBatch.Mode mode) {
+        MessageBatch batch=new MessageBatch(null, sender, CLUSTER, true, mode, num);
+        for(int i=0; i < num; i++)
+            batch.add(new Message(null).src(sender));
+        return batch;
+    }
+}
@@ -0,0 +1,120 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.util.*;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests {@link BufferPool}, {@link PooledBuffer} and messages whose payloads point into pooled receive buffers
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class BufferPoolTest {
+    protected static final Address A=Util.createRandomAddress("A"), B=Util.createRandomAddress("B");
+
+    public void testGetAndRelease() {
+        BufferPool pool=new BufferPool(2, 100);
+        PooledBuffer buf=pool.get();
+        assert buf.buffer().length == 100;
+        assert buf.refCount() == 1;
+        assert pool.size() == 0 && pool.misses() == 1;
+        buf.retain();
+        assert !buf.release();
+        assert pool.size() == 0;
+        assert buf.release();
+        assert pool.size() == 1;
+
+        PooledBuffer buf2=pool.get();
+        assert buf2 == buf;
+        assert buf2.refCount() == 1;
+        assert pool.hits() == 1;
+    }
+
+    public void testPoolFull() {
+        BufferPool pool=new BufferPool(2, 10);
+        PooledBuffer[] bufs={pool.get(), pool.get(), pool.get()};
+        Arrays.stream(bufs).forEach(PooledBuffer::release);
+        assert pool.size() == 2;
+        assert pool.drops() == 1;
+    }
+
+    @Test(expectedExceptions=IllegalStateException.class)
+    public void testReleaseTooOften() {
+        PooledBuffer buf=new BufferPool(1, 10).get();
+        buf.release();
+        buf.release();
+    }
+
+    public void testMessageBatchFromPooledBuffer() throws Exception {
+        BufferPool pool=new BufferPool(4, 1000);
+        PooledBuffer buf=writeMessages(pool, "hello", "world", "from", "A");
+        int offset=Global.SHORT_SIZE + Global.BYTE_SIZE; // skip version and flags
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf.buffer(), offset, buf.buffer().length - offset);
+        MessageBatch batch=Util.readMessageBatch(in, false, buf)[0];
+        assert batch.size() == 4;
+        assert buf.refCount() == 5; // 1 for us and 1 for each message
+        for(Message msg: batch) {
+            assert msg.hasPooledBuffer();
+            assert msg.getRawBuffer() == buf.buffer();
+        }
+        buf.release();
+
+        Message first=batch.first();
+        first.detachPooledBuffer();
+        assert !first.hasPooledBuffer() && first.getRawBuffer() != buf.buffer();
+        assert first.getObject().equals("hello");
+        assert buf.refCount() == 3;
+
+        Message copy=batch.last().copy();
+        assert !copy.hasPooledBuffer() && copy.getRawBuffer() != buf.buffer();
+
+        for(Message msg: batch)
+            msg.releasePooledBuffer();
+        assert buf.refCount() == 0;
+        assert pool.size() == 1;
+
+        // the detached message and the copy are not affected when the pooled buffer is reused
+        Arrays.fill(pool.get().buffer(), (byte)0);
+        assert first.getObject().equals("hello");
+        assert copy.getObject().equals("A");
+        assert batch.last().getRawBuffer() == null; // cleared on release
+    }
+
+    public void testSingleMessageFromPooledBuffer() throws Exception {
+        BufferPool pool=new BufferPool(4, 1000);
+        PooledBuffer buf=pool.get();
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(100);
+        new Message(B, "hello").setSrc(A).writeTo(out);
+        System.arraycopy(out.buffer(), 0, buf.buffer(), 0, out.position());
+
+        Message msg=new Message(false);
+        msg.readFrom(new ByteArrayDataInputStream(buf.buffer(), 0, out.position()), buf);
+        assert msg.hasPooledBuffer();
+        assert msg.getObject().equals("hello");
+        assert buf.refCount() == 2;
+        msg.setBuffer(new byte[10]); // e.g. a protocol replacing the payload
+        msg.releasePooledBuffer();
+        assert msg.getLength() == 10;
+        assert buf.refCount() == 1;
+    }
+
+    protected static PooledBuffer writeMessages(BufferPool pool, String ... payloads) throws Exception {
+        List<Message> list=new ArrayList<>();
+        for(String payload: payloads)
+            list.add(new Message(B, payload).setSrc(A));
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(512);
+        Util.writeMessageListHeader(B, A, null, list.size(), out, false);
+        for(Message msg: list)
+            msg.writeToNoAddrs(A, out, (short)0);
+        PooledBuffer buf=pool.get();
+        System.arraycopy(out.buffer(), 0, buf.buffer(), 0, out.position());
+        return buf;
+    }
+}
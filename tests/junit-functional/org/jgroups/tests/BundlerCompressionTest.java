@@ -0,0 +1,148 @@
+package org.jgroups.tests;
+
+import org.jgroups.*;
+import org.jgroups.protocols.SHARED_LOOPBACK;
+import org.jgroups.protocols.SHARED_LOOPBACK_PING;
+import org.jgroups.protocols.TP;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.Bits;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests compression of message lists by the bundlers ({@link TP#useBundlerCompression()})
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class BundlerCompressionTest {
+    protected static final int NUM_MSGS=5000;
+    protected JChannel         a, b;
+
+    @AfterMethod protected void destroy() {Util.close(b,a);}
+
+    /** A compresses its message lists, B doesn't, but uncompresses the lists received from A */
+    public void testCompression() throws Exception {
+        a=create("A", true, 500);
+        b=create("B", false, 500);
+        MyReceiver ra=new MyReceiver(), rb=new MyReceiver();
+        a.setReceiver(ra);
+        b.setReceiver(rb);
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        send(a, b.getAddress());
+        check(ra, rb);
+
+        TP tp=a.getProtocolStack().getTransport();
+        assert tp.getNumBundlesCompressed() > 0;
+        assert tp.getNumBytesCompressed() < tp.getNumBytesUncompressed()
+          : String.format("compressed: %d, uncompressed: %d", tp.getNumBytesCompressed(), tp.getNumBytesUncompressed());
+        assert ((TP)b.getProtocolStack().getTransport()).getNumBundlesCompressed() == 0;
+    }
+
+    /** Message lists smaller than the min size are not compressed */
+    public void testMinSize() throws Exception {
+        a=create("A", true, 1_000_000);
+        b=create("B", true, 1_000_000);
+        MyReceiver ra=new MyReceiver(), rb=new MyReceiver();
+        a.setReceiver(ra);
+        b.setReceiver(rb);
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        send(a, b.getAddress());
+        check(ra, rb);
+        for(JChannel ch: new JChannel[]{a, b})
+            assert ((TP)ch.getProtocolStack().getTransport()).getNumBundlesCompressed() == 0;
+    }
+
+    /** Compression continues to work after the bundler has been stopped (which ends its deflater) and restarted */
+    public void testRestart() throws Exception {
+        a=create("A", true, 500);
+        b=create("B", true, 500);
+        TP tp=a.getProtocolStack().getTransport();
+        tp.getBundler().stop();
+        tp.getBundler().start();
+        MyReceiver ra=new MyReceiver(), rb=new MyReceiver();
+        a.setReceiver(ra);
+        b.setReceiver(rb);
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        send(a, b.getAddress());
+        check(ra, rb);
+        assert tp.getNumBundlesCompressed() > 0;
+    }
+
+    /** Compressed message lists with invalid sizes are dropped before any buffer is allocated for them */
+    public void testInvalidSizes() throws Exception {
+        a=create("A", true, 500);
+        MyReceiver ra=new MyReceiver();
+        a.setReceiver(ra);
+        TP tp=a.getProtocolStack().getTransport();
+        int[][] sizes={{Integer.MAX_VALUE, 10}, {10, 20}, {-1, 10}, {100, -1}, {1000, 500}}; // uncompressed, compressed
+        for(int[] s: sizes) {
+            byte[] buf=new byte[Global.SHORT_SIZE + Global.BYTE_SIZE + Global.INT_SIZE * 2 + 10];
+            Bits.writeShort(Version.version, buf, 0);
+            buf[Global.SHORT_SIZE]=TP.LIST | TP.MULTICAST | TP.COMPRESSED;
+            Bits.writeInt(s[0], buf, Global.SHORT_SIZE + Global.BYTE_SIZE);
+            Bits.writeInt(s[1], buf, Global.SHORT_SIZE + Global.BYTE_SIZE + Global.INT_SIZE);
+            tp.receive(Util.createRandomAddress("X"), buf, 0, buf.length);
+        }
+        a.send(null, "multicast message #1");
+        for(int i=0; i < 20 && ra.total() < 1; i++)
+            Util.sleep(100);
+        assert ra.total() == 1 && ra.bad() == 0;
+    }
+
+
+    protected static void send(JChannel ch, Address dest) throws Exception {
+        for(int i=1; i <= NUM_MSGS; i++) {
+            ch.send(null, "multicast message #" + i);
+            ch.send(dest, "unicast message #" + i);
+        }
+    }
+
+    /** Both members receive all multicasts in order, B also receives all unicasts in order */
+    protected static void check(MyReceiver ra, MyReceiver rb) {
+        for(int i=0; i < 30 && (ra.total() < NUM_MSGS || rb.total() < NUM_MSGS * 2); i++)
+            Util.sleep(500);
+        assert ra.bad() == 0 && rb.bad() == 0 : String.format("A: %d, B: %d messages out of order", ra.bad(), rb.bad());
+        assert ra.total() == NUM_MSGS : "A received " + ra.total() + " messages";
+        assert rb.total() == NUM_MSGS * 2 : "B received " + rb.total() + " messages";
+    }
+
+    protected static JChannel create(String name, boolean compression, int min_size) throws Exception {
+        JChannel ch=new JChannel(new SHARED_LOOPBACK().useBundlerCompression(compression).setBundlerCompressionMinSize(min_size),
+                                 new SHARED_LOOPBACK_PING(),
+                                 new NAKACK2(),
+                                 new UNICAST3(),
+                                 new STABLE(),
+                                 new GMS().setValue("print_local_addr", false))
+          .name(name);
+        ch.connect("BundlerCompressionTest");
+        return ch;
+    }
+
+
+    /** Checks that the multicasts and unicasts are received in order */
+    protected static class MyReceiver extends ReceiverAdapter {
+        protected final Map<String,Integer> last=new ConcurrentHashMap<>();
+        protected final AtomicInteger       total=new AtomicInteger(), bad=new AtomicInteger();
+
+        public int total() {return total.get();}
+        public int bad()   {return bad.get();}
+
+        public void receive(Message msg) {
+            String s=msg.getObject();
+            int index=s.indexOf('#'), num=Integer.parseInt(s.substring(index+1));
+            Integer prev=last.put(s.substring(0, index), num);
+            if(num != (prev == null? 1 : prev + 1))
+                bad.incrementAndGet();
+            total.incrementAndGet();
+        }
+    }
+}
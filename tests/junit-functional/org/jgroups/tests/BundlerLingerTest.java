@@ -0,0 +1,157 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.protocols.PerDestinationBundler;
+import org.jgroups.protocols.TP;
+import org.jgroups.protocols.TransferQueueBundler;
+import org.jgroups.util.AsciiString;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.DefaultThreadFactory;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the linger time of bundlers ({@link TP#getBundlerLingerTime()})
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class BundlerLingerTest {
+    protected static final Address  A=Util.createRandomAddress("A"), B=Util.createRandomAddress("B");
+    protected TransferQueueBundler  bundler;
+
+    @AfterMethod protected void destroy() {
+        if(bundler != null)
+            bundler.stop();
+    }
+
+    /** A single message needs to be sent after the linger time, even if no other messages are sent */
+    public void testSingleMessage() throws Exception {
+        MockTransport transport=create(500_000); // 500 ms
+        long start=System.nanoTime();
+        bundler.send(new Message(A, 1));
+        Util.sleep(100);
+        assert transport.size() == 0 : "message should not have been sent yet";
+        for(int i=0; i < 20 && transport.size() == 0; i++)
+            Util.sleep(100);
+        long time=(System.nanoTime() - start) / 1_000_000;
+        assert transport.size() == 1;
+        assert time >= 450 : "message was sent after " + time + " ms";
+    }
+
+    /** Messages sent within the linger time need to be sent as a single bundle per destination */
+    public void testBundling() throws Exception {
+        MockTransport transport=create(500_000);
+        for(int i=1; i <= 10; i++) {
+            bundler.send(new Message(A, i));
+            bundler.send(new Message(B, i));
+        }
+        for(int i=0; i < 20 && transport.size() < 20; i++)
+            Util.sleep(100);
+        assert transport.size() == 20;
+        assert transport.sends == 2 : "expected 2 sends (one per destination), but got " + transport.sends;
+        for(Address dest: new Address[]{A, B}) {
+            List<Message> list=transport.messages(dest);
+            for(int i=0; i < list.size(); i++)
+                assert (Integer)list.get(i).getObject() == i + 1;
+        }
+        assert bundler.getStats().get("sends_because_linger") != null;
+    }
+
+    /** The max bundle size is still honored when lingering */
+    public void testFullBundle() throws Exception {
+        MockTransport transport=new MockTransport();
+        transport.setMaxBundleSize(2000);
+        create(transport, 10_000_000); // 10 s
+        for(int i=1; i <= 10; i++)
+            bundler.send(new Message(A, new byte[500]));
+        for(int i=0; i < 20 && transport.size() < 6; i++)
+            Util.sleep(100);
+        assert transport.size() >= 6 : "full bundles should have been sent, but only got " + transport.size();
+    }
+
+    public void testPerDestinationBundler() throws Exception {
+        MockTransport transport=new MockTransport();
+        transport.setBundlerLingerTime(200_000);
+        PerDestinationBundler pd=new PerDestinationBundler(2, 1024);
+        pd.init(transport);
+        pd.start();
+        try {
+            for(int i=1; i <= 5; i++)
+                pd.send(new Message(A, i));
+            for(int i=0; i < 20 && transport.size() < 5; i++)
+                Util.sleep(100);
+            assert transport.size() == 5 && transport.sends == 1;
+        }
+        finally {
+            pd.stop();
+        }
+    }
+
+    protected MockTransport create(long linger_time) {
+        return create(new MockTransport(), linger_time);
+    }
+
+    protected MockTransport create(MockTransport transport, long linger_time) {
+        transport.setBundlerLingerTime(linger_time);
+        bundler=new TransferQueueBundler(1024);
+        bundler.init(transport);
+        bundler.start();
+        return transport;
+    }
+
+
+    protected static class MockTransport extends TP {
+        protected final List<Message> msgs=new ArrayList<>();
+        protected volatile int        sends;
+
+        public MockTransport() {
+            this.cluster_name=new AsciiString("mock");
+            thread_factory=new DefaultThreadFactory("", false);
+        }
+
+        public boolean            supportsMulticasting() {return true;}
+        public String             getInfo()              {return null;}
+        protected PhysicalAddress getPhysicalAddress()   {return null;}
+
+        public void sendMulticast(byte[] data, int offset, int length) throws Exception {
+            add(data, offset, length);
+        }
+
+        protected void sendToSingleMember(Address dest, byte[] buf, int offset, int length) throws Exception {
+            add(buf, offset, length);
+        }
+
+        public void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception {}
+
+        protected synchronized int size() {return msgs.size();}
+
+        protected synchronized List<Message> messages(Address dest) {
+            List<Message> retval=new ArrayList<>();
+            for(Message msg: msgs)
+                if(dest.equals(msg.getDest()))
+                    retval.add(msg);
+            return retval;
+        }
+
+        protected void add(byte[] buf, int offset, int length) throws Exception {
+            ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf, offset, length);
+            in.readShort(); // version
+            byte flags=in.readByte();
+            List<Message> list=(flags & LIST) == LIST? Util.readMessageList(in, (short)0)
+              : Collections.singletonList(Util.readMessage(in));
+            synchronized(this) {
+                msgs.addAll(list);
+                sends++;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.protocols.*;
+import org.jgroups.util.AsciiString;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.DefaultThreadFactory;
+import org.jgroups.util.Util;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests sending of messages via the ByteBuffer path ({@link TP#useByteBuffers()})
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true,dataProvider="createBundler")
+public class ByteBufferBundlerTest {
+    protected static final Address a=Util.createRandomAddress("A"), b=Util.createRandomAddress("B");
+
+    @DataProvider
+    static Object[][] createBundler() {
+        return new Object[][] {
+          {NoBundler.class,          false},
+          {NoBundler.class,          true},
+          {SenderSendsBundler.class, false},
+          {SenderSendsBundler.class, true}
+        };
+    }
+
+    public void testUnicast(Class<? extends Bundler> cl, boolean direct) throws Exception {
+        Bundler bundler=cl.newInstance();
+        MockTransport transport=new MockTransport(direct);
+        bundler.init(transport);
+        for(int i=1; i <= 5; i++)
+            bundler.send(new Message(a, "hello-" + i));
+        List<Message> list=transport.messages(a);
+        assert list.size() == 5;
+        for(int i=0; i < list.size(); i++)
+            assert list.get(i).getObject().equals("hello-" + (i+1));
+        assert transport.messages(null).isEmpty();
+        assert transport.num_byte_buffer_sends > 0;
+    }
+
+    public void testMulticast(Class<? extends Bundler> cl, boolean direct) throws Exception {
+        Bundler bundler=cl.newInstance();
+        MockTransport transport=new MockTransport(direct);
+        bundler.init(transport);
+        bundler.send(new Message(null, "one"));
+        bundler.send(new Message(b, "two"));
+        List<Message> list=transport.messages(null);
+        assert list.size() == 1 && list.get(0).getObject().equals("one");
+        list=transport.messages(b);
+        assert list.size() == 1 && list.get(0).getObject().equals("two");
+    }
+
+    /** Messages exceeding the buffer capacity must be sent via the byte[] path */
+    public void testLargeMessage(Class<? extends Bundler> cl, boolean direct) throws Exception {
+        Bundler bundler=cl.newInstance();
+        MockTransport transport=new MockTransport(direct);
+        transport.setMaxBundleSize(1000);
+        bundler.init(transport);
+        bundler.send(new Message(a, new byte[1500]));
+        assert transport.messages(a).size() == 1;
+        assert transport.messages(a).get(0).getLength() == 1500;
+        assert transport.num_byte_buffer_sends == 0;
+    }
+
+
+    protected static class MockTransport extends TP {
+        protected final List<Message> msgs=new ArrayList<>();
+        protected int                 num_byte_buffer_sends;
+
+        public MockTransport(boolean direct) {
+            this.cluster_name=new AsciiString("mock");
+            thread_factory=new DefaultThreadFactory("", false);
+            useByteBuffers(true).useDirectBuffers(direct);
+        }
+
+        public boolean         supportsMulticasting() {return true;}
+        public String          getInfo()              {return null;}
+        protected PhysicalAddress getPhysicalAddress() {return null;}
+
+        public void sendMulticast(byte[] data, int offset, int length) throws Exception {
+            add(data, offset, length);
+        }
+
+        public void sendMulticast(ByteBuffer data) throws Exception {
+            num_byte_buffer_sends++;
+            add(data);
+        }
+
+        protected void sendToSingleMember(Address dest, byte[] buf, int offset, int length) throws Exception {
+            add(buf, offset, length);
+        }
+
+        protected void sendToSingleMember(Address dest, ByteBuffer buf) throws Exception {
+            num_byte_buffer_sends++;
+            add(buf);
+        }
+
+        public void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception {}
+
+        protected List<Message> messages(Address dest) {
+            List<Message> retval=new ArrayList<>();
+            for(Message msg: msgs)
+                if(msg.getDest() == null? dest == null : msg.getDest().equals(dest))
+                    retval.add(msg);
+            return retval;
+        }
+
+        protected void add(ByteBuffer buf) throws Exception {
+            byte[] tmp=new byte[buf.remaining()];
+            buf.duplicate().get(tmp);
+            add(tmp, 0, tmp.length);
+        }
+
+        protected void add(byte[] buf, int offset, int length) throws Exception {
+            ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf, offset, length);
+            in.readShort(); // version
+            byte flags=in.readByte();
+            if((flags & LIST) == LIST)
+                msgs.addAll(Util.readMessageList(in, (short)0));
+            else
+                msgs.add(Util.readMessage(in));
+        }
+    }
+}
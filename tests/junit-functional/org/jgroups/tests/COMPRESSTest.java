@@ -0,0 +1,224 @@
+package org.jgroups.tests;
+
+import org.jgroups.*;
+import org.jgroups.protocols.COMPRESS;
+import org.jgroups.protocols.SHARED_LOOPBACK;
+import org.jgroups.protocols.SHARED_LOOPBACK_PING;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tests {@link COMPRESS} and its {@link Codec}s
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class COMPRESSTest {
+    protected static final int NUM_MSGS=500;
+    protected JChannel         a, b;
+
+    @AfterMethod protected void destroy() {Util.close(b,a);}
+
+    @DataProvider
+    static Object[][] codecs() {
+        return new Object[][] {
+          {new DeflateCodec()},
+          {new LZCodec()}
+        };
+    }
+
+    @Test(dataProvider="codecs")
+    public void testRoundtrip(Codec codec) throws Exception {
+        byte[] random=new byte[5000];
+        ThreadLocalRandom.current().nextBytes(random);
+        byte[] run=new byte[100_000];
+        Arrays.fill(run, (byte)'x');
+        for(byte[] buf: Arrays.asList(text(1), text(10), text(1000), random, run, new byte[0], new byte[]{1,2,3}))
+            roundtrip(codec, buf);
+
+        byte[] compressible=text(100);
+        assert compress(codec, compressible).length < compressible.length / 2;
+        assert codec.compress(compressible, 0, compressible.length, new byte[10], 0, 10) == -1
+          : "compression should fail if the compressed data doesn't fit";
+    }
+
+    @Test(dataProvider="codecs")
+    public void testDictionary(Codec codec) throws Exception {
+        byte[] buf="{\"name\": \"Bela\", \"city\": \"Kreuzlingen\", \"country\": \"Switzerland\"}".getBytes();
+        int size=compress(codec, buf).length;
+        codec.dictionary(text(20));
+        int size_with_dict=roundtrip(codec, buf);
+        assert size_with_dict < size : String.format("with dictionary: %d, without: %d", size_with_dict, size);
+    }
+
+    /**
+     * Matches can start in the dictionary and continue in the data; the dictionary (and its seeded hash table) is
+     * reused across compressions, which therefore yield the same result for the same data
+     */
+    public void testDictionaryMatchesIntoData() throws Exception {
+        byte[] dict=text(5);
+        LZCodec codec=(LZCodec)new LZCodec().dictionary(dict);
+        byte[] tail=Arrays.copyOfRange(dict, dict.length - 100, dict.length), run=new byte[1000];
+        Arrays.fill(run, dict[dict.length-1]);
+        byte[] spanning=new byte[tail.length * 3]; // the dictionary's tail repeated: matches span the boundary
+        for(int i=0; i < 3; i++)
+            System.arraycopy(tail, 0, spanning, i * tail.length, tail.length);
+        for(byte[] buf: Arrays.asList(spanning, run, tail, text(7), dict, new byte[]{1,2,3,4,5,6,7,8,9,10})) {
+            byte[] first=compress(codec, buf);
+            assert Arrays.equals(first, compress(codec, buf));
+            roundtrip(codec, buf);
+        }
+        assert compress(codec, spanning).length < 20;
+    }
+
+    /** A message whose uncompressed size differs from the original size in its header is not uncompressed */
+    public void testSizeMismatch() throws Exception {
+        COMPRESS compress=new COMPRESS().codec("lz");
+        compress.init();
+        List<Message> received=new ArrayList<>();
+        compress.setUpProtocol(new Protocol() {
+            public Object up(Message msg) {received.add(msg); return null;}
+        });
+        byte[] buf=text(10), compressed=compress(new LZCodec(), buf);
+        for(int size: new int[]{buf.length, buf.length + 10, buf.length - 10}) {
+            Message msg=new Message(null, compressed).src(Util.createRandomAddress("A"))
+              .putHeader(compress.getId(), new COMPRESS.CompressHeader(size, LZCodec.ID, 0));
+            compress.up(msg);
+        }
+        compress.destroy();
+        assert received.size() == 3;
+        assert Arrays.equals(received.get(0).getBuffer(), buf);
+        for(Message msg: received.subList(1, 3)) // passed up as is
+            assert Arrays.equals(msg.getBuffer(), compressed);
+    }
+
+    public void testCorruptData() throws Exception {
+        LZCodec codec=new LZCodec();
+        byte[] buf=text(10), compressed=compress(codec, buf);
+        for(int i=0; i < 100; i++) {
+            byte[] corrupt=compressed.clone();
+            corrupt[ThreadLocalRandom.current().nextInt(corrupt.length)]^=(byte)(1 + i % 255);
+            try {
+                codec.uncompress(corrupt, 0, corrupt.length, new byte[buf.length], 0, buf.length);
+            }
+            catch(IllegalStateException expected) {
+                // the corruption has to be detected or yield data of the same size, but it must not overrun buffers
+            }
+        }
+    }
+
+    public void testTrainDictionary() {
+        List<byte[]> samples=new ArrayList<>();
+        for(int i=0; i < 100; i++)
+            samples.add(String.format("{\"id\": %d, \"type\": \"order\", \"status\": \"shipped\", \"amount\": %d}",
+                                      i, i * 17).getBytes());
+        byte[] dict=COMPRESS.trainDictionary(samples, 512);
+        assert dict.length > 0 && dict.length <= 512;
+        assert new String(dict).contains("\"status\": \"shipped\"");
+
+        byte[] unrelated=new byte[100];
+        assert COMPRESS.trainDictionary(Arrays.asList(unrelated, text(1)), 512).length == 0;
+    }
+
+    /** A compresses with the lz codec, B with the deflate codec; both use the same dictionary */
+    public void testCompress() throws Exception {
+        byte[] dict=text(10);
+        a=create("A", "lz", dict, 10);
+        b=create("B", "deflate", dict, 10);
+        MyReceiver<Message> ra=new MyReceiver<Message>().rawMsgs(true), rb=new MyReceiver<Message>().rawMsgs(true);
+        a.setReceiver(ra);
+        b.setReceiver(rb);
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        for(int i=0; i < NUM_MSGS; i++) {
+            a.send(null, text(1));
+            b.send(null, text(1));
+        }
+        for(int i=0; i < 20 && (ra.size() < NUM_MSGS * 2 || rb.size() < NUM_MSGS * 2); i++)
+            Util.sleep(500);
+        for(MyReceiver<Message> r: Arrays.asList(ra, rb)) {
+            assert r.size() == NUM_MSGS * 2;
+            for(Message msg: r.list())
+                assert Arrays.equals(msg.getBuffer(), text(1));
+        }
+        for(JChannel ch: Arrays.asList(a, b)) {
+            COMPRESS compress=ch.getProtocolStack().findProtocol(COMPRESS.class);
+            double ratio=compress.getCompressionRatio();
+            assert ratio > 0 && ratio < 0.5 : compress.printCodecStats();
+        }
+    }
+
+    /** Messages compressed with a different dictionary cannot be uncompressed */
+    public void testDifferentDictionary() throws Exception {
+        // the min size excludes the (smaller) GMS messages from compression, so the view can be installed
+        a=create("A", "lz", text(10), 1000);
+        b=create("B", "lz", null, 1000);
+        MyReceiver<Message> rb=new MyReceiver<Message>().rawMsgs(true);
+        b.setReceiver(rb);
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        a.send(b.getAddress(), text(20));
+        for(int i=0; i < 10 && rb.size() == 0; i++)
+            Util.sleep(100);
+        assert rb.size() == 1;
+        assert !Arrays.equals(rb.list().get(0).getBuffer(), text(20));
+    }
+
+    public void testSampling() throws Exception {
+        COMPRESS compress=new COMPRESS().setDictSamples(10);
+        a=new JChannel(new SHARED_LOOPBACK(), new SHARED_LOOPBACK_PING(), compress, new NAKACK2(), new UNICAST3(),
+                       new STABLE(), new GMS().setValue("print_local_addr", false)).name("A");
+        a.connect("COMPRESSTest");
+        for(int i=0; i < 1000; i++) // only 1 in dict_sample_rate (16) messages is offered
+            a.send(null, text(1));
+        assert compress.getNumSamples() == 10;
+    }
+
+
+    protected static int roundtrip(Codec codec, byte[] buf) throws Exception {
+        byte[] compressed=compress(codec, buf);
+        byte[] uncompressed=new byte[buf.length + 10];
+        int size=codec.uncompress(compressed, 0, compressed.length, uncompressed, 10, buf.length);
+        assert size == buf.length;
+        assert Arrays.equals(Arrays.copyOfRange(uncompressed, 10, uncompressed.length), buf);
+        return compressed.length;
+    }
+
+    protected static byte[] compress(Codec codec, byte[] buf) throws Exception {
+        byte[] compressed=new byte[LZCodec.maxCompressedLength(buf.length) + 64];
+        int size=codec.compress(buf, 0, buf.length, compressed, 0, compressed.length);
+        assert size >= 0;
+        return Arrays.copyOf(compressed, size);
+    }
+
+    protected static byte[] text(int num) {
+        StringBuilder sb=new StringBuilder();
+        for(int i=0; i < num; i++)
+            sb.append("{\"name\": \"Bela\", \"city\": \"Kreuzlingen\", \"country\": \"Switzerland\", \"seqno\": ")
+              .append(i).append("}\n");
+        return sb.toString().getBytes();
+    }
+
+    protected static JChannel create(String name, String codec, byte[] dict, int min_size) throws Exception {
+        JChannel ch=new JChannel(new SHARED_LOOPBACK(),
+                                 new SHARED_LOOPBACK_PING(),
+                                 new COMPRESS().codec(codec).dictionary(dict).setMinSize(min_size),
+                                 new NAKACK2(),
+                                 new UNICAST3(),
+                                 new STABLE(),
+                                 new GMS().setValue("print_local_addr", false))
+          .name(name);
+        ch.connect("COMPRESSTest");
+        return ch;
+    }
+}
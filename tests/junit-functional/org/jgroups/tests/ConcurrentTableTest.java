@@ -0,0 +1,137 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.util.*;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests {@link ConcurrentTable}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class ConcurrentTableTest {
+
+    public void testAddAndGet() {
+        Table<Integer> table=new ConcurrentTable<>(3, 10, 0);
+        for(int i=1; i <= 100; i++)
+            assert table.add(i, i);
+        assert !table.add(50, 50);
+        assert table.size() == 100 && table.getHighestReceived() == 100;
+        assert table.capacity() >= 100 && table.getNumResizes() > 0;
+        for(int i=1; i <= 100; i++)
+            assert table.get(i) == i;
+        assert table.get(0) == null && table.get(101) == null;
+        assert table.getNumMissing() == 0;
+        assert table.getHighestDeliverable() == 100;
+    }
+
+    public void testAddWithGaps() {
+        Table<Integer> table=new ConcurrentTable<>(3, 10, 0);
+        IntStream.of(1, 2, 4, 5, 8).forEach(i -> table.add(i, i));
+        assert table.size() == 5 && table.getHighestReceived() == 8;
+        assert table.getNumMissing() == 3;
+        List<Long> missing=new ArrayList<>();
+        table.getMissing().forEach(missing::add);
+        assert missing.equals(Arrays.asList(3L, 6L, 7L));
+        List<Integer> list=table.removeMany(true, 0);
+        assert list.equals(Arrays.asList(1, 2));
+        assert table.getHighestDelivered() == 2 && table.size() == 3;
+    }
+
+    public void testRemoveManyAndPurge() {
+        Table<Integer> table=new ConcurrentTable<>(3, 10, 0, 1.2, 0);
+        for(int i=1; i <= 50; i++)
+            table.add(i, i);
+        List<Integer> list=table.removeMany(false, 30);
+        assert list.size() == 30 && list.get(0) == 1 && list.get(29) == 30;
+        assert table.get(30) == 30; // not nulled
+        table.purge(30);
+        assert table.getLow() == 30 && table.get(30) == null && table.get(31) == 31;
+        for(int i=51; i <= 60; i++)
+            table.add(i, i);
+        list=table.removeMany(true, 0);
+        assert list.size() == 30 && table.isEmpty();
+        assert table.getHighestDelivered() == 60 && table.getHighestReceived() == 60;
+        table.compact();
+        assert table.getNumRows() == 3;
+    }
+
+    public void testAddList() {
+        Table<Integer> table=new ConcurrentTable<>(3, 10, 0);
+        List<LongTuple<Integer>> tuples=IntStream.rangeClosed(1, 40).mapToObj(i -> new LongTuple<>(i, i))
+          .collect(Collectors.toList());
+        assert table.add(tuples);
+        assert table.size() == 40 && table.getHighestReceived() == 40;
+        table.add(41, 41);
+        assert table.size() == 41 && table.getHighestDeliverable() == 41;
+        assert table.dump().startsWith("1, 2, 3");
+    }
+
+    /** Multiple adders add disjoint seqnos, a remover removes them and readers read them concurrently */
+    public void testConcurrentAddAndRemove() throws Exception {
+        final int NUM=100_000, NUM_ADDERS=4, NUM_READERS=2;
+        Table<Integer> table=new ConcurrentTable<>(3, 1024, 0, 1.2, 10);
+        CountDownLatch start=new CountDownLatch(1);
+        AtomicInteger errors=new AtomicInteger();
+        List<Thread> threads=new ArrayList<>();
+        for(int i=0; i < NUM_ADDERS; i++) {
+            final int first=i+1;
+            threads.add(new Thread(() -> {
+                await(start);
+                for(int seqno=first; seqno <= NUM; seqno+=NUM_ADDERS)
+                    if(!table.add(seqno, seqno))
+                        errors.incrementAndGet();
+            }));
+        }
+        for(int i=0; i < NUM_READERS; i++) {
+            threads.add(new Thread(() -> {
+                await(start);
+                while(table.getHighestDelivered() < NUM) {
+                    long seqno=table.getHighestReceived();
+                    Integer val=table.get(seqno);
+                    if(val != null && val != seqno)
+                        errors.incrementAndGet();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+
+        int expected=1;
+        for(long deadline=System.currentTimeMillis() + 20000; expected <= NUM && System.currentTimeMillis() < deadline;) {
+            List<Integer> list=table.removeMany(true, 1000);
+            if(list == null) {
+                Thread.yield();
+                continue;
+            }
+            for(int num: list)
+                if(num != expected++)
+                    errors.incrementAndGet();
+            table.purge(table.getHighestDelivered());
+        }
+        for(Thread t: threads)
+            t.join(10000);
+        assert errors.get() == 0 : "errors: " + errors;
+        assert expected == NUM+1 : "expected " + NUM + " elements, got " + (expected-1);
+        assert table.isEmpty() && table.getHighestDelivered() == NUM;
+    }
+
+
+    protected static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch(InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
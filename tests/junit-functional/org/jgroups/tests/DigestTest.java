@@ -5,6 +5,8 @@ package org.jgroups.tests;
 import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.View;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
 import org.jgroups.util.Digest;
 import org.jgroups.util.MutableDigest;
 import org.jgroups.util.Util;
@@ -392,6 +394,40 @@ public class DigestTest {
     }
 
 
+    public void testDelta() throws Exception {
+        MutableDigest digest=new MutableDigest(d).set(a2, 30, 32);
+        assert digest.numDifferences(d) == 1;
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(digest.serializedSizeDelta(d));
+        digest.writeDelta(out, d);
+        Assert.assertEquals(out.position(), digest.serializedSizeDelta(d));
+        assert out.position() < digest.serializedSize();
+
+        MutableDigest tmp=new MutableDigest(d).readDelta(new ByteArrayDataInputStream(out.buffer(), 0, out.position()));
+        Assert.assertEquals(tmp, digest);
+        Assert.assertEquals(d.get(a2), new long[]{26,26}); // the base is not changed
+    }
+
+    public void testDeltaWithoutChanges() throws Exception {
+        MutableDigest digest=new MutableDigest(d);
+        assert digest.numDifferences(d) == 0;
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(digest.serializedSizeDelta(d));
+        digest.writeDelta(out, d);
+        MutableDigest tmp=new MutableDigest(d).readDelta(new ByteArrayDataInputStream(out.buffer(), 0, out.position()));
+        Assert.assertEquals(tmp, d);
+    }
+
+    public void testDeltaWithDifferentMembers() throws Exception {
+        Digest digest=new Digest(new Address[]{a1,a2}, new long[]{500,501, 26,26});
+        try {
+            digest.writeDelta(new ByteArrayDataOutputStream(), d);
+            assert false : "writing a delta against a digest with different members should have failed";
+        }
+        catch(IllegalArgumentException ex) {
+            System.out.println("caught exception as expected: " + ex);
+        }
+    }
+
+
     public void testSerializedSize() throws Exception {
         long len=d.serializedSize(true);
         byte[] buf=Util.streamableToByteBuffer(d);
@@ -0,0 +1,131 @@
+package org.jgroups.tests;
+
+import org.jgroups.*;
+import org.jgroups.nio.Buffers;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link GatheringDataOutputStream} and sending of message bundles with gathering writes in {@link TCP_NIO2}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class GatheringWritesTest {
+    protected static final int         NUM_MSGS=10000, MSG_SIZE=2000;
+    protected static final AsciiString CLUSTER=new AsciiString("GatheringWritesTest");
+    protected JChannel                 a, b;
+
+    @AfterMethod protected void destroy() {Util.close(b,a);}
+
+    public void testSlices() throws Exception {
+        GatheringDataOutputStream out=new GatheringDataOutputStream(16, 100);
+        byte[] small=new byte[10], large=new byte[200];
+        Arrays.fill(small, (byte)1);
+        Arrays.fill(large, (byte)2);
+        out.writeInt(322649);
+        out.write(large);
+        out.write(small);
+        out.write(large, 50, 100);
+        out.writeLong(1);
+        assert out.numSlices() == 2 && out.size() == 4 + 200 + 10 + 100 + 8;
+
+        ByteBuffer[] bufs=out.buffers();
+        assert bufs.length == 5 && Buffers.remaining(bufs) == out.size();
+        assert bufs[1].array() == large : "the large array should not be copied";
+        ByteBuffer all=Buffers.concat(bufs);
+        assert all.getInt() == 322649;
+        for(int i=0; i < 200; i++)
+            assert all.get() == 2;
+        for(int i=0; i < 10; i++)
+            assert all.get() == 1;
+        for(int i=0; i < 100; i++)
+            assert all.get() == 2;
+        assert all.getLong() == 1 && !all.hasRemaining();
+
+        out.reset();
+        assert out.numSlices() == 0 && out.size() == 0 && out.buffers().length == 0;
+    }
+
+    /** A message list written to a GatheringDataOutputStream has the same wire format as one written to a byte[] */
+    public void testMessageList() throws Exception {
+        Address dest=Util.createRandomAddress("B"), src=Util.createRandomAddress("A");
+        List<Message> list=new ArrayList<>();
+        for(int i=0; i < 10; i++)
+            list.add(new Message(dest, new byte[i % 2 == 0? 10 : 1500]).src(src));
+        ByteArrayDataOutputStream expected=new ByteArrayDataOutputStream(1024);
+        Util.writeMessageList(dest, src, CLUSTER.chars(), list, expected, false, (short)1);
+        GatheringDataOutputStream out=new GatheringDataOutputStream(1024, 1024);
+        Util.writeMessageList(dest, src, CLUSTER.chars(), list, out, false, (short)1);
+        assert out.numSlices() == 5;
+        ByteBuffer actual=Buffers.concat(out.buffers());
+        assert actual.remaining() == expected.position();
+        assert Arrays.equals(Arrays.copyOf(actual.array(), actual.remaining()), Arrays.copyOf(expected.buffer(), expected.position()));
+    }
+
+    public void testGatheringWrites() throws Exception {
+        a=create("A");
+        b=create("B");
+        MyReceiver ra=new MyReceiver(), rb=new MyReceiver();
+        a.setReceiver(ra);
+        b.setReceiver(rb);
+        a.connect("GatheringWritesTest");
+        b.connect("GatheringWritesTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b);
+        assert ((TP)a.getProtocolStack().getTransport()).useGatheringWrites();
+
+        for(int i=1; i <= NUM_MSGS; i++) {
+            byte[] buf=new byte[MSG_SIZE];
+            Bits.writeInt(i, buf, 0);
+            Bits.writeInt(i, buf, MSG_SIZE - Global.INT_SIZE);
+            a.send(new Message(null, buf));
+        }
+        for(int i=0; i < 60 && (ra.total() < NUM_MSGS || rb.total() < NUM_MSGS); i++)
+            Util.sleep(500);
+        for(MyReceiver r: Arrays.asList(ra, rb)) {
+            assert r.bad() == 0 : String.format("good=%d | bad=%d", r.good(), r.bad());
+            assert r.total() == NUM_MSGS : String.format("good=%d | bad=%d", r.good(), r.bad());
+        }
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        return new JChannel(new Protocol[] {
+          new TCP_NIO2().useGatheringWrites(true).setValue("bind_addr", Util.getLocalhost()),
+          new MPING(),
+          new NAKACK2().setValue("use_mcast_xmit", false),
+          new UNICAST3(),
+          new STABLE(),
+          new GMS().joinTimeout(1000),
+          new FRAG2()
+        }).name(name);
+    }
+
+
+    protected static class MyReceiver extends ReceiverAdapter {
+        protected final AtomicInteger good=new AtomicInteger(), bad=new AtomicInteger();
+
+        public int good()  {return good.get();}
+        public int bad()   {return bad.get();}
+        public int total() {return good() + bad();}
+
+        public void receive(Message msg) {
+            byte[] buf=msg.getRawBuffer();
+            int offset=msg.getOffset();
+            boolean ok=msg.getLength() == MSG_SIZE
+              && Bits.readInt(buf, offset) == Bits.readInt(buf, offset + MSG_SIZE - Global.INT_SIZE);
+            (ok? good : bad).incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.util.DirectExecutor;
+import org.jgroups.util.HashedTimingWheel;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the cascading of tasks between the levels of {@link HashedTimingWheel}. A small wheel is used, so tasks
+ * cross many levels and some are beyond the wheel's horizon. Other tests are in {@link TimeSchedulerTest}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.TIME_SENSITIVE,singleThreaded=true)
+public class HashedTimingWheelTest {
+    protected static final int  WHEEL_SIZE=4, TICK=5; // horizon: 4^4 ticks = 1280 ms
+    protected static final long MAX_DELAY=3000, TOLERANCE=200; // ms
+    protected HashedTimingWheel timer;
+
+    @AfterMethod protected void destroy() {
+        if(timer != null)
+            timer.stop();
+    }
+
+    public void testInvalidWheelSize() {
+        try {
+            new HashedTimingWheel(new DirectExecutor(), null, 100, 10);
+            assert false : "a wheel size which is not a power of 2 should have been rejected";
+        }
+        catch(IllegalArgumentException expected) {
+        }
+    }
+
+    /** Tasks are never executed before their delay has elapsed, and at most a few ticks late */
+    public void testExecutionTimes() throws Exception {
+        timer=new HashedTimingWheel(new DirectExecutor(), null, WHEEL_SIZE, TICK);
+        List<MyTask> tasks=new ArrayList<>();
+        for(int i=0; i < 500; i++) {
+            long delay=ThreadLocalRandom.current().nextLong(MAX_DELAY);
+            MyTask task=new MyTask(delay);
+            tasks.add(task);
+            timer.schedule(task, delay, TimeUnit.MILLISECONDS, false);
+        }
+        assert timer.size() > 0;
+        for(int i=0; i < 20 && tasks.stream().anyMatch(t -> t.executed == 0); i++)
+            Util.sleep(500);
+        for(MyTask task: tasks) {
+            assert task.executed > 0 : "task with delay " + task.delay + " was not executed";
+            long actual=TimeUnit.MILLISECONDS.convert(task.executed - task.scheduled, TimeUnit.NANOSECONDS);
+            assert actual >= task.delay : String.format("task was executed after %d ms, before its delay of %d ms",
+                                                        actual, task.delay);
+            assert actual <= task.delay + TOLERANCE : String.format("task was executed after %d ms, delay: %d ms",
+                                                                    actual, task.delay);
+        }
+        assert timer.size() == 0;
+    }
+
+    public void testCancel() throws Exception {
+        timer=new HashedTimingWheel(new DirectExecutor(), null, WHEEL_SIZE, TICK);
+        AtomicInteger count=new AtomicInteger();
+        List<Future<?>> futures=new ArrayList<>();
+        for(int i=1; i <= 100; i++)
+            futures.add(timer.schedule(count::incrementAndGet, i * 20, TimeUnit.MILLISECONDS, false));
+        for(int i=0; i < futures.size(); i+=2)
+            futures.get(i).cancel(true);
+        for(int i=0; i < 10 && timer.size() > 0; i++)
+            Util.sleep(500);
+        assert count.get() == 50 : "expected 50 executions, got " + count.get();
+        assert timer.size() == 0;
+    }
+
+    public void testFixedRate() throws Exception {
+        timer=new HashedTimingWheel(new DirectExecutor(), null, WHEEL_SIZE, TICK);
+        AtomicInteger count=new AtomicInteger();
+        Future<?> future=timer.scheduleAtFixedRate(count::incrementAndGet, 0, 20, TimeUnit.MILLISECONDS, false);
+        Util.sleep(1000);
+        future.cancel(true);
+        assert count.get() >= 45 && count.get() <= 52 : "expected ~50 executions, got " + count.get();
+    }
+
+
+    protected static class MyTask implements Runnable {
+        protected final long    delay, scheduled=System.nanoTime();
+        protected volatile long executed;
+
+        public MyTask(long delay) {
+            this.delay=delay;
+        }
+
+        public void run() {
+            executed=System.nanoTime();
+        }
+    }
+}
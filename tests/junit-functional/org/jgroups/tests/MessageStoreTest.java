@@ -0,0 +1,66 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.util.MessageStore;
+import org.jgroups.util.SlabPool;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link MessageStore}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class MessageStoreTest {
+    protected static final int SLAB_SIZE=4096;
+
+    public void testPutAndGet() throws Exception {
+        MessageStore store=new MessageStore(new SlabPool(SLAB_SIZE, SLAB_SIZE * 4));
+        for(int i=1; i <= 10; i++)
+            store.put(i, new Message(null, "hello-" + i).src(Util.createRandomAddress("A")));
+        assert store.size() == 10 && store.heapMessages() == 0 && store.bytes() > 0;
+        for(int i=1; i <= 10; i++) {
+            Message msg=store.get(i);
+            assert msg.getObject().equals("hello-" + i);
+            assert msg.getSrc() != null;
+        }
+        assert store.get(11) == null;
+    }
+
+    public void testPurge() throws Exception {
+        SlabPool pool=new SlabPool(SLAB_SIZE, SLAB_SIZE * 4);
+        MessageStore store=new MessageStore(pool);
+        for(int i=1; i <= 10; i++) // 3 messages per slab
+            store.put(i, new Message(null, new byte[1300]));
+        assert store.slabs() == 4 && store.heapMessages() == 0;
+        assert pool.storedBytes() == store.bytes();
+
+        store.purge(6);
+        assert store.size() == 4;
+        assert store.get(6) == null && store.get(7) != null;
+        assert store.slabs() == 2 && pool.freeSlabs() == 2;
+
+        store.purge(10);
+        assert store.size() == 0 && store.bytes() == 0 && pool.storedBytes() == 0;
+        assert store.slabs() == 0 && pool.freeSlabs() == 4;
+        assert pool.allocatedBytes() == SLAB_SIZE * 4;
+    }
+
+    /** Messages which don't fit into a slab, or which are added when the pool is exhausted, are kept on the heap */
+    public void testHeapMessages() throws Exception {
+        SlabPool pool=new SlabPool(SLAB_SIZE, SLAB_SIZE);
+        MessageStore store=new MessageStore(pool);
+        store.put(1, new Message(null, new byte[SLAB_SIZE * 2]));
+        assert store.heapMessages() == 1 && store.slabs() == 0;
+        for(int i=2; i <= 10; i++)
+            store.put(i, new Message(null, new byte[1000]));
+        assert store.slabs() == 1 && store.heapMessages() > 1;
+        assert pool.failedAllocations() > 0;
+        for(int i=1; i <= 10; i++)
+            assert store.get(i) != null;
+        store.clear();
+        assert store.size() == 0 && store.heapMessages() == 0 && pool.freeSlabs() == 1;
+    }
+}
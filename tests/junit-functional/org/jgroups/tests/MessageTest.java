@@ -9,14 +9,19 @@ import org.jgroups.protocols.PingHeader;
 import org.jgroups.protocols.TpHeader;
 import org.jgroups.protocols.pbcast.NakAckHeader2;
 import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.LazyHeader;
+import org.jgroups.util.PooledBuffer;
 import org.jgroups.util.Range;
 import org.jgroups.util.UUID;
 import org.jgroups.util.Util;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.function.Supplier;
 
@@ -456,6 +461,113 @@ public class MessageTest {
         assert copy.size() == msg2.size();
     }
 
+    public void testLazyHeaders() throws Exception {
+        Message msg=new Message(Util.createRandomAddress("A"), "bela".getBytes()).src(Util.createRandomAddress("B"));
+        addHeaders(msg);
+        boolean lazy=Message.lazyHeaders();
+        Message.lazyHeaders(true);
+        try {
+            _testSize(msg);
+            byte[] buf=Util.streamableToByteBuffer(msg);
+            Message msg2=new Message(false);
+            msg2.readFrom(new ByteArrayDataInputStream(buf));
+            assert msg2.printHeaders().contains("lazy");
+            assert msg2.size() == msg.size();
+
+            // marshal again without accessing the headers (e.g. on a retransmission), then read eagerly
+            byte[] buf2=Util.streamableToByteBuffer(msg2);
+            assert buf2.length == buf.length;
+            Message msg3=new Message(false);
+            msg3.readFrom(new DataInputStream(new ByteArrayInputStream(buf2)));
+            assert !msg3.printHeaders().contains("lazy");
+            checkHeaders(msg3);
+            Assert.assertEquals(new String(msg3.getBuffer()), "bela");
+
+            checkHeaders(msg2);
+            assert !msg2.printHeaders().contains("lazy");
+            Message.lazyHeaders(false);
+            byte[] buf3=Util.streamableToByteBuffer(msg2);
+            assert buf3.length < buf.length;
+            Message msg4=Util.streamableFromByteBuffer(Message::new, buf3);
+            assert !msg4.printHeaders().contains("lazy");
+            checkHeaders(msg4);
+        }
+        finally {
+            Message.lazyHeaders(lazy);
+        }
+    }
+
+    public void testLazyHeadersWithReadFromSkipPayload() throws Exception {
+        Message msg=new Message(null, "bela".getBytes()).src(Util.createRandomAddress("B"));
+        addHeaders(msg);
+        boolean lazy=Message.lazyHeaders();
+        Message.lazyHeaders(true);
+        try {
+            byte[] buf=Util.streamableToByteBuffer(msg);
+            Message msg2=new Message(false);
+            int payload_position=msg2.readFromSkipPayload(new ByteArrayDataInputStream(buf));
+            msg2.setBuffer(buf, payload_position, buf.length - payload_position);
+            checkHeaders(msg2.copy());
+            checkHeaders(msg2);
+            Assert.assertEquals(new String(msg2.getBuffer()), "bela");
+        }
+        finally {
+            Message.lazyHeaders(lazy);
+        }
+    }
+
+    /** Lazy headers point into the pooled receive buffer and are copied when the message is detached from it */
+    public void testLazyHeadersInPooledBuffer() throws Exception {
+        Message msg=new Message(null, "bela".getBytes()).src(Util.createRandomAddress("B"));
+        addHeaders(msg);
+        boolean lazy=Message.lazyHeaders();
+        Message.lazyHeaders(true);
+        try {
+            byte[] buf=Util.streamableToByteBuffer(msg);
+            PooledBuffer pooled=new PooledBuffer(buf, null);
+            Message msg2=new Message(false), msg3=new Message(false);
+            msg2.readFrom(new ByteArrayDataInputStream(buf), pooled);
+            msg3.readFrom(new ByteArrayDataInputStream(buf), pooled);
+            Message copy=msg3.copy();
+            msg2.detachPooledBuffer();
+            msg3.releasePooledBuffer();
+            Arrays.fill(buf, (byte)0); // the pooled buffer is reused
+            assert msg2.printHeaders().contains("lazy") && copy.printHeaders().contains("lazy");
+            checkHeaders(msg2);
+            checkHeaders(msg3);
+            checkHeaders(copy);
+            Assert.assertEquals(new String(msg2.getBuffer()), "bela");
+        }
+        finally {
+            Message.lazyHeaders(lazy);
+        }
+    }
+
+    /** A lazy header reads the serialized form of the real header */
+    public void testLazyHeaderReadFrom() throws Exception {
+        PingHeader hdr=new PingHeader(PingHeader.GET_MBRS_REQ).clusterName("demo-cluster");
+        byte[] serialized=Util.streamableToByteBuffer(hdr);
+        LazyHeader lazy_hdr=new LazyHeader(PING_ID, hdr.getMagicId(), null, 0, serialized.length);
+        lazy_hdr.readFrom(new ByteArrayDataInputStream(serialized));
+        assert Arrays.equals(Util.streamableToByteBuffer(lazy_hdr), serialized);
+        PingHeader hdr2=(PingHeader)lazy_hdr.materialize();
+        assert hdr2.type() == PingHeader.GET_MBRS_REQ && hdr2.getProtId() == PING_ID;
+        assert hdr2.toString().contains("demo-cluster");
+    }
+
+    protected static void checkHeaders(Message msg) {
+        Map<Short,Header> hdrs=msg.getHeaders();
+        assert hdrs.size() == 3;
+        TpHeader tp_hdr=msg.getHeader(UDP_ID);
+        Assert.assertEquals(new String(tp_hdr.getClusterName()), "DemoChannel2");
+        PingHeader ping_hdr=msg.getHeader(PING_ID);
+        assert ping_hdr.type() == PingHeader.GET_MBRS_REQ;
+        assert ping_hdr.toString().contains("demo-cluster");
+        NakAckHeader2 nak_hdr=msg.getHeader(NAKACK_ID);
+        assert nak_hdr.getType() == NakAckHeader2.XMIT_REQ;
+        assert nak_hdr.getProtId() == NAKACK_ID && ping_hdr.getProtId() == PING_ID;
+    }
+
     protected static void addHeaders(Message msg) {
         TpHeader tp_hdr=new TpHeader("DemoChannel2");
         msg.putHeader(UDP_ID, tp_hdr);
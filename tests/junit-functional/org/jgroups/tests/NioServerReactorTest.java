@@ -0,0 +1,106 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.blocks.cs.NioClient;
+import org.jgroups.blocks.cs.NioServer;
+import org.jgroups.blocks.cs.ReceiverAdapter;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.util.Bits;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link NioServer} with multiple reactor threads
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class NioServerReactorTest {
+    protected static final int NUM_CLIENTS=6, NUM_MSGS=2000, MSG_SIZE=1000;
+    protected NioServer        srv;
+    protected NioClient[]      clients;
+
+    @AfterMethod protected void destroy() {
+        if(clients != null)
+            Util.close(clients);
+        Util.close(srv);
+    }
+
+    public void testReactors() throws Exception {
+        srv=new NioServer(Util.getLocalhost(), 0);
+        srv.reactorThreads(3);
+        MyReceiver receiver=new MyReceiver();
+        srv.receiver(receiver);
+        srv.start();
+
+        clients=new NioClient[NUM_CLIENTS];
+        for(int i=0; i < clients.length; i++) {
+            clients[i]=new NioClient(null, 0, Util.getLocalhost(), ((IpAddress)srv.localAddress()).getPort());
+            clients[i].maxSendBuffers(1000);
+            clients[i].start();
+        }
+        Thread[] senders=new Thread[NUM_CLIENTS];
+        for(int i=0; i < senders.length; i++) {
+            final NioClient client=clients[i];
+            senders[i]=new Thread(() -> {
+                for(int j=1; j <= NUM_MSGS; j++) {
+                    byte[] buf=new byte[MSG_SIZE];
+                    Bits.writeInt(j, buf, 0);
+                    try {
+                        client.send(buf, 0, buf.length);
+                    }
+                    catch(Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            senders[i].start();
+        }
+        for(Thread t: senders)
+            t.join();
+
+        // NioConnection drops messages when the send buffers are full, so not all messages may be received
+        for(int i=0; i < 20 && receiver.total() < NUM_CLIENTS * NUM_MSGS; i++)
+            Util.sleep(500);
+        assert receiver.bad() == 0 : "out of order or corrupt messages: " + receiver.bad();
+        assert receiver.senders() == NUM_CLIENTS : "received messages from " + receiver.senders() + " clients only";
+
+        // the connections are spread over all reactors
+        String stats=srv.reactorStats();
+        for(int i=0; i < 3; i++)
+            assert stats.contains("Reactor-" + i + ": connections=2") : stats;
+        assert srv.numSelects() > 0;
+    }
+
+    public void testSingleReactorIsDefault() throws Exception {
+        srv=new NioServer(Util.getLocalhost(), 0);
+        srv.start();
+        assert srv.reactorThreads() == 1;
+        assert srv.reactorStats().startsWith("acceptor");
+    }
+
+
+    /** Checks that messages from each client are received in order (with gaps for dropped messages) */
+    protected static class MyReceiver extends ReceiverAdapter {
+        protected final Map<Address,Integer> last=new ConcurrentHashMap<>();
+        protected final AtomicInteger        total=new AtomicInteger(), bad=new AtomicInteger();
+
+        public int total() {return total.get();}
+        public int bad()   {return bad.get();}
+        public int senders() {return last.size();}
+
+        public void receive(Address sender, byte[] buf, int offset, int length) {
+            int num=Bits.readInt(buf, offset);
+            Integer prev=last.put(sender, num);
+            if(length != MSG_SIZE || (prev != null && num <= prev))
+                bad.incrementAndGet();
+            total.incrementAndGet();
+        }
+    }
+}
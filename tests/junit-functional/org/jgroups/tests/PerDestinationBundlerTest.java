@@ -0,0 +1,124 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.protocols.Bundler;
+import org.jgroups.protocols.PerDestinationBundler;
+import org.jgroups.protocols.TP;
+import org.jgroups.util.AsciiString;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.DefaultThreadFactory;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * Tests {@link PerDestinationBundler}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class PerDestinationBundlerTest {
+    protected static final int NUM_DESTS=10, NUM_MSGS=1000;
+    protected Bundler          bundler;
+
+    @AfterMethod protected void destroy() {
+        if(bundler != null)
+            bundler.stop();
+    }
+
+    public void testCreation() {
+        MockTransport transport=new MockTransport();
+        transport.setBundlerNumSenders(3);
+        bundler=transport.createBundler("per-destination");
+        assert bundler instanceof PerDestinationBundler && ((PerDestinationBundler)bundler).numSenders() == 3;
+    }
+
+    /** Messages to the same destination need to be received in the order in which they were sent */
+    public void testOrdering() throws Exception {
+        MockTransport transport=new MockTransport();
+        bundler=new PerDestinationBundler(4, 1024);
+        bundler.init(transport);
+        bundler.start();
+
+        List<Address> dests=new ArrayList<>(NUM_DESTS + 1);
+        for(int i=0; i < NUM_DESTS; i++)
+            dests.add(Util.createRandomAddress(String.valueOf(i)));
+        dests.add(null); // multicasts
+        for(int i=1; i <= NUM_MSGS; i++)
+            for(Address dest: dests)
+                bundler.send(new Message(dest, i));
+
+        for(int i=0; i < 20 && transport.size() < dests.size() * NUM_MSGS; i++)
+            Util.sleep(500);
+        assert transport.size() == dests.size() * NUM_MSGS
+          : String.format("expected %d messages, but got %d", dests.size() * NUM_MSGS, transport.size());
+
+        Set<String> all_threads=new HashSet<>();
+        for(Address dest: dests) {
+            List<Message> list=transport.messages(dest);
+            for(int i=0; i < list.size(); i++)
+                assert (Integer)list.get(i).getObject() == i + 1 : String.format("%s: expected %d, got %s", dest, i+1, list);
+            Set<String> threads=transport.threads(dest);
+            assert threads.size() == 1 : String.format("%s was sent to by %s", dest, threads);
+            all_threads.addAll(threads);
+        }
+        assert all_threads.size() > 1 : "only a single sender thread was used: " + all_threads;
+    }
+
+
+    protected static class MockTransport extends TP {
+        protected final Map<Address,List<Message>> msgs=new HashMap<>();
+        protected final Map<Address,Set<String>>   threads=new HashMap<>(); // names of the threads sending to a dest
+
+        public MockTransport() {
+            this.cluster_name=new AsciiString("mock");
+            thread_factory=new DefaultThreadFactory("", false);
+        }
+
+        public boolean            supportsMulticasting() {return true;}
+        public String             getInfo()              {return null;}
+        protected PhysicalAddress getPhysicalAddress()   {return null;}
+        public Bundler            createBundler(String type) {return super.createBundler(type);}
+
+        public void sendMulticast(byte[] data, int offset, int length) throws Exception {
+            add(data, offset, length);
+        }
+
+        protected void sendToSingleMember(Address dest, byte[] buf, int offset, int length) throws Exception {
+            add(buf, offset, length);
+        }
+
+        public void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception {}
+
+        protected synchronized int size() {
+            return msgs.values().stream().mapToInt(List::size).sum();
+        }
+
+        protected synchronized List<Message> messages(Address dest) {
+            return new ArrayList<>(msgs.getOrDefault(dest, Collections.emptyList()));
+        }
+
+        protected synchronized Set<String> threads(Address dest) {
+            return new HashSet<>(threads.getOrDefault(dest, Collections.emptySet()));
+        }
+
+        protected void add(byte[] buf, int offset, int length) throws Exception {
+            ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf, offset, length);
+            in.readShort(); // version
+            byte flags=in.readByte();
+            List<Message> list=(flags & LIST) == LIST? Util.readMessageList(in, (short)0)
+              : Collections.singletonList(Util.readMessage(in));
+            synchronized(this) {
+                for(Message msg: list) {
+                    msgs.computeIfAbsent(msg.getDest(), k -> new ArrayList<>()).add(msg);
+                    threads.computeIfAbsent(msg.getDest(), k -> new HashSet<>()).add(Thread.currentThread().getName());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.util.RttEstimator;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Tests {@link RttEstimator}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class RttEstimatorTest {
+    protected static final long MS=1_000_000; // ns
+
+    public void testInitialRto() {
+        RttEstimator rtt=new RttEstimator(500, 20, 10000, MILLISECONDS);
+        assert rtt.rto(MILLISECONDS) == 500 && rtt.numSamples() == 0;
+        rtt=new RttEstimator(5, 20, 10000, MILLISECONDS);
+        assert rtt.rto(MILLISECONDS) == 20;
+    }
+
+    public void testSamples() {
+        RttEstimator rtt=new RttEstimator(500, 1, 10000, MILLISECONDS);
+        rtt.add(100, MILLISECONDS);
+        assert rtt.srtt(MILLISECONDS) == 100 && rtt.rttvar(MILLISECONDS) == 50;
+        assert rtt.rto(MILLISECONDS) == 300; // srtt + 4*rttvar
+        rtt.add(100, MILLISECONDS);
+        assert rtt.srtt(MILLISECONDS) == 100;
+        assert rtt.rttvar(MILLISECONDS) == 37; // (3*50 + 0) / 4
+        for(int i=0; i < 50; i++)
+            rtt.add(10, MILLISECONDS);
+        assert rtt.srtt(MILLISECONDS) < 12 && rtt.rto(MILLISECONDS) < 20;
+    }
+
+    public void testAckTiming() {
+        RttEstimator rtt=new RttEstimator(500, 1, 10000, MILLISECONDS);
+        rtt.sent(1, 0);
+        rtt.sent(2, 5 * MS); // ignored, 1 is being timed
+        assert rtt.timedSeqno() == 1;
+        rtt.received(0, 20 * MS, true);
+        assert rtt.numSamples() == 0;
+        rtt.received(2, 30 * MS, true); // acks 1 and 2
+        assert rtt.numSamples() == 1 && rtt.srtt(MILLISECONDS) == 30 && rtt.timedSeqno() == -1;
+    }
+
+    public void testResponseTiming() {
+        RttEstimator rtt=new RttEstimator(500, 1, 10000, MILLISECONDS);
+        rtt.requested(5, 0);
+        rtt.received(6, 10 * MS, false);
+        assert rtt.numSamples() == 0;
+        rtt.received(5, 40 * MS, false);
+        assert rtt.numSamples() == 1 && rtt.srtt(MILLISECONDS) == 40;
+    }
+
+    /** A seqno that is sent more than once doesn't yield a sample, and the RTO is backed off (Karn's algorithm) */
+    public void testKarn() {
+        RttEstimator rtt=new RttEstimator(100, 10, 10000, MILLISECONDS);
+        rtt.requested(5, 0);
+        rtt.requested(5, 100 * MS); // repeated request
+        assert rtt.timedSeqno() == -1 && rtt.backoff() == 1;
+        assert rtt.rto(MILLISECONDS) == 200;
+        rtt.received(5, 110 * MS, false);
+        assert rtt.numSamples() == 0;
+        rtt.requested(5, 300 * MS); // not timed again
+        assert rtt.timedSeqno() == -1 && rtt.rto(MILLISECONDS) == 400;
+
+        rtt.requested(7, 400 * MS);
+        rtt.received(7, 420 * MS, false);
+        assert rtt.numSamples() == 1 && rtt.backoff() == 0 && rtt.srtt(MILLISECONDS) == 20;
+
+        rtt.sent(8, 500 * MS);
+        rtt.resent(8);
+        rtt.received(8, 600 * MS, true);
+        assert rtt.numSamples() == 1;
+    }
+
+    public void testMaxRto() {
+        RttEstimator rtt=new RttEstimator(1000, 10, 5000, MILLISECONDS);
+        for(int i=0; i < 10; i++)
+            rtt.backoff(true);
+        assert rtt.rto(MILLISECONDS) == 5000;
+        rtt.backoff(false);
+        assert rtt.rto(MILLISECONDS) == 1000;
+    }
+
+    public void testExpired() {
+        RttEstimator rtt=new RttEstimator(100, 10, 10000, MILLISECONDS);
+        assert rtt.expired(0);
+        assert !rtt.expired(50 * MS);
+        assert rtt.expired(100 * MS);
+        rtt.add(20, MILLISECONDS); // rto=60ms
+        assert !rtt.expired(150 * MS);
+        assert rtt.expired(200 * MS);
+        assert rtt.expired(260 * MS);
+    }
+}
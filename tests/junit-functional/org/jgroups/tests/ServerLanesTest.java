@@ -0,0 +1,194 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.blocks.cs.BaseServer;
+import org.jgroups.blocks.cs.NioServer;
+import org.jgroups.blocks.cs.ReceiverAdapter;
+import org.jgroups.blocks.cs.TcpServer;
+import org.jgroups.protocols.TCP;
+import org.jgroups.util.Bits;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.DataInput;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests multiple connections (lanes) per peer in {@link TcpServer} and {@link NioServer}, and the selection of lanes
+ * in {@link TCP}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class ServerLanesTest {
+    protected static final int NUM_MSGS=500, LANES=3;
+    protected BaseServer       a, b;
+
+    @AfterMethod protected void destroy() {Util.close(b,a);}
+
+    public void testLanes() throws Exception {
+        for(boolean nio: new boolean[]{false, true}) {
+            a=create(nio, LANES);
+            b=create(nio, LANES);
+            MyReceiver r=new MyReceiver();
+            b.receiver(r);
+            for(int i=1; i <= NUM_MSGS; i++)
+                for(int lane=1; lane < LANES; lane++)
+                    a.send(b.localAddress(), lane, msg(lane, i), 0, 8);
+
+            // TcpServer doesn't drop messages, NioServer drops them when its send buffers are full
+            for(int i=0; i < 20 && r.last(LANES-1) < NUM_MSGS; i++)
+                Util.sleep(500);
+            assert r.bad() == 0 : "out of order messages: " + r.bad();
+            if(!nio)
+                assert r.total() == NUM_MSGS * (LANES-1) : "received " + r.total() + " messages";
+            for(int lane=1; lane < LANES; lane++)
+                assert r.last(lane) > 0 : "no messages received on lane " + lane;
+
+            // the lanes have their own connections, the default connection was not used
+            assert a.getNumLaneConnections() == LANES-1 && b.getNumLaneConnections() == LANES-1;
+            assert a.getNumConnections() == 0 && b.getNumConnections() == 0;
+
+            a.send(b.localAddress(), 0, msg(0, 1), 0, 8);
+            assert a.getNumConnections() == 1;
+
+            // removing the peer closes the lanes on both sides
+            a.retainAll(Collections.emptyList());
+            assert a.getNumLaneConnections() == 0;
+            for(int i=0; i < 20 && b.getNumLaneConnections() > 0; i++)
+                Util.sleep(500);
+            assert b.getNumLaneConnections() == 0 : b.printConnections();
+            Util.close(b,a);
+        }
+    }
+
+    /** With a single lane, all data is sent on the default connection */
+    public void testSingleLane() throws Exception {
+        for(boolean nio: new boolean[]{false, true}) {
+            a=create(nio, 1);
+            b=create(nio, 1);
+            MyReceiver r=new MyReceiver();
+            b.receiver(r);
+            a.send(b.localAddress(), 2, msg(0, 1), 0, 8);
+            for(int i=0; i < 20 && r.total() < 1; i++)
+                Util.sleep(100);
+            assert r.total() == 1;
+            assert a.getNumLaneConnections() == 0 && a.getNumConnections() == 1;
+            Util.close(b,a);
+        }
+    }
+
+    /** An idle connection accepted on a lane is closed by the reaper of the accepting server */
+    public void testIncomingLaneExpiry() throws Exception {
+        for(boolean nio: new boolean[]{false, true}) {
+            a=create(nio, LANES);
+            b=create(nio, LANES, 100, 500);
+            MyReceiver r=new MyReceiver();
+            b.receiver(r);
+            a.send(b.localAddress(), 1, msg(1, 1), 0, 8);
+            for(int i=0; i < 20 && r.total() < 1; i++)
+                Util.sleep(100);
+            assert r.total() == 1;
+            assert b.getNumLaneConnections() == 1 : b.printConnections();
+
+            for(int i=0; i < 20 && b.getNumLaneConnections() > 0; i++)
+                Util.sleep(250);
+            assert b.getNumLaneConnections() == 0 : b.printConnections();
+            Util.close(b,a);
+        }
+    }
+
+    public void testInvalidLanes() throws Exception {
+        try(BaseServer srv=create(false, 1)) {
+            srv.lanes(Integer.MAX_VALUE);
+            assert false : "lanes() should have thrown an exception";
+        }
+        catch(IllegalArgumentException expected) {
+        }
+    }
+
+    public void testLaneSelection() throws Exception {
+        TCP tcp=new TCP();
+        tcp.lanes(3);
+        Address dest=Util.createRandomAddress("B");
+        assert tcp.lane(marshal(new Message(null), true)) == 0;
+        assert tcp.lane(marshal(new Message(dest), false)) == 1;
+        assert tcp.lane(marshal(new Message(dest).setFlag(Message.Flag.OOB), false)) == 2;
+        assert tcp.lane(marshal(new Message(null).setFlag(Message.Flag.OOB), true)) == 2;
+
+        tcp.lanes(2); // both streams share lane 0
+        assert tcp.lane(marshal(new Message(null), true)) == 0;
+        assert tcp.lane(marshal(new Message(dest), false)) == 0;
+        assert tcp.lane(marshal(new Message(dest).setFlag(Message.Flag.OOB), false)) == 1;
+
+        tcp.lanes(5); // OOB messages are sent round-robin on lanes 2-4
+        for(int i=0; i < 6; i++)
+            assert tcp.lane(marshal(new Message(dest).setFlag(Message.Flag.OOB), false)) == 2 + i % 3;
+
+        tcp.lanes(1);
+        assert tcp.lane(marshal(new Message(dest).setFlag(Message.Flag.OOB), false)) == 0;
+    }
+
+
+    protected static byte[] msg(int lane, int seqno) {
+        byte[] buf=new byte[8];
+        Bits.writeInt(lane, buf, 0);
+        Bits.writeInt(seqno, buf, 4);
+        return buf;
+    }
+
+    protected static ByteBuffer marshal(Message msg, boolean multicast) throws Exception {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(64);
+        Util.writeMessage(msg, out, multicast);
+        return out.getByteBuffer();
+    }
+
+    protected static BaseServer create(boolean nio, int lanes) throws Exception {
+        return create(nio, lanes, 0, 0);
+    }
+
+    protected static BaseServer create(boolean nio, int lanes, long reaper_interval, long expire_time) throws Exception {
+        BaseServer retval=nio? new NioServer(Util.getLocalhost(), 0).maxSendBuffers(1024)
+          : new TcpServer(Util.getLocalhost(), 0);
+        retval.usePeerConnections(true).lanes(lanes);
+        retval.reaperInterval(reaper_interval).connExpireTimeout(expire_time);
+        retval.start();
+        return retval;
+    }
+
+
+    /** Checks that the messages on each lane are received in order (with gaps for dropped messages) */
+    protected static class MyReceiver extends ReceiverAdapter {
+        protected final AtomicInteger[] last=new AtomicInteger[LANES];
+        protected final AtomicInteger   total=new AtomicInteger(), bad=new AtomicInteger();
+
+        public MyReceiver() {
+            for(int i=0; i < last.length; i++)
+                last[i]=new AtomicInteger();
+        }
+
+        public int last(int lane) {return last[lane].get();}
+        public int total()        {return total.get();}
+        public int bad()          {return bad.get();}
+
+        public void receive(Address sender, byte[] buf, int offset, int length) {
+            receive(Bits.readInt(buf, offset), Bits.readInt(buf, offset + 4));
+        }
+
+        public void receive(Address sender, DataInput in) throws Exception {
+            receive(in.readInt(), in.readInt());
+        }
+
+        protected void receive(int lane, int seqno) {
+            if(last[lane].getAndSet(seqno) >= seqno)
+                bad.incrementAndGet();
+            total.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.jgroups.tests;
+
+import org.jgroups.*;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Bits;
+import org.jgroups.util.ShmRingBuffer;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link ShmRingBuffer} and sending of messages to members on the same host through {@link ShmSideChannel}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class ShmSideChannelTest {
+    protected static final int NUM_MSGS=2000, MSG_SIZE=1000;
+    protected File             dir;
+    protected JChannel         a, b;
+    protected MyReceiver       ra, rb;
+
+    @BeforeMethod protected void setup() throws Exception {
+        dir=Files.createTempDirectory("shm").toFile();
+    }
+
+    @AfterMethod protected void destroy() {
+        Util.close(b,a);
+        delete(dir);
+    }
+
+    public void testRingBuffer() throws Exception {
+        File file=new File(dir, "ring");
+        try(ShmRingBuffer writer=new ShmRingBuffer(file, 128); ShmRingBuffer reader=new ShmRingBuffer(file, 128)) {
+            byte[] buf=new byte[32];
+            assert reader.nextLength() == -1 && reader.read(buf, 0) == -1;
+            for(int i=1; i <= 100; i++) { // wraps around many times
+                byte[] data=new byte[i % 20 + 1];
+                Arrays.fill(data, (byte)i);
+                assert writer.write(data, 0, data.length);
+                if(i % 2 == 0)
+                    assert writer.write(ByteBuffer.wrap(data));
+                for(int j=0; j < (i % 2 == 0? 2 : 1); j++) {
+                    assert reader.nextLength() == data.length;
+                    assert reader.read(buf, 0) == data.length;
+                    for(int k=0; k < data.length; k++)
+                        assert buf[k] == (byte)i;
+                }
+                assert reader.nextLength() == -1 && writer.size() == 0;
+            }
+        }
+    }
+
+    public void testRingBufferFull() throws Exception {
+        try(ShmRingBuffer ring=new ShmRingBuffer(new File(dir, "ring"), 64)) {
+            assert !ring.write(new byte[64], 0, 64) : "record is bigger than the ring buffer";
+            int num_written=0;
+            while(ring.write(new byte[12], 0, 12))
+                num_written++;
+            assert num_written == 4 && ring.size() == 64;
+            assert ring.read(new byte[12], 0) == 12;
+            assert ring.write(new byte[12], 0, 12);
+        }
+    }
+
+    public void testUnicasts() throws Exception {
+        init(true);
+        send(a, b.getAddress());
+        send(b, a.getAddress());
+        check(ra, rb);
+        assert shm(a).getNumShmSent() > 0 && shm(b).getNumShmReceived() > 0;
+        assert shm(a).getNumShmLocalMembers() == 1;
+    }
+
+    /**
+     * Without IP multicasting, multicasts are sent as unicasts to all members, which uses shared memory too. Discovery
+     * uses {@link FILE_PING}, as PING requires IP multicasting
+     */
+    public void testMulticastsWithoutIpMulticasting() throws Exception {
+        init(false);
+        send(a, null);
+        check(ra, rb);
+        assert shm(b).getNumShmReceived() > 0;
+    }
+
+    /** The directory of a member is removed when it disconnects */
+    public void testCleanup() throws Exception {
+        init(true);
+        send(a, b.getAddress());
+        check(rb);
+        File dir_a=shm(a).localDir(), dir_b=shm(b).localDir();
+        assert dir_a.isDirectory() && dir_b.isDirectory();
+        b.disconnect();
+        assert !dir_b.exists();
+        // the ring buffer to B is removed on the view change, or when A notices that B's directory has been removed
+        for(int i=0; i < 20 && (a.getView().size() > 1 || shm(a).getNumShmLocalMembers() > 0); i++)
+            Util.sleep(500);
+        assert a.getView().size() == 1 && shm(a).getNumShmLocalMembers() == 0 : shm(a);
+        a.disconnect();
+        assert !dir_a.exists() && !dir_a.getParentFile().exists();
+    }
+
+    /** The directories of crashed members (which don't hold the lock anymore) are removed when a member starts */
+    public void testStaleDirectoriesAreRemoved() throws Exception {
+        File cluster_dir=new File(new File(dir, "jgroups"), "ShmSideChannelTest");
+        File stale=new File(cluster_dir, UUID.randomUUID().toStringLong()), fresh=new File(cluster_dir, UUID.randomUUID().toStringLong());
+        File lock=new File(stale, ".lock"), ring=new File(fresh, stale.getName());
+        assert stale.mkdirs() && fresh.mkdirs() && lock.createNewFile() && ring.createNewFile();
+        assert lock.setLastModified(System.currentTimeMillis() - 60_000);
+        init(true);
+        assert !stale.exists() : "stale directory should have been removed";
+        assert fresh.isDirectory() && !ring.exists() : "ring buffer created by the stale member should have been removed";
+        File dir_a=shm(a).localDir();
+        assert new File(dir_a, ".lock").exists();
+        shm(b).removeStaleMembers(); // A holds its lock, so its directory must not be removed
+        assert dir_a.isDirectory();
+    }
+
+    protected void init(boolean ip_mcast) throws Exception {
+        a=create("A", ip_mcast);
+        a.setReceiver(ra=new MyReceiver());
+        b=create("B", ip_mcast);
+        b.setReceiver(rb=new MyReceiver());
+        a.connect("ShmSideChannelTest");
+        b.connect("ShmSideChannelTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b);
+    }
+
+    protected static ShmSideChannel shm(JChannel ch) {
+        return ch.getProtocolStack().getTransport().getShmSideChannel();
+    }
+
+    protected static void send(JChannel ch, Address dest) throws Exception {
+        for(int i=1; i <= NUM_MSGS; i++) {
+            byte[] buf=new byte[MSG_SIZE];
+            Bits.writeInt(i, buf, 0);
+            Bits.writeInt(i, buf, MSG_SIZE - Global.INT_SIZE);
+            ch.send(new Message(dest, buf));
+        }
+    }
+
+    protected static void check(MyReceiver ... receivers) {
+        for(int i=0; i < 60; i++) {
+            boolean done=true;
+            for(MyReceiver r: receivers)
+                if(r.total() < NUM_MSGS)
+                    done=false;
+            if(done)
+                break;
+            Util.sleep(500);
+        }
+        for(MyReceiver r: receivers) {
+            assert r.bad() == 0 : String.format("good=%d | bad=%d", r.good(), r.bad());
+            assert r.total() >= NUM_MSGS : String.format("good=%d | bad=%d", r.good(), r.bad());
+        }
+    }
+
+    protected JChannel create(String name, boolean ip_mcast) throws Exception {
+        return new JChannel(new Protocol[] {
+          new UDP().shmEnabled(true).shmDir(dir.getAbsolutePath())
+            .setValue("bind_addr", Util.getLocalhost()).setValue("ip_mcast", ip_mcast)
+            .setValue("ucast_recv_buf_size", 1_000_000).setValue("mcast_recv_buf_size", 1_000_000),
+          ip_mcast? new PING() : new FILE_PING().setValue("location", new File(dir, "ping").getAbsolutePath()),
+          new NAKACK2().setValue("use_mcast_xmit", false),
+          new UNICAST3(),
+          new STABLE(),
+          new GMS().joinTimeout(1000),
+          new FRAG2()
+        }).name(name);
+    }
+
+    protected static void delete(File file) {
+        File[] files=file.listFiles();
+        if(files != null)
+            for(File f: files)
+                delete(f);
+        file.delete();
+    }
+
+
+    protected static class MyReceiver extends ReceiverAdapter {
+        protected final AtomicInteger good=new AtomicInteger(), bad=new AtomicInteger();
+
+        public int good()  {return good.get();}
+        public int bad()   {return bad.get();}
+        public int total() {return good() + bad();}
+
+        public void receive(Message msg) {
+            byte[] buf=msg.getRawBuffer();
+            int offset=msg.getOffset();
+            boolean ok=msg.getLength() == MSG_SIZE
+              && Bits.readInt(buf, offset) == Bits.readInt(buf, offset + MSG_SIZE - Global.INT_SIZE);
+            (ok? good : bad).incrementAndGet();
+        }
+    }
+}
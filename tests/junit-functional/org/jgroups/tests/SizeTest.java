@@ -233,6 +233,9 @@ public class SizeTest {
 
         hdr=new STABLE.StableHeader(STABLE.StableHeader.STABILITY, null);
         _testSize(hdr);
+
+        hdr=new STABLE.StableHeader(STABLE.StableHeader.STABILITY, view.getViewId(), 322649, true);
+        _testSize(hdr);
     }
 
 
@@ -583,6 +586,9 @@ public class SizeTest {
     public static void testCompressHeader() throws Exception {
         COMPRESS.CompressHeader hdr=new COMPRESS.CompressHeader(2002);
         _testSize(hdr);
+
+        hdr=new COMPRESS.CompressHeader(2002, LZCodec.ID, 322649);
+        _testSize(hdr);
     }
 
 
@@ -0,0 +1,142 @@
+package org.jgroups.tests;
+
+import org.jgroups.*;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Tests {@link TREECAST}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class TREECASTTest {
+    protected static final int NUM=7, NUM_MSGS=50, FANOUT=2;
+    protected JChannel[]       channels;
+    protected MyReceiver[]     receivers;
+
+    @AfterMethod protected void destroy() {
+        if(channels != null)
+            for(int i=channels.length-1; i >= 0; i--)
+                Util.close(channels[i]);
+    }
+
+    /** Every member except the root has exactly one parent, regardless of the root */
+    public void testTree() throws Exception {
+        List<Address> mbrs=new ArrayList<>();
+        for(int i=0; i < 10; i++)
+            mbrs.add(Util.createRandomAddress(String.valueOf(i)));
+        View view=new View(mbrs.get(0), 1, mbrs);
+        for(Address root: mbrs) {
+            Map<Address,Integer> parents=new HashMap<>();
+            for(Address mbr: mbrs)
+                for(Address child: MyTreecast.children(view, root, mbr, 3))
+                    parents.merge(child, 1, Integer::sum);
+            assert !parents.containsKey(root);
+            assert parents.size() == mbrs.size() - 1;
+            assert parents.values().stream().allMatch(n -> n == 1) : parents;
+        }
+        assert MyTreecast.children(view, mbrs.get(4), mbrs.get(4), 3).equals(mbrs.subList(5, 8));
+        assert MyTreecast.children(view, mbrs.get(4), mbrs.get(5), 3).equals(Arrays.asList(mbrs.get(8), mbrs.get(9), mbrs.get(0)));
+        assert MyTreecast.children(view, mbrs.get(4), mbrs.get(7), 3).isEmpty();
+        assert MyTreecast.children(view, Util.createRandomAddress("X"), mbrs.get(0), 3) == null;
+    }
+
+    public void testMulticasts() throws Exception {
+        create();
+        send();
+        check();
+        for(JChannel ch: channels) {
+            TREECAST tc=ch.getProtocolStack().findProtocol(TREECAST.class);
+            assert tc.getNumSent() >= NUM_MSGS; // plus view and stability multicasts
+        }
+        long forwarded=Stream.of(channels).map(ch -> (TREECAST)ch.getProtocolStack().findProtocol(TREECAST.class))
+          .mapToLong(TREECAST::getNumForwarded).sum();
+        assert forwarded > 0;
+    }
+
+    /** Members drop some of the multicasts they receive; NAKACK2 retransmits them */
+    public void testRetransmission() throws Exception {
+        create();
+        for(JChannel ch: channels)
+            ((DISCARD)ch.getProtocolStack().findProtocol(DISCARD.class)).setUpDiscardRate(0.1);
+        send();
+        for(JChannel ch: channels)
+            ((DISCARD)ch.getProtocolStack().findProtocol(DISCARD.class)).setUpDiscardRate(0);
+        check();
+    }
+
+
+    protected void create() throws Exception {
+        channels=new JChannel[NUM];
+        receivers=new MyReceiver[NUM];
+        for(int i=0; i < NUM; i++) {
+            channels[i]=new JChannel(new SHARED_LOOPBACK(),
+                                     new DISCARD(),
+                                     new SHARED_LOOPBACK_PING(),
+                                     new TREECAST().fanout(FANOUT),
+                                     new NAKACK2().setValue("use_mcast_xmit", false).setValue("xmit_interval", 200),
+                                     new UNICAST3().setValue("xmit_interval", 200),
+                                     new STABLE(),
+                                     new GMS().joinTimeout(1000).setValue("print_local_addr", false))
+              .name(String.valueOf((char)('A' + i)));
+            channels[i].setReceiver(receivers[i]=new MyReceiver());
+            channels[i].connect("TREECASTTest");
+        }
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, channels);
+    }
+
+    protected void send() throws Exception {
+        for(int i=1; i <= NUM_MSGS; i++)
+            for(JChannel ch: channels)
+                ch.send(null, i);
+    }
+
+    protected void check() {
+        for(int i=0; i < 30; i++) {
+            if(Stream.of(receivers).allMatch(r -> r.total() == NUM * NUM_MSGS))
+                break;
+            Util.sleep(500);
+        }
+        for(int i=0; i < receivers.length; i++) {
+            MyReceiver r=receivers[i];
+            assert r.bad() == 0 : channels[i].getAddress() + ": " + r.bad() + " messages out of order";
+            assert r.total() == NUM * NUM_MSGS : channels[i].getAddress() + ": " + r.total() + " messages received";
+        }
+    }
+
+
+    /** Exposes children() */
+    protected static class MyTreecast extends TREECAST {
+        protected static List<Address> children(View view, Address root, Address mbr, int fanout) {
+            return TREECAST.children(view, root, mbr, fanout);
+        }
+    }
+
+    /** Checks that the messages of every sender are received in order and exactly once */
+    protected static class MyReceiver extends ReceiverAdapter {
+        protected final Map<Address,Integer> last=new ConcurrentHashMap<>();
+        protected final AtomicInteger        total=new AtomicInteger(), bad=new AtomicInteger();
+
+        public int total() {return total.get();}
+        public int bad()   {return bad.get();}
+
+        public void receive(Message msg) {
+            int num=msg.getObject();
+            Integer prev=last.put(msg.getSrc(), num);
+            if(num != (prev == null? 1 : prev + 1))
+                bad.incrementAndGet();
+            total.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link TickService}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.TIME_SENSITIVE,singleThreaded=true)
+public class TickServiceTest {
+    protected TimeScheduler timer;
+    protected TickService   tick_service;
+    protected JChannel      a, b;
+
+    @BeforeMethod protected void setup() {
+        timer=new TimeScheduler3();
+        tick_service=new TickService(timer, 50);
+    }
+
+    @AfterMethod protected void destroy() {
+        Util.close(b,a);
+        tick_service.stop();
+        timer.stop();
+    }
+
+    public void testFixedDelay() {
+        AtomicInteger fast=new AtomicInteger(), slow=new AtomicInteger();
+        tick_service.scheduleWithFixedDelay(fast::incrementAndGet, 0, 100, TimeUnit.MILLISECONDS);
+        tick_service.scheduleWithFixedDelay(slow::incrementAndGet, 200, 200, TimeUnit.MILLISECONDS);
+        Util.sleep(2000);
+        // a callback never runs early, so an interval can be a tick longer (timer jitter): 100-150 and 200-250 ms
+        assert fast.get() >= 13 && fast.get() <= 21 : "expected 13-21 invocations, got " + fast.get();
+        assert slow.get() >= 7 && slow.get() <= 10 : "expected 7-10 invocations, got " + slow.get();
+        // both callbacks were run by the same ticks
+        assert tick_service.numTicks() <= 41 : "ticks: " + tick_service.numTicks();
+        assert tick_service.printCallbacks().contains("invocations=");
+    }
+
+    /** A callback never runs before its interval has elapsed: the interval is rounded up to a multiple of the tick */
+    public void testNotEarly() {
+        List<Long> times=new CopyOnWriteArrayList<>();
+        tick_service.scheduleWithFixedDelay(() -> times.add(System.nanoTime()), 0, 75, TimeUnit.MILLISECONDS);
+        Util.sleep(1500);
+        assert times.size() >= 10 : "invocations: " + times.size();
+        for(int i=1; i < times.size(); i++) {
+            long diff=TimeUnit.MILLISECONDS.convert(times.get(i) - times.get(i-1), TimeUnit.NANOSECONDS);
+            assert diff >= 75 : String.format("invocation %d ran after %d ms", i, diff);
+        }
+    }
+
+    /** A callback which can block is run by the timer's thread pool: it doesn't delay other callbacks */
+    public void testBlockingCallback() {
+        AtomicInteger count=new AtomicInteger(), blocking=new AtomicInteger(), concurrent=new AtomicInteger(),
+          max_concurrent=new AtomicInteger();
+        tick_service.scheduleWithFixedDelay(() -> {
+            max_concurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            blocking.incrementAndGet();
+            Util.sleep(500);
+            concurrent.decrementAndGet();
+        }, 0, 50, TimeUnit.MILLISECONDS, true);
+        tick_service.scheduleWithFixedDelay(count::incrementAndGet, 0, 50, TimeUnit.MILLISECONDS);
+        Util.sleep(1200);
+        assert count.get() >= 10 : "expected 10-24 invocations, got " + count.get();
+        assert blocking.get() >= 2 && blocking.get() <= 3 : "expected 2-3 invocations, got " + blocking.get();
+        assert max_concurrent.get() == 1 : "the blocking callback must not run concurrently with itself";
+        assert tick_service.printCallbacks().contains("(can block)");
+    }
+
+    public void testDynamicInterval() {
+        AtomicInteger count=new AtomicInteger();
+        tick_service.scheduleWithDynamicInterval(new TimeScheduler.Task() {
+            public long nextInterval() {return count.get() < 5? 100 : 0;} // stops after 5 invocations
+            public void run()          {count.incrementAndGet();}
+        });
+        Util.sleep(1500);
+        assert count.get() == 5 : "expected 5 invocations, got " + count.get();
+        assert tick_service.size() == 0 : "the callback should have been removed";
+    }
+
+    public void testCancel() {
+        AtomicInteger count=new AtomicInteger();
+        Future<?> f=tick_service.scheduleWithFixedDelay(count::incrementAndGet, 0, 50, TimeUnit.MILLISECONDS);
+        Util.sleep(500);
+        assert f.cancel(true) && f.isDone();
+        int invocations=count.get();
+        assert invocations > 0;
+        Util.sleep(500);
+        assert count.get() == invocations;
+        assert tick_service.size() == 0;
+    }
+
+    /** A callback throwing an exception doesn't prevent other callbacks from running, and is run again */
+    public void testException() {
+        AtomicInteger count=new AtomicInteger(), failures=new AtomicInteger();
+        tick_service.scheduleWithFixedDelay(() -> {failures.incrementAndGet(); throw new IllegalStateException("booom");},
+                                            0, 50, TimeUnit.MILLISECONDS);
+        tick_service.scheduleWithFixedDelay(count::incrementAndGet, 0, 50, TimeUnit.MILLISECONDS);
+        Util.sleep(500);
+        assert failures.get() > 1 && count.get() > 1;
+    }
+
+    /** The recurring tasks of the protocols are run by the tick service of the transport */
+    public void testProtocols() throws Exception {
+        a=create("A");
+        b=create("B");
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        for(JChannel ch: new JChannel[]{a, b}) {
+            TickService ts=((TP)ch.getProtocolStack().getTransport()).getTickService();
+            // FD_ALL (2), MERGE3, NAKACK2, UNICAST3 and STABLE
+            assert ts.size() == 6 : ts.printCallbacks();
+        }
+        TickService ts=((TP)b.getProtocolStack().getTransport()).getTickService();
+        Util.close(b);
+        assert ts.size() == 0 : "callbacks should have been cancelled: " + ts.printCallbacks();
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        return new JChannel(new SHARED_LOOPBACK().setValue("tick_service_interval", 100L),
+                            new SHARED_LOOPBACK_PING(),
+                            new MERGE3(),
+                            new FD_ALL(),
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().setValue("print_local_addr", false)).name(name).connect("TickServiceTest");
+    }
+}
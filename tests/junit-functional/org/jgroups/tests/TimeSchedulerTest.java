@@ -2,6 +2,7 @@ package org.jgroups.tests;
 
 
 import org.jgroups.Global;
+import org.jgroups.util.HashedTimingWheel;
 import org.jgroups.util.Promise;
 import org.jgroups.util.TimeScheduler;
 import org.jgroups.util.TimeScheduler3;
@@ -33,7 +34,8 @@ public class TimeSchedulerTest {
     @DataProvider(name="createTimer")
     Object[][] createTimer() {
         return new Object[][]{
-          {new TimeScheduler3()}
+          {new TimeScheduler3()},
+          {new HashedTimingWheel()}
         };
     }
 
@@ -0,0 +1,165 @@
+package org.jgroups.tests;
+
+import org.jgroups.*;
+import org.jgroups.protocols.FRAG2;
+import org.jgroups.protocols.PING;
+import org.jgroups.protocols.UDP_NIO;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.BatchCoalescer;
+import org.jgroups.util.Bits;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests sending of unicast and multicast messages via {@link UDP_NIO}
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class UDP_NIOTest {
+    protected static final int NUM_MSGS=2000, MSG_SIZE=1000;
+    protected JChannel         a, b;
+    protected MyReceiver       ra, rb;
+
+    @AfterMethod protected void destroy() {Util.close(b,a);}
+
+    public void testMulticasting() throws Exception {
+        init(1, 0, false);
+        send(a, null);
+        check(ra, rb);
+    }
+
+    public void testUnicasting() throws Exception {
+        init(1, 0, false);
+        send(a, b.getAddress());
+        check(rb);
+    }
+
+    /** Uses 2 selector threads and pooled receive buffers */
+    public void testWithPooledBuffers() throws Exception {
+        init(2, 8, false);
+        send(a, null);
+        send(b, a.getAddress());
+        check(rb);
+        check(NUM_MSGS * 2, ra);
+        assert ra.total() == NUM_MSGS * 2 : String.format("A received %d messages (expected %d)", ra.total(), NUM_MSGS * 2);
+    }
+
+    /** Merges batches received from the same sender before processing them */
+    public void testWithBatchCoalescing() throws Exception {
+        init(1, 8, true);
+        send(a, null);
+        send(b, a.getAddress());
+        check(rb);
+        check(NUM_MSGS * 2, ra);
+        assert ra.total() == NUM_MSGS * 2 : String.format("A received %d messages (expected %d)", ra.total(), NUM_MSGS * 2);
+        BatchCoalescer coalescer=a.getProtocolStack().getTransport().getBatchCoalescer();
+        assert coalescer != null && coalescer.getNumBatchesPassed() > 0 : coalescer;
+    }
+
+    /** With a small send buffer, senders block until there is room again (if the buffer is full) rather than dropping datagrams */
+    public void testFullSendBuffer() throws Exception {
+        init(1, 0, false, 4096);
+        send(a, null);
+        send(a, b.getAddress());
+        check(ra, rb);
+        UDP_NIO udp=a.getProtocolStack().findProtocol(UDP_NIO.class);
+        System.out.printf("blocked sends: %d, dropped sends: %d\n", udp.getNumBlockedSends(), udp.getNumDroppedSends());
+        assert udp.getNumDroppedSends() == 0 : String.format("%d datagrams were dropped", udp.getNumDroppedSends());
+    }
+
+    /** Only the unicast and the multicast channel are registered, so more than 2 selector threads are rejected */
+    public void testInvalidSelectorThreads() throws Exception {
+        try(JChannel ch=create("A", 3, 0, false)) {
+            ch.connect(UDP_NIOTest.class.getSimpleName());
+            assert false : "creating a channel with 3 selector threads should have failed";
+        }
+        catch(IllegalArgumentException expected) {
+        }
+    }
+
+    protected void init(int selector_threads, int pool_size, boolean coalesce) throws Exception {
+        init(selector_threads, pool_size, coalesce, 0);
+    }
+
+    protected void init(int selector_threads, int pool_size, boolean coalesce, int send_buf_size) throws Exception {
+        a=create("A", selector_threads, pool_size, coalesce);
+        a.setReceiver(ra=new MyReceiver());
+        b=create("B", selector_threads, pool_size, coalesce);
+        b.setReceiver(rb=new MyReceiver());
+        if(send_buf_size > 0)
+            for(JChannel ch: new JChannel[]{a, b})
+                ch.getProtocolStack().getTransport().setValue("ucast_send_buf_size", send_buf_size);
+        a.connect("UDP_NIOTest");
+        b.connect("UDP_NIOTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b);
+    }
+
+    protected static void send(JChannel ch, Address dest) throws Exception {
+        for(int i=1; i <= NUM_MSGS; i++) {
+            byte[] buf=new byte[MSG_SIZE];
+            Bits.writeInt(i, buf, 0);
+            Bits.writeInt(i, buf, MSG_SIZE - Global.INT_SIZE);
+            ch.send(new Message(dest, buf));
+        }
+    }
+
+    protected static void check(MyReceiver ... receivers) {
+        check(NUM_MSGS, receivers);
+    }
+
+    protected static void check(int expected, MyReceiver ... receivers) {
+        for(int i=0; i < 60; i++) {
+            boolean done=true;
+            for(MyReceiver r: receivers)
+                if(r.total() < expected)
+                    done=false;
+            if(done)
+                break;
+            Util.sleep(500);
+        }
+        for(MyReceiver r: receivers) {
+            assert r.bad() == 0 : String.format("good=%d | bad=%d", r.good(), r.bad());
+            assert r.total() >= expected : String.format("good=%d | bad=%d", r.good(), r.bad());
+        }
+    }
+
+    protected static JChannel create(String name, int selector_threads, int pool_size, boolean coalesce) throws Exception {
+        return new JChannel(new Protocol[] {
+          new UDP_NIO().selectorThreads(selector_threads)
+            .setValue("bind_addr", Util.getLocalhost())
+            .setValue("ucast_recv_buf_size", 1_000_000).setValue("mcast_recv_buf_size", 1_000_000)
+            .setValue("receive_buffer_pool_size", pool_size).setValue("coalesce_batches", coalesce),
+          new PING(),
+          new NAKACK2().setValue("use_mcast_xmit", false),
+          new UNICAST3(),
+          new STABLE(),
+          new GMS().joinTimeout(1000),
+          new FRAG2()
+        }).name(name);
+    }
+
+
+    protected static class MyReceiver extends ReceiverAdapter {
+        protected final AtomicInteger good=new AtomicInteger(), bad=new AtomicInteger();
+
+        public int good()  {return good.get();}
+        public int bad()   {return bad.get();}
+        public int total() {return good() + bad();}
+
+        public void receive(Message msg) {
+            byte[] buf=msg.getRawBuffer();
+            int offset=msg.getOffset();
+            boolean ok=msg.getLength() == MSG_SIZE
+              && Bits.readInt(buf, offset) == Bits.readInt(buf, offset + MSG_SIZE - Global.INT_SIZE);
+            (ok? good : bad).incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.jgroups.tests;
+
+import org.jgroups.util.ConcurrentTable;
+import org.jgroups.util.Table;
+
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the performance of {@link Table} and {@link ConcurrentTable} under contention, similar to the receiver
+ * side of NAKACK2: a number of adder threads add single elements (with disjoint seqnos) to the table, a remover
+ * thread removes them in order (like the thread delivering messages) and reader threads concurrently read recently
+ * added elements (like retransmission requests). Measures the throughput of adds and reads.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class TablePerf {
+    protected final int num_adders, num_readers, num_elements;
+
+    public TablePerf(int num_adders, int num_readers, int num_elements) {
+        this.num_adders=num_adders;
+        this.num_readers=num_readers;
+        this.num_elements=num_elements;
+    }
+
+    protected void start() throws Exception {
+        for(int i=0; i < 3; i++) { // the first round warms up the JIT
+            run(new Table<>(100, 1024, 0));
+            run(new ConcurrentTable<>(100, 1024, 0));
+            System.out.println();
+        }
+    }
+
+    protected void run(Table<Integer> table) throws Exception {
+        LongAdder reads=new LongAdder();
+        CyclicBarrier barrier=new CyclicBarrier(num_adders + num_readers + 2);
+        Thread[] adders=new Thread[num_adders], readers=new Thread[num_readers];
+        for(int i=0; i < adders.length; i++) {
+            final int first=i+1;
+            adders[i]=new Thread(() -> {
+                await(barrier);
+                for(int seqno=first; seqno <= num_elements; seqno+=num_adders)
+                    table.add(seqno, seqno);
+            });
+        }
+        for(int i=0; i < readers.length; i++) {
+            readers[i]=new Thread(() -> {
+                ThreadLocalRandom rand=ThreadLocalRandom.current();
+                await(barrier);
+                while(table.getHighestDelivered() < num_elements) {
+                    long hr=table.getHighestReceived();
+                    table.get(Math.max(1, hr - rand.nextInt(1000)));
+                    reads.increment();
+                }
+            });
+        }
+        Thread remover=new Thread(() -> {
+            await(barrier);
+            for(long removed=0; removed < num_elements;) {
+                List<Integer> list=table.removeMany(true, 1000);
+                if(list != null)
+                    removed+=list.size();
+                else
+                    Thread.yield();
+            }
+        });
+        for(Thread t: adders)
+            t.start();
+        for(Thread t: readers)
+            t.start();
+        remover.start();
+        barrier.await();
+        long start=System.nanoTime();
+        for(Thread t: adders)
+            t.join();
+        long add_time=System.nanoTime() - start;
+        remover.join();
+        long total_time=System.nanoTime() - start;
+        for(Thread t: readers)
+            t.join();
+        System.out.printf("%-16s: adds: %,12.0f ops/s, reads: %,12.0f ops/s, total time: %,d ms\n",
+                          table.getClass().getSimpleName(), num_elements / (add_time / 1_000_000_000.0),
+                          reads.sum() / (total_time / 1_000_000_000.0), total_time / 1_000_000);
+    }
+
+    protected static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        }
+        catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int num_adders=8, num_readers=2, num_elements=5_000_000;
+        for(int i=0; i < args.length; i++) {
+            if(args[i].equals("-adders")) {
+                num_adders=Integer.parseInt(args[++i]);
+                continue;
+            }
+            if(args[i].equals("-readers")) {
+                num_readers=Integer.parseInt(args[++i]);
+                continue;
+            }
+            if(args[i].equals("-num")) {
+                num_elements=Integer.parseInt(args[++i]);
+                continue;
+            }
+            System.out.println("TablePerf [-adders <threads>] [-readers <threads>] [-num <elements>]");
+            return;
+        }
+        new TablePerf(num_adders, num_readers, num_elements).start();
+    }
+}
@@ -0,0 +1,112 @@
+package org.jgroups.tests;
+
+import org.jgroups.util.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the performance of {@link TimeScheduler3} and {@link HashedTimingWheel}: a number of threads schedule
+ * one-shot tasks (e.g. request timeouts or retransmission tasks) with random delays and cancel most of them before
+ * they expire (e.g. when a response or ack is received). Measures the throughput of schedule() and cancel() and
+ * how late the remaining tasks are executed.
+ * @author Bela Ban
+ * @since  4.0.12
+ */
+public class TimeSchedulerPerf {
+    protected final int    num_threads, num_tasks; // num_tasks per thread
+    protected final long   max_delay;              // ms
+    protected final double cancel_ratio;
+
+    public TimeSchedulerPerf(int num_threads, int num_tasks, long max_delay, double cancel_ratio) {
+        this.num_threads=num_threads;
+        this.num_tasks=num_tasks;
+        this.max_delay=max_delay;
+        this.cancel_ratio=cancel_ratio;
+    }
+
+    protected void start() throws Exception {
+        for(int i=0; i < 3; i++) { // the first round warms up the JIT
+            run(new TimeScheduler3(new DirectExecutor(), null));
+            run(new HashedTimingWheel(new DirectExecutor(), null, 256, 10));
+            System.out.println();
+        }
+    }
+
+    protected void run(TimeScheduler timer) throws Exception {
+        LongAdder executed=new LongAdder(), lateness=new LongAdder(); // lateness in ns
+        CyclicBarrier barrier=new CyclicBarrier(num_threads+1);
+        List<Future<Long>> results=new ArrayList<>(num_threads);
+        ExecutorService pool=Executors.newFixedThreadPool(num_threads);
+        for(int i=0; i < num_threads; i++) {
+            results.add(pool.submit(() -> {
+                Future<?>[] futures=new Future<?>[num_tasks];
+                ThreadLocalRandom rand=ThreadLocalRandom.current();
+                barrier.await();
+                for(int j=0; j < num_tasks; j++) {
+                    long delay=1 + rand.nextLong(max_delay), deadline=System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                    futures[j]=timer.schedule(() -> {
+                        executed.increment();
+                        lateness.add(System.nanoTime() - deadline);
+                    }, delay, TimeUnit.MILLISECONDS, false);
+                }
+                long scheduled=System.nanoTime();
+                for(int j=0; j < num_tasks; j++)
+                    if(rand.nextDouble() < cancel_ratio)
+                        futures[j].cancel(false);
+                return System.nanoTime() - scheduled; // time to cancel
+            }));
+        }
+        barrier.await();
+        long start=System.nanoTime();
+        long cancel_time=0;
+        for(Future<Long> f: results)
+            cancel_time=Math.max(cancel_time, f.get());
+        long total_time=System.nanoTime() - start, schedule_time=total_time - cancel_time;
+        pool.shutdown();
+
+        int total=num_threads * num_tasks;
+        long expected=(long)(total * (1 - cancel_ratio));
+        for(long deadline=System.currentTimeMillis() + max_delay + 5000;
+            executed.sum() < expected * 0.95 && System.currentTimeMillis() < deadline;)
+            Util.sleep(100);
+        Util.sleep(500);
+        long num_executed=executed.sum();
+        System.out.printf("%-45s: schedule: %,10.0f ops/s, cancel: %,12.0f ops/s, executed: %,d, avg lateness: %.2f ms\n",
+                          timer, total / (schedule_time / 1_000_000_000.0),
+                          total * cancel_ratio / (cancel_time / 1_000_000_000.0), num_executed,
+                          num_executed == 0? 0 : lateness.sum() / (double)num_executed / 1_000_000);
+        timer.stop();
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        int num_threads=8, num_tasks=200_000;
+        long max_delay=2000;
+        double cancel_ratio=0.9;
+        for(int i=0; i < args.length; i++) {
+            if(args[i].equals("-threads")) {
+                num_threads=Integer.parseInt(args[++i]);
+                continue;
+            }
+            if(args[i].equals("-tasks")) {
+                num_tasks=Integer.parseInt(args[++i]);
+                continue;
+            }
+            if(args[i].equals("-max_delay")) {
+                max_delay=Long.parseLong(args[++i]);
+                continue;
+            }
+            if(args[i].equals("-cancel_ratio")) {
+                cancel_ratio=Double.parseDouble(args[++i]);
+                continue;
+            }
+            System.out.println("TimeSchedulerPerf [-threads <num>] [-tasks <num per thread>] [-max_delay <ms>] " +
+                                 "[-cancel_ratio <0-1>]");
+            return;
+        }
+        new TimeSchedulerPerf(num_threads, num_tasks, max_delay, cancel_ratio).start();
+    }
+}